@@ -0,0 +1,130 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.daporkchop.lib.natives.PNatives;
+import net.daporkchop.lib.natives.zlib.PDeflater;
+import net.daporkchop.mapdl.server.analytics.BlockCountAnalysis;
+import net.daporkchop.mapdl.server.analytics.CoverageAnalysis;
+import net.daporkchop.mapdl.server.analytics.RegionScanner;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.storage.ChunkStorage;
+import net.daporkchop.mapdl.server.world.storage.StorageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the throughput of {@link RegionScanner}, in regions per second.
+ * <p>
+ * {@code coverage} only reads the chunks, so it shows the cost of the IO and the scanner itself. {@code blockCounts} also decompresses and walks
+ * every chunk, which is what most real analyses will have to do.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyticsBenchmark {
+    //the world is a square of REGIONS_SIDE * REGIONS_SIDE completely filled regions
+    protected static final int REGIONS_SIDE = 4;
+    protected static final int REGIONS      = REGIONS_SIDE * REGIONS_SIDE;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    protected File          dir;
+    protected RegionScanner scanner;
+
+    @Setup
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("mapdl-bench").toFile();
+
+        ByteBuf[] payloads = new ByteBuf[16];
+        ByteBuf nbt = Unpooled.directBuffer();
+        try (PDeflater deflater = PNatives.ZLIB.get().deflater(6)) {
+            for (int i = 0; i < payloads.length; i++) {
+                ChunkFixtures.encode(new SyntheticChunk(i, i, i * 31L), nbt.clear());
+                ChunkFixtures.compress(nbt, deflater, payloads[i] = Unpooled.directBuffer());
+            }
+        } finally {
+            nbt.release();
+        }
+
+        try (ChunkStorage storage = StorageType.ANVIL.open(this.dir, new ServerConfig())) {
+            long time = System.currentTimeMillis();
+            for (int x = 0; x < REGIONS_SIDE << 5; x++) {
+                for (int z = 0; z < REGIONS_SIDE << 5; z++) {
+                    storage.write(x, z, payloads[(x ^ z) & 0xF].retainedDuplicate(), time);
+                }
+            }
+        } finally {
+            for (ByteBuf payload : payloads) {
+                payload.release();
+            }
+        }
+
+        this.scanner = new RegionScanner(this.threads);
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        this.scanner.close();
+
+        try (Stream<Path> stream = Files.walk(this.dir.toPath())) {
+            stream.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGIONS)
+    public CoverageAnalysis.Result coverage() throws IOException {
+        return this.scanner.scan(new File(this.dir, "region"), new CoverageAnalysis());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REGIONS)
+    public long[] blockCounts() throws IOException {
+        return this.scanner.scan(new File(this.dir, "region"), new BlockCountAnalysis());
+    }
+}
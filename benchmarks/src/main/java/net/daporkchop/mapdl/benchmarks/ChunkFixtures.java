@@ -0,0 +1,130 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.lib.natives.zlib.PDeflater;
+import net.daporkchop.lib.nbt.streaming.encode.StreamingCompoundTagEncoder;
+import net.daporkchop.lib.nbt.streaming.encode.StreamingListTagEncoder;
+import net.daporkchop.lib.nbt.tag.notch.CompoundTag;
+
+/**
+ * Helpers for turning {@link SyntheticChunk}s into the same byte formats that the client produces.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class ChunkFixtures {
+    private final byte[] EMPTY_NIBBLES = new byte[2048];
+
+    /**
+     * Encodes a chunk to NBT, using the same tag layout and the same streaming encoder as {@code ChunkToNBT}.
+     *
+     * @param chunk the chunk to encode
+     * @param dst   the buffer to write the encoded NBT to
+     */
+    public void encode(@NonNull SyntheticChunk chunk, @NonNull ByteBuf dst) {
+        try (StreamingCompoundTagEncoder rootTag = new StreamingCompoundTagEncoder(dst);
+             StreamingCompoundTagEncoder levelTag = rootTag.pushCompound("Level")) {
+            levelTag.appendInt("xPos", chunk.x());
+            levelTag.appendInt("zPos", chunk.z());
+            levelTag.appendLong("LastUpdate", 0L);
+            levelTag.appendIntArray("HeightMap", chunk.heightMap());
+            levelTag.appendBoolean("TerrainPopulated", true);
+            levelTag.appendBoolean("LightPopulated", true);
+            levelTag.appendLong("InhabitedTime", 0L);
+
+            try (StreamingListTagEncoder chunkList = levelTag.pushList("Sections", CompoundTag.class)) {
+                for (int y = 0; y < 16; y++) {
+                    if (chunk.blocks()[y] == null) {
+                        continue;
+                    }
+                    try (StreamingCompoundTagEncoder sectionTag = chunkList.pushCompound()) {
+                        sectionTag.appendByte("Y", (byte) y);
+                        sectionTag.appendByteArray("Blocks", chunk.blocks()[y]);
+                        sectionTag.appendByteArray("Data", chunk.data()[y]);
+                        sectionTag.appendByteArray("BlockLight", chunk.blockLight()[y]);
+                        sectionTag.appendByteArray("SkyLight", chunk.skyLight()[y] == null ? EMPTY_NIBBLES : chunk.skyLight()[y]);
+                    }
+                }
+            }
+
+            levelTag.appendByteArray("Biomes", chunk.biomes());
+
+            try (StreamingListTagEncoder entityList = levelTag.pushList("Entities", CompoundTag.class)) {
+                //nothing!
+            }
+
+            try (StreamingListTagEncoder tileEntityList = levelTag.pushList("TileEntities", CompoundTag.class)) {
+                for (int i = 0; i < chunk.signPositions().length; i++) {
+                    try (StreamingCompoundTagEncoder tileEntityTag = tileEntityList.pushCompound()) {
+                        tileEntityTag.appendString("id", "minecraft:sign");
+                        tileEntityTag.appendInt("x", chunk.signPositions()[i][0]);
+                        tileEntityTag.appendInt("y", chunk.signPositions()[i][1]);
+                        tileEntityTag.appendInt("z", chunk.signPositions()[i][2]);
+                        for (int line = 0; line < 4; line++) {
+                            tileEntityTag.appendString("Text" + (line + 1), chunk.signTexts()[i][line]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses encoded chunk NBT into the raw format accepted by {@code World#putChunk}: a 4-byte length prefix, followed by the compression
+     * version and the compressed data.
+     *
+     * @param nbt      the encoded NBT. Will not be modified
+     * @param deflater the {@link PDeflater} to use
+     * @param dst      the buffer to write the compressed chunk to
+     */
+    public void compress(@NonNull ByteBuf nbt, @NonNull PDeflater deflater, @NonNull ByteBuf dst) {
+        int start = dst.writerIndex();
+        dst.writeInt(-1) //length (placeholder)
+                .writeByte(2); //version: zlib
+
+        deflater.deflate(nbt.duplicate(), dst);
+        deflater.reset();
+
+        dst.setInt(start, dst.writerIndex() - start - 4);
+    }
+
+    /**
+     * Writes a complete chunk record in the format used by the body of {@code /api/submit}, exactly as {@code CompressWorkerThread} does.
+     *
+     * @param dimension the dimension ID
+     * @param time      the time at which the chunk was saved
+     * @param x         the X coordinate of the chunk
+     * @param z         the Z coordinate of the chunk
+     * @param nbt       the encoded NBT. Will not be modified
+     * @param deflater  the {@link PDeflater} to use
+     * @param dst       the buffer to write the record to
+     */
+    public void record(int dimension, long time, int x, int z, @NonNull ByteBuf nbt, @NonNull PDeflater deflater, @NonNull ByteBuf dst) {
+        dst.writeByte(dimension)
+                .writeLong(time)
+                .writeInt(x)
+                .writeInt(z);
+        compress(nbt, deflater, dst);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.daporkchop.lib.natives.PNatives;
+import net.daporkchop.lib.natives.zlib.PDeflater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.mapdl.common.SharedConstants.*;
+
+/**
+ * Measures the cost of {@code CompressWorkerThread#processChunk} at different zlib compression levels.
+ * <p>
+ * The secondary metric of interest (compressed size) is printed once per trial, since JMH can't report it directly.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressBenchmark {
+    @Param({ "1", "6", "9" })
+    public int level;
+
+    protected ByteBuf   nbt;
+    protected ByteBuf   buf;
+    protected PDeflater deflater;
+
+    @Setup
+    public void setup() {
+        this.nbt = Unpooled.directBuffer();
+        ChunkFixtures.encode(new SyntheticChunk(0, 0, 0L), this.nbt);
+
+        this.buf = Unpooled.directBuffer(MAX_REQUEST_SIZE, MAX_REQUEST_SIZE);
+        this.deflater = PNatives.ZLIB.get().deflater(this.level);
+
+        System.out.printf("\nlevel %d: %d bytes -> %d bytes\n", this.level, this.nbt.readableBytes(), this.processChunk());
+    }
+
+    @TearDown
+    public void teardown() {
+        this.deflater.close();
+        this.buf.release();
+        this.nbt.release();
+    }
+
+    @Benchmark
+    public int processChunk() {
+        this.buf.clear();
+        ChunkFixtures.record(0, 0L, 0, 0, this.nbt, this.deflater, this.buf);
+
+        int written = this.buf.writerIndex();
+        ByteBuf record = Unpooled.directBuffer(written, written).writeBytes(this.buf);
+        record.release();
+        return written;
+    }
+}
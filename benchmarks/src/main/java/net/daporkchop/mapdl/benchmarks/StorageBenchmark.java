@@ -0,0 +1,169 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.daporkchop.lib.natives.PNatives;
+import net.daporkchop.lib.natives.zlib.PDeflater;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.storage.ChunkStorage;
+import net.daporkchop.mapdl.server.world.storage.StorageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Compares the {@link ChunkStorage} implementations directly, without any of the caching done by
+ * {@link net.daporkchop.mapdl.server.world.World}.
+ * <p>
+ * The overwrite benchmarks keep rewriting a small area, which is the worst case for region files. When the trial ends, the number of files and
+ * the total size on disk are printed next to the number of bytes that were written, which gives a rough idea of the space amplification of each
+ * storage type.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+    @Param({ "ANVIL", "LEVELDB" })
+    public StorageType type;
+
+    @Param({ "32" })
+    public int radius;
+
+    protected File         dir;
+    protected ChunkStorage storage;
+    protected ByteBuf[]    payloads;
+
+    protected final AtomicLong time    = new AtomicLong(System.currentTimeMillis());
+    protected final LongAdder  written = new LongAdder();
+
+    @Setup
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("mapdl-bench").toFile();
+        this.storage = this.type.open(this.dir, new ServerConfig());
+
+        //payloads of varying size, so that overwriting a chunk in a region file doesn't always fit into the old sectors
+        this.payloads = new ByteBuf[16];
+        ByteBuf nbt = Unpooled.directBuffer();
+        try (PDeflater deflater = PNatives.ZLIB.get().deflater(9)) {
+            for (int i = 0; i < this.payloads.length; i++) {
+                ChunkFixtures.encode(new SyntheticChunk(i, i, i * 31L), nbt.clear());
+                ChunkFixtures.compress(nbt, deflater, this.payloads[i] = Unpooled.directBuffer());
+            }
+        } finally {
+            nbt.release();
+        }
+
+        for (int x = -this.radius; x < this.radius; x++) {
+            for (int z = -this.radius; z < this.radius; z++) {
+                this.write(x, z);
+            }
+        }
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        this.storage.close();
+        for (ByteBuf payload : this.payloads) {
+            payload.release();
+        }
+
+        long[] files = new long[1];
+        long[] size = new long[1];
+        try (Stream<Path> stream = Files.walk(this.dir.toPath())) {
+            stream.map(Path::toFile).filter(File::isFile).forEach(file -> {
+                files[0]++;
+                size[0] += file.length();
+            });
+        }
+        System.out.printf("\n%s: %d files, %.2f MiB on disk, %.2f MiB written\n",
+                this.type, files[0], size[0] / (1024.0d * 1024.0d), this.written.sum() / (1024.0d * 1024.0d));
+
+        try (Stream<Path> stream = Files.walk(this.dir.toPath())) {
+            stream.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    protected boolean write(int x, int z) throws IOException {
+        ByteBuf payload = this.payloads[ThreadLocalRandom.current().nextInt(this.payloads.length)];
+        this.written.add(payload.readableBytes());
+        return this.storage.write(x, z, payload.retainedDuplicate(), this.time.incrementAndGet());
+    }
+
+    protected int read(int x, int z) throws IOException {
+        ByteBuf buf = this.storage.read(x, z);
+        if (buf == null) {
+            return -1;
+        }
+        try {
+            return buf.readableBytes();
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean overwriteSingle() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return this.write(random.nextInt(-this.radius, this.radius), random.nextInt(-this.radius, this.radius));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean overwriteMulti() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return this.write(random.nextInt(-this.radius, this.radius), random.nextInt(-this.radius, this.radius));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int readMulti() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return this.read(random.nextInt(-this.radius, this.radius), random.nextInt(-this.radius, this.radius));
+    }
+}
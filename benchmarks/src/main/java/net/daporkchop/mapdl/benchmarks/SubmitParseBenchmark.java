@@ -0,0 +1,112 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.daporkchop.lib.natives.PNatives;
+import net.daporkchop.lib.natives.zlib.PDeflater;
+import net.daporkchop.mapdl.common.ChunkBatchCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.daporkchop.mapdl.common.SharedConstants.*;
+
+/**
+ * Measures how quickly the body of an {@code /api/submit} request can be split into individual chunk records, in each of the batch formats
+ * supported by {@link ChunkBatchCodec}.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmitParseBenchmark {
+    @Param({ "16", "256" })
+    public int records;
+
+    @Param({ "legacy", "compact" })
+    public String format;
+
+    protected ByteBuf body;
+
+    @Setup
+    public void setup() throws Exception {
+        this.body = Unpooled.directBuffer(MAX_REQUEST_SIZE, MAX_REQUEST_SIZE);
+
+        ByteBuf nbt = Unpooled.directBuffer();
+        try (PDeflater deflater = PNatives.ZLIB.get().deflater(6)) {
+            for (int i = 0; i < this.records; i++) {
+                ChunkFixtures.encode(new SyntheticChunk(i, i, 0L), nbt.clear());
+                ChunkFixtures.record(0, System.currentTimeMillis(), i, i, nbt, deflater, this.body);
+            }
+        } finally {
+            nbt.release();
+        }
+
+        if ("compact".equals(this.format)) {
+            //split the legacy batch back into individual records, the same way the client queues them
+            List<ByteBuf> split = new ArrayList<>(this.records);
+            ChunkBatchCodec.decode(this.body.duplicate(), (i, dimension, x, z, time, data) -> {
+                ByteBuf record = Unpooled.buffer();
+                ChunkBatchCodec.writeRecord(record, dimension, time, x, z, data);
+                split.add(record);
+                data.release();
+            }, i -> {});
+
+            ByteBuf compact = Unpooled.directBuffer(MAX_REQUEST_SIZE, MAX_REQUEST_SIZE);
+            ChunkBatchCodec.encodeCompact(split, compact);
+            split.forEach(ByteBuf::release);
+            this.body.release();
+            this.body = compact;
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        this.body.release();
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) throws Exception {
+        ChunkBatchCodec.decode(this.body.duplicate(), (i, dimension, x, z, time, data) -> {
+            bh.consume(data.getInt(0));
+            data.release();
+        }, bh::consume);
+    }
+}
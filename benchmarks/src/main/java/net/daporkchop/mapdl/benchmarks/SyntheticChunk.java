@@ -0,0 +1,115 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.benchmarks;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A fake chunk with vaguely realistic terrain, used so that benchmarks don't need a running Minecraft instance.
+ * <p>
+ * Block data is laid out exactly like in an Anvil chunk section (YZX order, nibble arrays for metadata and light).
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+@Accessors(fluent = true)
+public final class SyntheticChunk {
+    public static final int SEA_LEVEL = 62;
+
+    protected final int x;
+    protected final int z;
+
+    protected final byte[][] blocks     = new byte[16][];
+    protected final byte[][] data       = new byte[16][];
+    protected final byte[][] blockLight = new byte[16][];
+    protected final byte[][] skyLight   = new byte[16][];
+
+    protected final int[]  heightMap = new int[256];
+    protected final byte[] biomes    = new byte[256];
+
+    //x, y, z and four lines of text for each sign
+    protected final int[][]    signPositions;
+    protected final String[][] signTexts;
+
+    public SyntheticChunk(int x, int z, long seed) {
+        this.x = x;
+        this.z = z;
+
+        SplittableRandom random = new SplittableRandom(seed ^ (x * 341873128712L + z * 132897987541L));
+
+        for (int dx = 0; dx < 16; dx++) {
+            for (int dz = 0; dz < 16; dz++) {
+                int height = height((x << 4) + dx, (z << 4) + dz);
+                this.heightMap[(dz << 4) | dx] = Math.max(height, SEA_LEVEL) + 1;
+                this.biomes[(dz << 4) | dx] = (byte) (height < SEA_LEVEL ? 0 : 1); //ocean or plains
+
+                for (int y = 0, top = Math.max(height, SEA_LEVEL); y <= top; y++) {
+                    int id;
+                    if (y == 0) {
+                        id = 7; //bedrock
+                    } else if (y > height) {
+                        id = 9; //water
+                    } else if (y == height) {
+                        id = height < SEA_LEVEL ? 12 : 2; //sand or grass
+                    } else if (y > height - 4) {
+                        id = 3; //dirt
+                    } else {
+                        id = random.nextInt(64) == 0 ? 16 : 1; //coal ore or stone
+                    }
+                    this.setBlock(dx, y, dz, id);
+                }
+            }
+        }
+
+        int signCount = random.nextInt(4) == 0 ? random.nextInt(8) + 1 : 0;
+        this.signPositions = new int[signCount][];
+        this.signTexts = new String[signCount][];
+        for (int i = 0; i < signCount; i++) {
+            int dx = random.nextInt(16);
+            int dz = random.nextInt(16);
+            this.signPositions[i] = new int[]{ (x << 4) + dx, this.heightMap[(dz << 4) | dx], (z << 4) + dz };
+            this.signTexts[i] = new String[]{
+                    "{\"text\":\"sign #" + i + "\"}",
+                    "{\"text\":\"at " + x + ',' + z + "\"}",
+                    "{\"text\":\"\"}",
+                    "{\"text\":\"\"}"
+            };
+        }
+    }
+
+    protected static int height(int blockX, int blockZ) {
+        return 64 + (int) (Math.sin(blockX * 0.05d) * 6.0d + Math.cos(blockZ * 0.037d) * 5.0d + Math.sin((blockX + blockZ) * 0.011d) * 3.0d);
+    }
+
+    protected void setBlock(int x, int y, int z, int id) {
+        int section = y >> 4;
+        if (this.blocks[section] == null) {
+            this.blocks[section] = new byte[4096];
+            this.data[section] = new byte[2048];
+            this.blockLight[section] = new byte[2048];
+            Arrays.fill(this.skyLight[section] = new byte[2048], (byte) 0xFF);
+        }
+        this.blocks[section][((y & 0xF) << 8) | (z << 4) | x] = (byte) id;
+    }
+}
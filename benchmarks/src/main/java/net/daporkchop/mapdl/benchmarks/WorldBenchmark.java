@@ -0,0 +1,155 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.daporkchop.lib.natives.PNatives;
+import net.daporkchop.lib.natives.zlib.PDeflater;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Measures {@link World#putChunk(int, int, ByteBuf, long)} and {@link World#getChunk(int, int)} with one and with multiple threads.
+ * <p>
+ * Chunks are spread over four regions around the origin, which is roughly what happens around spawn.
+ *
+ * @author DaPorkchop_
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorldBenchmark {
+    @Param({ "32" })
+    public int radius;
+
+    protected File      dir;
+    protected World     world;
+    protected ByteBuf[] payloads;
+
+    //every write gets a newer timestamp than the last one, so that none of them are rejected for being outdated
+    protected final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+
+    @Setup
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("mapdl-bench").toFile();
+        this.world = new World(this.dir, 0, new ServerConfig());
+
+        this.payloads = new ByteBuf[16];
+        ByteBuf nbt = Unpooled.directBuffer();
+        try (PDeflater deflater = PNatives.ZLIB.get().deflater(9)) {
+            for (int i = 0; i < this.payloads.length; i++) {
+                ChunkFixtures.encode(new SyntheticChunk(i, i, 0L), nbt.clear());
+                ChunkFixtures.compress(nbt, deflater, this.payloads[i] = Unpooled.directBuffer());
+            }
+        } finally {
+            nbt.release();
+        }
+
+        for (int x = -this.radius; x < this.radius; x++) {
+            for (int z = -this.radius; z < this.radius; z++) {
+                this.put(x, z);
+            }
+        }
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        this.world.close();
+        for (ByteBuf payload : this.payloads) {
+            payload.release();
+        }
+
+        try (Stream<Path> stream = Files.walk(this.dir.toPath())) {
+            stream.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    protected boolean put(int x, int z) throws IOException {
+        ByteBuf payload = this.payloads[ThreadLocalRandom.current().nextInt(this.payloads.length)];
+        return this.world.putChunk(x, z, payload.retainedDuplicate(), this.time.addAndGet(1000L));
+    }
+
+    protected int get(int x, int z) throws IOException {
+        ByteBuf buf = this.world.getChunk(x, z);
+        if (buf == null) {
+            return -1;
+        }
+        try {
+            return buf.readableBytes();
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean putChunkSingle() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return this.put(random.nextInt(-this.radius, this.radius), random.nextInt(-this.radius, this.radius));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean putChunkMulti() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return this.put(random.nextInt(-this.radius, this.radius), random.nextInt(-this.radius, this.radius));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int getChunkSingle() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return this.get(random.nextInt(-this.radius, this.radius), random.nextInt(-this.radius, this.radius));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int getChunkMulti() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return this.get(random.nextInt(-this.radius, this.radius), random.nextInt(-this.radius, this.radius));
+    }
+}
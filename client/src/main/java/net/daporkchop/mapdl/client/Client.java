@@ -31,9 +31,14 @@ import net.daporkchop.lib.http.impl.java.JavaHttpClientBuilder;
 import net.daporkchop.lib.unsafe.PUnsafe;
 import net.daporkchop.lib.unsafe.UnsafeStaticField;
 import net.daporkchop.mapdl.client.event.GlobalHandler;
+import net.daporkchop.mapdl.client.event.StatsOverlayHandler;
+import net.daporkchop.mapdl.client.stats.StatsWriterThread;
+import net.daporkchop.mapdl.client.util.ChannelWorkerThread;
+import net.daporkchop.mapdl.client.util.CoalescingChunkQueue;
 import net.daporkchop.mapdl.client.util.CompressWorkerThread;
 import net.daporkchop.mapdl.client.util.FreshChunk;
 import net.daporkchop.mapdl.client.util.HttpWorkerThread;
+import net.daporkchop.mapdl.client.util.UploadHistory;
 import net.minecraft.client.Minecraft;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.Mod;
@@ -41,7 +46,6 @@ import net.minecraftforge.fml.common.event.FMLConstructionEvent;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPostInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
-import sun.nio.ch.DirectBuffer;
 
 import java.io.File;
 import java.io.IOException;
@@ -53,6 +57,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -72,12 +77,21 @@ public class Client {
 
     public static CompressWorkerThread[] COMPRESS_WORKERS;
     public static CountDownLatch         COMPRESS_SHUTDOWN;
-    public static volatile BlockingQueue<FreshChunk> COMPRESS_QUEUE = new LinkedBlockingQueue<>();
+    public static volatile BlockingQueue<FreshChunk> COMPRESS_QUEUE = new CoalescingChunkQueue();
 
     public static HttpWorkerThread[] HTTP_WORKERS;
     public static CountDownLatch     HTTP_SHUTDOWN;
     public static volatile BlockingQueue<ByteBuf> HTTP_QUEUE = new LinkedBlockingQueue<>();
 
+    //null if disabled. counted in HTTP_SHUTDOWN, since it works off the same queue
+    public static ChannelWorkerThread CHANNEL_WORKER;
+
+    //null if disabled
+    public static UploadHistory UPLOAD_HISTORY;
+
+    //the threads saving chunks that were loaded when the player disconnected. a new one is started on every disconnect, so there may be several
+    public static final Queue<Thread> FLUSH_THREADS = new ConcurrentLinkedQueue<>();
+
     @Mod.Instance(MOD_ID)
     public static Client INSTANCE;
 
@@ -106,7 +120,25 @@ public class Client {
 
         this.loadPersistedChunks();
 
+        if (Conf.UPLOAD_HISTORY) {
+            try {
+                UPLOAD_HISTORY = new UploadHistory(new File(this.baseDir, "uploadHistory"));
+            } catch (IOException e) {
+                System.err.println("Unable to open upload history, all chunks will be sent!");
+                e.printStackTrace();
+            }
+        }
+
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            //make sure all chunks from every disconnect have been queued
+            for (Thread flushThread : FLUSH_THREADS) {
+                try {
+                    flushThread.join();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
             //cancel queue and wait for compression workers to finish up and die
             try {
                 BlockingQueue<FreshChunk> compressQueue = COMPRESS_QUEUE;
@@ -138,12 +170,20 @@ public class Client {
                 for (HttpWorkerThread worker : HTTP_WORKERS) {
                     worker.requestShutdown();
                 }
+                if (CHANNEL_WORKER != null) {
+                    CHANNEL_WORKER.requestShutdown();
+                }
                 HTTP_SHUTDOWN.await();
 
                 this.saveQueuedChunks(httpQueue);
             } catch (InterruptedException e)    {
                 throw new RuntimeException(e);
             }
+
+            //all acknowledgements have been received, so the history can be safely written out
+            if (UPLOAD_HISTORY != null) {
+                UPLOAD_HISTORY.close();
+            }
         }, "2b2tMapDownloader chunk persistence thread"));
 
         COMPRESS_WORKERS = new CompressWorkerThread[Conf.COMPRESS_THREADS];
@@ -156,9 +196,15 @@ public class Client {
         for (int i = 0; i < Conf.HTTP_THREADS; i++) {
             (HTTP_WORKERS[i] = new HttpWorkerThread(i)).start();
         }
-        HTTP_SHUTDOWN = new CountDownLatch(Conf.HTTP_THREADS);
+        if (Conf.CHANNEL_PORT != 0) {
+            (CHANNEL_WORKER = new ChannelWorkerThread()).start();
+        }
+        HTTP_SHUTDOWN = new CountDownLatch(Conf.HTTP_THREADS + (CHANNEL_WORKER != null ? 1 : 0));
 
         MinecraftForge.EVENT_BUS.register(new GlobalHandler());
+        MinecraftForge.EVENT_BUS.register(new StatsOverlayHandler());
+
+        new StatsWriterThread(this.baseDir).start();
     }
 
     protected void loadPersistedChunks()    {
@@ -79,6 +79,15 @@ public final class Conf {
     @Config.Name("HTTP Threads")
     public static int HTTP_THREADS = 4;
 
+    @Config.Comment({
+            "The port of the mapdl server's upload channel, which is used instead of HTTP requests to send chunks if possible.",
+            "The host is the same as in the server URL. Set to 0 to always use HTTP."
+    })
+    @Config.RangeInt(min = 0, max = 65535)
+    @Config.RequiresMcRestart
+    @Config.Name("Upload channel port")
+    public static int CHANNEL_PORT = 8081;
+
     @Config.Comment({
             "Server addresses that will be considered to be '2b2t' when joining.",
             "Chunks will only be sent to the server when you are connected to a server with this address."
@@ -86,6 +95,42 @@ public final class Conf {
     @Config.Name("2b2t address")
     public static String ADDRESS_2B2T = "2b2t.org";
 
+    @Config.Comment({
+            "Whether or not to ask the server which chunks it needs before compressing and sending them.",
+            "This saves a lot of bandwidth and CPU time in areas that other people have already visited."
+    })
+    @Config.Name("Negotiate uploads")
+    public static boolean NEGOTIATE = true;
+
+    @Config.Comment({
+            "Whether or not to remember which chunks have already been uploaded, and skip them if they haven't changed since.",
+            "The history is stored in 2b2tMapDownloader/uploadHistory."
+    })
+    @Config.RequiresMcRestart
+    @Config.Name("Upload history")
+    public static boolean UPLOAD_HISTORY = true;
+
+    @Config.Comment({
+            "Whether or not to send chunks to the server using the compact batch format, which has smaller headers and per-chunk checksums.",
+            "If the server is too old to support it, the old format will be used automatically."
+    })
+    @Config.Name("Compact batches")
+    public static boolean COMPACT_BATCHES = true;
+
+    @Config.Comment({
+            "Whether or not to show upload statistics on the F3 debug screen."
+    })
+    @Config.Name("Stats overlay")
+    public static boolean STATS_OVERLAY = true;
+
+    @Config.Comment({
+            "The interval (in seconds) at which upload statistics will be written to 2b2tMapDownloader/stats.txt.",
+            "Set to 0 to disable."
+    })
+    @Config.RangeInt(min = 0)
+    @Config.Name("Stats file interval")
+    public static int STATS_FILE_INTERVAL = 30;
+
     public static void updateHashedPassword() {
         HASHED_PASSWORD = Digest.SHA3_256.start()
                 .append(USERNAME.getBytes(StandardCharsets.UTF_8))
@@ -26,8 +26,11 @@ import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import lombok.NonNull;
 import net.daporkchop.lib.unsafe.PUnsafe;
 import net.daporkchop.mapdl.client.Client;
+import net.daporkchop.mapdl.client.stats.ClientStats;
+import net.daporkchop.mapdl.client.util.ChunkFlushThread;
 import net.daporkchop.mapdl.client.util.ChunkToNBT;
 import net.daporkchop.mapdl.client.util.FreshChunk;
+import net.daporkchop.mapdl.client.util.UploadHistory;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.ChunkProviderClient;
 import net.minecraft.world.World;
@@ -38,6 +41,10 @@ import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.network.FMLNetworkEvent;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * When a chunk is unloaded, this encodes it and enqueues it for compression, local storage and transmission.
@@ -45,6 +52,17 @@ import java.lang.reflect.Field;
  * @author DaPorkchop_
  */
 public final class ChunkLoadedHandler {
+    protected static final Field LOADED_CHUNKS;
+
+    static {
+        try {
+            LOADED_CHUNKS = ChunkProviderClient.class.getDeclaredField("loadedChunks");
+            LOADED_CHUNKS.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @SubscribeEvent
     public void onChunkUnload(@NonNull ChunkEvent.Unload event) {
         this.actuallySaveChunk(event.getChunk());
@@ -60,31 +78,59 @@ public final class ChunkLoadedHandler {
         if (world != null) {
             System.out.println("Saving all currently loaded chunks...");
 
+            //only copy the chunk references here, encoding every loaded chunk would freeze the game for several seconds
+            long startTime = System.nanoTime();
+            List<Chunk> chunks;
             try {
-                Field field = ChunkProviderClient.class.getDeclaredField("loadedChunks");
-                field.setAccessible(true);
-
-                Long2ObjectMap<Chunk> chunks = (Long2ObjectMap<Chunk>) field.get(world.getChunkProvider());
-                chunks.values().forEach(this::actuallySaveChunk);
-            } catch (Exception e) {
+                chunks = new ArrayList<>(((Long2ObjectMap<Chunk>) LOADED_CHUNKS.get(world.getChunkProvider())).values());
+            } catch (IllegalAccessException e) {
                 throw new RuntimeException(e);
             }
+
+            new ChunkFlushThread(chunks, this::actuallySaveChunk).start();
+
+            long stall = System.nanoTime() - startTime;
+            ClientStats.DISCONNECT_STALL.record(TimeUnit.NANOSECONDS.toMicros(stall));
+            System.out.printf("Handed %d chunks off to be saved in the background (took %dus).\n", chunks.size(), TimeUnit.NANOSECONDS.toMicros(stall));
         } else {
             System.out.println("World is null?!?");
         }
     }
 
     protected void actuallySaveChunk(@NonNull Chunk chunk) {
+        long startTime = System.nanoTime();
         ByteBuf tempBuf = PooledByteBufAllocator.DEFAULT.directBuffer(1 << 16);
         try {
-            ChunkToNBT.encode(chunk, tempBuf);
+            int stableLength = ChunkToNBT.encode(chunk, tempBuf);
             int size = tempBuf.readableBytes();
-            Client.COMPRESS_QUEUE.add(new FreshChunk(
-                    Unpooled.directBuffer(size, size).writeBytes(tempBuf),
-                    chunk.getWorld().provider.getDimension(),
-                    chunk.x,
-                    chunk.z
-            ));
+            ClientStats.CHUNKS_ENCODED.increment();
+            ClientStats.ENCODE_TIME.record((System.nanoTime() - startTime) / 1000L);
+
+            int dimension = chunk.getWorld().provider.getDimension();
+            UploadHistory history = Client.UPLOAD_HISTORY;
+            long key = 0L;
+            long hash = 0L;
+            if (history != null) {
+                key = UploadHistory.key(dimension, chunk.x, chunk.z);
+                hash = UploadHistory.hash(tempBuf, tempBuf.readerIndex(), stableLength);
+                if (history.unchanged(key, hash)) {
+                    //the server already has exactly this chunk, don't bother sending it again
+                    ClientStats.CHUNKS_UNCHANGED.increment();
+                    return;
+                }
+            }
+
+            FreshChunk freshChunk = new FreshChunk(Unpooled.directBuffer(size, size).writeBytes(tempBuf), dimension, chunk.x, chunk.z);
+            if (history != null) {
+                history.queued(key, freshChunk.time(), hash);
+            }
+            BlockingQueue<FreshChunk> queue = Client.COMPRESS_QUEUE;
+            if (queue != null) {
+                queue.add(freshChunk);
+            } else {
+                //the game is shutting down
+                freshChunk.data().release();
+            }
         } finally {
             tempBuf.release();
         }
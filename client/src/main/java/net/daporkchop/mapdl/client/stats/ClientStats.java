@@ -0,0 +1,110 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.client.stats;
+
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.mapdl.client.Client;
+import net.daporkchop.mapdl.client.util.ChannelWorkerThread;
+import net.daporkchop.mapdl.client.util.CoalescingChunkQueue;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms for every stage of the client pipeline.
+ * <p>
+ * Everything in here is lock-free, so it's safe to update from the client thread without worrying about stalls.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class ClientStats {
+    //ChunkLoadedHandler
+    public final LongAdder CHUNKS_ENCODED   = new LongAdder();
+    public final LongAdder CHUNKS_UNCHANGED = new LongAdder();
+    public final Histogram ENCODE_TIME      = new Histogram(); //us
+    public final Histogram DISCONNECT_STALL = new Histogram(); //us, time spent on the disconnecting thread
+
+    //ChunkFlushThread
+    public final Histogram DISCONNECT_FLUSH_TIME = new Histogram(); //ms, time the same work used to block the disconnecting thread for
+
+    //CompressWorkerThread
+    public final LongAdder CHUNKS_SKIPPED    = new LongAdder();
+    public final LongAdder CHUNKS_COMPRESSED = new LongAdder();
+    public final LongAdder BYTES_RAW         = new LongAdder();
+    public final LongAdder BYTES_COMPRESSED  = new LongAdder();
+    public final Histogram COMPRESS_TIME     = new Histogram(); //us
+
+    //HttpWorkerThread
+    public final LongAdder REQUESTS_SENT   = new LongAdder();
+    public final LongAdder REQUESTS_FAILED = new LongAdder();
+    public final LongAdder CHUNKS_UPLOADED = new LongAdder();
+    public final LongAdder CHUNKS_STALE    = new LongAdder();
+    public final LongAdder CHUNKS_REJECTED = new LongAdder();
+    public final LongAdder BYTES_UPLOADED  = new LongAdder();
+    public final Histogram REQUEST_TIME    = new Histogram(); //ms
+
+    //ChannelWorkerThread
+    public final LongAdder FRAMES_SENT = new LongAdder();
+    public final Histogram ACK_TIME    = new Histogram(); //ms
+
+    //updated once per second by StatsWriterThread
+    public volatile double UPLOAD_RATE_BYTES  = 0.0d;
+    public volatile double UPLOAD_RATE_CHUNKS = 0.0d;
+
+    /**
+     * Appends a human-readable description of the current stats to the given list, one line per element.
+     *
+     * @param lines the list to append to
+     */
+    public void describe(@NonNull List<String> lines) {
+        long raw = BYTES_RAW.sum();
+        long compressed = BYTES_COMPRESSED.sum();
+
+        lines.add(String.format("[mapdl] queues: compress=%d http=%d", size(Client.COMPRESS_QUEUE), size(Client.HTTP_QUEUE)));
+        lines.add(String.format("[mapdl] encoded: %d chunks, avg %dus, p99 <%dus",
+                CHUNKS_ENCODED.sum(), ENCODE_TIME.mean(), ENCODE_TIME.percentile(0.99d)));
+        if (DISCONNECT_STALL.count() > 0L) {
+            lines.add(String.format("[mapdl] disconnect: avg stall %dus, avg background flush %dms", DISCONNECT_STALL.mean(), DISCONNECT_FLUSH_TIME.mean()));
+        }
+        lines.add(String.format("[mapdl] compressed: %d chunks, ratio %.2f%%, avg %dus, p99 <%dus",
+                CHUNKS_COMPRESSED.sum(), raw == 0L ? 0.0d : compressed * 100.0d / raw, COMPRESS_TIME.mean(), COMPRESS_TIME.percentile(0.99d)));
+        lines.add(String.format("[mapdl] uploaded: %d chunks (%.2f MiB), %.1f chunks/s, %.2f KiB/s",
+                CHUNKS_UPLOADED.sum(), BYTES_UPLOADED.sum() / (1024.0d * 1024.0d), UPLOAD_RATE_CHUNKS, UPLOAD_RATE_BYTES / 1024.0d));
+        lines.add(String.format("[mapdl] requests: %d sent, %d failed, avg %dms, p99 <%dms",
+                REQUESTS_SENT.sum(), REQUESTS_FAILED.sum(), REQUEST_TIME.mean(), REQUEST_TIME.percentile(0.99d)));
+        if (FRAMES_SENT.sum() != 0L || ChannelWorkerThread.connected()) {
+            lines.add(String.format("[mapdl] channel: %s, %d frames sent, avg ack %dms, p99 <%dms",
+                    ChannelWorkerThread.connected() ? "connected" : "disconnected", FRAMES_SENT.sum(), ACK_TIME.mean(), ACK_TIME.percentile(0.99d)));
+        }
+        lines.add(String.format("[mapdl] not written: %d unchanged, %d coalesced, %d skipped, %d stale, %d rejected",
+                CHUNKS_UNCHANGED.sum(), coalesced(Client.COMPRESS_QUEUE), CHUNKS_SKIPPED.sum(), CHUNKS_STALE.sum(), CHUNKS_REJECTED.sum()));
+    }
+
+    private int size(Collection<?> queue) {
+        return queue == null ? -1 : queue.size();
+    }
+
+    private long coalesced(Collection<?> queue) {
+        return queue instanceof CoalescingChunkQueue ? ((CoalescingChunkQueue) queue).coalesced() : 0L;
+    }
+}
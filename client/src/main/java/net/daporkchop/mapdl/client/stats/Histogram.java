@@ -0,0 +1,91 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.client.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram with power-of-two buckets.
+ * <p>
+ * Bucket {@code i} counts all values in the range {@code [2^i, 2^(i + 1))}, so percentiles are only accurate to within a factor of two. That's more
+ * than good enough for telling whether something takes 50us or 5ms.
+ *
+ * @author DaPorkchop_
+ */
+public final class Histogram {
+    protected final AtomicLongArray buckets = new AtomicLongArray(64);
+    protected final LongAdder       count   = new LongAdder();
+    protected final LongAdder       sum     = new LongAdder();
+
+    /**
+     * Records a single value.
+     *
+     * @param value the value to record. Negative values are treated as {@code 0}
+     */
+    public void record(long value) {
+        if (value < 0L) {
+            value = 0L;
+        }
+        this.buckets.incrementAndGet(value == 0L ? 0 : 63 - Long.numberOfLeadingZeros(value));
+        this.count.increment();
+        this.sum.add(value);
+    }
+
+    /**
+     * @return the total number of recorded values
+     */
+    public long count() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the arithmetic mean of all recorded values, or {@code 0} if none have been recorded
+     */
+    public long mean() {
+        long count = this.count.sum();
+        return count == 0L ? 0L : this.sum.sum() / count;
+    }
+
+    /**
+     * Gets an upper bound on the given percentile.
+     *
+     * @param percentile the percentile to get, in range {@code [0, 1]}
+     * @return the upper bound of the bucket containing the given percentile, or {@code 0} if no values have been recorded
+     */
+    public long percentile(double percentile) {
+        long total = 0L;
+        long[] counts = new long[64];
+        for (int i = 0; i < 64; i++) {
+            total += counts[i] = this.buckets.get(i);
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        long target = Math.max((long) Math.ceil(total * percentile), 1L);
+        for (int i = 0; i < 64; i++) {
+            if ((target -= counts[i]) <= 0L) {
+                return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1L;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.client.stats;
+
+import lombok.NonNull;
+import net.daporkchop.mapdl.client.Conf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples upload throughput once per second, and periodically dumps the contents of {@link ClientStats} to a file.
+ *
+ * @author DaPorkchop_
+ */
+public final class StatsWriterThread extends Thread {
+    protected final File file;
+    protected final File tempFile;
+
+    public StatsWriterThread(@NonNull File baseDir) {
+        super("2b2tMapDownloader Stats Thread");
+        this.setDaemon(true);
+
+        this.file = new File(baseDir, "stats.txt");
+        this.tempFile = new File(baseDir, "stats.txt.tmp");
+    }
+
+    @Override
+    public void run() {
+        long lastTime = System.nanoTime();
+        long lastBytes = ClientStats.BYTES_UPLOADED.sum();
+        long lastChunks = ClientStats.CHUNKS_UPLOADED.sum();
+        long lastWrite = lastTime;
+        try {
+            while (true) {
+                Thread.sleep(1000L);
+
+                long now = System.nanoTime();
+                long bytes = ClientStats.BYTES_UPLOADED.sum();
+                long chunks = ClientStats.CHUNKS_UPLOADED.sum();
+                double seconds = (now - lastTime) / (double) TimeUnit.SECONDS.toNanos(1L);
+                ClientStats.UPLOAD_RATE_BYTES = (bytes - lastBytes) / seconds;
+                ClientStats.UPLOAD_RATE_CHUNKS = (chunks - lastChunks) / seconds;
+                lastTime = now;
+                lastBytes = bytes;
+                lastChunks = chunks;
+
+                if (Conf.STATS_FILE_INTERVAL > 0 && now - lastWrite >= TimeUnit.SECONDS.toNanos(Conf.STATS_FILE_INTERVAL)) {
+                    lastWrite = now;
+                    this.write();
+                }
+            }
+        } catch (InterruptedException e) {
+            //exit
+        }
+    }
+
+    protected void write() {
+        List<String> lines = new ArrayList<>();
+        lines.add("time=" + System.currentTimeMillis());
+        ClientStats.describe(lines);
+
+        //write to a temporary file first so that nobody reading the file will ever see it half-written
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(this.tempFile.toPath(), StandardCharsets.UTF_8))) {
+            lines.forEach(writer::println);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(this.tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.client.util;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import lombok.NonNull;
+import net.daporkchop.mapdl.client.Client;
+import net.daporkchop.mapdl.client.Conf;
+import net.daporkchop.mapdl.client.stats.ClientStats;
+import net.daporkchop.mapdl.common.ChunkBatchCodec;
+import net.daporkchop.mapdl.common.UploadProtocol;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends chunks to the server over a persistent upload channel (see {@link UploadProtocol}), rather than as individual HTTP requests.
+ * <p>
+ * Chunks are sent as soon as they come out of the compression workers, together with whatever else is already waiting, for as long as there are
+ * credits left. Acknowledgements arrive on the channel's IO thread, independently of sending. While the channel is connected, the
+ * {@link HttpWorkerThread}s stay idle, and if it can't be opened (e.g. because the server is too old), they take over until it can.
+ *
+ * @author DaPorkchop_
+ */
+public final class ChannelWorkerThread extends Thread {
+    //the maximum amount of chunk data to put in a single frame. this is kept small, since frames are written to as soon as they're full anyway
+    protected static final int MAX_FRAME_DATA = 1 << 20;
+
+    protected static final long POLL_TIME         = 500L;
+    protected static final long HANDSHAKE_TIMEOUT = TimeUnit.SECONDS.toMillis(10L);
+    protected static final long SHUTDOWN_TIMEOUT  = TimeUnit.SECONDS.toMillis(10L);
+    protected static final long MIN_RETRY_DELAY   = TimeUnit.SECONDS.toMillis(10L);
+    protected static final long MAX_RETRY_DELAY   = TimeUnit.MINUTES.toMillis(5L);
+
+    protected static volatile boolean connected;
+
+    /**
+     * @return whether or not the upload channel is currently connected
+     */
+    public static boolean connected() {
+        return connected;
+    }
+
+    //frames which haven't been acknowledged yet, keyed by their first sequence number
+    protected final Map<Long, InFlightFrame> inFlight = new ConcurrentHashMap<>();
+    protected final Semaphore                credits  = new Semaphore(0);
+
+    protected BlockingQueue<ByteBuf> queue;
+    protected long                   nextSeq;
+
+    protected volatile boolean shutdown;
+
+    public ChannelWorkerThread() {
+        super("2b2tMapDownloader upload channel thread");
+    }
+
+    public void requestShutdown() {
+        this.shutdown = true;
+    }
+
+    @Override
+    public void run() {
+        if ((this.queue = Client.HTTP_QUEUE) == null) {
+            //already shut down! exit now
+            return;
+        }
+
+        EventLoopGroup group = new NioEventLoopGroup(1, task -> {
+            Thread thread = new Thread(task, "2b2tMapDownloader upload channel IO");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long retryDelay = MIN_RETRY_DELAY;
+            while (!this.shutdown) {
+                Channel channel;
+                try {
+                    channel = this.connect(group);
+                } catch (Exception e) {
+                    System.err.printf("Unable to open upload channel, using HTTP instead for the next %ds: %s\n", retryDelay / 1000L, e);
+                    for (long endTime = System.currentTimeMillis() + retryDelay; !this.shutdown && System.currentTimeMillis() < endTime; ) {
+                        Thread.sleep(POLL_TIME);
+                    }
+                    retryDelay = Math.min(retryDelay << 1L, MAX_RETRY_DELAY);
+                    continue;
+                }
+
+                retryDelay = MIN_RETRY_DELAY;
+                connected = true;
+                try {
+                    this.send(channel);
+                } finally {
+                    connected = false;
+                    channel.close().syncUninterruptibly();
+                    this.requeueInFlight();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            connected = false;
+            this.requeueInFlight();
+            group.shutdownGracefully();
+            Client.HTTP_SHUTDOWN.countDown();
+        }
+    }
+
+    /**
+     * Opens a new connection and waits for the handshake to complete.
+     */
+    protected Channel connect(@NonNull EventLoopGroup group) throws Exception {
+        URI uri = new URI(Conf.SERVER_URL);
+        Handler handler = new Handler();
+        Channel channel = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) HANDSHAKE_TIMEOUT)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) throws Exception {
+                        channel.pipeline()
+                                .addLast("framer", new LengthFieldBasedFrameDecoder(UploadProtocol.MAX_FRAME_SIZE, 0, 4, 0, 4))
+                                .addLast("handler", handler);
+                    }
+                })
+                .connect(uri.getHost(), Conf.CHANNEL_PORT)
+                .syncUninterruptibly().channel();
+
+        ByteBuf hello = channel.alloc().ioBuffer();
+        int lengthIndex = UploadProtocol.beginFrame(hello, UploadProtocol.C_HELLO);
+        ChunkBatchCodec.writeVarLong(hello, UploadProtocol.VERSION);
+        UploadProtocol.writeString(hello, Conf.USERNAME);
+        UploadProtocol.writeString(hello, Conf.HASHED_PASSWORD);
+        UploadProtocol.endFrame(hello, lengthIndex);
+        channel.writeAndFlush(hello, channel.voidPromise());
+
+        try {
+            int credits = handler.welcome.get(HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS);
+            this.credits.drainPermits();
+            this.credits.release(credits);
+            return channel;
+        } catch (Exception e) {
+            channel.close();
+            throw e instanceof ExecutionException ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Sends chunks over the given channel until it's closed or a shutdown is requested.
+     */
+    protected void send(@NonNull Channel channel) throws InterruptedException {
+        BlockingQueue<ByteBuf> queue = this.queue;
+        while (!this.shutdown && channel.isActive()) {
+            if (!this.credits.tryAcquire(POLL_TIME, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            ByteBuf chunk = queue.poll(POLL_TIME, TimeUnit.MILLISECONDS);
+            if (chunk == null) {
+                this.credits.release();
+                continue;
+            }
+
+            //send whatever else is already waiting along with it, as long as there's credit left
+            List<ByteBuf> records = new ArrayList<>();
+            records.add(chunk);
+            int size = chunk.readableBytes();
+            while (size < MAX_FRAME_DATA && this.credits.tryAcquire()) {
+                if ((chunk = queue.poll()) == null) {
+                    this.credits.release();
+                    break;
+                }
+                records.add(chunk);
+                size += chunk.readableBytes();
+            }
+
+            long seq = this.nextSeq;
+            this.nextSeq += records.size();
+
+            ByteBuf frame = channel.alloc().ioBuffer(size + 32);
+            int lengthIndex = UploadProtocol.beginFrame(frame, UploadProtocol.C_SUBMIT);
+            ChunkBatchCodec.writeVarLong(frame, seq);
+            if (Conf.COMPACT_BATCHES) {
+                ChunkBatchCodec.encodeCompact(records, frame);
+            } else {
+                records.forEach(record -> frame.writeBytes(record, record.readerIndex(), record.readableBytes()));
+            }
+            UploadProtocol.endFrame(frame, lengthIndex);
+
+            ClientStats.FRAMES_SENT.increment();
+            ClientStats.BYTES_UPLOADED.add(frame.readableBytes());
+            this.inFlight.put(seq, new InFlightFrame(records, System.nanoTime()));
+            channel.writeAndFlush(frame, channel.voidPromise());
+        }
+
+        //give the server a chance to acknowledge everything before going away
+        for (long endTime = System.currentTimeMillis() + SHUTDOWN_TIMEOUT; !this.inFlight.isEmpty() && channel.isActive() && System.currentTimeMillis() < endTime; ) {
+            Thread.sleep(10L);
+        }
+    }
+
+    protected void ack(@NonNull ByteBuf frame) {
+        long firstSeq = ChunkBatchCodec.readVarLong(frame);
+        InFlightFrame inFlight = this.inFlight.remove(firstSeq);
+        if (inFlight == null) {
+            //already re-queued after a disconnect
+            return;
+        }
+        ClientStats.ACK_TIME.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inFlight.sendTime));
+
+        long count = ChunkBatchCodec.readVarLong(frame);
+        UploadHistory history = Client.UPLOAD_HISTORY;
+        for (int i = 0; i < inFlight.records.size(); i++) {
+            ByteBuf record = inFlight.records.get(i);
+
+            //records which the server couldn't read aren't in the acknowledgement at all
+            int status = i < count && frame.isReadable() ? frame.readUnsignedByte() : UploadProtocol.STATUS_REJECTED;
+            switch (status) {
+                case UploadProtocol.STATUS_ACCEPTED:
+                case UploadProtocol.STATUS_STALE:
+                    (status == UploadProtocol.STATUS_ACCEPTED ? ClientStats.CHUNKS_UPLOADED : ClientStats.CHUNKS_STALE).increment();
+                    if (history != null) {
+                        HttpWorkerThread.acknowledge(history, record);
+                    }
+                    record.release();
+                    break;
+                case UploadProtocol.STATUS_REJECTED:
+                    ClientStats.CHUNKS_REJECTED.increment();
+                    if (history != null) {
+                        HttpWorkerThread.forget(history, record);
+                    }
+                    record.release();
+                    break;
+                default:
+                    this.queue.add(record);
+            }
+        }
+        this.credits.release(inFlight.records.size());
+    }
+
+    protected void requeueInFlight() {
+        for (Long seq : this.inFlight.keySet()) {
+            InFlightFrame inFlight = this.inFlight.remove(seq);
+            if (inFlight != null) {
+                this.queue.addAll(inFlight.records);
+            }
+        }
+    }
+
+    /**
+     * A frame which has been sent, but not acknowledged yet.
+     *
+     * @author DaPorkchop_
+     */
+    protected static final class InFlightFrame {
+        protected final List<ByteBuf> records;
+        protected final long          sendTime;
+
+        public InFlightFrame(@NonNull List<ByteBuf> records, long sendTime) {
+            this.records = records;
+            this.sendTime = sendTime;
+        }
+    }
+
+    /**
+     * Handles frames from the server on the channel's IO thread.
+     *
+     * @author DaPorkchop_
+     */
+    protected final class Handler extends ChannelInboundHandlerAdapter {
+        protected final CompletableFuture<Integer> welcome = new CompletableFuture<>();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ByteBuf frame = (ByteBuf) msg;
+            try {
+                switch (frame.readUnsignedByte()) {
+                    case UploadProtocol.S_WELCOME:
+                        this.welcome.complete((int) ChunkBatchCodec.readVarLong(frame));
+                        break;
+                    case UploadProtocol.S_ACK:
+                        ChannelWorkerThread.this.ack(frame);
+                        break;
+                    case UploadProtocol.S_ERROR: {
+                        String message = UploadProtocol.readString(frame);
+                        System.err.println("Upload channel closed by server: " + message);
+                        this.welcome.completeExceptionally(new IOException(message));
+                        ctx.close();
+                        break;
+                    }
+                    default:
+                        ctx.close();
+                }
+            } finally {
+                frame.release();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            this.welcome.completeExceptionally(new IOException("Connection closed"));
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            System.err.println("Exception in upload channel: " + cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.client.util;
+
+import lombok.NonNull;
+import net.daporkchop.mapdl.client.Client;
+import net.daporkchop.mapdl.client.stats.ClientStats;
+import net.minecraft.world.chunk.Chunk;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Encodes all the chunks that were still loaded when the player disconnected, off of the thread that handled the disconnect.
+ * <p>
+ * The disconnect event is fired before the main thread unloads the world, so this may start while the world is still loaded. The list of chunks is
+ * a copy, and once the connection is gone the server can't send any more changes, so the chunks are normally left alone. Reading them isn't
+ * synchronized with the main thread though, so this is best-effort: a chunk which the game does modify in the meantime may be saved in an
+ * inconsistent state, in which case it'll just be sent again the next time it's loaded.
+ * <p>
+ * Every instance registers itself in {@link Client#FLUSH_THREADS} until it's done, so that the shutdown hook can wait for all of them.
+ *
+ * @author DaPorkchop_
+ */
+public final class ChunkFlushThread extends Thread {
+    protected final List<Chunk>     chunks;
+    protected final Consumer<Chunk> saver;
+
+    public ChunkFlushThread(@NonNull List<Chunk> chunks, @NonNull Consumer<Chunk> saver) {
+        super("2b2tMapDownloader Chunk Flush Thread");
+
+        this.chunks = chunks;
+        this.saver = saver;
+    }
+
+    @Override
+    public synchronized void start() {
+        Client.FLUSH_THREADS.add(this);
+        super.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            long startTime = System.nanoTime();
+            for (Chunk chunk : this.chunks) {
+                try {
+                    this.saver.accept(chunk);
+                } catch (Exception e) {
+                    System.err.printf("Unable to save chunk (%d,%d)!\n", chunk.x, chunk.z);
+                    e.printStackTrace();
+                }
+            }
+            long time = System.nanoTime() - startTime;
+            ClientStats.DISCONNECT_FLUSH_TIME.record(TimeUnit.NANOSECONDS.toMillis(time));
+            System.out.printf("Saved %d chunks in %dms.\n", this.chunks.size(), TimeUnit.NANOSECONDS.toMillis(time));
+        } finally {
+            Client.FLUSH_THREADS.remove(this);
+        }
+    }
+}
@@ -58,16 +58,26 @@ public class ChunkToNBT {
     private static final Cache<byte[]>      BLOCK_IDS_CACHE  = ThreadCache.soft(() -> new byte[4096]);
     private static final Cache<NibbleArray> BLOCK_DATA_CACHE = ThreadCache.soft(NibbleArray::new);
 
-    public void encode(@NonNull Chunk chunk, @NonNull ByteBuf dst) {
+    /**
+     * Encodes a chunk to NBT.
+     * <p>
+     * Fields which change every tick even when nothing in the chunk has changed (the world time, inhabited time and scheduled ticks) are written
+     * last, so that everything before them can be used to tell whether the chunk's actual contents have changed.
+     *
+     * @param chunk the chunk to encode
+     * @param dst   the buffer to write the encoded chunk to
+     * @return the number of bytes at the start of the encoded chunk which only depend on the chunk's contents
+     */
+    public int encode(@NonNull Chunk chunk, @NonNull ByteBuf dst) {
+        int startIndex = dst.writerIndex();
+        int stableLength;
         try (StreamingCompoundTagEncoder rootTag = new StreamingCompoundTagEncoder(dst);
              StreamingCompoundTagEncoder levelTag = rootTag.pushCompound("Level")) {
             levelTag.appendInt("xPos", chunk.getPos().x);
             levelTag.appendInt("zPos", chunk.getPos().z);
-            levelTag.appendLong("LastUpdate", chunk.getWorld().getTotalWorldTime());
             levelTag.appendIntArray("HeightMap", chunk.getHeightMap());
             levelTag.appendBoolean("TerrainPopulated", true);  // We always want this
             levelTag.appendBoolean("LightPopulated", chunk.isLightPopulated());
-            levelTag.appendLong("InhabitedTime", chunk.getInhabitedTime());
 
             try (StreamingListTagEncoder chunkList = levelTag.pushList("Sections", CompoundTag.class)) {
                 byte[] blockIds = BLOCK_IDS_CACHE.get();
@@ -129,6 +139,11 @@ public class ChunkToNBT {
                 buf.release();
             }
 
+            //everything after this point changes over time regardless of whether or not the chunk was modified
+            stableLength = dst.writerIndex() - startIndex;
+            levelTag.appendLong("LastUpdate", chunk.getWorld().getTotalWorldTime());
+            levelTag.appendLong("InhabitedTime", chunk.getInhabitedTime());
+
             List<NextTickListEntry> updateList = chunk.getWorld().getPendingBlockUpdates(chunk, false);
             if (updateList != null) {
                 long worldTime = chunk.getWorld().getTotalWorldTime();
@@ -147,5 +162,6 @@ public class ChunkToNBT {
                 }
             }
         }
+        return stableLength;
     }
 }
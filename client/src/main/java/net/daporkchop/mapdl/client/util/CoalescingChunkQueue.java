@@ -0,0 +1,201 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.client.util;
+
+import lombok.NonNull;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link BlockingQueue} of {@link FreshChunk}s which only ever contains one chunk per position.
+ * <p>
+ * If a chunk is added while an older version of the same chunk is still queued, the old version is replaced (and its buffer released) without
+ * changing its place in the queue. This way, a chunk which keeps being unloaded and reloaded is only compressed once, and doesn't get pushed back
+ * behind chunks which were queued after it.
+ * <p>
+ * The queue is unbounded.
+ *
+ * @author DaPorkchop_
+ */
+public final class CoalescingChunkQueue extends AbstractQueue<FreshChunk> implements BlockingQueue<FreshChunk> {
+    protected final Map<Long, FreshChunk> map = new LinkedHashMap<>();
+
+    protected final ReentrantLock lock     = new ReentrantLock();
+    protected final Condition     notEmpty = this.lock.newCondition();
+
+    protected final LongAdder coalesced = new LongAdder();
+
+    @Override
+    public boolean offer(@NonNull FreshChunk chunk) {
+        FreshChunk old;
+        this.lock.lock();
+        try {
+            old = this.map.get(chunk.key());
+            if (old != null && old.time() > chunk.time()) {
+                //the queued chunk is newer than the one being added (this should never really happen)
+                old = chunk;
+            } else {
+                //replacing the value of an existing key doesn't change its position in a LinkedHashMap
+                this.map.put(chunk.key(), chunk);
+                if (old == null) {
+                    this.notEmpty.signal();
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (old != null) {
+            old.data().release();
+            this.coalesced.increment();
+        }
+        return true;
+    }
+
+    @Override
+    public void put(@NonNull FreshChunk chunk) {
+        this.offer(chunk);
+    }
+
+    @Override
+    public boolean offer(@NonNull FreshChunk chunk, long timeout, @NonNull TimeUnit unit) {
+        return this.offer(chunk);
+    }
+
+    @Override
+    public FreshChunk take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.map.isEmpty()) {
+                this.notEmpty.await();
+            }
+            return this.removeFirst();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public FreshChunk poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.map.isEmpty()) {
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return this.removeFirst();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public FreshChunk poll() {
+        this.lock.lock();
+        try {
+            return this.map.isEmpty() ? null : this.removeFirst();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public FreshChunk peek() {
+        this.lock.lock();
+        try {
+            return this.map.isEmpty() ? null : this.map.values().iterator().next();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super FreshChunk> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super FreshChunk> c, int maxElements) {
+        this.lock.lock();
+        try {
+            int count = 0;
+            for (Iterator<FreshChunk> itr = this.map.values().iterator(); count < maxElements && itr.hasNext(); count++) {
+                c.add(itr.next());
+                itr.remove();
+            }
+            return count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    protected FreshChunk removeFirst() {
+        Iterator<FreshChunk> itr = this.map.values().iterator();
+        FreshChunk chunk = itr.next();
+        itr.remove();
+        return chunk;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.map.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<FreshChunk> iterator() {
+        //iterate over a snapshot, there's no reason for anyone to be modifying the queue through an iterator
+        this.lock.lock();
+        try {
+            return new ArrayList<>(this.map.values()).iterator();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total number of chunks which were replaced by a newer version before being taken from the queue
+     */
+    public long coalesced() {
+        return this.coalesced.sum();
+    }
+}
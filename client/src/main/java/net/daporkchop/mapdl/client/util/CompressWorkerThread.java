@@ -21,14 +21,26 @@ package net.daporkchop.mapdl.client.util;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.Future;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.experimental.Accessors;
 import net.daporkchop.lib.natives.PNatives;
 import net.daporkchop.lib.natives.zlib.PDeflater;
+import net.daporkchop.lib.http.HttpMethod;
+import net.daporkchop.lib.http.entity.ReusableByteBufHttpEntity;
+import net.daporkchop.lib.http.entity.content.type.StandardContentType;
+import net.daporkchop.lib.http.response.ResponseBody;
 import net.daporkchop.lib.natives.zlib.Zlib;
 import net.daporkchop.mapdl.client.Client;
+import net.daporkchop.mapdl.client.Conf;
+import net.daporkchop.mapdl.client.stats.ClientStats;
+import net.daporkchop.mapdl.common.ChunkBatchCodec;
 
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 import static net.daporkchop.mapdl.common.SharedConstants.*;
@@ -39,6 +51,9 @@ import static net.daporkchop.mapdl.common.SharedConstants.*;
 @Getter
 @Accessors(fluent = true)
 public final class CompressWorkerThread extends Thread {
+    //the maximum number of chunks to ask the server about at once
+    protected static final int NEGOTIATE_BATCH_SIZE = 256;
+
     protected final int id;
 
     public CompressWorkerThread(int id) {
@@ -57,9 +72,13 @@ public final class CompressWorkerThread extends Thread {
 
         final ByteBuf buf = Unpooled.directBuffer(MAX_REQUEST_SIZE, MAX_REQUEST_SIZE);
         try (PDeflater deflater = PNatives.ZLIB.get().deflater(Zlib.ZLIB_LEVEL_BEST)) {
+            List<FreshChunk> batch = new ArrayList<>(NEGOTIATE_BATCH_SIZE);
             try {
                 while (true) {
-                    this.processChunk(buf, queue.take(), deflater);
+                    batch.add(queue.take());
+                    queue.drainTo(batch, NEGOTIATE_BATCH_SIZE - 1);
+                    this.processBatch(buf, batch, deflater);
+                    batch.clear();
                 }
             } catch (InterruptedException e) {
                 //only way to exit loop is to be interrupted
@@ -76,25 +95,80 @@ public final class CompressWorkerThread extends Thread {
         }
     }
 
+    protected void processBatch(@NonNull ByteBuf buf, @NonNull List<FreshChunk> batch, @NonNull PDeflater deflater) {
+        BitSet wanted = Conf.NEGOTIATE ? this.negotiate(batch) : null;
+        for (int i = 0; i < batch.size(); i++) {
+            if (wanted == null || wanted.get(i)) {
+                this.processChunk(buf, batch.get(i), deflater);
+            } else {
+                FreshChunk chunk = batch.get(i);
+                chunk.data.release();
+                ClientStats.CHUNKS_SKIPPED.increment();
+
+                //the server already has this chunk (or a newer version of it), so there's no need to offer it again unless it changes
+                UploadHistory history = Client.UPLOAD_HISTORY;
+                if (history != null) {
+                    history.acknowledge(chunk.key(), chunk.time());
+                }
+            }
+        }
+    }
+
+    /**
+     * Asks the server which of the given chunks it actually needs.
+     *
+     * @param batch the chunks
+     * @return a {@link BitSet} with a bit set for every chunk that should be sent, or {@code null} if the server couldn't be reached
+     */
+    protected BitSet negotiate(@NonNull List<FreshChunk> batch) {
+        ByteBuf body = Unpooled.directBuffer(batch.size() * (1 + 8 + 4 + 4));
+        try {
+            for (FreshChunk chunk : batch) {
+                body.writeByte(chunk.dimension())
+                        .writeLong(chunk.time())
+                        .writeInt(chunk.x())
+                        .writeInt(chunk.z());
+            }
+
+            Future<ResponseBody<String>> bodyFuture = Client.HTTP_CLIENT.request(HttpMethod.POST, Conf.SERVER_URL + "api/want")
+                    .body(new ReusableByteBufHttpEntity(StandardContentType.APPLICATION_OCTET_STREAM, body))
+                    .putHeader("mapdl-username", Conf.USERNAME)
+                    .putHeader("mapdl-password", Conf.HASHED_PASSWORD)
+                    .aggregateToString()
+                    .send()
+                    .bodyFuture().awaitUninterruptibly();
+            if (bodyFuture.isSuccess()) {
+                return BitSet.valueOf(Base64.getDecoder().decode(bodyFuture.getNow().body().trim()));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid negotiation response: " + e);
+        } finally {
+            body.release();
+        }
+        //fall back to sending everything, the server will discard whatever it doesn't need
+        return null;
+    }
+
     protected void processChunk(@NonNull ByteBuf buf, @NonNull FreshChunk chunk, @NonNull PDeflater deflater) {
+        long startTime = System.nanoTime();
         try {//write basic chunk info
-            buf.clear()
-                    .writeByte(chunk.dimension())
-                    .writeLong(chunk.time())
-                    .writeInt(chunk.x())
-                    .writeInt(chunk.z())
-                    .writeInt(-1) //length (placeholder)
-                    .writeByte(2); //version: zlib
+            int lengthIndex = ChunkBatchCodec.beginRecord(buf.clear(), chunk.dimension(), chunk.time(), chunk.x(), chunk.z());
+            buf.writeByte(2); //version: zlib
 
             //compress chunk
+            int rawSize = chunk.data.readableBytes();
             deflater.deflate(chunk.data, buf);
             deflater.reset();
 
-            //set length
-            int written = buf.writerIndex();
-            buf.setInt(1 + 8 + 4 + 4, written - (1 + 8 + 4 + 4) - 4);
+            ChunkBatchCodec.endRecord(buf, lengthIndex);
 
+            int written = buf.writerIndex();
             Client.HTTP_QUEUE.add(Unpooled.directBuffer(written, written).writeBytes(buf));
+
+            ClientStats.CHUNKS_COMPRESSED.increment();
+            ClientStats.BYTES_RAW.add(rawSize);
+            ClientStats.BYTES_COMPRESSED.add(written - lengthIndex - 4);
+            ClientStats.COMPRESS_TIME.record((System.nanoTime() - startTime) / 1000L);
         } finally {
             chunk.data.release();
         }
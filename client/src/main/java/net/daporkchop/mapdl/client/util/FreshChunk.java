@@ -43,4 +43,12 @@ public final class FreshChunk {
     protected final int     dimension;
     protected final int     x;
     protected final int     z;
+
+    /**
+     * @return this chunk's position packed into a single {@code long}
+     * @see UploadHistory#key(int, int, int)
+     */
+    public long key() {
+        return UploadHistory.key(this.dimension, this.x, this.z);
+    }
 }
@@ -19,7 +19,10 @@
 
 package net.daporkchop.mapdl.client.util;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
 import io.netty.buffer.Unpooled;
 import io.netty.util.concurrent.Future;
 import lombok.Getter;
@@ -31,10 +34,14 @@ import net.daporkchop.lib.http.request.Request;
 import net.daporkchop.lib.http.response.ResponseBody;
 import net.daporkchop.mapdl.client.Client;
 import net.daporkchop.mapdl.client.Conf;
+import net.daporkchop.mapdl.client.stats.ClientStats;
+import net.daporkchop.mapdl.common.ChunkBatchCodec;
+import net.daporkchop.mapdl.common.SubmitResponse;
 
 import java.net.ConnectException;
+import java.util.BitSet;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -48,6 +55,11 @@ public final class HttpWorkerThread extends Thread {
     //the maximum amount of time that a chunk may be buffered in an HTTP worker's queue before being forcibly sent
     protected static final long MAX_WAIT_TIME = TimeUnit.SECONDS.toMillis(5L);
 
+    protected static final Gson GSON = new Gson();
+
+    //set to false if the server turns out not to support compact batches
+    protected static volatile boolean compactSupported = true;
+
     @Getter
     protected final    int     id;
     protected volatile boolean shutdown;
@@ -71,10 +83,17 @@ public final class HttpWorkerThread extends Thread {
         }
 
         final ByteBuf buf = Unpooled.directBuffer(MAX_REQUEST_SIZE, MAX_REQUEST_SIZE);
-        final Collection<ByteBuf> pendingBuffers = new ArrayList<>();
+        final ByteBuf compact = Unpooled.directBuffer(MAX_REQUEST_SIZE, MAX_REQUEST_SIZE);
+        final List<ByteBuf> pendingBuffers = new ArrayList<>();
         ByteBuf chunk = null;
         try {
             do {
+                if (ChannelWorkerThread.connected()) {
+                    //the upload channel is taking care of everything, only step in if it goes away
+                    Thread.sleep(MAX_WAIT_TIME);
+                    continue;
+                }
+
                 //synchronize on queue so that we only have one worker thread filling up a buffer at a time
                 //this limits the number of total requests in favor of larger chunk volume per request (16 megabytes per 5 seconds is basically impossible)
                 synchronized (queue) {
@@ -111,15 +130,31 @@ public final class HttpWorkerThread extends Thread {
                     } while (buf.isWritable() && System.currentTimeMillis() < endTime);
                 }
 
+                //re-encode the batch in the compact format, unless that would somehow make it bigger
+                ByteBuf body = buf;
+                if (Conf.COMPACT_BATCHES && compactSupported) {
+                    try {
+                        ChunkBatchCodec.encodeCompact(pendingBuffers, compact.clear());
+                        if (compact.readableBytes() < buf.readableBytes()) {
+                            body = compact;
+                        }
+                    } catch (IndexOutOfBoundsException e) {
+                        //larger than the maximum request size
+                    }
+                }
+
                 //actually send request
+                long startTime = System.currentTimeMillis();
                 Request<String> request = Client.HTTP_CLIENT.request(HttpMethod.POST, Conf.SERVER_URL + "api/submit")
-                        .body(new ReusableByteBufHttpEntity(StandardContentType.APPLICATION_OCTET_STREAM, buf))
+                        .body(new ReusableByteBufHttpEntity(StandardContentType.APPLICATION_OCTET_STREAM, body))
                         .putHeader("mapdl-username", Conf.USERNAME)
                         .putHeader("mapdl-password", Conf.HASHED_PASSWORD)
                         .aggregateToString()
                         .send();
 
                 Future<ResponseBody<String>> bodyFuture = request.bodyFuture().awaitUninterruptibly();
+                ClientStats.REQUESTS_SENT.increment();
+                ClientStats.REQUEST_TIME.record(System.currentTimeMillis() - startTime);
 
                 if (!bodyFuture.isSuccess()) {
                     if (bodyFuture.cause() instanceof ConnectException) {
@@ -127,19 +162,22 @@ public final class HttpWorkerThread extends Thread {
                     } else {
                         bodyFuture.cause().printStackTrace();
                     }
+                    ClientStats.REQUESTS_FAILED.increment();
+
                     //re-enqueue chunks
                     queue.addAll(pendingBuffers);
                     Thread.sleep(TimeUnit.SECONDS.toMillis(10L)); //wait 10 seconds (to avoid sending a billion requests over and over again if the server is actually down or something)
                 } else {
-                    pendingBuffers.forEach(bb -> {
-                        if (!bb.release())  {
-                            throw new IllegalStateException(String.valueOf(bb.refCnt()));
-                        }
-                    });
+                    ClientStats.BYTES_UPLOADED.add(body.readableBytes());
+                    if (!this.handleResponse(bodyFuture.getNow().body(), pendingBuffers, queue, body == compact)) {
+                        ClientStats.REQUESTS_FAILED.increment();
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(10L)); //same as above, something is wrong with the server
+                    }
                 }
 
-                //empty pending buffers list
+                //empty pending buffers list and request buffer
                 pendingBuffers.clear();
+                buf.clear();
             } while (!this.shutdown);
         } catch (Exception e) {
             e.printStackTrace();
@@ -150,9 +188,93 @@ public final class HttpWorkerThread extends Thread {
                 }
                 queue.addAll(pendingBuffers); //re-add any chunks to the queue if they couldn't be sent
                 buf.release();
+                compact.release();
             } finally {
                 Client.HTTP_SHUTDOWN.countDown();
             }
         }
     }
+
+    /**
+     * Handles the server's response to a submit request, re-enqueueing only the chunks that the server asked to be sent again.
+     *
+     * @param body    the response body
+     * @param pending the chunks that were sent, in the same order as in the request body
+     * @param queue   the queue to add chunks to be retried to
+     * @param compact whether or not the request body was in the compact batch format
+     * @return whether or not the response could be understood. If not, every chunk will have been re-enqueued
+     */
+    protected boolean handleResponse(String body, @NonNull List<ByteBuf> pending, @NonNull BlockingQueue<ByteBuf> queue, boolean compact) {
+        SubmitResponse response = null;
+        try {
+            response = GSON.fromJson(body, SubmitResponse.class);
+        } catch (JsonParseException e) {
+            System.err.println("Invalid submit response: " + e);
+        }
+        if (compact && response != null && response.rejectedFrom() == 0 && response.batchVersion() < ChunkBatchCodec.VERSION_COMPACT) {
+            //the server is too old to understand the compact format, send everything again the old way. a current server says which versions it
+            // supports, so a single damaged batch is just treated as malformed rather than turning off the compact format for good
+            System.err.println("Server doesn't support compact batches, falling back to the legacy format");
+            compactSupported = false;
+            queue.addAll(pending);
+            return true;
+        }
+        if (response == null) {
+            //there's no way of knowing what happened, so send everything again. the server ignores chunks that it already has
+            queue.addAll(pending);
+            return false;
+        }
+
+        ClientStats.CHUNKS_UPLOADED.add(response.accepted().size());
+        ClientStats.CHUNKS_STALE.add(response.stale().size());
+        ClientStats.CHUNKS_REJECTED.add(response.rejected().size());
+        if (response.rejectedFrom() >= 0) {
+            System.err.printf("Server rejected chunks %d-%d as malformed!\n", response.rejectedFrom(), pending.size() - 1);
+            ClientStats.CHUNKS_REJECTED.add(Math.max(pending.size() - response.rejectedFrom(), 0));
+        }
+
+        UploadHistory history = Client.UPLOAD_HISTORY;
+        if (history != null) {
+            //chunks which were stored or which the server already has a newer version of don't need to be sent again unless they change
+            response.accepted().forEach(i -> this.acknowledge(history, pending, i));
+            response.stale().forEach(i -> this.acknowledge(history, pending, i));
+            response.rejected().forEach(i -> {
+                if (i >= 0 && i < pending.size()) {
+                    forget(history, pending.get(i));
+                }
+            });
+            if (response.rejectedFrom() >= 0) {
+                for (int i = response.rejectedFrom(); i < pending.size(); i++) {
+                    forget(history, pending.get(i));
+                }
+            }
+        }
+
+        BitSet retry = new BitSet(pending.size());
+        response.retry().forEach(retry::set);
+        for (int i = 0; i < pending.size(); i++) {
+            if (retry.get(i)) {
+                queue.add(pending.get(i));
+            } else {
+                pending.get(i).release();
+            }
+        }
+        return true;
+    }
+
+    protected void acknowledge(@NonNull UploadHistory history, @NonNull List<ByteBuf> pending, int index) {
+        if (index < 0 || index >= pending.size()) {
+            return;
+        }
+        acknowledge(history, pending.get(index));
+    }
+
+    protected static void acknowledge(@NonNull UploadHistory history, @NonNull ByteBuf chunk) {
+        //dimension, time, x, z are at the start of every encoded chunk
+        history.acknowledge(UploadHistory.key(chunk.getByte(0), chunk.getInt(1 + 8), chunk.getInt(1 + 8 + 4)), chunk.getLong(1));
+    }
+
+    protected static void forget(@NonNull UploadHistory history, @NonNull ByteBuf chunk) {
+        history.forget(UploadHistory.key(chunk.getByte(0), chunk.getInt(1 + 8), chunk.getInt(1 + 8 + 4)), chunk.getLong(1));
+    }
 }
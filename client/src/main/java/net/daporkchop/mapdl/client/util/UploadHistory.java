@@ -0,0 +1,291 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.client.util;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers a content hash of every chunk that the server has acknowledged, so that chunks which haven't changed since they were last uploaded
+ * can be dropped before they're even compressed.
+ * <p>
+ * The table is an open-addressing hash table stored in a memory-mapped file, so it doesn't take up any heap space and survives restarts. Each
+ * slot is 16 bytes: the chunk key followed by the content hash. A hash of {@code 0} marks an empty slot.
+ * <p>
+ * Losing the file (or having it be corrupted) is harmless: the worst that can happen is that some chunks are sent again.
+ *
+ * @author DaPorkchop_
+ */
+public final class UploadHistory implements AutoCloseable {
+    protected static final int MAGIC   = 0x6D61706C; //"mapl"
+    protected static final int VERSION = 1;
+
+    protected static final int HEADER_SIZE      = 16;
+    protected static final int SLOT_SIZE        = 16;
+    protected static final int INITIAL_CAPACITY = 1 << 16;
+
+    //chunks which are queued while this many others are already pending aren't tracked, they'll simply be sent again next time
+    protected static final int MAX_PENDING = 1 << 16;
+
+    /**
+     * Packs a chunk position into a single {@code long}.
+     *
+     * @param dimension the dimension id
+     * @param x         the chunk's X coordinate
+     * @param z         the chunk's Z coordinate
+     * @return the key
+     */
+    public static long key(int dimension, int x, int z) {
+        return ((dimension & 0xFFL) << 56L) | ((x & 0xFFFFFFFL) << 28L) | (z & 0xFFFFFFFL);
+    }
+
+    /**
+     * Computes a 64-bit hash of the given bytes.
+     * <p>
+     * The result is never {@code 0}.
+     *
+     * @param buf    the buffer containing the data
+     * @param offset the index of the first byte to hash
+     * @param length the number of bytes to hash
+     * @return the hash
+     */
+    public static long hash(@NonNull ByteBuf buf, int offset, int length) {
+        long h = 0xCBF29CE484222325L ^ length;
+        int i = offset;
+        for (int end = offset + (length & ~7); i < end; i += 8) {
+            h = mix(h ^ buf.getLong(i));
+        }
+        for (int end = offset + length; i < end; i++) {
+            h = mix(h ^ buf.getByte(i));
+        }
+        return h == 0L ? 1L : h;
+    }
+
+    protected static long mix(long h) {
+        //murmur3 finalizer
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33L;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33L);
+    }
+
+    protected final File file;
+    protected final File tempFile;
+
+    //chunks that have been queued for upload but not yet acknowledged, keyed by position
+    protected final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+
+    protected MappedByteBuffer buffer;
+    protected int              capacity;
+    protected int              size;
+
+    public UploadHistory(@NonNull File file) throws IOException {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+
+        if (file.exists()) {
+            this.map(file);
+            if (this.buffer.getInt(0) != MAGIC || this.buffer.getInt(4) != VERSION) {
+                System.err.println("Upload history is invalid, discarding it.");
+                this.buffer = null;
+            } else {
+                this.capacity = this.buffer.getInt(8);
+                this.size = this.buffer.getInt(12);
+                if (Integer.bitCount(this.capacity) != 1 || this.buffer.capacity() != HEADER_SIZE + (long) this.capacity * SLOT_SIZE) {
+                    System.err.println("Upload history is truncated, discarding it.");
+                    this.buffer = null;
+                }
+            }
+        }
+        if (this.buffer == null) {
+            this.create(file, INITIAL_CAPACITY);
+            this.map(file);
+            this.capacity = INITIAL_CAPACITY;
+            this.size = 0;
+        }
+    }
+
+    /**
+     * Checks whether the given chunk has already been uploaded with exactly the same contents.
+     *
+     * @param key  the chunk's key, as returned by {@link #key(int, int, int)}
+     * @param hash the hash of the chunk's contents
+     * @return whether the chunk is unchanged
+     */
+    public synchronized boolean unchanged(long key, long hash) {
+        return this.get(key) == hash;
+    }
+
+    /**
+     * Notes that a chunk with the given hash has been queued for upload.
+     * <p>
+     * The hash will only be committed to the table once the server has acknowledged the chunk, see {@link #acknowledge(long, long)}.
+     *
+     * @param key  the chunk's key
+     * @param time the timestamp that the chunk will be sent with
+     * @param hash the hash of the chunk's contents
+     */
+    public void queued(long key, long time, long hash) {
+        if (this.pending.size() < MAX_PENDING || this.pending.containsKey(key)) {
+            this.pending.put(key, new Pending(time, hash));
+        }
+    }
+
+    /**
+     * Commits the hash of a chunk that was acknowledged by the server.
+     *
+     * @param key  the chunk's key
+     * @param time the timestamp that the chunk was sent with
+     */
+    public void acknowledge(long key, long time) {
+        Pending pending = this.pending.get(key);
+        if (pending != null && pending.time == time && this.pending.remove(key, pending)) {
+            synchronized (this) {
+                if (this.buffer != null) {
+                    this.put(key, pending.hash);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets about a chunk that was queued for upload, but won't be acknowledged because the server rejected it or it was dropped.
+     *
+     * @param key  the chunk's key
+     * @param time the timestamp that the chunk was sent with
+     */
+    public void forget(long key, long time) {
+        Pending pending = this.pending.get(key);
+        if (pending != null && pending.time == time) {
+            this.pending.remove(key, pending);
+        }
+    }
+
+    protected long get(long key) {
+        int mask = this.capacity - 1;
+        for (int i = (int) mix(key) & mask; ; i = (i + 1) & mask) {
+            int offset = HEADER_SIZE + i * SLOT_SIZE;
+            long hash = this.buffer.getLong(offset + 8);
+            if (hash == 0L) {
+                return 0L;
+            } else if (this.buffer.getLong(offset) == key) {
+                return hash;
+            }
+        }
+    }
+
+    protected void put(long key, long hash) {
+        int mask = this.capacity - 1;
+        for (int i = (int) mix(key) & mask; ; i = (i + 1) & mask) {
+            int offset = HEADER_SIZE + i * SLOT_SIZE;
+            if (this.buffer.getLong(offset + 8) == 0L) {
+                //write key before hash so that a torn write never produces a valid slot with the wrong key
+                this.buffer.putLong(offset, key).putLong(offset + 8, hash);
+                this.buffer.putInt(12, ++this.size);
+                if (this.size << 1 > this.capacity) {
+                    this.grow();
+                }
+                return;
+            } else if (this.buffer.getLong(offset) == key) {
+                this.buffer.putLong(offset + 8, hash);
+                return;
+            }
+        }
+    }
+
+    protected void grow() {
+        int oldCapacity = this.capacity;
+        MappedByteBuffer oldBuffer = this.buffer;
+        try {
+            //build the new table in a temporary file, then swap it in
+            this.create(this.tempFile, oldCapacity << 1);
+            this.map(this.tempFile);
+            this.capacity = oldCapacity << 1;
+            this.size = 0;
+            for (int i = 0; i < oldCapacity; i++) {
+                int offset = HEADER_SIZE + i * SLOT_SIZE;
+                long hash = oldBuffer.getLong(offset + 8);
+                if (hash != 0L) {
+                    this.put(oldBuffer.getLong(offset), hash);
+                }
+            }
+            this.buffer.force();
+            //the old mapping is released once it's garbage collected
+            Files.move(this.tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to grow upload history", e);
+        }
+    }
+
+    protected void create(@NonNull File file, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, capacity).putInt(12, 0);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+
+            //extend the file to its full size by writing the last byte, everything in between reads as zero
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) capacity * SLOT_SIZE - 1L);
+            channel.force(false);
+        }
+    }
+
+    protected void map(@NonNull File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, channel.size());
+        }
+    }
+
+    /**
+     * @return the number of chunks in the table
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.buffer != null) {
+            this.buffer.force();
+            //there's no supported way of unmapping a buffer, it's released once it's garbage collected
+            this.buffer = null;
+        }
+        this.pending.clear();
+    }
+
+    @RequiredArgsConstructor
+    protected static final class Pending {
+        protected final long time;
+        protected final long hash;
+    }
+}
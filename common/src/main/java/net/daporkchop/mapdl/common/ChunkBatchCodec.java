@@ -0,0 +1,347 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.common;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * The wire format of batches of chunk records, as used in the body of {@code /api/submit}.
+ * <p>
+ * There are two versions:
+ * <ul>
+ *     <li>{@link #VERSION_LEGACY}: every record is written out in full as {@code (byte dimension, long time, int x, int z, chunk)}. This is what
+ *     the client builds individual records in, since they have to be queued and retried independently.</li>
+ *     <li>{@link #VERSION_COMPACT}: starts with a magic number and version, followed by a base time and the number of records. Records are
+ *     grouped into runs with the same dimension, and each record is {@code (zigzag varint dx, zigzag varint dz, varlong time - base, chunk, int crc)},
+ *     where the coordinates are relative to the previous record. The CRC32 covers everything in the record before it, followed by the record's
+ *     dimension, absolute coordinates and absolute time: this way a damaged base time, run header or delta in an earlier record can't result in a
+ *     record being accepted with the wrong position or time.</li>
+ * </ul>
+ * In both versions, {@code chunk} is the chunk data exactly as it's stored in a region file (length prefix, compression version, compressed NBT),
+ * so that it can be handed to the storage without being copied. {@link #decode(ByteBuf, ChunkRecordConsumer, IntConsumer)} detects the version
+ * by itself, since the magic number can never be mistaken for the first three bytes of a legacy batch.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class ChunkBatchCodec {
+    public final int VERSION_LEGACY  = 0;
+    public final int VERSION_COMPACT = 1;
+
+    //dimension, time, x, z
+    public final int LEGACY_HEADER_SIZE = 1 + 8 + 4 + 4;
+
+    //"MDB". the first byte fits in a legacy record's dimension byte, but the next two would be the top two bytes of the record's timestamp in
+    // milliseconds, which won't be that big for millions of years, so a legacy batch can never start with this
+    protected final int MAGIC = ('M' << 16) | ('D' << 8) | 'B';
+
+    //magic, version, base time
+    protected final int COMPACT_HEADER_SIZE = 3 + 1 + 8;
+
+    protected final ThreadLocal<CRC32> CRC_CACHE = ThreadLocal.withInitial(CRC32::new);
+
+    /**
+     * Begins writing a single legacy record, up to and including the chunk's length prefix (which is left as a placeholder).
+     *
+     * @param dst       the buffer to write to
+     * @param dimension the dimension that the chunk is in
+     * @param time      the time at which the chunk was saved
+     * @param x         the X coordinate of the chunk
+     * @param z         the Z coordinate of the chunk
+     * @return the index of the length prefix, to be passed to {@link #endRecord(ByteBuf, int)} once the chunk data has been written
+     */
+    public int beginRecord(@NonNull ByteBuf dst, int dimension, long time, int x, int z) {
+        dst.writeByte(dimension).writeLong(time).writeInt(x).writeInt(z);
+        int lengthIndex = dst.writerIndex();
+        dst.writeInt(-1);
+        return lengthIndex;
+    }
+
+    /**
+     * Finishes writing a record started with {@link #beginRecord(ByteBuf, int, long, int, int)}, by filling in the length prefix.
+     *
+     * @param dst         the buffer that the record was written to
+     * @param lengthIndex the index of the length prefix
+     */
+    public void endRecord(@NonNull ByteBuf dst, int lengthIndex) {
+        dst.setInt(lengthIndex, dst.writerIndex() - lengthIndex - 4);
+    }
+
+    /**
+     * Writes a complete legacy record.
+     * <p>
+     * The chunk data buffer will not be released.
+     *
+     * @param chunk the chunk data, including the length prefix
+     */
+    public void writeRecord(@NonNull ByteBuf dst, int dimension, long time, int x, int z, @NonNull ByteBuf chunk) {
+        dst.writeByte(dimension).writeLong(time).writeInt(x).writeInt(z).writeBytes(chunk, chunk.readerIndex(), chunk.readableBytes());
+    }
+
+    /**
+     * Encodes a number of legacy records as a single compact batch.
+     *
+     * @param records the records, each in its own buffer as written by {@link #beginRecord(ByteBuf, int, long, int, int)}. They will not be
+     *                modified or released
+     * @param dst     the buffer to write the batch to
+     */
+    public void encodeCompact(@NonNull List<ByteBuf> records, @NonNull ByteBuf dst) {
+        long baseTime = Long.MAX_VALUE;
+        for (ByteBuf record : records) {
+            baseTime = Math.min(baseTime, record.getLong(record.readerIndex() + 1));
+        }
+        if (records.isEmpty()) {
+            baseTime = 0L;
+        }
+
+        dst.writeMedium(MAGIC).writeByte(VERSION_COMPACT).writeLong(baseTime);
+        writeVarLong(dst, records.size());
+
+        CRC32 crc = CRC_CACHE.get();
+        int prevX = 0;
+        int prevZ = 0;
+        for (int i = 0; i < records.size(); ) {
+            //find the length of the run of records with the same dimension
+            int dimension = records.get(i).getByte(records.get(i).readerIndex());
+            int end = i + 1;
+            while (end < records.size() && records.get(end).getByte(records.get(end).readerIndex()) == dimension) {
+                end++;
+            }
+            dst.writeByte(dimension);
+            writeVarLong(dst, end - i);
+
+            for (; i < end; i++) {
+                ByteBuf record = records.get(i);
+                int base = record.readerIndex();
+                long time = record.getLong(base + 1);
+                int x = record.getInt(base + 1 + 8);
+                int z = record.getInt(base + 1 + 8 + 4);
+
+                int start = dst.writerIndex();
+                writeVarLong(dst, zigzag((long) x - prevX));
+                writeVarLong(dst, zigzag((long) z - prevZ));
+                writeVarLong(dst, time - baseTime);
+                dst.writeBytes(record, base + LEGACY_HEADER_SIZE, record.readableBytes() - LEGACY_HEADER_SIZE);
+                dst.writeInt(checksum(crc, dst, start, dst.writerIndex() - start, dimension, x, z, time));
+
+                prevX = x;
+                prevZ = z;
+            }
+        }
+    }
+
+    /**
+     * Reads every record from a batch, in either version.
+     * <p>
+     * If a record is found to be truncated or to have an invalid length prefix, reading stops there, since there's no way of knowing where the next
+     * record begins. Compact records whose checksum doesn't match are skipped, and reading continues with the next record. Since the checksum covers
+     * the absolute coordinates, a record following one with damaged coordinates will fail its checksum too rather than inheriting them. A compact
+     * batch with data left over after the last record is treated as truncated at that point, since its record count must have been damaged.
+     *
+     * @param buf      the batch. Its reader index will be advanced
+     * @param consumer the {@link ChunkRecordConsumer} to pass valid records to
+     * @param corrupt  a callback which will be given the index of every record which was skipped because of a checksum mismatch
+     * @return {@code -1} if the entire batch could be read, otherwise the index of the first record which couldn't be
+     */
+    public int decode(@NonNull ByteBuf buf, @NonNull ChunkRecordConsumer consumer, @NonNull IntConsumer corrupt) throws Exception {
+        switch (version(buf)) {
+            case VERSION_LEGACY:
+                return decodeLegacy(buf, consumer);
+            case VERSION_COMPACT:
+                return decodeCompact(buf, consumer, corrupt);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param buf a batch
+     * @return the version of the batch's encoding, or {@code -1} if it's a compact batch of an unknown version
+     */
+    public int version(@NonNull ByteBuf buf) {
+        if (buf.readableBytes() >= 4 && buf.getUnsignedMedium(buf.readerIndex()) == MAGIC) {
+            int version = buf.getUnsignedByte(buf.readerIndex() + 3);
+            return version == VERSION_COMPACT ? version : -1;
+        }
+        return VERSION_LEGACY;
+    }
+
+    /**
+     * Counts the records in a batch without decoding them.
+     * <p>
+     * For compact batches this is the record count from the header, for legacy batches it's the number of complete records. Either way, it's an
+     * upper bound on the number of records that {@link #decode(ByteBuf, ChunkRecordConsumer, IntConsumer)} will read from the batch.
+     *
+     * @param buf the batch. Its reader index will not be modified
+     * @return the number of records in the batch, or {@code -1} if it's a compact batch of an unknown version or with a malformed header
+     */
+    public long count(@NonNull ByteBuf buf) {
+        switch (version(buf)) {
+            case VERSION_LEGACY: {
+                long count = 0L;
+                for (int index = buf.readerIndex(); buf.writerIndex() - index >= LEGACY_HEADER_SIZE + 4; count++) {
+                    int length = buf.getInt(index + LEGACY_HEADER_SIZE);
+                    if (length < 1 || length > buf.writerIndex() - index - LEGACY_HEADER_SIZE - 4) {
+                        break;
+                    }
+                    index += LEGACY_HEADER_SIZE + 4 + length;
+                }
+                return count;
+            }
+            case VERSION_COMPACT:
+                try {
+                    return readVarLong(buf.duplicate().skipBytes(COMPACT_HEADER_SIZE));
+                } catch (IndexOutOfBoundsException | IllegalStateException e) {
+                    return -1L;
+                }
+            default:
+                return -1L;
+        }
+    }
+
+    protected int decodeLegacy(@NonNull ByteBuf buf, @NonNull ChunkRecordConsumer consumer) throws Exception {
+        for (int index = 0; buf.isReadable(); index++) {
+            if (buf.readableBytes() < LEGACY_HEADER_SIZE + 4) {
+                return index;
+            }
+            int length = buf.getInt(buf.readerIndex() + LEGACY_HEADER_SIZE);
+            if (length < 1 || length > buf.readableBytes() - LEGACY_HEADER_SIZE - 4) {
+                return index;
+            }
+
+            int dimension = buf.readByte();
+            long time = buf.readLong();
+            int x = buf.readInt();
+            int z = buf.readInt();
+            consumer.accept(index, dimension, x, z, time, buf.readRetainedSlice(length + 4));
+        }
+        return -1;
+    }
+
+    protected int decodeCompact(@NonNull ByteBuf buf, @NonNull ChunkRecordConsumer consumer, @NonNull IntConsumer corrupt) throws Exception {
+        if (buf.readableBytes() < COMPACT_HEADER_SIZE) {
+            return 0;
+        }
+        buf.skipBytes(3 + 1);
+        long baseTime = buf.readLong();
+
+        CRC32 crc = CRC_CACHE.get();
+        int prevX = 0;
+        int prevZ = 0;
+        int index = 0;
+        try {
+            long count = readVarLong(buf);
+            while (index < count) {
+                int dimension = buf.readByte();
+                long run = readVarLong(buf);
+                if (run <= 0L || run > count - index) {
+                    return index;
+                }
+
+                for (long end = index + run; index < end; index++) {
+                    int start = buf.readerIndex();
+                    int x = prevX + (int) unzigzag(readVarLong(buf));
+                    int z = prevZ + (int) unzigzag(readVarLong(buf));
+                    long dt = readVarLong(buf);
+                    if (dt < 0L || buf.readableBytes() < 4) {
+                        return index;
+                    }
+                    int length = buf.getInt(buf.readerIndex());
+                    if (length < 1 || length > buf.readableBytes() - 4 - 4) {
+                        return index;
+                    }
+                    int dataIndex = buf.readerIndex();
+                    int checksumIndex = buf.skipBytes(length + 4).readerIndex();
+                    int checksum = buf.readInt();
+
+                    //the coordinates are relative, so they're needed for the next record even if this one is corrupt. if they're wrong, the next
+                    //record's checksum won't match either
+                    prevX = x;
+                    prevZ = z;
+                    if (checksum != checksum(crc, buf, start, checksumIndex - start, dimension, x, z, baseTime + dt)) {
+                        corrupt.accept(index);
+                        continue;
+                    }
+                    consumer.accept(index, dimension, x, z, baseTime + dt, buf.retainedSlice(dataIndex, length + 4));
+                }
+            }
+        } catch (IndexOutOfBoundsException | IllegalStateException e) {
+            //truncated or malformed varint
+            return index;
+        }
+        return buf.isReadable() ? index : -1;
+    }
+
+    protected int checksum(@NonNull CRC32 crc, @NonNull ByteBuf buf, int index, int length, int dimension, int x, int z, long time) {
+        crc.reset();
+        if (buf.hasArray()) {
+            crc.update(buf.array(), buf.arrayOffset() + index, length);
+        } else {
+            for (ByteBuffer buffer : buf.nioBuffers(index, length)) {
+                crc.update(buffer);
+            }
+        }
+        crc.update(dimension);
+        updateLong(crc, ((long) x << 32L) | (z & 0xFFFFFFFFL));
+        updateLong(crc, time);
+        return (int) crc.getValue();
+    }
+
+    protected void updateLong(@NonNull CRC32 crc, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (value >>> shift));
+        }
+    }
+
+    public void writeVarLong(@NonNull ByteBuf dst, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            dst.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7L;
+        }
+        dst.writeByte((int) value);
+    }
+
+    public long readVarLong(@NonNull ByteBuf src) {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = src.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("VarLong too long!");
+    }
+
+    protected long zigzag(long value) {
+        return (value << 1L) ^ (value >> 63L);
+    }
+
+    protected long unzigzag(long value) {
+        return (value >>> 1L) ^ -(value & 1L);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.common;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Accepts individual chunk records read from a batch by {@link ChunkBatchCodec}.
+ *
+ * @author DaPorkchop_
+ * @see ChunkBatchCodec#decode(ByteBuf, ChunkRecordConsumer, java.util.function.IntConsumer)
+ */
+@FunctionalInterface
+public interface ChunkRecordConsumer {
+    /**
+     * Accepts a single chunk record.
+     * <p>
+     * The data buffer is a retained slice of the batch, it must be released by the consumer!
+     *
+     * @param index     the index of the record in the batch
+     * @param dimension the dimension that the chunk is in
+     * @param x         the X coordinate of the chunk
+     * @param z         the Z coordinate of the chunk
+     * @param time      the time at which the chunk was saved
+     * @param data      the compressed chunk data, including the 4-byte length prefix and compression version
+     */
+    void accept(int index, int dimension, int x, int z, long time, ByteBuf data) throws Exception;
+}
@@ -0,0 +1,66 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.common;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The response body of {@code /api/submit}, sent as JSON.
+ * <p>
+ * Every chunk record in the request is referred to by its index in the request body, and will be in exactly one of the lists, unless the body
+ * was malformed, in which case {@link #rejectedFrom()} is set to the index of the first record that could not be read and none of the records
+ * from that point on are listed.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+@Accessors(fluent = true)
+public final class SubmitResponse {
+    //chunks which were written
+    protected List<Integer> accepted = new ArrayList<>();
+
+    //chunks which were not written because the server already has a newer version. these must not be sent again
+    protected List<Integer> stale = new ArrayList<>();
+
+    //chunks which are invalid (e.g. unknown dimension or bad length prefix). these must not be sent again
+    protected List<Integer> rejected = new ArrayList<>();
+
+    //chunks which could not be written due to a temporary server-side error. these should be sent again later
+    protected List<Integer> retry = new ArrayList<>();
+
+    protected int rejectedFrom = -1;
+
+    //the newest ChunkBatchCodec version that the server understands. missing (and therefore 0) in responses from servers which only know the legacy format
+    protected int batchVersion;
+
+    public SubmitResponse rejectedFrom(int rejectedFrom) {
+        this.rejectedFrom = rejectedFrom;
+        return this;
+    }
+
+    public SubmitResponse batchVersion(int batchVersion) {
+        this.batchVersion = batchVersion;
+        return this;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.common;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+import java.nio.charset.StandardCharsets;
+
+import static net.daporkchop.mapdl.common.SharedConstants.*;
+
+/**
+ * The persistent binary upload channel between the client and the server, as an alternative to {@code /api/submit}.
+ * <p>
+ * It's a plain TCP connection carrying frames of the form {@code (int length, byte type, payload)}, where {@code length} covers everything after
+ * itself. Strings are written as a varint length followed by UTF-8 bytes.
+ * <p>
+ * The client opens with {@link #C_HELLO} {@code (varint version, string username, string hashed password)}, and the server answers with either
+ * {@link #S_WELCOME} {@code (varint credits)} or {@link #S_ERROR} {@code (string message)} followed by closing the connection.
+ * <p>
+ * After that, the client may send any number of {@link #C_SUBMIT} {@code (varlong first sequence number, batch)} frames, where the batch is in
+ * any format supported by {@link ChunkBatchCodec} and the records in it are numbered consecutively from the given sequence number. Every record
+ * costs one credit, and the client must never have more records in flight than it was granted: if it does, the server closes the connection.
+ * Frames are processed concurrently, and the server answers each one with an {@link #S_ACK}
+ * {@code (varlong first sequence number, varint count, byte[count] statuses)} as soon as it's done, which may not be in the order they were sent in.
+ * Every acknowledged record gives its credit back to the client.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class UploadProtocol {
+    public final int VERSION = 1;
+
+    //length, type and the biggest possible sequence number
+    public final int MAX_FRAME_SIZE = MAX_REQUEST_SIZE + 4 + 1 + 10;
+
+    //client -> server
+    public final int C_HELLO  = 0;
+    public final int C_SUBMIT = 1;
+
+    //server -> client
+    public final int S_WELCOME = 0;
+    public final int S_ACK     = 1;
+    public final int S_ERROR   = 2;
+
+    //record statuses, with the same meanings as the lists in SubmitResponse
+    public final int STATUS_ACCEPTED = 0;
+    public final int STATUS_STALE    = 1;
+    public final int STATUS_REJECTED = 2;
+    public final int STATUS_RETRY    = 3;
+
+    /**
+     * Begins writing a frame by writing its length (as a placeholder) and type.
+     *
+     * @param dst  the buffer to write to
+     * @param type the frame type
+     * @return the index of the length, to be passed to {@link #endFrame(ByteBuf, int)} once the payload has been written
+     */
+    public int beginFrame(@NonNull ByteBuf dst, int type) {
+        int lengthIndex = dst.writerIndex();
+        dst.writeInt(-1).writeByte(type);
+        return lengthIndex;
+    }
+
+    /**
+     * Finishes writing a frame started with {@link #beginFrame(ByteBuf, int)}.
+     *
+     * @param dst         the buffer that the frame was written to
+     * @param lengthIndex the index of the length
+     */
+    public void endFrame(@NonNull ByteBuf dst, int lengthIndex) {
+        dst.setInt(lengthIndex, dst.writerIndex() - lengthIndex - 4);
+    }
+
+    public void writeString(@NonNull ByteBuf dst, @NonNull String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ChunkBatchCodec.writeVarLong(dst, bytes.length);
+        dst.writeBytes(bytes);
+    }
+
+    public String readString(@NonNull ByteBuf src) {
+        long length = ChunkBatchCodec.readVarLong(src);
+        if (length < 0L || length > src.readableBytes()) {
+            throw new IndexOutOfBoundsException("string length: " + length);
+        }
+        String value = src.toString(src.readerIndex(), (int) length, StandardCharsets.UTF_8);
+        src.skipBytes((int) length);
+        return value;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.NonNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+/**
+ * Randomized tests for {@link ChunkBatchCodec}.
+ * <p>
+ * Every iteration builds a batch of random records and checks that both formats decode back to exactly the same records. Damaged compact batches
+ * must only ever produce records identical to the original record at the same index, while damaged legacy batches (which have no checksums) are
+ * only checked for not throwing and not leaking slices. The seeds are fixed, so failures are reproducible.
+ *
+ * @author DaPorkchop_
+ */
+public class ChunkBatchCodecTest {
+    protected static final int ITERATIONS = 20000;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SplittableRandom random = new SplittableRandom(1337L);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            List<ByteBuf> records = randomRecords(random);
+            ByteBuf legacy = legacy(records);
+            ByteBuf compact = compact(records, random.nextBoolean());
+            try {
+                assertEquals("legacy round trip", -1, decode(legacy, records, false));
+                assertEquals("compact round trip", -1, decode(compact, records, false));
+            } finally {
+                legacy.release();
+                compact.release();
+                records.forEach(ByteBuf::release);
+            }
+        }
+    }
+
+    @Test
+    public void testDamagedCompact() throws Exception {
+        SplittableRandom random = new SplittableRandom(42L);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            List<ByteBuf> records = randomRecords(random);
+            ByteBuf compact = compact(records, random.nextBoolean());
+            try {
+                ByteBuf damaged = mutate(compact, random);
+                try {
+                    if (ChunkBatchCodec.version(damaged) == ChunkBatchCodec.VERSION_COMPACT) {
+                        decode(damaged, records, true);
+                    } else {
+                        //the magic number or version was damaged, so the batch can't be told apart from a legacy one
+                        decodeAny(damaged);
+                    }
+                } finally {
+                    assertEquals("slices released", 1, damaged.refCnt());
+                    damaged.release();
+                }
+            } finally {
+                compact.release();
+                records.forEach(ByteBuf::release);
+            }
+        }
+    }
+
+    @Test
+    public void testTruncatedCompact() throws Exception {
+        SplittableRandom random = new SplittableRandom(7L);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            List<ByteBuf> records = randomRecords(random);
+            ByteBuf compact = compact(records, false);
+            try {
+                if (!compact.isReadable()) {
+                    continue;
+                }
+                ByteBuf truncated = compact.copy(0, random.nextInt(compact.writerIndex()));
+                try {
+                    int result = decode(truncated, records, true);
+                    assertTrue("truncated batch decoded completely", result >= 0);
+                } finally {
+                    truncated.release();
+                }
+            } finally {
+                compact.release();
+                records.forEach(ByteBuf::release);
+            }
+        }
+    }
+
+    @Test
+    public void testDamagedLegacy() throws Exception {
+        SplittableRandom random = new SplittableRandom(1L);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            List<ByteBuf> records = randomRecords(random);
+            ByteBuf legacy = legacy(records);
+            try {
+                ByteBuf damaged = mutate(legacy, random);
+                try {
+                    decodeAny(damaged);
+                } finally {
+                    assertEquals("slices released", 1, damaged.refCnt());
+                    damaged.release();
+                }
+            } finally {
+                legacy.release();
+                records.forEach(ByteBuf::release);
+            }
+        }
+    }
+
+    @Test
+    public void testVarLong() {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            long[] values = { 0L, 1L, 127L, 128L, Integer.MAX_VALUE, -1L, Long.MIN_VALUE, Long.MAX_VALUE };
+            for (long value : values) {
+                ChunkBatchCodec.writeVarLong(buf, value);
+            }
+            for (long value : values) {
+                assertEquals(value, ChunkBatchCodec.readVarLong(buf));
+            }
+            assertFalse(buf.isReadable());
+        } finally {
+            buf.release();
+        }
+    }
+
+    protected static List<ByteBuf> randomRecords(@NonNull SplittableRandom random) {
+        int count = random.nextInt(64);
+        List<ByteBuf> records = new ArrayList<>(count);
+        int dimension = random.nextInt(-1, 2);
+        int x = random.nextInt();
+        int z = random.nextInt();
+        long time = random.nextLong(1L << 41L);
+        for (int i = 0; i < count; i++) {
+            //mostly nearby chunks in the same dimension, with the occasional teleport to keep the edge cases covered
+            if (random.nextInt(8) == 0) {
+                dimension = random.nextInt(-1, 2);
+            }
+            if (random.nextInt(16) == 0) {
+                x = random.nextInt();
+                z = random.nextInt();
+            } else {
+                x += random.nextInt(-3, 4);
+                z += random.nextInt(-3, 4);
+            }
+            time += random.nextInt(-1000, 1000);
+
+            ByteBuf record = Unpooled.buffer();
+            int lengthIndex = ChunkBatchCodec.beginRecord(record, dimension, time, x, z);
+            record.writeByte(2);
+            for (int j = random.nextInt(1, 256); j > 0; j--) {
+                record.writeByte(random.nextInt(256));
+            }
+            ChunkBatchCodec.endRecord(record, lengthIndex);
+            records.add(record);
+        }
+        return records;
+    }
+
+    protected static ByteBuf legacy(@NonNull List<ByteBuf> records) {
+        ByteBuf legacy = Unpooled.buffer();
+        records.forEach(record -> legacy.writeBytes(record, record.readerIndex(), record.readableBytes()));
+        return legacy;
+    }
+
+    protected static ByteBuf compact(@NonNull List<ByteBuf> records, boolean direct) {
+        ByteBuf compact = direct ? Unpooled.directBuffer() : Unpooled.buffer();
+        ChunkBatchCodec.encodeCompact(records, compact);
+        return compact;
+    }
+
+    protected static ByteBuf mutate(@NonNull ByteBuf batch, @NonNull SplittableRandom random) {
+        ByteBuf copy = batch.copy();
+        if (!copy.isReadable()) {
+            return copy;
+        }
+        if (random.nextBoolean()) {
+            int index = random.nextInt(copy.writerIndex());
+            copy.setByte(index, copy.getByte(index) ^ (1 << random.nextInt(8)));
+        } else {
+            for (int i = random.nextInt(1, 8); i > 0; i--) {
+                copy.setByte(random.nextInt(copy.writerIndex()), random.nextInt(256));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Decodes a batch and compares every decoded record with the original record at the same index.
+     *
+     * @param damaged whether or not the batch may have been damaged. If not, every record must be decoded and none may be reported corrupt
+     * @return the value returned by {@link ChunkBatchCodec#decode}
+     */
+    protected static int decode(@NonNull ByteBuf batch, @NonNull List<ByteBuf> expected, boolean damaged) throws Exception {
+        List<ByteBuf> slices = new ArrayList<>();
+        int[] lastIndex = { -1 };
+        try {
+            int result = ChunkBatchCodec.decode(batch.duplicate(), (i, dimension, x, z, time, data) -> {
+                slices.add(data);
+                assertTrue("record index out of bounds: " + i, i >= 0 && i < expected.size());
+                assertTrue("record indices out of order", i > lastIndex[0]);
+                lastIndex[0] = i;
+
+                ByteBuf record = Unpooled.buffer();
+                try {
+                    ChunkBatchCodec.writeRecord(record, dimension, time, x, z, data);
+                    assertEquals("record " + i, expected.get(i), record);
+                } finally {
+                    record.release();
+                }
+            }, i -> {
+                assertTrue("record " + i + " was reported corrupt", damaged);
+                assertTrue("corrupt index out of bounds: " + i, i >= 0 && i < expected.size());
+            });
+            if (!damaged) {
+                assertEquals("record count", expected.size(), slices.size());
+            } else if (result >= 0) {
+                assertTrue("record decoded past the point where decoding stopped", lastIndex[0] < result);
+            }
+            return result;
+        } finally {
+            slices.forEach(ByteBuf::release);
+        }
+    }
+
+    //decodes a batch without knowing what's in it, only making sure that nothing goes wrong
+    protected static void decodeAny(@NonNull ByteBuf batch) throws Exception {
+        List<ByteBuf> slices = new ArrayList<>();
+        try {
+            ChunkBatchCodec.decode(batch.duplicate(), (i, dimension, x, z, time, data) -> slices.add(data), i -> {
+            });
+        } finally {
+            slices.forEach(ByteBuf::release);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.loadgen;
+
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.Future;
+import lombok.NonNull;
+import net.daporkchop.lib.common.pool.selection.SelectionPool;
+import net.daporkchop.lib.hash.util.Digest;
+import net.daporkchop.lib.http.HttpClient;
+import net.daporkchop.lib.http.HttpMethod;
+import net.daporkchop.lib.http.entity.ReusableByteBufHttpEntity;
+import net.daporkchop.lib.http.entity.content.type.StandardContentType;
+import net.daporkchop.lib.http.impl.java.JavaHttpClientBuilder;
+import net.daporkchop.lib.http.response.ResponseBody;
+import net.daporkchop.lib.natives.PNatives;
+import net.daporkchop.lib.natives.zlib.PDeflater;
+import net.daporkchop.lib.natives.zlib.Zlib;
+import net.daporkchop.mapdl.benchmarks.ChunkFixtures;
+import net.daporkchop.mapdl.benchmarks.SyntheticChunk;
+import net.daporkchop.mapdl.common.SubmitResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.daporkchop.mapdl.common.SharedConstants.*;
+
+/**
+ * Headless load generator which simulates lots of mod clients submitting chunks to a running server.
+ * <p>
+ * Usage: {@code LoadGenerator --user <name> --password <password> [--url http://[::1]:8080/] [--clients 1000] [--threads 64] [--batch 64]
+ * [--interval 5000] [--duration 60] [--duplicates 0.1] [--pattern mixed|highway|spawn|wander] [--seed 0]}
+ * <p>
+ * The user must already be registered on the target server.
+ *
+ * @author DaPorkchop_
+ */
+public final class LoadGenerator {
+    protected static final Gson GSON = new Gson();
+
+    public static void main(String... args) throws InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Invalid option: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (!options.containsKey("user") || !options.containsKey("password")) {
+            System.err.println("--user and --password are required!");
+            System.exit(1);
+        }
+
+        new LoadGenerator(options).run();
+    }
+
+    protected final HttpClient client = new JavaHttpClientBuilder()
+            .userAgents(SelectionPool.singleton("2b2tMapDownloader-loadgen"))
+            .blockingRequests(true)
+            .build();
+
+    protected final String url;
+    protected final String username;
+    protected final String hashedPassword;
+
+    protected final int    clients;
+    protected final int    threads;
+    protected final int    batchSize;
+    protected final long   interval;
+    protected final long   duration;
+    protected final double duplicateRatio;
+    protected final String pattern;
+    protected final long   seed;
+
+    protected final LongAdder chunksSent     = new LongAdder();
+    protected final LongAdder chunksAccepted = new LongAdder();
+    protected final LongAdder chunksStale    = new LongAdder();
+    protected final LongAdder chunksRejected = new LongAdder();
+    protected final LongAdder bytesSent      = new LongAdder();
+    protected final LongAdder requestsSent   = new LongAdder();
+    protected final LongAdder requestsFailed = new LongAdder();
+
+    protected long[] latencies = new long[1024]; //us
+    protected int    latencyCount;
+
+    protected ByteBuf[] payloads;
+
+    public LoadGenerator(@NonNull Map<String, String> options) {
+        this.url = options.getOrDefault("url", "http://[::1]:8080/");
+        this.username = options.get("user");
+        this.hashedPassword = Digest.SHA3_256.start()
+                .append(this.username.getBytes(StandardCharsets.UTF_8))
+                .append(':')
+                .append(options.get("password").getBytes(StandardCharsets.UTF_8))
+                .hash().toHex();
+
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "1000"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "64"));
+        this.batchSize = Integer.parseInt(options.getOrDefault("batch", "64"));
+        this.interval = Long.parseLong(options.getOrDefault("interval", "5000"));
+        this.duration = Long.parseLong(options.getOrDefault("duration", "60"));
+        this.duplicateRatio = Double.parseDouble(options.getOrDefault("duplicates", "0.1"));
+        this.pattern = options.getOrDefault("pattern", "mixed");
+        this.seed = Long.parseLong(options.getOrDefault("seed", "0"));
+    }
+
+    public void run() throws InterruptedException {
+        System.out.println("Generating chunk payloads...");
+        this.payloads = new ByteBuf[64];
+        ByteBuf nbt = Unpooled.directBuffer();
+        try (PDeflater deflater = PNatives.ZLIB.get().deflater(Zlib.ZLIB_LEVEL_BEST)) {
+            for (int i = 0; i < this.payloads.length; i++) {
+                ChunkFixtures.encode(new SyntheticChunk(i * 7, i * 13, this.seed), nbt.clear());
+                ChunkFixtures.compress(nbt, deflater, this.payloads[i] = Unpooled.directBuffer());
+            }
+        } finally {
+            nbt.release();
+        }
+
+        System.out.printf("Starting %d clients on %d threads (pattern=%s, batch=%d, interval=%dms, duplicates=%.1f%%)\n",
+                this.clients, this.threads, this.pattern, this.batchSize, this.interval, this.duplicateRatio * 100.0d);
+
+        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(this.threads);
+        SplittableRandom random = new SplittableRandom(this.seed);
+        for (int i = 0; i < this.clients; i++) {
+            SimulatedClient client = new SimulatedClient(random.split(), this.pickPattern(random), this.duplicateRatio);
+            executor.scheduleWithFixedDelay(() -> this.sendBatch(client), random.nextLong(this.interval), this.interval, TimeUnit.MILLISECONDS);
+        }
+
+        long startTime = System.nanoTime();
+        long endTime = startTime + TimeUnit.SECONDS.toNanos(this.duration);
+        long lastChunks = 0L;
+        long lastTime = startTime;
+        while (System.nanoTime() < endTime) {
+            Thread.sleep(5000L);
+
+            long now = System.nanoTime();
+            long chunks = this.chunksSent.sum();
+            System.out.printf("%.1f chunks/s, %d requests (%d failed)\n",
+                    (chunks - lastChunks) / ((now - lastTime) / 1_000_000_000.0d), this.requestsSent.sum(), this.requestsFailed.sum());
+            lastChunks = chunks;
+            lastTime = now;
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1L, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0d;
+
+        long[] latencies;
+        synchronized (this) {
+            latencies = Arrays.copyOf(this.latencies, this.latencyCount);
+        }
+        Arrays.sort(latencies);
+
+        System.out.println("Done!");
+        System.out.printf("  sustained: %.1f chunks/s, %.2f MiB/s\n", this.chunksSent.sum() / seconds, this.bytesSent.sum() / seconds / (1024.0d * 1024.0d));
+        System.out.printf("  requests:  %d sent, %d failed\n", this.requestsSent.sum(), this.requestsFailed.sum());
+        System.out.printf("  chunks:    %d accepted, %d stale, %d rejected\n", this.chunksAccepted.sum(), this.chunksStale.sum(), this.chunksRejected.sum());
+        System.out.printf("  latency:   p50=%.1fms p90=%.1fms p99=%.1fms p99.9=%.1fms max=%.1fms\n",
+                percentile(latencies, 0.5d), percentile(latencies, 0.9d), percentile(latencies, 0.99d), percentile(latencies, 0.999d), percentile(latencies, 1.0d));
+
+        for (ByteBuf payload : this.payloads) {
+            payload.release();
+        }
+    }
+
+    protected MovementPattern pickPattern(@NonNull SplittableRandom random) {
+        if ("mixed".equalsIgnoreCase(this.pattern)) {
+            double d = random.nextDouble();
+            return d < 0.6d ? MovementPattern.HIGHWAY : d < 0.9d ? MovementPattern.SPAWN : MovementPattern.WANDER;
+        } else {
+            return MovementPattern.valueOf(this.pattern.toUpperCase());
+        }
+    }
+
+    protected void sendBatch(@NonNull SimulatedClient client) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(1 << 20, MAX_REQUEST_SIZE);
+        try {
+            //the biggest payload is less than 64 KiB, so this will never exceed the maximum request size
+            int count = Math.min(this.batchSize, MAX_REQUEST_SIZE / (1 << 16));
+            client.writeBatch(buf, count, this.payloads);
+
+            long startTime = System.nanoTime();
+            Future<ResponseBody<String>> bodyFuture = this.client.request(HttpMethod.POST, this.url + "api/submit")
+                    .body(new ReusableByteBufHttpEntity(StandardContentType.APPLICATION_OCTET_STREAM, buf))
+                    .putHeader("mapdl-username", this.username)
+                    .putHeader("mapdl-password", this.hashedPassword)
+                    .aggregateToString()
+                    .send()
+                    .bodyFuture().awaitUninterruptibly();
+            long latency = (System.nanoTime() - startTime) / 1000L;
+
+            this.requestsSent.increment();
+            if (bodyFuture.isSuccess()) {
+                this.chunksSent.add(count);
+                this.bytesSent.add(buf.readableBytes());
+                this.recordLatency(latency);
+
+                SubmitResponse response = GSON.fromJson(bodyFuture.getNow().body(), SubmitResponse.class);
+                this.chunksAccepted.add(response.accepted().size());
+                this.chunksStale.add(response.stale().size());
+                this.chunksRejected.add(response.rejected().size());
+            } else {
+                this.requestsFailed.increment();
+            }
+        } catch (Exception e) {
+            this.requestsFailed.increment();
+            e.printStackTrace();
+        } finally {
+            buf.release();
+        }
+    }
+
+    protected synchronized void recordLatency(long latency) {
+        if (this.latencyCount == this.latencies.length) {
+            this.latencies = Arrays.copyOf(this.latencies, this.latencies.length << 1);
+        }
+        this.latencies[this.latencyCount++] = latency;
+    }
+
+    protected static double percentile(@NonNull long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0.0d;
+        }
+        int index = Math.min((int) Math.ceil(sorted.length * percentile) - 1, sorted.length - 1);
+        return sorted[Math.max(index, 0)] / 1000.0d;
+    }
+}
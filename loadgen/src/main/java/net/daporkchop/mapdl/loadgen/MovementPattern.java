@@ -0,0 +1,42 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.loadgen;
+
+/**
+ * The different ways that a {@link SimulatedClient} can move around the world.
+ *
+ * @author DaPorkchop_
+ */
+public enum MovementPattern {
+    /**
+     * Travels in a straight line along one of the eight nether highways, loading a strip of chunks as wide as the render distance.
+     * <p>
+     * Many clients share the same highways, so there's a lot of overlap between them close to spawn.
+     */
+    HIGHWAY,
+    /**
+     * Mills around near spawn, where almost every chunk has already been sent by someone else.
+     */
+    SPAWN,
+    /**
+     * Random walk somewhere far out in the overworld, almost never overlapping with anyone else.
+     */
+    WANDER;
+}
@@ -0,0 +1,149 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generates the sequence of chunks that a single simulated player would unload.
+ *
+ * @author DaPorkchop_
+ */
+public final class SimulatedClient {
+    protected static final int RENDER_DISTANCE = 8;
+    protected static final int SPAWN_RADIUS    = 64;
+    protected static final int HISTORY_SIZE    = 256;
+
+    //the eight highway directions: +x, -x, +z, -z and the four diagonals
+    protected static final int[][] HIGHWAYS = {
+            { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 },
+            { 1, 1 }, { 1, -1 }, { -1, 1 }, { -1, -1 }
+    };
+
+    protected final SplittableRandom random;
+    protected final MovementPattern  pattern;
+    protected final double           duplicateRatio;
+
+    protected final int dimension;
+    protected final int dirX;
+    protected final int dirZ;
+
+    protected int x;
+    protected int z;
+    protected int stripOffset = -RENDER_DISTANCE;
+
+    //ring buffer of recently sent positions, used for deliberately sending duplicates
+    protected final long[] history = new long[HISTORY_SIZE];
+    protected int historySize;
+    protected int historyIndex;
+
+    public SimulatedClient(@NonNull SplittableRandom random, @NonNull MovementPattern pattern, double duplicateRatio) {
+        this.random = random;
+        this.pattern = pattern;
+        this.duplicateRatio = duplicateRatio;
+
+        switch (pattern) {
+            case HIGHWAY: {
+                int[] highway = HIGHWAYS[random.nextInt(HIGHWAYS.length)];
+                int distance = random.nextInt(100, 50000);
+                this.dimension = -1;
+                this.dirX = highway[0];
+                this.dirZ = highway[1];
+                this.x = this.dirX * distance;
+                this.z = this.dirZ * distance;
+                break;
+            }
+            case SPAWN:
+                this.dimension = 0;
+                this.dirX = this.dirZ = 0;
+                break;
+            case WANDER:
+                this.dimension = 0;
+                this.dirX = this.dirZ = 0;
+                this.x = random.nextInt(-100000, 100000);
+                this.z = random.nextInt(-100000, 100000);
+                break;
+            default:
+                throw new IllegalArgumentException(pattern.name());
+        }
+    }
+
+    /**
+     * Writes the next batch of chunk records to the given buffer, in the exact format used by the client mod.
+     *
+     * @param dst      the buffer to write to
+     * @param count    the number of records to write
+     * @param payloads a pool of compressed chunk payloads to pick from
+     */
+    public void writeBatch(@NonNull ByteBuf dst, int count, @NonNull ByteBuf[] payloads) {
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            long pos;
+            if (this.historySize > 0 && this.random.nextDouble() < this.duplicateRatio) {
+                pos = this.history[this.random.nextInt(this.historySize)];
+            } else {
+                pos = this.nextPosition();
+                this.history[this.historyIndex] = pos;
+                this.historyIndex = (this.historyIndex + 1) % HISTORY_SIZE;
+                this.historySize = Math.min(this.historySize + 1, HISTORY_SIZE);
+            }
+
+            ByteBuf payload = payloads[this.random.nextInt(payloads.length)];
+            dst.writeByte(this.dimension)
+                    .writeLong(time)
+                    .writeInt((int) (pos >> 32))
+                    .writeInt((int) pos)
+                    .writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+        }
+    }
+
+    protected long nextPosition() {
+        int x;
+        int z;
+        switch (this.pattern) {
+            case HIGHWAY:
+                //sweep across the strip of chunks perpendicular to the direction of travel, then move forwards by one chunk
+                x = this.x + this.stripOffset * this.dirZ;
+                z = this.z - this.stripOffset * this.dirX;
+                if (++this.stripOffset > RENDER_DISTANCE) {
+                    this.stripOffset = -RENDER_DISTANCE;
+                    this.x += this.dirX;
+                    this.z += this.dirZ;
+                }
+                break;
+            case SPAWN:
+                x = (int) (this.random.nextDouble() * this.random.nextDouble() * SPAWN_RADIUS) * (this.random.nextBoolean() ? 1 : -1);
+                z = (int) (this.random.nextDouble() * this.random.nextDouble() * SPAWN_RADIUS) * (this.random.nextBoolean() ? 1 : -1);
+                break;
+            case WANDER:
+                this.x += this.random.nextInt(-1, 2);
+                this.z += this.random.nextInt(-1, 2);
+                x = this.x + this.random.nextInt(-RENDER_DISTANCE, RENDER_DISTANCE + 1);
+                z = this.z + this.random.nextInt(-RENDER_DISTANCE, RENDER_DISTANCE + 1);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+        return ((long) x << 32L) | (z & 0xFFFFFFFFL);
+    }
+}
@@ -20,6 +20,7 @@
 package net.daporkchop.mapdl.server;
 
 import com.google.gson.reflect.TypeToken;
+import io.netty.buffer.ByteBuf;
 import io.netty.util.concurrent.Future;
 import lombok.Getter;
 import lombok.NonNull;
@@ -29,12 +30,21 @@ import net.daporkchop.lib.binary.oio.writer.UTF8FileWriter;
 import net.daporkchop.lib.common.function.io.IOConsumer;
 import net.daporkchop.lib.common.misc.file.PFiles;
 import net.daporkchop.lib.common.system.PlatformInfo;
+import net.daporkchop.lib.encoding.Hexadecimal;
+import net.daporkchop.lib.hash.util.Digest;
 import net.daporkchop.lib.http.impl.netty.server.NettyHttpServer;
 import net.daporkchop.lib.http.server.HttpServer;
 import net.daporkchop.lib.logging.LogAmount;
+import net.daporkchop.mapdl.common.UploadProtocol;
 import net.daporkchop.mapdl.common.User;
+import net.daporkchop.mapdl.server.channel.UploadChannelServer;
+import net.daporkchop.mapdl.server.replication.ReplicationFollower;
+import net.daporkchop.mapdl.server.replication.ReplicationSource;
+import net.daporkchop.mapdl.server.snapshot.SnapshotManager;
+import net.daporkchop.mapdl.server.util.ServerConfig;
 import net.daporkchop.mapdl.server.util.process.ProcessLauncher;
 import net.daporkchop.mapdl.server.web.ServerRequestHandler;
+import net.daporkchop.mapdl.server.web.ShardRouter;
 import net.daporkchop.mapdl.server.world.World;
 
 import java.io.File;
@@ -42,6 +52,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -77,17 +88,26 @@ public class Server implements AutoCloseable {
         }
     }
 
-    protected final ProcessLauncher processLauncher = new ProcessLauncher(10L);
+    protected final ProcessLauncher processLauncher = new ProcessLauncher();
     protected final File root;
 
+    protected final ServerConfig config;
+
     protected final File              usersFile;
     protected final Map<String, User> users;
 
     //this is okay performance-wise since Integer caches all values -128 to 127 internally, and we only need -1 to 1
     protected final Map<Integer, World> worlds;
 
+    protected final SnapshotManager snapshots;
+
+    protected final ReplicationSource   replicationSource = new ReplicationSource();
+    protected final ReplicationFollower replicationFollower; //null if this server isn't a follower
+
     protected final HttpServer server;
 
+    protected final UploadChannelServer channel; //null if disabled
+
     private Server(@NonNull File root, @NonNull Scanner scanner) throws IOException {
         try {
             logger.info("Starting 2b2tMapDownloader server...");
@@ -105,6 +125,21 @@ public class Server implements AutoCloseable {
 
             this.root = PFiles.ensureDirectoryExists(root);
 
+            //load config, and write it back immediately so that any newly added options show up in the file
+            File configFile = new File(root, "config.json");
+            if (PFiles.checkFileExists(configFile)) {
+                logger.info("Loading config...");
+                try (Reader src = new UTF8FileReader(configFile)) {
+                    this.config = GSON_ALL.fromJson(src, ServerConfig.class);
+                }
+            } else {
+                this.config = new ServerConfig();
+            }
+            try (Writer dst = new UTF8FileWriter(PFiles.ensureFileExists(configFile))) {
+                GSON_ALL.toJson(this.config, dst);
+                dst.append(PlatformInfo.OPERATING_SYSTEM.lineEnding());
+            }
+
             //load users
             this.users = new ConcurrentHashMap<>();
             this.usersFile = new File(root, "users.json");
@@ -115,24 +150,50 @@ public class Server implements AutoCloseable {
                 }
             }
 
+            //in router mode, chunks are stored by the nodes rather than by this server
+            boolean router = this.config.sharding().nodes().length != 0;
+
             this.server = new NettyHttpServer(logger.channel("HTTP"))
-                    .handler(new ServerRequestHandler(this));
+                    .handler(router ? new ShardRouter(this) : new ServerRequestHandler(this));
 
-            Future<?> bindFuture = this.server.bind(new InetSocketAddress(8080)).addListener(f -> {
+            Future<?> bindFuture = this.server.bind(new InetSocketAddress(this.config.port())).addListener(f -> {
                 if (!f.isSuccess()) {
-                    logger.alert("Failed to bind to port 8080!", f.cause());
+                    logger.alert("Failed to bind to port %d!", f.cause(), this.config.port());
                     System.exit(1);
                 }
             });
 
-            logger.info("Loading worlds...");
+            //the upload channel writes straight to the worlds, so it can't be used by a router
+            if (this.config.channel().enabled() && !router) {
+                this.channel = new UploadChannelServer(this, this.config.channel());
+            } else {
+                this.channel = null;
+            }
+
             Map<Integer, World> worlds = new HashMap<>();
-            for (int i = -1; i <= 1; i++) {
-                worlds.put(i, new World(this, i));
+            if (router) {
+                logger.info("Routing requests to %d storage nodes", this.config.sharding().nodes().length);
+            } else {
+                logger.info("Loading worlds...");
+                for (int i = -1; i <= 1; i++) {
+                    worlds.put(i, new World(this, i));
+                }
             }
             this.worlds = Collections.unmodifiableMap(worlds);
+            this.snapshots = new SnapshotManager(this.worlds, root, this.config.snapshot());
+
+            if (!this.config.replication().primary().isEmpty()) {
+                logger.info("Replicating from %s", this.config.replication().primary());
+                this.replicationFollower = new ReplicationFollower(this.worlds, root, this.config.replication());
+                this.replicationFollower.start();
+            } else {
+                this.replicationFollower = null;
+            }
 
             bindFuture.syncUninterruptibly();
+            if (this.channel != null) {
+                this.channel.bind();
+            }
         } catch (Exception e) {
             logger.alert("Encountered exception while starting server:", e);
 
@@ -150,13 +211,87 @@ public class Server implements AutoCloseable {
     @Override
     public void close() throws IOException {
         this.server.close();
+        if (this.channel != null) {
+            this.channel.close();
+        }
         this.processLauncher.shutdown();
 
         this.saveUsers();
 
+        if (this.replicationFollower != null) {
+            //waits for a run that has already started, it would fail if the worlds were closed underneath it
+            this.replicationFollower.close();
+        }
+        if (this.snapshots != null) {
+            this.snapshots.close();
+        }
         this.worlds.values().forEach((IOConsumer<World>) World::close);
     }
 
+    /**
+     * Checks a user's credentials.
+     *
+     * @param username the username
+     * @param password the hashed password, as sent by the client
+     * @return the user, or {@code null} if the user doesn't exist or the password is wrong
+     */
+    public User authenticate(@NonNull String username, @NonNull String password) {
+        User user = this.users.get(username);
+        if (user == null) {
+            return null;
+        }
+        String saltedHash = Hexadecimal.encode(Digest.SHA3_256.start()
+                .append(username.getBytes(StandardCharsets.UTF_8))
+                .append(':')
+                .append(password.getBytes(StandardCharsets.UTF_8))
+                .hashToByteArray());
+        return saltedHash.equals(user.password()) ? user : null;
+    }
+
+    /**
+     * Stores a single chunk submitted by a user.
+     * <p>
+     * The chunk data buffer will be released. {@link #syncSubmitted()} must be called before the chunk is acknowledged to the user.
+     *
+     * @param user the user who submitted the chunk
+     * @param data the chunk data, exactly as it would be stored in a region file
+     * @return one of the {@code STATUS_*} constants in {@link UploadProtocol}
+     */
+    public int submitChunk(@NonNull User user, int dimension, int x, int z, long time, @NonNull ByteBuf data) {
+        World world = this.worlds.get(dimension);
+        if (world == null) {
+            data.release();
+            return UploadProtocol.STATUS_REJECTED;
+        }
+
+        int size = data.readableBytes();
+        try {
+            if (world.putChunk(x, z, data, time, false)) {
+                user.incrementSentChunks();
+                logger.trace("User \"%s\" submitted chunk (%s,%s) @ %.2f KiB", user.name(), x, z, size / 1024.0d);
+                return UploadProtocol.STATUS_ACCEPTED;
+            } else {
+                return UploadProtocol.STATUS_STALE;
+            }
+        } catch (IllegalArgumentException e) {
+            return UploadProtocol.STATUS_REJECTED;
+        } catch (IOException e) {
+            logger.error("Unable to write chunk (%d,%d) in dimension %d:", e, x, z, dimension);
+            return UploadProtocol.STATUS_RETRY;
+        }
+    }
+
+    /**
+     * Makes sure that every chunk stored by {@link #submitChunk(User, int, int, int, long, ByteBuf)} so far will survive a crash.
+     * <p>
+     * Called once per batch, so that a batch costs a single sync per dimension rather than one for every chunk in it.
+     */
+    public void syncSubmitted() throws IOException {
+        for (World world : this.worlds.values()) {
+            world.syncChangeLog();
+        }
+    }
+
     public void saveUsers() throws IOException {
         synchronized (this.usersFile) {
             try (Writer dst = new UTF8FileWriter(PFiles.ensureFileExists(this.usersFile))) {
@@ -0,0 +1,58 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.analytics;
+
+import io.netty.buffer.ByteBuf;
+import net.daporkchop.mapdl.server.render.RenderChunk;
+
+import java.io.IOException;
+
+/**
+ * Counts the number of blocks of every block ID, e.g. for finding out how many chests or shulker boxes there are.
+ * <p>
+ * The result is indexed by block ID.
+ *
+ * @author DaPorkchop_
+ */
+public final class BlockCountAnalysis implements ChunkAnalysis<long[]> {
+    @Override
+    public long[] newResult() {
+        return new long[4096];
+    }
+
+    @Override
+    public void visit(long[] result, int x, int z, long time, ByteBuf chunk) throws IOException {
+        RenderChunk decoded = RenderChunk.decode(chunk);
+        int top = decoded.topSectionHeight();
+        for (int y = 0; y < top; y++) {
+            for (int i = 0; i < 256; i++) {
+                result[decoded.blockId(i & 0xF, y, i >> 4)]++;
+            }
+        }
+    }
+
+    @Override
+    public long[] merge(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] += b[i];
+        }
+        return a;
+    }
+}
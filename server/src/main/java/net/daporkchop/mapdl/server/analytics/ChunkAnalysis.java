@@ -0,0 +1,78 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.analytics;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A computation run over every chunk in a world by a {@link RegionScanner}.
+ * <p>
+ * Every region is scanned into its own result object, so visiting doesn't need to be thread-safe. The per-region results are then merged
+ * together in pairs until only one is left.
+ *
+ * @param <R> the type of result
+ * @author DaPorkchop_
+ */
+public interface ChunkAnalysis<R> {
+    /**
+     * @return a new, empty result
+     */
+    R newResult();
+
+    /**
+     * Visits a single chunk.
+     * <p>
+     * If an {@link IOException} is thrown (e.g. because the chunk data is corrupt), the chunk is counted as failed and the scan continues.
+     *
+     * @param result the result to add to
+     * @param x      the X coordinate of the chunk
+     * @param z      the Z coordinate of the chunk
+     * @param time   the time at which the chunk was last written, in milliseconds since the epoch (with a resolution of one second)
+     * @param chunk  the chunk data, in region format (length prefix, compression version, compressed NBT). This buffer is reused for the next
+     *               chunk, so it must not be retained or released
+     */
+    void visit(R result, int x, int z, long time, ByteBuf chunk) throws IOException;
+
+    /**
+     * Merges two results.
+     * <p>
+     * Implementations may modify and return one of the arguments.
+     *
+     * @param a the first result
+     * @param b the second result
+     * @return the merged result
+     */
+    R merge(R a, R b);
+
+    /**
+     * Called once every chunk in a region has been visited, with the result for just that region, before it's merged with any others.
+     * <p>
+     * This is not called for regions which were skipped entirely.
+     *
+     * @param result the region's result
+     * @param file   the region file
+     */
+    default void regionDone(R result, @NonNull File file) throws IOException {
+    }
+}
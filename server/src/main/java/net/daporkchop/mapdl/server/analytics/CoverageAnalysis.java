@@ -0,0 +1,83 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.analytics;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Measures how much of a world has been downloaded, without decompressing anything.
+ *
+ * @author DaPorkchop_
+ */
+public final class CoverageAnalysis implements ChunkAnalysis<CoverageAnalysis.Result> {
+    @Override
+    public Result newResult() {
+        return new Result();
+    }
+
+    @Override
+    public void visit(Result result, int x, int z, long time, ByteBuf chunk) {
+        result.chunks++;
+        result.bytes += chunk.readableBytes();
+        result.oldest = Math.min(result.oldest, time);
+        result.newest = Math.max(result.newest, time);
+        result.minX = Math.min(result.minX, x);
+        result.maxX = Math.max(result.maxX, x);
+        result.minZ = Math.min(result.minZ, z);
+        result.maxZ = Math.max(result.maxZ, z);
+    }
+
+    @Override
+    public Result merge(Result a, Result b) {
+        a.chunks += b.chunks;
+        a.bytes += b.bytes;
+        a.oldest = Math.min(a.oldest, b.oldest);
+        a.newest = Math.max(a.newest, b.newest);
+        a.minX = Math.min(a.minX, b.minX);
+        a.maxX = Math.max(a.maxX, b.maxX);
+        a.minZ = Math.min(a.minZ, b.minZ);
+        a.maxZ = Math.max(a.maxZ, b.maxZ);
+        return a;
+    }
+
+    @Getter
+    @Accessors(fluent = true)
+    public static final class Result {
+        protected long chunks;
+        protected long bytes;
+        protected long oldest = Long.MAX_VALUE;
+        protected long newest = Long.MIN_VALUE;
+        protected int  minX   = Integer.MAX_VALUE;
+        protected int  maxX   = Integer.MIN_VALUE;
+        protected int  minZ   = Integer.MAX_VALUE;
+        protected int  maxZ   = Integer.MIN_VALUE;
+
+        @Override
+        public String toString() {
+            if (this.chunks == 0L) {
+                return "0 chunks";
+            }
+            return String.format("%d chunks (%.2f MiB compressed), bounds (%d,%d) to (%d,%d), written between %tF and %tF",
+                    this.chunks, this.bytes / (1024.0d * 1024.0d), this.minX, this.minZ, this.maxX, this.maxZ, this.oldest, this.newest);
+        }
+    }
+}
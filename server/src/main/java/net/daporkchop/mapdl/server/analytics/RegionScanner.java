@@ -0,0 +1,287 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.analytics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.NonNull;
+import net.daporkchop.lib.common.util.PorkUtil;
+import net.daporkchop.lib.minecraft.world.format.anvil.region.RegionConstants;
+import net.daporkchop.mapdl.server.world.RegionHeader;
+import net.daporkchop.mapdl.server.world.World;
+import net.daporkchop.mapdl.server.world.storage.AnvilChunkStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * Runs {@link ChunkAnalysis}es over every chunk in a directory of region files, in parallel.
+ * <p>
+ * The work is split by region using a {@link ForkJoinPool}, and each region's chunks are read straight from the file into a single reused buffer,
+ * so the only per-chunk allocations are whatever the analysis itself does.
+ * <p>
+ * Region files are opened read-only and no locks are taken, so this is safe to run against the data directory of a running server without
+ * slowing down ingest. In that case the results are only a best-effort snapshot: the scanner runs in its own process, so it can't take the
+ * server's region locks, and nothing is re-checked after a chunk has been read. Chunks which are still in the server's write cache won't be seen,
+ * and a chunk which is overwritten while being read may be counted as failed, skipped, or visited with data from whichever chunk now occupies
+ * those sectors. Only scan a stopped server (or a copy of its data) if exact results are needed.
+ * <p>
+ * Usage: {@code RegionScanner <server root> <dimension> <coverage|blocks> [threads]}
+ *
+ * @author DaPorkchop_
+ */
+public final class RegionScanner implements AutoCloseable {
+    public static void main(String... args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("Usage: RegionScanner <server root> <dimension> <coverage|blocks> [threads]");
+            System.exit(1);
+        }
+
+        File regionDir = new File(World.dimensionDir(new File(args[0]), Integer.parseInt(args[1])), "region");
+        int threads = args.length == 4 ? Integer.parseInt(args[3]) : PorkUtil.CPU_COUNT;
+
+        try (RegionScanner scanner = new RegionScanner(threads)) {
+            long startTime = System.nanoTime();
+            String result;
+            switch (args[2].toLowerCase()) {
+                case "coverage":
+                    result = scanner.scan(regionDir, new CoverageAnalysis()).toString();
+                    break;
+                case "blocks": {
+                    long[] counts = scanner.scan(regionDir, new BlockCountAnalysis());
+                    StringBuilder builder = new StringBuilder();
+                    for (int id = 0; id < counts.length; id++) {
+                        if (counts[id] != 0L) {
+                            builder.append(String.format("%n  %4d: %d", id, counts[id]));
+                        }
+                    }
+                    result = "block counts:" + builder;
+                    break;
+                }
+                default:
+                    System.err.println("Unknown analysis: " + args[2]);
+                    System.exit(1);
+                    return;
+            }
+            double seconds = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1L);
+
+            logger.info(result);
+            logger.success("Scanned %d regions (%d chunks, %d failed) in %.1fs (%.1f regions/s)",
+                    scanner.regions(), scanner.chunks(), scanner.failedChunks(), seconds, scanner.regions() / seconds);
+        }
+    }
+
+    protected final ForkJoinPool pool;
+
+    protected final LongAdder regions        = new LongAdder();
+    protected final LongAdder chunks         = new LongAdder();
+    protected final LongAdder failedChunks   = new LongAdder();
+    protected final LongAdder skippedRegions = new LongAdder();
+
+    /**
+     * @param parallelism the number of regions to scan at once
+     */
+    public RegionScanner(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("2b2tMapDownloader region scanner #" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Runs an analysis over every region in the given directory.
+     *
+     * @param regionDir the directory containing the region files
+     * @param analysis  the analysis to run
+     * @param <R>       the type of result
+     * @return the merged result of all regions
+     */
+    public <R> R scan(@NonNull File regionDir, @NonNull ChunkAnalysis<R> analysis) throws IOException {
+        File[] files = regionDir.listFiles(file -> AnvilChunkStorage.REGION_PATTERN.matcher(file.getName()).matches());
+        if (files == null) {
+            throw new IOException("Not a directory: " + regionDir);
+        }
+        return this.scan(files, analysis);
+    }
+
+    /**
+     * Runs an analysis over the given region files.
+     *
+     * @param files    the region files
+     * @param analysis the analysis to run
+     * @param <R>      the type of result
+     * @return the merged result of all regions
+     */
+    public <R> R scan(@NonNull File[] files, @NonNull ChunkAnalysis<R> analysis) throws IOException {
+        if (files.length == 0) {
+            return analysis.newResult();
+        }
+
+        try {
+            return this.pool.invoke(new ScanTask<>(analysis, files, 0, files.length));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    protected <R> R scanRegion(@NonNull ChunkAnalysis<R> analysis, @NonNull File file) throws IOException {
+        R result = analysis.newResult();
+
+        Matcher matcher = AnvilChunkStorage.REGION_PATTERN.matcher(file.getName());
+        if (!matcher.matches()) {
+            return result;
+        }
+        int regionX = Integer.parseInt(matcher.group(1));
+        int regionZ = Integer.parseInt(matcher.group(2));
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            //the region was replaced by the compactor in between listing and opening it
+            this.skippedRegions.increment();
+            return result;
+        }
+
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer();
+        try {
+            RegionHeader header;
+            try {
+                header = RegionHeader.read(channel);
+            } catch (IOException e) {
+                logger.warn("Skipping region %s: %s", file, e);
+                this.skippedRegions.increment();
+                return result;
+            }
+
+            for (int i = 0; i < 1024; i++) {
+                if (!header.has(i)) {
+                    continue;
+                }
+
+                long offset = (long) header.sectorOffset(i) * RegionHeader.SECTOR_BYTES;
+                int length = header.sectorCount(i) * RegionHeader.SECTOR_BYTES;
+                if (offset < RegionHeader.HEADER_BYTES || offset + length > header.fileSize()) {
+                    this.failedChunks.increment();
+                    continue;
+                }
+
+                buf.clear().ensureWritable(length);
+                while (buf.writerIndex() < length && buf.writeBytes(channel, offset + buf.writerIndex(), length - buf.writerIndex()) >= 0) ;
+
+                //the chunk may have been overwritten after the header was read. this only weeds out data which obviously isn't a chunk, anything
+                // else is passed to the analysis as-is
+                int size = buf.writerIndex() >= 5 ? buf.getInt(0) : -1;
+                int version = buf.writerIndex() >= 5 ? buf.getByte(4) : -1;
+                if (size < 1 || size > buf.writerIndex() - 4 || (version != RegionConstants.ID_ZLIB && version != RegionConstants.ID_GZIP)) {
+                    this.failedChunks.increment();
+                    continue;
+                }
+                buf.writerIndex(size + 4);
+
+                try {
+                    analysis.visit(result, (regionX << 5) | (i & 0x1F), (regionZ << 5) | (i >> 5), header.timestamp(i), buf);
+                    this.chunks.increment();
+                } catch (IOException e) {
+                    this.failedChunks.increment();
+                }
+            }
+        } finally {
+            buf.release();
+            channel.close();
+        }
+        analysis.regionDone(result, file);
+        this.regions.increment();
+        return result;
+    }
+
+    public long regions() {
+        return this.regions.sum();
+    }
+
+    public long chunks() {
+        return this.chunks.sum();
+    }
+
+    public long failedChunks() {
+        return this.failedChunks.sum();
+    }
+
+    public long skippedRegions() {
+        return this.skippedRegions.sum();
+    }
+
+    @Override
+    public void close() {
+        this.pool.shutdown();
+    }
+
+    /**
+     * Scans a range of regions, splitting it in half until only a single region is left.
+     *
+     * @author DaPorkchop_
+     */
+    protected final class ScanTask<R> extends RecursiveTask<R> {
+        protected final ChunkAnalysis<R> analysis;
+        protected final File[]           files;
+        protected final int              from;
+        protected final int              to;
+
+        public ScanTask(@NonNull ChunkAnalysis<R> analysis, @NonNull File[] files, int from, int to) {
+            this.analysis = analysis;
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected R compute() {
+            if (this.to - this.from == 1) {
+                try {
+                    return RegionScanner.this.scanRegion(this.analysis, this.files[this.from]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            int middle = (this.from + this.to) >>> 1;
+            ScanTask<R> left = new ScanTask<>(this.analysis, this.files, this.from, middle);
+            ScanTask<R> right = new ScanTask<>(this.analysis, this.files, middle, this.to);
+            left.fork();
+            R rightResult = right.compute();
+            return this.analysis.merge(left.join(), rightResult);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.channel;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import lombok.NonNull;
+import net.daporkchop.mapdl.common.ChunkBatchCodec;
+import net.daporkchop.mapdl.common.UploadProtocol;
+import net.daporkchop.mapdl.common.User;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.daporkchop.lib.logging.Logging.*;
+import static net.daporkchop.mapdl.server.util.ServerConstants.*;
+
+/**
+ * Handles a single upload channel connection.
+ * <p>
+ * Every {@link UploadProtocol#C_SUBMIT} frame is handed off to {@link net.daporkchop.mapdl.server.util.ServerConstants#EXECUTOR} as soon as it
+ * arrives, so any number of frames from the same client may be written at once, and each one is acknowledged as soon as it's done. A client which
+ * has more records in flight than it was granted credits for is disconnected. Even so, reading from the connection is paused while too much data
+ * is waiting to be written, since credits are counted in records rather than bytes.
+ *
+ * @author DaPorkchop_
+ */
+public final class UploadChannelHandler extends ChannelInboundHandlerAdapter {
+    //the amount of frame data that may be waiting to be written before reading from the connection is paused
+    protected static final long MAX_PENDING_BYTES = 64L << 20L;
+
+    protected final UploadChannelServer channelServer;
+
+    protected final AtomicLong pendingBytes   = new AtomicLong();
+    protected final AtomicLong pendingRecords = new AtomicLong();
+
+    protected User user; //null until the handshake is complete, only accessed from the event loop
+
+    public UploadChannelHandler(@NonNull UploadChannelServer channelServer) {
+        this.channelServer = channelServer;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        this.channelServer.connections().increment();
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (this.user != null) {
+            logger.debug("User \"%s\" disconnected from the upload channel", this.user.name());
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        ByteBuf frame = (ByteBuf) msg;
+        try {
+            int type = frame.readUnsignedByte();
+            if (this.user == null) {
+                if (type != UploadProtocol.C_HELLO) {
+                    this.error(ctx, "Expected handshake!");
+                    return;
+                }
+                this.handshake(ctx, frame);
+            } else if (type == UploadProtocol.C_SUBMIT) {
+                this.submit(ctx, frame);
+            } else {
+                this.error(ctx, "Unknown frame type: " + type);
+            }
+        } catch (IndexOutOfBoundsException | IllegalStateException e) {
+            this.error(ctx, "Malformed frame!");
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        logger.debug("Exception in upload channel from %s:", cause, ctx.channel().remoteAddress());
+        ctx.close();
+    }
+
+    protected void handshake(@NonNull ChannelHandlerContext ctx, @NonNull ByteBuf frame) {
+        long version = ChunkBatchCodec.readVarLong(frame);
+        if (version != UploadProtocol.VERSION) {
+            this.error(ctx, "Unsupported protocol version: " + version);
+            return;
+        }
+        String username = UploadProtocol.readString(frame);
+        String password = UploadProtocol.readString(frame);
+        if ((this.user = this.channelServer.server().authenticate(username, password)) == null) {
+            this.error(ctx, "Invalid username or password!");
+            return;
+        }
+
+        logger.debug("User \"%s\" connected to the upload channel from %s", username, ctx.channel().remoteAddress());
+        ByteBuf welcome = ctx.alloc().ioBuffer();
+        int lengthIndex = UploadProtocol.beginFrame(welcome, UploadProtocol.S_WELCOME);
+        ChunkBatchCodec.writeVarLong(welcome, this.channelServer.config().credits());
+        UploadProtocol.endFrame(welcome, lengthIndex);
+        ctx.writeAndFlush(welcome, ctx.voidPromise());
+    }
+
+    protected void submit(@NonNull ChannelHandlerContext ctx, @NonNull ByteBuf frame) {
+        long firstSeq = ChunkBatchCodec.readVarLong(frame);
+        long count = ChunkBatchCodec.count(frame);
+        if (count < 0L) {
+            this.error(ctx, "Unsupported batch format!");
+            return;
+        } else if (this.pendingRecords.addAndGet(count) > this.channelServer.config().credits()) {
+            this.error(ctx, "Credit limit exceeded!");
+            return;
+        }
+
+        int size = frame.readableBytes();
+        if (this.pendingBytes.addAndGet(size) > MAX_PENDING_BYTES) {
+            //this is only ever toggled from the event loop, see resumeReading
+            ctx.channel().config().setAutoRead(false);
+        }
+        this.channelServer.frames().increment();
+        this.channelServer.bytes().add(size);
+
+        User user = this.user;
+        ByteBuf batch = frame.retain();
+        EXECUTOR.execute(() -> {
+            ByteBuf statuses = ctx.alloc().heapBuffer();
+            try {
+                ChunkBatchCodec.decode(batch, (i, dimension, x, z, time, data) -> statuses.writeByte(this.channelServer.server().submitChunk(user, dimension, x, z, time, data)),
+                        i -> statuses.writeByte(UploadProtocol.STATUS_RETRY)); //the client still has the original, so it can just send it again
+                this.channelServer.server().syncSubmitted();
+                this.channelServer.records().add(statuses.readableBytes());
+
+                //the credits have to be given back before the client can possibly see the ack, otherwise its next frame could be counted as an overrun
+                this.pendingRecords.addAndGet(-count);
+
+                //records after the last status in the ack couldn't be read, and are treated as rejected by the client
+                ByteBuf ack = ctx.alloc().ioBuffer();
+                int lengthIndex = UploadProtocol.beginFrame(ack, UploadProtocol.S_ACK);
+                ChunkBatchCodec.writeVarLong(ack, firstSeq);
+                ChunkBatchCodec.writeVarLong(ack, statuses.readableBytes());
+                ack.writeBytes(statuses);
+                UploadProtocol.endFrame(ack, lengthIndex);
+                ctx.writeAndFlush(ack, ctx.voidPromise());
+            } catch (Exception e) {
+                logger.error("Unable to process upload channel frame from user \"%s\":", e, user.name());
+                ctx.close();
+            } finally {
+                statuses.release();
+                batch.release();
+                this.pendingBytes.addAndGet(-size);
+                ctx.channel().eventLoop().execute(() -> this.resumeReading(ctx));
+            }
+        });
+    }
+
+    /**
+     * Resumes reading from the connection if it was paused and enough pending data has been written since.
+     * <p>
+     * Must be called from the event loop: if this were done from the thread which finished writing a frame, it could race with the event loop
+     * pausing reading for a newer frame, and reading could end up paused with nothing left pending to ever resume it.
+     */
+    protected void resumeReading(@NonNull ChannelHandlerContext ctx) {
+        if (this.pendingBytes.get() <= MAX_PENDING_BYTES && !ctx.channel().config().isAutoRead()) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    protected void error(@NonNull ChannelHandlerContext ctx, @NonNull String message) {
+        logger.debug("Closing upload channel from %s: %s", ctx.channel().remoteAddress(), message);
+        ByteBuf error = ctx.alloc().ioBuffer();
+        int lengthIndex = UploadProtocol.beginFrame(error, UploadProtocol.S_ERROR);
+        UploadProtocol.writeString(error, message);
+        UploadProtocol.endFrame(error, lengthIndex);
+        ctx.writeAndFlush(error).addListener(ChannelFutureListener.CLOSE);
+    }
+}
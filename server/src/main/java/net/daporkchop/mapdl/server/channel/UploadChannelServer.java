@@ -0,0 +1,119 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.channel;
+
+import com.google.gson.JsonObject;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import net.daporkchop.lib.common.misc.threadfactory.ThreadFactoryBuilder;
+import net.daporkchop.mapdl.common.UploadProtocol;
+import net.daporkchop.mapdl.server.Server;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * Accepts persistent upload channel connections from clients, as described in {@link UploadProtocol}.
+ * <p>
+ * Connections are handled by {@link UploadChannelHandler}s on a separate port from the HTTP server. Network IO is done on a single event loop
+ * thread, while the chunks themselves are written on {@link net.daporkchop.mapdl.server.util.ServerConstants#EXECUTOR}.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+@Accessors(fluent = true)
+public final class UploadChannelServer implements AutoCloseable {
+    protected final Server               server;
+    protected final ServerConfig.Channel config;
+
+    protected final EventLoopGroup group    = new NioEventLoopGroup(1, new ThreadFactoryBuilder().name("2b2tMapDownloader upload channel IO").build());
+    protected final ChannelGroup   channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    protected       Channel        serverChannel;
+
+    protected final LongAdder connections = new LongAdder();
+    protected final LongAdder frames      = new LongAdder();
+    protected final LongAdder records     = new LongAdder();
+    protected final LongAdder bytes       = new LongAdder();
+
+    public UploadChannelServer(@NonNull Server server, @NonNull ServerConfig.Channel config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    /**
+     * Starts listening for connections.
+     */
+    public void bind() {
+        this.serverChannel = new ServerBootstrap()
+                .group(this.group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) throws Exception {
+                        UploadChannelServer.this.channels.add(channel);
+                        channel.pipeline()
+                                .addLast("framer", new LengthFieldBasedFrameDecoder(UploadProtocol.MAX_FRAME_SIZE, 0, 4, 0, 4))
+                                .addLast("handler", new UploadChannelHandler(UploadChannelServer.this));
+                    }
+                })
+                .bind(new InetSocketAddress(this.config.port()))
+                .syncUninterruptibly().channel();
+        logger.info("Upload channel listening on port %d", this.config.port());
+    }
+
+    /**
+     * Adds statistics about the upload channel to the given JSON object.
+     *
+     * @param obj the {@link JsonObject} to add to
+     */
+    public void stats(@NonNull JsonObject obj) {
+        obj.addProperty("connected", this.channels.size());
+        obj.addProperty("connections", this.connections.sum());
+        obj.addProperty("frames", this.frames.sum());
+        obj.addProperty("records", this.records.sum());
+        obj.addProperty("bytes", this.bytes.sum());
+    }
+
+    @Override
+    public void close() {
+        if (this.serverChannel != null) {
+            this.serverChannel.close().syncUninterruptibly();
+        }
+        this.channels.close().syncUninterruptibly();
+        this.group.shutdownGracefully().syncUninterruptibly();
+    }
+}
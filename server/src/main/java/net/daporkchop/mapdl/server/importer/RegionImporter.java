@@ -0,0 +1,278 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.importer;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import net.daporkchop.lib.binary.oio.reader.UTF8FileReader;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.common.util.PorkUtil;
+import net.daporkchop.mapdl.server.analytics.ChunkAnalysis;
+import net.daporkchop.mapdl.server.analytics.RegionScanner;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.World;
+import net.daporkchop.mapdl.server.world.storage.AnvilChunkStorage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.daporkchop.lib.logging.Logging.*;
+import static net.daporkchop.mapdl.server.util.ServerConstants.*;
+
+/**
+ * Imports chunks from existing Anvil region directories (e.g. from other map downloaders) into a {@link World}.
+ * <p>
+ * Source regions are read in parallel by a {@link RegionScanner}, and each chunk is passed to {@link World#putChunk(int, int, ByteBuf, long)}
+ * exactly as it's stored in the source region, so nothing is ever decompressed. The usual timestamp rules apply: a chunk is only imported if it's
+ * strictly newer than the version which is already present, so importing the same data twice (or importing older downloads on top of newer ones)
+ * doesn't change anything.
+ * <p>
+ * Every completed source region is recorded in a progress file, after the world's write cache has been flushed, so that an interrupted import
+ * can be restarted and will skip everything it has already done. A region is only considered done if its size and modification time haven't
+ * changed since.
+ * <p>
+ * Usage: {@code RegionImporter <server root> <dimension> <threads> <source dir>...}, where each source dir is either a region directory or a world
+ * directory containing one, and {@code threads} may be 0 to use one thread per CPU. The server must not be running at the same time.
+ *
+ * @author DaPorkchop_
+ */
+public final class RegionImporter implements ChunkAnalysis<RegionImporter.Result>, AutoCloseable {
+    //the minimum delay (in milliseconds) between checkpoints and progress reports
+    protected static final long CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toMillis(30L);
+    protected static final long REPORT_INTERVAL     = TimeUnit.SECONDS.toMillis(10L);
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: RegionImporter <server root> <dimension> <threads> <source dir>...");
+            System.exit(1);
+        }
+
+        File root = new File(args[0]);
+        int dimension = Integer.parseInt(args[1]);
+        int threads = Integer.parseInt(args[2]);
+        if (threads <= 0) {
+            threads = PorkUtil.CPU_COUNT;
+        }
+
+        ServerConfig config = new ServerConfig();
+        File configFile = new File(root, "config.json");
+        if (PFiles.checkFileExists(configFile)) {
+            try (Reader src = new UTF8FileReader(configFile)) {
+                config = GSON_ALL.fromJson(src, ServerConfig.class);
+            }
+        }
+
+        List<File> files = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) {
+            File dir = new File(args[i]);
+            if (new File(dir, "region").isDirectory()) {
+                dir = new File(dir, "region");
+            }
+            File[] regions = dir.listFiles(file -> AnvilChunkStorage.REGION_PATTERN.matcher(file.getName()).matches());
+            if (regions == null) {
+                System.err.println("Not a directory: " + dir);
+                System.exit(1);
+            }
+            files.addAll(Arrays.asList(regions));
+        }
+
+        try (World world = new World(root, dimension, config);
+             RegionImporter importer = new RegionImporter(world, new File(World.dimensionDir(root, dimension), "import.progress"))) {
+            importer.run(files, threads);
+        } finally {
+            //the world schedules its background tasks on the shared executor, which would otherwise keep the process alive
+            EXECUTOR.shutdownGracefully();
+        }
+    }
+
+    protected final World  world;
+    protected final File   progressFile;
+    protected final Writer progressWriter;
+
+    //keys of regions which were imported in a previous run
+    protected final Set<String> done = new HashSet<>();
+
+    //keys of regions which have been imported since the last checkpoint
+    protected final List<String> pending = new ArrayList<>();
+
+    protected final LongAdder regions  = new LongAdder();
+    protected final LongAdder imported = new LongAdder();
+    protected final LongAdder older    = new LongAdder();
+    protected final LongAdder bytes    = new LongAdder();
+
+    protected long lastCheckpoint = System.currentTimeMillis();
+
+    public RegionImporter(@NonNull World world, @NonNull File progressFile) throws IOException {
+        this.world = world;
+        this.progressFile = progressFile;
+
+        if (PFiles.checkFileExists(progressFile)) {
+            try (BufferedReader reader = new BufferedReader(new UTF8FileReader(progressFile))) {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    if (!line.isEmpty()) {
+                        this.done.add(line);
+                    }
+                }
+            }
+        }
+        this.progressWriter = new OutputStreamWriter(new FileOutputStream(progressFile, true), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Imports the given region files.
+     *
+     * @param files       the region files to import
+     * @param parallelism the number of regions to import at once
+     */
+    public void run(@NonNull List<File> files, int parallelism) throws IOException {
+        List<File> todo = new ArrayList<>(files.size());
+        for (File file : files) {
+            if (!this.done.contains(key(file))) {
+                todo.add(file);
+            }
+        }
+        if (todo.size() != files.size()) {
+            logger.info("Skipping %d regions which were already imported", files.size() - todo.size());
+        }
+        logger.info("Importing %d regions using %d threads...", todo.size(), parallelism);
+
+        long startTime = System.nanoTime();
+        ScheduledFuture<?> reportFuture = EXECUTOR.scheduleAtFixedRate(() -> this.report(todo.size(), startTime),
+                REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+        try (RegionScanner scanner = new RegionScanner(parallelism)) {
+            scanner.scan(todo.toArray(new File[0]), this);
+            this.checkpoint();
+
+            if (scanner.skippedRegions() != 0L || scanner.failedChunks() != 0L) {
+                logger.warn("%d regions could not be read and %d chunks were corrupt, they will be tried again if the import is repeated",
+                        scanner.skippedRegions(), scanner.failedChunks());
+            }
+        } finally {
+            reportFuture.cancel(false);
+        }
+
+        double seconds = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1L);
+        logger.success("Imported %d chunks (%.2f MiB) from %d regions in %.1fs, %d chunks were older than the existing version",
+                this.imported.sum(), this.bytes.sum() / (1024.0d * 1024.0d), this.regions.sum(), seconds, this.older.sum());
+    }
+
+    protected void report(int total, long startTime) {
+        double seconds = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1L);
+        long regions = this.regions.sum();
+        long imported = this.imported.sum();
+        double regionsPerSecond = regions / seconds;
+        logger.info("%d/%d regions (%.1f%%), %d chunks imported, %d older, %.1f chunks/s, %.2f MiB/s, ETA %ds",
+                regions, total, regions * 100.0d / total, imported, this.older.sum(), imported / seconds,
+                this.bytes.sum() / (1024.0d * 1024.0d) / seconds, regionsPerSecond == 0.0d ? -1L : (long) ((total - regions) / regionsPerSecond));
+    }
+
+    /**
+     * Makes sure that everything imported so far is in the storage, then records the regions it came from as done.
+     */
+    protected synchronized void checkpoint() throws IOException {
+        this.lastCheckpoint = System.currentTimeMillis();
+        if (this.pending.isEmpty()) {
+            return;
+        }
+
+        this.world.flush();
+        for (String key : this.pending) {
+            this.progressWriter.write(key);
+            this.progressWriter.write('\n');
+        }
+        this.progressWriter.flush();
+        this.pending.clear();
+    }
+
+    @Override
+    public Result newResult() {
+        return new Result();
+    }
+
+    @Override
+    public void visit(Result result, int x, int z, long time, ByteBuf chunk) throws IOException {
+        int size = chunk.readableBytes();
+
+        //the buffer is reused by the scanner, so it has to be copied. the data stays compressed the whole way through
+        if (this.world.putChunk(x, z, chunk.copy(), time)) {
+            result.imported++;
+            result.bytes += size;
+        } else {
+            result.older++;
+        }
+    }
+
+    @Override
+    public Result merge(Result a, Result b) {
+        a.imported += b.imported;
+        a.older += b.older;
+        a.bytes += b.bytes;
+        return a;
+    }
+
+    @Override
+    public void regionDone(Result result, @NonNull File file) throws IOException {
+        this.regions.increment();
+        this.imported.add(result.imported);
+        this.older.add(result.older);
+        this.bytes.add(result.bytes);
+
+        synchronized (this) {
+            this.pending.add(key(file));
+            if (System.currentTimeMillis() - this.lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                this.checkpoint();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.progressWriter.close();
+    }
+
+    protected static String key(@NonNull File file) throws IOException {
+        return String.format("%s %d %d", file.getCanonicalPath(), file.length(), file.lastModified());
+    }
+
+    /**
+     * The number of chunks imported from one or more regions.
+     *
+     * @author DaPorkchop_
+     */
+    public static final class Result {
+        protected long imported;
+        protected long older;
+        protected long bytes;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.render;
+
+import lombok.experimental.UtilityClass;
+
+import java.util.Arrays;
+
+/**
+ * Colours used when rendering blocks from above.
+ * <p>
+ * These are roughly the same as the colours used by vanilla maps, which is close enough for telling terrain apart without having to ship any
+ * textures.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class BlockColors {
+    public final int AIR     = 0;
+    public final int UNKNOWN = 0xFF808080;
+
+    //ids of blocks which need special treatment by the renderer
+    public final int WATER         = 8;
+    public final int WATER_FLOWING = 9;
+
+    //the 16 dye colours, indexed by metadata
+    private final int[] DYE = {
+            0xFFFFFFFF, 0xFFD87F33, 0xFFB24CD8, 0xFF6699D8, 0xFFE5E533, 0xFF7FCC19, 0xFFF27FA5, 0xFF4C4C4C,
+            0xFF999999, 0xFF4C7F99, 0xFF7F3FB2, 0xFF334CB2, 0xFF664C33, 0xFF667F33, 0xFF993333, 0xFF191919
+    };
+
+    //indexed by (id << 4) | meta
+    private final int[] COLORS = new int[4096 << 4];
+
+    static {
+        Arrays.fill(COLORS, UNKNOWN);
+        Arrays.fill(COLORS, 0, 16, AIR);
+
+        set(1, 0xFF707070); //stone
+        set(2, 0xFF7FB238); //grass
+        set(3, 0xFF976D4D); //dirt
+        set(4, 0xFF707070); //cobblestone
+        set(5, 0xFF8F7748); //planks
+        set(7, 0xFF505050); //bedrock
+        set(8, 0xFF4040FF); //water
+        set(9, 0xFF4040FF);
+        set(10, 0xFFFF0000); //lava
+        set(11, 0xFFFF0000);
+        set(12, 0xFFF7E9A3); //sand
+        COLORS[(12 << 4) | 1] = 0xFFD87F33; //red sand
+        set(13, 0xFF8C8480); //gravel
+        set(17, 0xFF8F7748); //log
+        set(18, 0xFF007C00); //leaves
+        set(20, AIR); //glass
+        set(24, 0xFFF7E9A3); //sandstone
+        set(31, 0xFF007C00); //tall grass
+        set(37, 0xFF007C00); //flowers
+        set(38, 0xFF007C00);
+        set(43, 0xFF707070); //stone slabs
+        set(44, 0xFF707070);
+        set(48, 0xFF5F7060); //mossy cobblestone
+        set(49, 0xFF191919); //obsidian
+        set(50, AIR); //torch
+        set(53, 0xFF8F7748); //oak stairs
+        set(54, 0xFF8F7748); //chest
+        set(60, 0xFF976D4D); //farmland
+        set(67, 0xFF707070); //cobblestone stairs
+        set(78, 0xFFFFFFFF); //snow layer
+        set(79, 0xFFA0A0FF); //ice
+        set(80, 0xFFFFFFFF); //snow
+        set(81, 0xFF007C00); //cactus
+        set(82, 0xFFA4A8B8); //clay
+        set(83, 0xFF007C00); //sugar cane
+        set(86, 0xFFD87F33); //pumpkin
+        set(87, 0xFF700200); //netherrack
+        set(88, 0xFF664C33); //soul sand
+        set(89, 0xFFF7E9A3); //glowstone
+        set(98, 0xFF707070); //stone bricks
+        set(99, 0xFF976D4D); //mushroom blocks
+        set(100, 0xFF993333);
+        set(102, AIR); //glass pane
+        set(103, 0xFF7FCC19); //melon
+        set(106, 0xFF007C00); //vines
+        set(110, 0xFF7F3FB2); //mycelium
+        set(111, 0xFF007C00); //lily pad
+        set(112, 0xFF700200); //nether brick
+        set(121, 0xFFF7E9A3); //end stone
+        set(155, 0xFFFFFCF5); //quartz
+        set(161, 0xFF007C00); //leaves2
+        set(162, 0xFF8F7748); //log2
+        set(172, 0xFF993333); //hardened clay
+        set(174, 0xFFA0A0FF); //packed ice
+        set(175, 0xFF007C00); //double plant
+        set(179, 0xFFD87F33); //red sandstone
+        set(201, 0xFFB24CD8); //purpur
+        set(206, 0xFFF7E9A3); //end bricks
+
+        dyed(35); //wool
+        dyed(95); //stained glass
+        dyed(159); //stained hardened clay
+        dyed(171); //carpet
+        dyed(251); //concrete
+        dyed(252); //concrete powder
+    }
+
+    private void set(int id, int color) {
+        Arrays.fill(COLORS, id << 4, (id + 1) << 4, color);
+    }
+
+    private void dyed(int id) {
+        System.arraycopy(DYE, 0, COLORS, id << 4, 16);
+    }
+
+    /**
+     * Gets the colour of the given block.
+     *
+     * @param id   the block ID
+     * @param meta the block metadata
+     * @return the block's colour in ARGB format. Transparent blocks have an alpha value of {@code 0}
+     */
+    public int color(int id, int meta) {
+        return COLORS[((id & 0xFFF) << 4) | (meta & 0xF)];
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.render;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import net.daporkchop.mapdl.server.util.NBTWalker;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static net.daporkchop.mapdl.server.util.NBTWalker.*;
+
+/**
+ * The parts of a chunk needed for rendering it from above, decoded straight from the compressed NBT without building a tag tree.
+ * <p>
+ * Only the {@code Y}, {@code Blocks}, {@code Data} and {@code Add} tags of each section in {@code Level.Sections} are kept,
+ * everything else is skipped.
+ *
+ * @author DaPorkchop_
+ */
+public final class RenderChunk {
+    /**
+     * Decodes a chunk.
+     *
+     * @param buf the chunk data, in region format (length prefix, compression version, compressed NBT). Will not be released
+     * @return the decoded chunk
+     */
+    public static RenderChunk decode(@NonNull ByteBuf buf) throws IOException {
+        RenderChunk chunk = new RenderChunk();
+        try (DataInputStream in = NBTWalker.openLevel(buf)) {
+            chunk.readLevel(in);
+        }
+        return chunk;
+    }
+
+    //indexed by section Y, null if the section is empty
+    protected final byte[][] blocks = new byte[16][];
+    protected final byte[][] data   = new byte[16][];
+    protected final byte[][] add    = new byte[16][];
+
+    protected RenderChunk() {
+    }
+
+    protected void readLevel(@NonNull DataInputStream in) throws IOException {
+        for (int type; (type = in.readUnsignedByte()) != TAG_END; ) {
+            String name = in.readUTF();
+            if (type == TAG_LIST && "Sections".equals(name)) {
+                int elementType = in.readUnsignedByte();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    if (elementType == TAG_COMPOUND) {
+                        this.readSection(in);
+                    } else {
+                        skip(in, elementType);
+                    }
+                }
+            } else {
+                skip(in, type);
+            }
+        }
+    }
+
+    protected void readSection(@NonNull DataInputStream in) throws IOException {
+        int y = -1;
+        byte[] blocks = null;
+        byte[] data = null;
+        byte[] add = null;
+        for (int type; (type = in.readUnsignedByte()) != TAG_END; ) {
+            String name = in.readUTF();
+            if (type == TAG_BYTE && "Y".equals(name)) {
+                y = in.readByte();
+            } else if (type == TAG_BYTE_ARRAY && ("Blocks".equals(name) || "Data".equals(name) || "Add".equals(name))) {
+                byte[] arr = new byte[in.readInt()];
+                in.readFully(arr);
+                switch (name) {
+                    case "Blocks":
+                        blocks = arr;
+                        break;
+                    case "Data":
+                        data = arr;
+                        break;
+                    default:
+                        add = arr;
+                }
+            } else {
+                skip(in, type);
+            }
+        }
+        if (y >= 0 && y < 16 && blocks != null && blocks.length == 4096) {
+            this.blocks[y] = blocks;
+            this.data[y] = data != null && data.length == 2048 ? data : null;
+            this.add[y] = add != null && add.length == 2048 ? add : null;
+        }
+    }
+
+    /**
+     * Gets the ID of the block at the given position.
+     *
+     * @param x the X coordinate, in range {@code [0, 16)}
+     * @param y the Y coordinate, in range {@code [0, 256)}
+     * @param z the Z coordinate, in range {@code [0, 16)}
+     * @return the block ID (0-4095)
+     */
+    public int blockId(int x, int y, int z) {
+        byte[] blocks = this.blocks[y >> 4];
+        if (blocks == null) {
+            return 0;
+        }
+        int index = ((y & 0xF) << 8) | (z << 4) | x;
+        int id = blocks[index] & 0xFF;
+        byte[] add = this.add[y >> 4];
+        if (add != null) {
+            id |= ((add[index >> 1] >> ((index & 1) << 2)) & 0xF) << 8;
+        }
+        return id;
+    }
+
+    /**
+     * Gets the metadata of the block at the given position.
+     *
+     * @param x the X coordinate, in range {@code [0, 16)}
+     * @param y the Y coordinate, in range {@code [0, 256)}
+     * @param z the Z coordinate, in range {@code [0, 16)}
+     * @return the block metadata (0-15)
+     */
+    public int blockMeta(int x, int y, int z) {
+        byte[] data = this.data[y >> 4];
+        if (data == null) {
+            return 0;
+        }
+        int index = ((y & 0xF) << 8) | (z << 4) | x;
+        return (data[index >> 1] >> ((index & 1) << 2)) & 0xF;
+    }
+
+    /**
+     * Gets the height of the highest non-empty section, which is an upper bound on the height of any block in the chunk.
+     *
+     * @return the Y coordinate directly above the top of the highest section, or {@code 0} if the chunk is empty
+     */
+    public int topSectionHeight() {
+        for (int y = 15; y >= 0; y--) {
+            if (this.blocks[y] != null) {
+                return (y + 1) << 4;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.render;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.unsafe.util.exception.AlreadyReleasedException;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.ChunkIndex;
+import net.daporkchop.mapdl.server.world.World;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * Keeps a pyramid of top-down map tiles of a {@link World} up to date.
+ * <p>
+ * Tiles are 256x256 PNG images. At zoom level 0 every tile covers 16x16 chunks at one pixel per block, and every tile at zoom level {@code n} is
+ * made up of the four tiles below it at level {@code n - 1}, scaled down by half.
+ * <p>
+ * The renderer follows the world's {@link net.daporkchop.mapdl.server.world.ChangeLog}, so only chunks which were actually written are redrawn,
+ * and only into the level 0 tile containing them. Rendering happens on a small dedicated thread pool and only ever takes the world's read lock,
+ * so it never slows down ingest: if the renderer falls behind, the changes simply pile up in the log until it catches up. The position in the log
+ * is saved after every batch, so nothing is missed across restarts.
+ * <p>
+ * Chunks which were written before the change log was started (or before it was reset) never show up in it, so when there's no saved position in
+ * the log, every chunk in the {@link ChunkIndex} is rendered first, one tile at a time. The position is only saved once this backfill is complete,
+ * so it starts over if the server is restarted in the meantime.
+ * <p>
+ * Higher zoom levels are not rendered eagerly. Whenever a level 0 tile changes, the tiles above it are deleted, and are recomposed from their
+ * children the next time they're requested.
+ *
+ * @author DaPorkchop_
+ */
+public final class TileRenderer implements AutoCloseable {
+    public static final int TILE_SIZE = 256;
+    public static final int MAX_ZOOM  = 8;
+
+    //log2 of the number of chunks along each side of a level 0 tile
+    protected static final int TILE_CHUNKS_SHIFT = 4;
+
+    protected final World               world;
+    protected final int                 dimension;
+    protected final File                root;
+    protected final File                cursorFile;
+    protected final ServerConfig.Render config;
+
+    protected final ThreadPoolExecutor executor;
+
+    //the number of tiles from the current batch which haven't been rendered yet, plus one until the batch's completion callback has run
+    protected final AtomicInteger pending = new AtomicInteger();
+
+    //the number of times each tile which is currently being composed has been invalidated since composition started, so that composition can tell
+    //if a child changed underneath it. only accessed while holding invalidationLock
+    protected final Map<Long, Composition> composing        = new HashMap<>();
+    protected final Object                 invalidationLock = new Object();
+
+    //the positions of all chunks which existed before the change log was first read, sorted by tile (see tileMajor). null if not backfilling
+    protected volatile long[] backfill;
+    protected int             backfillIndex;
+    protected long            backfillCursor;
+    protected boolean         needsBackfill;
+
+    protected final LongAdder renderedChunks = new LongAdder();
+    protected final LongAdder renderedTiles  = new LongAdder();
+    protected final LongAdder composedTiles  = new LongAdder();
+    protected final LongAdder failedChunks   = new LongAdder();
+
+    //the position in the change log up to which everything has been rendered
+    protected volatile long cursor;
+
+    protected volatile boolean closed = false;
+
+    public TileRenderer(@NonNull World world, int dimension, @NonNull File root, @NonNull ServerConfig.Render config) throws IOException {
+        this.world = world;
+        this.dimension = dimension;
+        this.root = PFiles.ensureDirectoryExists(root);
+        this.cursorFile = new File(root, "cursor");
+        this.config = config;
+
+        if (this.cursorFile.isFile()) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(this.cursorFile))) {
+                this.cursor = in.readLong();
+            }
+        } else {
+            this.needsBackfill = true;
+        }
+
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(config.threads(), config.threads(), 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, String.format("2b2tMapDownloader renderer DIM%d #%d", dimension, threadId.getAndIncrement()));
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Reads the next batch of changes from the change log and starts rendering the affected tiles.
+     * <p>
+     * Does nothing if the previous batch is still being rendered.
+     */
+    public void poll() {
+        if (this.closed || this.pending.get() != 0) {
+            return;
+        }
+
+        try {
+            if (!this.needsBackfill && this.backfill == null && (this.cursor > this.world.changeCount() || this.cursor < this.world.firstChange())) {
+                logger.warn("Render cursor for dimension %d is outside of the change log, re-rendering everything", this.dimension);
+                this.needsBackfill = true;
+            }
+            if (this.needsBackfill) {
+                this.startBackfill();
+            }
+            if (this.backfill != null) {
+                this.pollBackfill();
+                return;
+            }
+
+            //group changed chunks by tile, so that each tile is only loaded and saved once per batch
+            Map<Long, Set<Long>> tiles = new HashMap<>();
+            long next = this.world.changes(this.cursor, this.config.batchSize(), (x, z, time) -> tiles
+                    .computeIfAbsent(ChunkIndex.key(x >> TILE_CHUNKS_SHIFT, z >> TILE_CHUNKS_SHIFT), k -> new HashSet<>())
+                    .add(ChunkIndex.key(x, z)));
+
+            if (tiles.isEmpty()) {
+                if (next != this.cursor) {
+                    this.saveCursor(next);
+                }
+                return;
+            }
+            this.render(tiles, () -> this.saveCursor(next));
+        } catch (AlreadyReleasedException e) {
+            //the world was closed
+        } catch (Exception e) {
+            logger.error("Unable to read change log for dimension %d:", e, this.dimension);
+        }
+    }
+
+    protected void startBackfill() {
+        logger.info("Rendering all existing chunks in dimension %d...", this.dimension);
+
+        //everything written after this point will be picked up from the change log afterwards
+        long cursor = this.world.changeCount();
+        List<Long> chunks = new ArrayList<>();
+        this.world.modifiedSince(Long.MIN_VALUE, (x, z, time) -> chunks.add(tileMajor(x, z)));
+
+        //sorting by tile means that each tile only has to be loaded and saved once
+        this.backfill = chunks.stream().mapToLong(Long::longValue).sorted().toArray();
+        this.backfillIndex = 0;
+        this.backfillCursor = cursor;
+        this.needsBackfill = false;
+    }
+
+    protected void pollBackfill() {
+        long[] backfill = this.backfill;
+        int index = this.backfillIndex;
+
+        //take whole tiles until the batch is full
+        Map<Long, Set<Long>> tiles = new HashMap<>();
+        for (int count = 0; index < backfill.length && (count < this.config.batchSize() || tileMajorSameTile(backfill[index], backfill[index - 1])); count++) {
+            int x = tileMajorX(backfill[index]);
+            int z = tileMajorZ(backfill[index++]);
+            tiles.computeIfAbsent(ChunkIndex.key(x >> TILE_CHUNKS_SHIFT, z >> TILE_CHUNKS_SHIFT), k -> new HashSet<>()).add(ChunkIndex.key(x, z));
+        }
+        this.backfillIndex = index;
+
+        if (index >= backfill.length) {
+            long cursor = this.backfillCursor;
+            this.backfill = null;
+            if (tiles.isEmpty()) {
+                this.saveCursor(cursor);
+            } else {
+                this.render(tiles, () -> {
+                    this.saveCursor(cursor);
+                    logger.success("Rendered %d existing chunks in dimension %d", backfill.length, this.dimension);
+                });
+            }
+        } else {
+            this.render(tiles, () -> {
+            });
+        }
+    }
+
+    /**
+     * Starts rendering the given tiles on the executor.
+     *
+     * @param tiles    the chunks to render, grouped by tile
+     * @param whenDone called once every tile has been rendered, unless the renderer was closed in the meantime
+     */
+    protected void render(@NonNull Map<Long, Set<Long>> tiles, @NonNull Runnable whenDone) {
+        this.pending.set(tiles.size() + 1);
+        tiles.forEach((tile, chunks) -> this.executor.execute(() -> {
+            try {
+                this.renderTile((int) (tile >> 32L), (int) (long) tile, chunks);
+            } catch (AlreadyReleasedException e) {
+                //the world was closed, the cursor won't be saved so this batch will be picked up again next time
+            } catch (Exception e) {
+                logger.error("Unable to render tile (%d,%d) in dimension %d:", e, (int) (tile >> 32L), (int) (long) tile, this.dimension);
+            } finally {
+                if (this.pending.decrementAndGet() == 1) {
+                    //the next batch can't be started until the callback is done, otherwise it could start from the old cursor
+                    try {
+                        if (!this.closed) {
+                            whenDone.run();
+                        }
+                    } finally {
+                        this.pending.set(0);
+                    }
+                }
+            }
+        }));
+    }
+
+    protected synchronized void saveCursor(long cursor) {
+        try {
+            File tempFile = new File(this.root, "cursor.tmp");
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+                out.writeLong(cursor);
+            }
+            Files.move(tempFile.toPath(), this.cursorFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.cursor = cursor;
+        } catch (IOException e) {
+            logger.error("Unable to save render cursor for dimension %d:", e, this.dimension);
+        }
+    }
+
+    protected void renderTile(int tileX, int tileZ, @NonNull Set<Long> chunks) throws IOException {
+        BufferedImage image = this.load(0, tileX, tileZ);
+        if (image == null) {
+            image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        for (long key : chunks) {
+            int x = (int) (key >> 32L);
+            int z = (int) key;
+            ByteBuf buf = this.world.getChunk(x, z);
+            if (buf == null) {
+                continue;
+            }
+            try {
+                this.renderChunk(RenderChunk.decode(buf), pixels, (z & 0xF) << 4 << 8 | (x & 0xF) << 4);
+                this.renderedChunks.increment();
+            } catch (IOException e) {
+                //a single broken chunk shouldn't prevent the rest of the tile from being rendered
+                logger.warn("Unable to decode chunk (%d,%d) in dimension %d: %s", x, z, this.dimension, e);
+                this.failedChunks.increment();
+            } finally {
+                buf.release();
+            }
+        }
+
+        synchronized (this.invalidationLock) {
+            this.write(this.tileFile(0, tileX, tileZ), image);
+            for (int zoom = 1; zoom <= MAX_ZOOM; zoom++) {
+                Files.deleteIfExists(this.tileFile(zoom, tileX >> zoom, tileZ >> zoom).toPath());
+                Composition composition = this.composing.get(tileKey(zoom, tileX >> zoom, tileZ >> zoom));
+                if (composition != null) {
+                    composition.invalidations++;
+                }
+            }
+        }
+        this.renderedTiles.increment();
+    }
+
+    protected void renderChunk(@NonNull RenderChunk chunk, @NonNull int[] pixels, int offset) {
+        int top = chunk.topSectionHeight() - 1;
+        int[] heights = new int[16];
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                int y = this.dimension == -1 ? belowRoof(chunk, x, z, top) : top;
+
+                //find the first visible block
+                int color = BlockColors.AIR;
+                for (; y >= 0; y--) {
+                    if ((color = BlockColors.color(chunk.blockId(x, y, z), chunk.blockMeta(x, y, z))) >>> 24 != 0) {
+                        break;
+                    }
+                }
+                int northY = heights[x];
+                heights[x] = y;
+                if (y < 0) {
+                    pixels[offset + (z << 8) + x] = 0;
+                    continue;
+                }
+
+                double brightness = 1.0d;
+                int id = chunk.blockId(x, y, z);
+                if (id == BlockColors.WATER || id == BlockColors.WATER_FLOWING) {
+                    //darken water depending on how deep it is
+                    int depth = 0;
+                    for (int i = y - 1; i >= 0 && depth < 10 && isWater(chunk.blockId(x, i, z)); i--) {
+                        depth++;
+                    }
+                    brightness -= depth * 0.04d;
+                } else if (z > 0) {
+                    //shade depending on the height difference to the block to the north, just like vanilla maps
+                    if (y > northY) {
+                        brightness = 1.1d;
+                    } else if (y < northY) {
+                        brightness = 0.85d;
+                    }
+                }
+                pixels[offset + (z << 8) + x] = shade(color, brightness);
+            }
+        }
+    }
+
+    protected static boolean isWater(int id) {
+        return id == BlockColors.WATER || id == BlockColors.WATER_FLOWING;
+    }
+
+    //the nether has a bedrock ceiling, so skip down through it to the first air block to see anything useful
+    protected static int belowRoof(@NonNull RenderChunk chunk, int x, int z, int top) {
+        int y = Math.min(top, 127);
+        while (y >= 0 && chunk.blockId(x, y, z) != 0) {
+            y--;
+        }
+        return y;
+    }
+
+    protected static int shade(int color, double brightness) {
+        int r = Math.min((int) (((color >>> 16) & 0xFF) * brightness), 0xFF);
+        int g = Math.min((int) (((color >>> 8) & 0xFF) * brightness), 0xFF);
+        int b = Math.min((int) ((color & 0xFF) * brightness), 0xFF);
+        return (color & 0xFF000000) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Gets a tile as a PNG image.
+     * <p>
+     * If the tile is above zoom level 0 and isn't up to date, it will be recomposed from its children first.
+     *
+     * @param zoom the zoom level, in range {@code [0, MAX_ZOOM]}
+     * @param x    the X coordinate of the tile
+     * @param z    the Z coordinate of the tile
+     * @return the encoded PNG image, or {@code null} if nothing in the tile has been rendered yet
+     */
+    public byte[] tile(int zoom, int x, int z) throws IOException {
+        if (zoom < 0 || zoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Invalid zoom level: " + zoom);
+        }
+
+        File file = this.tileFile(zoom, x, z);
+        if (file.isFile()) {
+            try {
+                return Files.readAllBytes(file.toPath());
+            } catch (NoSuchFileException e) {
+                //the tile was invalidated while we were reading it, fall through and recompose it
+            }
+        }
+        BufferedImage image = zoom == 0 ? null : this.compose(zoom, x, z);
+        if (image == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    protected BufferedImage load(int zoom, int x, int z) throws IOException {
+        File file = this.tileFile(zoom, x, z);
+        if (file.isFile()) {
+            BufferedImage image;
+            try {
+                image = ImageIO.read(file);
+            } catch (IOException e) {
+                if (file.exists()) {
+                    throw e;
+                }
+                image = null; //the tile was invalidated while we were reading it
+            }
+            if (image != null) {
+                if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+                    BufferedImage converted = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+                    converted.getGraphics().drawImage(image, 0, 0, null);
+                    image = converted;
+                }
+                return image;
+            }
+        }
+        return zoom == 0 ? null : this.compose(zoom, x, z);
+    }
+
+    protected BufferedImage compose(int zoom, int x, int z) throws IOException {
+        long key = tileKey(zoom, x, z);
+        Composition composition;
+        long invalidations;
+        synchronized (this.invalidationLock) {
+            composition = this.composing.computeIfAbsent(key, k -> new Composition());
+            composition.refCnt++;
+            invalidations = composition.invalidations;
+        }
+
+        BufferedImage image = null;
+        Graphics2D graphics = null;
+        try {
+            for (int dx = 0; dx < 2; dx++) {
+                for (int dz = 0; dz < 2; dz++) {
+                    BufferedImage child = this.load(zoom - 1, (x << 1) | dx, (z << 1) | dz);
+                    if (child == null) {
+                        continue;
+                    }
+                    if (image == null) {
+                        image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+                        graphics = image.createGraphics();
+                        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    }
+                    graphics.drawImage(child, dx * (TILE_SIZE >> 1), dz * (TILE_SIZE >> 1), TILE_SIZE >> 1, TILE_SIZE >> 1, null);
+                }
+            }
+        } catch (Throwable t) {
+            synchronized (this.invalidationLock) {
+                this.releaseComposition(key, composition);
+            }
+            throw t;
+        } finally {
+            if (graphics != null) {
+                graphics.dispose();
+            }
+        }
+
+        synchronized (this.invalidationLock) {
+            this.releaseComposition(key, composition);
+            //if anything below this tile was re-rendered in the meantime, the result might be stale so it can't be saved
+            if (image != null && composition.invalidations == invalidations) {
+                this.write(this.tileFile(zoom, x, z), image);
+            }
+        }
+        if (image != null) {
+            this.composedTiles.increment();
+        }
+        return image;
+    }
+
+    //the caller must be holding invalidationLock
+    protected void releaseComposition(long key, @NonNull Composition composition) {
+        if (--composition.refCnt == 0) {
+            this.composing.remove(key);
+        }
+    }
+
+    protected void write(@NonNull File file, @NonNull BufferedImage image) throws IOException {
+        File dir = PFiles.ensureDirectoryExists(file.getParentFile());
+        File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            if (!ImageIO.write(image, "png", tempFile)) {
+                throw new IOException("No PNG writer available!");
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    protected static long tileKey(int zoom, int x, int z) {
+        //tile coordinates above zoom level 0 never need more than 28 bits
+        return ((long) zoom << 56L) | ((x & 0xFFFFFFFL) << 28L) | (z & 0xFFFFFFFL);
+    }
+
+    //packs chunk coordinates such that sorting groups chunks by level 0 tile: (tile X, tile Z, X in tile, Z in tile)
+    protected static long tileMajor(int x, int z) {
+        return ((long) (x >> TILE_CHUNKS_SHIFT) << 36L) | (((z >> TILE_CHUNKS_SHIFT) & 0xFFFFFFFL) << 8L) | ((x & 0xF) << 4) | (z & 0xF);
+    }
+
+    protected static int tileMajorX(long packed) {
+        return (int) (packed >> 36L) << TILE_CHUNKS_SHIFT | (int) (packed >>> 4L) & 0xF;
+    }
+
+    protected static int tileMajorZ(long packed) {
+        return (int) (packed << 28L >> 36L) << TILE_CHUNKS_SHIFT | (int) packed & 0xF;
+    }
+
+    protected static boolean tileMajorSameTile(long a, long b) {
+        return a >>> 8L == b >>> 8L;
+    }
+
+    protected File tileFile(int zoom, int x, int z) {
+        return new File(this.root, String.format("%d/%d.%d.png", zoom, x, z));
+    }
+
+    /**
+     * @return the number of change log entries which haven't been rendered yet, or the number of chunks left to render while backfilling
+     */
+    public long lag() {
+        long[] backfill = this.backfill;
+        if (backfill != null) {
+            return backfill.length - this.backfillIndex;
+        }
+        return Math.max(this.world.changeCount() - this.cursor, 0L);
+    }
+
+    public long cursor() {
+        return this.cursor;
+    }
+
+    public long renderedChunks() {
+        return this.renderedChunks.sum();
+    }
+
+    public long renderedTiles() {
+        return this.renderedTiles.sum();
+    }
+
+    public long composedTiles() {
+        return this.composedTiles.sum();
+    }
+
+    public long failedChunks() {
+        return this.failedChunks.sum();
+    }
+
+    protected static final class Composition {
+        protected int  refCnt;
+        protected long invalidations;
+    }
+
+    /**
+     * Stops rendering.
+     * <p>
+     * This must be called before the world is closed, as rendering needs to read chunks from it.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        this.executor.shutdownNow();
+        try {
+            if (!this.executor.awaitTermination(30L, TimeUnit.SECONDS)) {
+                logger.warn("Renderer for dimension %d did not shut down in time", this.dimension);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
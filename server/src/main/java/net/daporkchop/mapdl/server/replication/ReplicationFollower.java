@@ -0,0 +1,244 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.replication;
+
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.NonNull;
+import net.daporkchop.lib.binary.oio.reader.UTF8FileReader;
+import net.daporkchop.lib.binary.oio.writer.UTF8FileWriter;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.mapdl.common.ChunkBatchCodec;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.web.NodeClient;
+import net.daporkchop.mapdl.server.world.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.daporkchop.lib.logging.Logging.*;
+import static net.daporkchop.mapdl.server.util.ServerConstants.*;
+
+/**
+ * Keeps this server's worlds in sync with a primary server, by repeatedly pulling batches of written chunks from its {@code /api/replicate}
+ * endpoint.
+ * <p>
+ * Chunks are applied in change log order using the usual timestamp rules, so applying the same batch twice is harmless. Once the primary has no more
+ * changes to send, the write cache is flushed and the change log positions are saved to {@code replication.json}: only then are they
+ * acknowledged to the primary, and after a disconnect or restart replication resumes from there.
+ * <p>
+ * The primary doesn't do any work for replication until a follower asks for it, so none of this is on the primary's ingest path. If a follower falls
+ * so far behind that the primary has already dropped the change log entries it still needs, the primary refuses to continue, and the follower has to
+ * be seeded with a fresh copy of the primary's data.
+ * <p>
+ * Requests to the primary block, and catching up after a disconnect can take a long time, so polling is done on a dedicated thread rather than
+ * the shared executor.
+ *
+ * @author DaPorkchop_
+ */
+public final class ReplicationFollower {
+    //dimension, next, total, count
+    public static final int RESPONSE_HEADER_SIZE = 1 + 8 + 8 + 4;
+
+    protected final Map<Integer, World>       worlds;
+    protected final ServerConfig.Replication config;
+    protected final NodeClient                primary;
+    protected final File                      cursorFile;
+
+    //the position of the next change to request from the primary, and the position up to which everything has been durably stored
+    protected final Map<Integer, Long> cursors = new ConcurrentHashMap<>();
+    protected final Map<Integer, Long> acked   = new ConcurrentHashMap<>();
+    protected final Map<Integer, Long> totals  = new ConcurrentHashMap<>();
+
+    //single-threaded, so runs never overlap and close() can wait for the current one to finish
+    protected final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "2b2tMapDownloader replication follower");
+        thread.setDaemon(true);
+        return thread;
+    });
+    protected volatile boolean closed;
+
+    protected final LongAdder chunks   = new LongAdder();
+    protected final LongAdder bytes    = new LongAdder();
+    protected final LongAdder failures = new LongAdder();
+
+    protected volatile long lastContact = -1L;
+
+    public ReplicationFollower(@NonNull Map<Integer, World> worlds, @NonNull File root, @NonNull ServerConfig.Replication config) throws IOException {
+        this.worlds = worlds;
+        this.config = config;
+        this.primary = new NodeClient(config.primary(), config.username(), config.password(), config.connectTimeout(), config.readTimeout());
+        this.cursorFile = new File(root, "replication.json");
+
+        if (PFiles.checkFileExists(this.cursorFile)) {
+            try (Reader src = new UTF8FileReader(this.cursorFile)) {
+                GSON_ALL.fromJson(src, JsonObject.class).entrySet().forEach(entry -> this.cursors.put(Integer.parseInt(entry.getKey()), entry.getValue().getAsLong()));
+            }
+        }
+        this.acked.putAll(this.cursors);
+    }
+
+    /**
+     * Starts polling the primary at the configured interval.
+     */
+    public void start() {
+        this.scheduler.scheduleWithFixedDelay(this::run, this.config.interval(), this.config.interval(), TimeUnit.MILLISECONDS);
+    }
+
+    protected void run() {
+        if (this.closed) {
+            return;
+        }
+        try {
+            boolean changed = false;
+            for (Map.Entry<Integer, World> entry : this.worlds.entrySet()) {
+                changed |= this.replicate(entry.getKey(), entry.getValue());
+            }
+            if (changed) {
+                this.checkpoint();
+            }
+        } catch (Exception e) {
+            this.failures.increment();
+            logger.error("Replication from %s failed, will retry:", e, this.primary.baseUrl());
+        }
+    }
+
+    /**
+     * Stops replicating, waiting for a run which is currently in progress to finish (including its checkpoint).
+     * <p>
+     * This must be called before the worlds are closed.
+     */
+    public void close() {
+        this.closed = true;
+        this.scheduler.shutdown();
+        try {
+            this.scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Pulls changes to a single dimension until the primary has nothing more to send.
+     *
+     * @return whether or not anything was applied
+     */
+    protected boolean replicate(int dimension, @NonNull World world) throws Exception {
+        boolean changed = false;
+        while (!this.closed) {
+            long cursor = this.cursors.getOrDefault(dimension, 0L);
+            NodeClient.Response response = this.primary.request("GET", String.format("api/replicate?dim=%d&since=%d&ack=%d&limit=%d",
+                    dimension, cursor, this.acked.getOrDefault(dimension, 0L), this.config.batchSize()), null).expectOk();
+            this.lastContact = System.currentTimeMillis();
+
+            ByteBuf buf = Unpooled.wrappedBuffer(response.body());
+            if (buf.readableBytes() < RESPONSE_HEADER_SIZE || buf.readByte() != dimension) {
+                throw new IOException("Invalid response from primary!");
+            }
+            long next = buf.readLong();
+            long total = buf.readLong();
+            int count = buf.readInt();
+            this.totals.put(dimension, total);
+
+            int[] applied = new int[1];
+            int rejectedFrom = ChunkBatchCodec.decode(buf, (i, dim, x, z, time, data) -> {
+                applied[0]++;
+                this.bytes.add(data.readableBytes());
+                if (world.putChunk(x, z, data, time)) {
+                    this.chunks.increment();
+                }
+            }, i -> {
+            });
+            if (rejectedFrom >= 0 || applied[0] != count) {
+                throw new IOException("Truncated response from primary!");
+            }
+
+            if (next == cursor) {
+                return changed;
+            }
+            this.cursors.put(dimension, next);
+            changed = true;
+            if (next >= total) {
+                return true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Makes sure everything that has been applied is in the storage, then saves the change log positions.
+     * <p>
+     * The new positions will be acknowledged to the primary with the next request.
+     */
+    protected void checkpoint() throws IOException {
+        for (World world : this.worlds.values()) {
+            world.flush();
+        }
+
+        Map<Integer, Long> cursors = new ConcurrentHashMap<>(this.cursors);
+        JsonObject obj = new JsonObject();
+        cursors.forEach((dimension, cursor) -> obj.addProperty(String.valueOf(dimension), cursor));
+
+        File tempFile = new File(this.cursorFile.getParentFile(), this.cursorFile.getName() + ".tmp");
+        try (Writer dst = new UTF8FileWriter(PFiles.ensureFileExists(tempFile))) {
+            GSON_ALL.toJson(obj, dst);
+        }
+        Files.move(tempFile.toPath(), this.cursorFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.acked.putAll(cursors);
+    }
+
+    /**
+     * Adds the follower's state to the given {@link JsonObject}.
+     * <p>
+     * For every dimension, {@code lag} is the number of change log entries on the primary which haven't been applied yet, as of the last response
+     * from the primary.
+     *
+     * @param obj the {@link JsonObject} to add the stats to
+     */
+    public void stats(@NonNull JsonObject obj) {
+        obj.addProperty("primary", this.primary.baseUrl());
+        obj.addProperty("lastContact", this.lastContact < 0L ? -1L : System.currentTimeMillis() - this.lastContact);
+        obj.addProperty("chunks", this.chunks.sum());
+        obj.addProperty("bytes", this.bytes.sum());
+        obj.addProperty("failures", this.failures.sum());
+
+        JsonObject dimensions = new JsonObject();
+        this.totals.forEach((dimension, total) -> {
+            long cursor = this.cursors.getOrDefault(dimension, 0L);
+            JsonObject dim = new JsonObject();
+            dim.addProperty("cursor", cursor);
+            dim.addProperty("acked", this.acked.getOrDefault(dimension, 0L));
+            dim.addProperty("lag", Math.max(total - cursor, 0L));
+            dimensions.add(String.valueOf(dimension), dim);
+        });
+        obj.add("dimensions", dimensions);
+    }
+}
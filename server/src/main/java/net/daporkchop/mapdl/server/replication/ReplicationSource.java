@@ -0,0 +1,79 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.replication;
+
+import com.google.gson.JsonObject;
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of how far each follower has gotten in replicating this server's change logs.
+ * <p>
+ * Followers pull changes from the primary, so this is the only replication state the primary has to keep. It is only kept in memory: after a
+ * restart, followers simply show up again with their next request.
+ *
+ * @author DaPorkchop_
+ */
+public final class ReplicationSource {
+    protected final Map<String, Follower> followers = new ConcurrentHashMap<>();
+
+    /**
+     * Records an acknowledgement from a follower.
+     *
+     * @param name      the name of the follower
+     * @param dimension the dimension ID
+     * @param ack       the change log position up to which the follower has durably stored everything
+     * @param total     the current size of the dimension's change log
+     */
+    public void ack(@NonNull String name, int dimension, long ack, long total) {
+        Follower follower = this.followers.computeIfAbsent(name, n -> new Follower());
+        follower.dimensions.put(dimension, new long[]{ ack, total, System.currentTimeMillis() });
+    }
+
+    /**
+     * Adds the state of every follower to the given {@link JsonObject}.
+     * <p>
+     * For every follower and dimension, {@code lag} is the number of change log entries which the follower hadn't acknowledged as of its last
+     * request, and {@code lastSeen} is the number of milliseconds since that request.
+     *
+     * @param obj the {@link JsonObject} to add the stats to
+     */
+    public void stats(@NonNull JsonObject obj) {
+        long now = System.currentTimeMillis();
+        this.followers.forEach((name, follower) -> {
+            JsonObject dimensions = new JsonObject();
+            follower.dimensions.forEach((dimension, state) -> {
+                JsonObject dim = new JsonObject();
+                dim.addProperty("ack", state[0]);
+                dim.addProperty("lag", state[1] - state[0]);
+                dim.addProperty("lastSeen", now - state[2]);
+                dimensions.add(String.valueOf(dimension), dim);
+            });
+            obj.add(name, dimensions);
+        });
+    }
+
+    protected static final class Follower {
+        //ack, total, time
+        protected final Map<Integer, long[]> dimensions = new ConcurrentHashMap<>();
+    }
+}
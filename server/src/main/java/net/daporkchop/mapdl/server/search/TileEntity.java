@@ -0,0 +1,195 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.search;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import net.daporkchop.mapdl.server.util.NBTWalker;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.daporkchop.mapdl.server.util.NBTWalker.*;
+
+/**
+ * The searchable parts of a single tile entity.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+@Accessors(fluent = true)
+public final class TileEntity {
+    //longer names are truncated, they're only there to be searched and nobody is going to type in that much anyways
+    protected static final int MAX_TEXT_LENGTH = 1024;
+
+    /**
+     * Reads all tile entities from a chunk.
+     *
+     * @param buf the chunk data, in region format (length prefix, compression version, compressed NBT). Will not be released
+     * @return the chunk's tile entities
+     */
+    public static List<TileEntity> readAll(@NonNull ByteBuf buf) throws IOException {
+        List<TileEntity> list = new ArrayList<>();
+        try (DataInputStream in = NBTWalker.openLevel(buf)) {
+            for (int type; (type = in.readUnsignedByte()) != TAG_END; ) {
+                if (type == TAG_LIST && "TileEntities".equals(in.readUTF())) {
+                    int elementType = in.readUnsignedByte();
+                    for (int i = in.readInt() - 1; i >= 0; i--) {
+                        if (elementType == TAG_COMPOUND) {
+                            TileEntity tileEntity = read(in);
+                            if (tileEntity != null) {
+                                list.add(tileEntity);
+                            }
+                        } else {
+                            skip(in, elementType);
+                        }
+                    }
+                } else {
+                    skip(in, type);
+                }
+            }
+        }
+        return list;
+    }
+
+    protected static TileEntity read(@NonNull DataInputStream in) throws IOException {
+        String id = null;
+        int x = 0;
+        int y = 0;
+        int z = 0;
+        String[] lines = new String[4];
+        String customName = null;
+        for (int type; (type = in.readUnsignedByte()) != TAG_END; ) {
+            String name = in.readUTF();
+            if (type == TAG_STRING) {
+                switch (name) {
+                    case "id":
+                        id = in.readUTF();
+                        continue;
+                    case "Text1":
+                    case "Text2":
+                    case "Text3":
+                    case "Text4":
+                        lines[name.charAt(4) - '1'] = plainText(in.readUTF());
+                        continue;
+                    case "CustomName":
+                        customName = in.readUTF();
+                        continue;
+                }
+            } else if (type == TAG_INT) {
+                switch (name) {
+                    case "x":
+                        x = in.readInt();
+                        continue;
+                    case "y":
+                        y = in.readInt();
+                        continue;
+                    case "z":
+                        z = in.readInt();
+                        continue;
+                }
+            }
+            skip(in, type);
+        }
+        if (id == null) {
+            return null;
+        }
+
+        String text;
+        if (lines[0] != null || lines[1] != null || lines[2] != null || lines[3] != null) {
+            StringBuilder builder = new StringBuilder();
+            for (String line : lines) {
+                if (builder.length() != 0) {
+                    builder.append('\n');
+                }
+                builder.append(line == null ? "" : line);
+            }
+            text = builder.toString().trim();
+        } else {
+            text = customName == null ? "" : customName;
+        }
+        if (text.length() > MAX_TEXT_LENGTH) {
+            text = text.substring(0, MAX_TEXT_LENGTH);
+        }
+        return new TileEntity(id.intern(), x, y, z, text);
+    }
+
+    /**
+     * Converts a JSON text component (as used for sign text since 1.9) to plain text.
+     * <p>
+     * If the text isn't valid JSON, it's returned as-is.
+     */
+    protected static String plainText(@NonNull String json) {
+        try {
+            StringBuilder builder = new StringBuilder();
+            appendPlainText(new JsonParser().parse(json), builder);
+            return builder.toString();
+        } catch (JsonParseException | IllegalStateException e) {
+            return json;
+        }
+    }
+
+    protected static void appendPlainText(JsonElement element, @NonNull StringBuilder builder) {
+        if (element == null || element.isJsonNull()) {
+            return;
+        } else if (element.isJsonPrimitive()) {
+            builder.append(element.getAsString());
+        } else if (element.isJsonArray()) {
+            element.getAsJsonArray().forEach(child -> appendPlainText(child, builder));
+        } else {
+            JsonObject obj = element.getAsJsonObject();
+            appendPlainText(obj.get("text"), builder);
+            appendPlainText(obj.get("extra"), builder);
+        }
+    }
+
+    @NonNull
+    protected final String type;
+    protected final int    x;
+    protected final int    y;
+    protected final int    z;
+    @NonNull
+    protected final String text;
+
+    /**
+     * @return a {@link JsonObject} describing this tile entity
+     */
+    public JsonObject toJson() {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("type", this.type);
+        obj.addProperty("x", this.x);
+        obj.addProperty("y", this.y);
+        obj.addProperty("z", this.z);
+        if (!this.text.isEmpty()) {
+            obj.addProperty("text", this.text);
+        }
+        return obj;
+    }
+}
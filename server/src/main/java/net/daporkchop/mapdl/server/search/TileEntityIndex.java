@@ -0,0 +1,568 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.search;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import net.daporkchop.lib.unsafe.util.exception.AlreadyReleasedException;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.ChunkIndex;
+import net.daporkchop.mapdl.server.world.World;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * An in-memory index of the tile entities in a {@link World}, supporting full-text search over sign text (and container names) and spatial queries
+ * by tile entity type.
+ * <p>
+ * Like {@link net.daporkchop.mapdl.server.render.TileRenderer}, the index follows the world's {@link net.daporkchop.mapdl.server.world.ChangeLog}
+ * rather than decoding chunks on the ingest threads, so keeping it up to date doesn't slow down ingest. Whenever a chunk is written, all of its old
+ * tile entities are replaced with the new ones.
+ * <p>
+ * The index is periodically saved to disk along with its position in the change log, so that it only needs to be rebuilt from scratch the very first
+ * time. Rebuilding reads every chunk in the world, so it's done on a dedicated thread rather than tying up a shared worker for that long.
+ *
+ * @author DaPorkchop_
+ */
+public final class TileEntityIndex implements AutoCloseable {
+    protected static final int MAGIC   = 0x4D445445; //"MDTE"
+    protected static final int VERSION = 2;
+
+    //log2 of the size of the spatial index's buckets, in blocks. this is the same as a region
+    protected static final int BUCKET_SHIFT = 9;
+
+    /**
+     * Splits text into lowercase words.
+     *
+     * @param text the text to split
+     * @return the words
+     */
+    public static List<String> tokenize(@NonNull String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    protected final World                        world;
+    protected final int                          dimension;
+    protected final File                         file;
+    protected final ServerConfig.TileEntityIndex config;
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //chunk key -> the chunk's tile entities
+    protected final Map<Long, TileEntity[]> byChunk = new HashMap<>();
+
+    //lowercase word -> every tile entity whose text contains that word. sorted so that prefixes can be looked up
+    protected final NavigableMap<String, Set<TileEntity>> byWord = new TreeMap<>();
+
+    //type -> bucket key -> every tile entity of that type in the bucket
+    protected final Map<String, Map<Long, Set<TileEntity>>> byType = new HashMap<>();
+
+    protected int size;
+
+    //the position in the change log up to which everything has been indexed
+    protected volatile long cursor;
+
+    //these are only accessed while holding this instance's monitor, or by the rebuild thread while it's running
+    protected boolean needsRebuild;
+    protected boolean dirty;
+    protected long    lastSave = System.nanoTime();
+
+    protected volatile Thread  rebuildThread;
+    protected volatile boolean closed;
+
+    public TileEntityIndex(@NonNull World world, int dimension, @NonNull File file, @NonNull ServerConfig.TileEntityIndex config) {
+        this.world = world;
+        this.dimension = dimension;
+        this.file = file;
+        this.config = config;
+
+        if (file.isFile()) {
+            try {
+                this.load();
+            } catch (IOException e) {
+                logger.warn("Unable to load tile entity index for dimension %d, it will be rebuilt: %s", dimension, e);
+                this.clear();
+                this.needsRebuild = true;
+            }
+        } else {
+            this.needsRebuild = true;
+        }
+    }
+
+    /**
+     * Indexes the next batch of changed chunks, or rebuilds the whole index if it couldn't be loaded from disk.
+     */
+    public synchronized void poll() {
+        if (this.closed || this.rebuildThread != null) {
+            return;
+        }
+
+        try {
+            if (this.needsRebuild) {
+                Thread thread = this.rebuildThread = new Thread(() -> {
+                    try {
+                        this.rebuild();
+                    } catch (AlreadyReleasedException e) {
+                        //the world was closed
+                    } catch (Exception e) {
+                        logger.error("Unable to rebuild tile entity index for dimension %d:", e, this.dimension);
+                    } finally {
+                        this.rebuildThread = null;
+                    }
+                }, "2b2tMapDownloader tile entity index rebuild #" + this.dimension);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.start();
+                return;
+            } else {
+                long cursor = this.cursor;
+                if (cursor > this.world.changeCount() || cursor < this.world.firstChange()) {
+                    logger.warn("Tile entity index for dimension %d is outside of the change log, rebuilding", this.dimension);
+                    this.needsRebuild = true;
+                    return;
+                }
+
+                Set<Long> chunks = new HashSet<>();
+                long next = this.world.changes(cursor, this.config.batchSize(), (x, z, time) -> chunks.add(ChunkIndex.key(x, z)));
+                for (long key : chunks) {
+                    this.indexChunk((int) (key >> 32L), (int) key);
+                }
+                if (next != this.cursor) {
+                    this.cursor = next;
+                    this.dirty = true;
+                }
+            }
+
+            if (this.dirty && System.nanoTime() - this.lastSave >= TimeUnit.SECONDS.toNanos(this.config.saveInterval())) {
+                this.save();
+            }
+        } catch (AlreadyReleasedException e) {
+            //the world was closed
+        } catch (Exception e) {
+            logger.error("Unable to update tile entity index for dimension %d:", e, this.dimension);
+        }
+    }
+
+    protected void rebuild() throws IOException {
+        logger.info("Building tile entity index for dimension %d...", this.dimension);
+        long startTime = System.nanoTime();
+
+        //everything written after this point will be picked up from the change log afterwards
+        long cursor = this.world.changeCount();
+        List<Long> chunks = new ArrayList<>();
+        this.world.modifiedSince(Long.MIN_VALUE, (x, z, time) -> chunks.add(ChunkIndex.key(x, z)));
+
+        this.clear();
+        for (long key : chunks) {
+            if (this.closed) {
+                return;
+            }
+            this.indexChunk((int) (key >> 32L), (int) key);
+        }
+
+        synchronized (this) {
+            this.cursor = cursor;
+            this.needsRebuild = false;
+            this.save();
+        }
+        logger.success("Indexed %d tile entities in %d chunks in dimension %d in %.1fs",
+                this.size, chunks.size(), this.dimension, (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1L));
+    }
+
+    protected void indexChunk(int x, int z) throws IOException {
+        TileEntity[] tileEntities = null;
+        ByteBuf buf = this.world.getChunk(x, z);
+        if (buf != null) {
+            try {
+                List<TileEntity> list = TileEntity.readAll(buf);
+                if (!list.isEmpty()) {
+                    tileEntities = list.toArray(new TileEntity[list.size()]);
+                }
+            } catch (IOException e) {
+                logger.warn("Unable to read tile entities from chunk (%d,%d) in dimension %d: %s", x, z, this.dimension, e);
+                return;
+            } finally {
+                buf.release();
+            }
+        }
+
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            this.replace(ChunkIndex.key(x, z), tileEntities);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //the caller must be holding the write lock
+    protected void replace(long chunkKey, TileEntity[] tileEntities) {
+        TileEntity[] old = tileEntities == null ? this.byChunk.remove(chunkKey) : this.byChunk.put(chunkKey, tileEntities);
+        if (old != null) {
+            for (TileEntity tileEntity : old) {
+                for (String word : tokenize(tileEntity.text())) {
+                    Set<TileEntity> set = this.byWord.get(word);
+                    if (set != null && set.remove(tileEntity) && set.isEmpty()) {
+                        this.byWord.remove(word);
+                    }
+                }
+                Map<Long, Set<TileEntity>> buckets = this.byType.get(tileEntity.type());
+                long bucket = bucket(tileEntity.x(), tileEntity.z());
+                Set<TileEntity> set = buckets.get(bucket);
+                if (set.remove(tileEntity) && set.isEmpty()) {
+                    buckets.remove(bucket);
+                    if (buckets.isEmpty()) {
+                        this.byType.remove(tileEntity.type());
+                    }
+                }
+            }
+            this.size -= old.length;
+        }
+
+        if (tileEntities != null) {
+            for (TileEntity tileEntity : tileEntities) {
+                for (String word : tokenize(tileEntity.text())) {
+                    this.byWord.computeIfAbsent(word, w -> new HashSet<>()).add(tileEntity);
+                }
+                this.byType.computeIfAbsent(tileEntity.type(), t -> new HashMap<>())
+                        .computeIfAbsent(bucket(tileEntity.x(), tileEntity.z()), b -> new HashSet<>())
+                        .add(tileEntity);
+            }
+            this.size += tileEntities.length;
+        }
+    }
+
+    protected static long bucket(int x, int z) {
+        return ChunkIndex.key(x >> BUCKET_SHIFT, z >> BUCKET_SHIFT);
+    }
+
+    protected void clear() {
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            this.byChunk.clear();
+            this.byWord.clear();
+            this.byType.clear();
+            this.size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds tile entities whose text contains all of the words in the given query.
+     * <p>
+     * Every word in the query also matches any longer word starting with it, so searching for {@code "spawn"} will also find {@code "spawnbase"}.
+     *
+     * @param query the words to search for
+     * @param limit the maximum number of results to return
+     * @return the matching tile entities
+     */
+    public List<TileEntity> search(@NonNull String query, int limit) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            //every word in the query matches the union of the sets of all words it's a prefix of
+            List<List<Set<TileEntity>>> matches = new ArrayList<>(words.size());
+            for (String word : words) {
+                Collection<Set<TileEntity>> sets = this.byWord.subMap(word, true, word + Character.MAX_VALUE, false).values();
+                if (sets.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                matches.add(new ArrayList<>(sets));
+            }
+
+            //iterate over the smallest candidate set and check the others, which keeps common words cheap
+            matches.sort(Comparator.comparingInt(sets -> sets.stream().mapToInt(Set::size).sum()));
+            List<TileEntity> results = new ArrayList<>();
+            Set<TileEntity> seen = new HashSet<>();
+            for (Set<TileEntity> candidates : matches.get(0)) {
+                CANDIDATES:
+                for (TileEntity candidate : candidates) {
+                    for (int i = 1; i < matches.size(); i++) {
+                        if (matches.get(i).stream().noneMatch(set -> set.contains(candidate))) {
+                            continue CANDIDATES;
+                        }
+                    }
+                    if (seen.add(candidate)) {
+                        results.add(candidate);
+                        if (results.size() >= limit) {
+                            return results;
+                        }
+                    }
+                }
+            }
+            return results;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds tile entities of the given type within the given area.
+     *
+     * @param type  the tile entity type (e.g. {@code "minecraft:chest"}), or {@code null} to find all types
+     * @param minX  the minimum X coordinate (inclusive), in blocks
+     * @param minZ  the minimum Z coordinate (inclusive), in blocks
+     * @param maxX  the maximum X coordinate (inclusive), in blocks
+     * @param maxZ  the maximum Z coordinate (inclusive), in blocks
+     * @param limit the maximum number of results to return
+     * @return the matching tile entities
+     */
+    public List<TileEntity> find(String type, int minX, int minZ, int maxX, int maxZ, int limit) {
+        List<TileEntity> results = new ArrayList<>();
+
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            Collection<Map<Long, Set<TileEntity>>> types;
+            if (type == null) {
+                types = this.byType.values();
+            } else {
+                Map<Long, Set<TileEntity>> buckets = this.byType.get(type);
+                types = buckets == null ? Collections.emptyList() : Collections.singletonList(buckets);
+            }
+
+            long bucketsInArea = ((long) (maxX >> BUCKET_SHIFT) - (minX >> BUCKET_SHIFT) + 1L) * ((long) (maxZ >> BUCKET_SHIFT) - (minZ >> BUCKET_SHIFT) + 1L);
+            for (Map<Long, Set<TileEntity>> buckets : types) {
+                Collection<Set<TileEntity>> candidates;
+                if (bucketsInArea < buckets.size()) {
+                    //the area is small, only look at the buckets it overlaps
+                    candidates = new ArrayList<>();
+                    for (int bx = minX >> BUCKET_SHIFT; bx <= maxX >> BUCKET_SHIFT; bx++) {
+                        for (int bz = minZ >> BUCKET_SHIFT; bz <= maxZ >> BUCKET_SHIFT; bz++) {
+                            Set<TileEntity> set = buckets.get(ChunkIndex.key(bx, bz));
+                            if (set != null) {
+                                candidates.add(set);
+                            }
+                        }
+                    }
+                } else {
+                    candidates = buckets.values();
+                }
+
+                for (Set<TileEntity> set : candidates) {
+                    for (TileEntity tileEntity : set) {
+                        if (tileEntity.x() >= minX && tileEntity.x() <= maxX && tileEntity.z() >= minZ && tileEntity.z() <= maxZ) {
+                            results.add(tileEntity);
+                            if (results.size() >= limit) {
+                                return results;
+                            }
+                        }
+                    }
+                }
+            }
+            return results;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total number of indexed tile entities
+     */
+    public int size() {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            return this.size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of indexed tile entities of each type
+     */
+    public Map<String, Integer> counts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            this.byType.forEach((type, buckets) -> counts.put(type, buckets.values().stream().mapToInt(Set::size).sum()));
+        } finally {
+            lock.unlock();
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of change log entries which haven't been indexed yet
+     */
+    public long lag() {
+        return Math.max(this.world.changeCount() - this.cursor, 0L);
+    }
+
+    /**
+     * @return the position in the change log up to which everything has been indexed
+     */
+    public long cursor() {
+        return this.cursor;
+    }
+
+    protected void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Invalid magic number");
+            } else if (in.readInt() != VERSION) {
+                throw new IOException("Unsupported version");
+            }
+            long cursor = in.readLong();
+
+            Lock lock = this.lock.writeLock();
+            lock.lock();
+            try {
+                for (int i = in.readInt() - 1; i >= 0; i--) {
+                    long key = in.readLong();
+                    TileEntity[] tileEntities = new TileEntity[in.readInt()];
+                    for (int j = 0; j < tileEntities.length; j++) {
+                        tileEntities[j] = new TileEntity(readString(in).intern(), in.readInt(), in.readInt(), in.readInt(), readString(in));
+                    }
+                    this.replace(key, tileEntities);
+                }
+            } finally {
+                lock.unlock();
+            }
+            this.cursor = cursor;
+        }
+    }
+
+    protected void save() throws IOException {
+        File tempFile = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(this.cursor);
+
+            Lock lock = this.lock.readLock();
+            lock.lock();
+            try {
+                out.writeInt(this.byChunk.size());
+                for (Map.Entry<Long, TileEntity[]> entry : this.byChunk.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    for (TileEntity tileEntity : entry.getValue()) {
+                        writeString(out, tileEntity.type());
+                        out.writeInt(tileEntity.x());
+                        out.writeInt(tileEntity.y());
+                        out.writeInt(tileEntity.z());
+                        writeString(out, tileEntity.text());
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        Files.move(tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.dirty = false;
+        this.lastSave = System.nanoTime();
+    }
+
+    //DataOutputStream#writeUTF can't write strings longer than 64 KiB, which book text easily exceeds
+    protected static void writeString(@NonNull DataOutputStream out, @NonNull String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    protected static String readString(@NonNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stops updating the index and saves it to disk.
+     * <p>
+     * This must be called before the world is closed, as updating the index needs to read chunks from it. If a rebuild is in progress, it's
+     * abandoned and will start over the next time the world is opened.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        //set outside of the monitor, so that a running poll or rebuild notices it as soon as possible
+        this.closed = true;
+
+        Thread thread = this.rebuildThread;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            if (this.dirty && !this.needsRebuild) {
+                this.save();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.snapshot;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.OutputStream;
+
+/**
+ * The archive formats that a snapshot can be exported as.
+ *
+ * @author DaPorkchop_
+ */
+@RequiredArgsConstructor
+@Getter
+@Accessors(fluent = true)
+public enum ArchiveFormat {
+    TAR("tar", "application/x-tar") {
+        @Override
+        public ArchiveWriter open(@NonNull OutputStream out) {
+            return new TarArchiveWriter(out);
+        }
+    },
+    ZIP("zip", "application/zip") {
+        @Override
+        public ArchiveWriter open(@NonNull OutputStream out) {
+            return new ZipArchiveWriter(out);
+        }
+    };
+
+    protected final String extension;
+    protected final String mimeType;
+
+    /**
+     * Starts writing an archive of this format.
+     *
+     * @param out the {@link OutputStream} to write the archive to. It will be closed when the {@link ArchiveWriter} is closed
+     * @return an {@link ArchiveWriter}
+     */
+    public abstract ArchiveWriter open(@NonNull OutputStream out);
+}
@@ -0,0 +1,50 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.snapshot;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Writes files into an archive, one after the other, without needing to seek in the output.
+ *
+ * @author DaPorkchop_
+ * @see ArchiveFormat
+ */
+public interface ArchiveWriter extends AutoCloseable {
+    /**
+     * Adds a file to the archive.
+     * <p>
+     * The given {@link ByteBuf} will not be released.
+     *
+     * @param name the path of the file in the archive
+     * @param time the file's modification time
+     * @param data the file's contents
+     */
+    void write(@NonNull String name, long time, @NonNull ByteBuf data) throws IOException;
+
+    /**
+     * Finishes the archive and closes the underlying stream.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,317 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.snapshot;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.math.vector.i.Vec2i;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.Snapshot;
+import net.daporkchop.mapdl.server.world.World;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.daporkchop.lib.logging.Logging.*;
+import static net.daporkchop.mapdl.server.util.ServerConstants.*;
+
+/**
+ * Keeps track of {@link Snapshot}s spanning every dimension of the server, and exports them as archives.
+ * <p>
+ * Exports read the snapshot one region at a time and write it straight to the output, so no complete copy of the world is ever staged on disk. The
+ * rate at which regions are read is limited, to keep the exports from starving ingest of IO.
+ * <p>
+ * Snapshots which haven't been used for a while are released automatically, since every region written to while a snapshot exists has to be
+ * copied.
+ *
+ * @author DaPorkchop_
+ */
+@Accessors(fluent = true)
+public final class SnapshotManager implements AutoCloseable {
+    protected final Map<Integer, World>    worlds;
+    protected final File                   stagingDir;
+    @Getter
+    protected final File                   exportDir;
+    protected final ServerConfig.Snapshot  config;
+    protected final Map<String, Entry>     snapshots = new ConcurrentHashMap<>();
+    protected final ScheduledFuture<?>     expiryFuture;
+    protected final AtomicInteger          exportThreadCounter = new AtomicInteger();
+
+    protected volatile boolean closed = false;
+
+    public SnapshotManager(@NonNull Map<Integer, World> worlds, @NonNull File root, @NonNull ServerConfig.Snapshot config) {
+        this.worlds = worlds;
+        this.config = config;
+        this.stagingDir = new File(root, "snapshots");
+        this.exportDir = new File(root, "exports");
+
+        //staging directories are useless once the snapshot they belonged to is gone
+        if (PFiles.checkDirectoryExists(this.stagingDir)) {
+            PFiles.rm(this.stagingDir);
+        }
+
+        this.expiryFuture = EXECUTOR.scheduleWithFixedDelay(this::expire, 1L, 1L, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Takes a snapshot of every dimension.
+     * <p>
+     * The dimensions are snapshotted one after the other, so chunks in different dimensions may be from slightly different points in time.
+     *
+     * @return the new snapshot
+     * @throws UnsupportedOperationException if the worlds aren't stored as region files
+     */
+    public Entry create() throws IOException {
+        this.assertOpen();
+
+        String id = UUID.randomUUID().toString().replace("-", "");
+        Map<Integer, Snapshot> snapshots = new TreeMap<>();
+        try {
+            for (Map.Entry<Integer, World> entry : this.worlds.entrySet()) {
+                snapshots.put(entry.getKey(), entry.getValue().snapshot(new File(this.stagingDir, id + File.separatorChar + entry.getKey())));
+            }
+        } catch (Exception e) {
+            snapshots.values().forEach(Snapshot::close);
+            throw e;
+        }
+
+        Entry entry = new Entry(id, Collections.unmodifiableMap(snapshots));
+        this.snapshots.put(id, entry);
+        logger.info("Created snapshot %s", id);
+        return entry;
+    }
+
+    /**
+     * @param id the ID of the snapshot
+     * @return the snapshot with the given ID, or {@code null} if none could be found
+     */
+    public Entry get(@NonNull String id) {
+        Entry entry = this.snapshots.get(id);
+        if (entry != null) {
+            entry.touch();
+        }
+        return entry;
+    }
+
+    /**
+     * Releases the snapshot with the given ID.
+     * <p>
+     * Exports of the snapshot which are currently running will fail.
+     *
+     * @param id the ID of the snapshot
+     * @return whether or not a snapshot was released
+     */
+    public boolean release(@NonNull String id) {
+        Entry entry = this.snapshots.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        entry.snapshots.values().forEach(Snapshot::close);
+        new File(this.stagingDir, id).delete();
+        logger.info("Released snapshot %s", id);
+        return true;
+    }
+
+    protected void expire() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(this.config.expiry());
+        this.snapshots.values().stream()
+                .filter(entry -> entry.activeExports.get() == 0 && entry.lastAccess < cutoff)
+                .map(entry -> entry.id)
+                .forEach(this::release);
+    }
+
+    /**
+     * Writes an archive containing all of a snapshot's region files to the given {@link OutputStream}.
+     * <p>
+     * This blocks until the whole archive has been written.
+     *
+     * @param entry  the snapshot to export
+     * @param format the {@link ArchiveFormat} to use
+     * @param out    the {@link OutputStream} to write to. It will be closed once the archive is complete
+     */
+    public void export(@NonNull Entry entry, @NonNull ArchiveFormat format, @NonNull OutputStream out) throws IOException, InterruptedException {
+        entry.activeExports.incrementAndGet();
+        try (ArchiveWriter writer = format.open(out)) {
+            long startTime = System.nanoTime();
+            long written = 0L;
+            for (Map.Entry<Integer, Snapshot> dimension : entry.snapshots.entrySet()) {
+                Snapshot snapshot = dimension.getValue();
+                String prefix = regionDir(dimension.getKey());
+                for (Vec2i pos : snapshot.regions()) {
+                    ByteBuf region = snapshot.readRegion(pos);
+                    if (region == null) {
+                        continue;
+                    }
+                    int size = region.readableBytes();
+                    try {
+                        writer.write(String.format("%sr.%d.%d.mca", prefix, pos.getX(), pos.getY()), snapshot.time(), region);
+                    } finally {
+                        region.release();
+                    }
+                    written += size;
+                    entry.exportedBytes.addAndGet(size);
+                    entry.touch();
+                    this.throttle(startTime, written);
+                }
+            }
+        } finally {
+            entry.activeExports.decrementAndGet();
+        }
+    }
+
+    /**
+     * Starts exporting a snapshot to a file in {@link #exportDir()}, in the background.
+     * <p>
+     * The archive is written to a temporary file and only moved to its final name once it's complete.
+     *
+     * @param entry  the snapshot to export
+     * @param format the {@link ArchiveFormat} to use
+     * @return the file that the archive will be written to
+     */
+    public File exportToFile(@NonNull Entry entry, @NonNull ArchiveFormat format) {
+        this.assertOpen();
+
+        File file = new File(PFiles.ensureDirectoryExists(this.exportDir), entry.id + '.' + format.extension());
+        File tempFile = new File(this.exportDir, file.getName() + ".part");
+
+        entry.activeExports.incrementAndGet(); //so that the snapshot can't expire before the thread starts
+        Thread thread = new Thread(() -> {
+            try {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16)) {
+                    this.export(entry, format, out);
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logger.success("Exported snapshot %s to %s", entry.id, file);
+            } catch (Exception e) {
+                logger.error("Unable to export snapshot %s:", e, entry.id);
+                tempFile.delete();
+            } finally {
+                entry.activeExports.decrementAndGet();
+            }
+        }, "2b2tMapDownloader snapshot export #" + this.exportThreadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return file;
+    }
+
+    protected void throttle(long startTime, long written) throws InterruptedException {
+        long targetTime = startTime + (long) (written * (double) TimeUnit.SECONDS.toNanos(1L) / this.config.maxBytesPerSecond());
+        long now = System.nanoTime();
+        if (targetTime > now) {
+            TimeUnit.NANOSECONDS.sleep(targetTime - now);
+        }
+    }
+
+    /**
+     * @param dimension the dimension ID
+     * @return the path of the given dimension's region directory, as it would be in a vanilla world
+     */
+    public static String regionDir(int dimension) {
+        return dimension == 0 ? "world/region/" : String.format("world/DIM%d/region/", dimension);
+    }
+
+    protected void assertOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Snapshot manager is closed!");
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.expiryFuture.cancel(false);
+        this.snapshots.keySet().forEach(this::release);
+    }
+
+    /**
+     * A snapshot of every dimension.
+     *
+     * @author DaPorkchop_
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class Entry {
+        protected final String                 id;
+        protected final long                   time = System.currentTimeMillis();
+        protected final Map<Integer, Snapshot> snapshots;
+
+        protected final AtomicInteger activeExports = new AtomicInteger();
+        protected final AtomicLong    exportedBytes = new AtomicLong();
+
+        protected volatile long lastAccess = this.time;
+
+        protected Entry(@NonNull String id, @NonNull Map<Integer, Snapshot> snapshots) {
+            this.id = id;
+            this.snapshots = snapshots;
+        }
+
+        protected void touch() {
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        /**
+         * @return a {@link JsonObject} describing this snapshot
+         */
+        public JsonObject toJson() {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("id", this.id);
+            obj.addProperty("time", this.time);
+            obj.addProperty("activeExports", this.activeExports.get());
+            obj.addProperty("exportedBytes", this.exportedBytes.get());
+
+            JsonObject dimensions = new JsonObject();
+            this.snapshots.forEach((dimension, snapshot) -> {
+                JsonArray regions = new JsonArray();
+                for (Vec2i pos : snapshot.regions()) {
+                    JsonArray region = new JsonArray();
+                    region.add(pos.getX());
+                    region.add(pos.getY());
+                    regions.add(region);
+                }
+                JsonObject dim = new JsonObject();
+                dim.addProperty("preservedRegions", snapshot.preservedCount());
+                dim.add("regions", regions);
+                dimensions.add(String.valueOf(dimension), dim);
+            });
+            obj.add("dimensions", dimensions);
+            return obj;
+        }
+    }
+}
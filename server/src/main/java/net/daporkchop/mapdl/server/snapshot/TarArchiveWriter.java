@@ -0,0 +1,112 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.snapshot;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes uncompressed POSIX ustar archives.
+ * <p>
+ * Only plain files are supported, which is all that's needed for exporting region files.
+ *
+ * @author DaPorkchop_
+ */
+final class TarArchiveWriter implements ArchiveWriter {
+    protected static final int BLOCK_SIZE = 512;
+
+    protected final OutputStream out;
+    protected final byte[]       header = new byte[BLOCK_SIZE];
+
+    public TarArchiveWriter(@NonNull OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(@NonNull String name, long time, @NonNull ByteBuf data) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        int size = data.readableBytes();
+
+        byte[] header = this.header;
+        Arrays.fill(header, (byte) 0);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        octal(header, 100, 8, 0644L); //mode
+        octal(header, 108, 8, 0L); //uid
+        octal(header, 116, 8, 0L); //gid
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, TimeUnit.MILLISECONDS.toSeconds(Math.max(time, 0L)));
+        header[156] = '0'; //regular file
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+
+        //the checksum is computed as if the checksum field were filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0L;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(header, 148, 7, checksum);
+
+        this.out.write(header);
+        data.getBytes(data.readerIndex(), this.out, size);
+        this.pad(size);
+    }
+
+    protected void pad(long size) throws IOException {
+        int remaining = (int) (-size & (BLOCK_SIZE - 1));
+        if (remaining != 0) {
+            this.out.write(new byte[remaining]);
+        }
+    }
+
+    //writes a NUL-terminated, zero-padded octal number
+    protected static void octal(@NonNull byte[] dst, int offset, int length, long value) {
+        String s = Long.toOctalString(value);
+        if (s.length() > length - 1) {
+            throw new IllegalArgumentException("Value too large: " + value);
+        }
+        int pad = length - 1 - s.length();
+        for (int i = 0; i < pad; i++) {
+            dst[offset + i] = '0';
+        }
+        for (int i = 0; i < s.length(); i++) {
+            dst[offset + pad + i] = (byte) s.charAt(i);
+        }
+        dst[offset + length - 1] = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            //end-of-archive marker
+            this.out.write(new byte[BLOCK_SIZE << 1]);
+        } finally {
+            this.out.close();
+        }
+    }
+}
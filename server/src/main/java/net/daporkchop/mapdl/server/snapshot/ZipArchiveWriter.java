@@ -0,0 +1,76 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.snapshot;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes zip archives.
+ * <p>
+ * Region files consist almost entirely of compressed chunks, so entries are stored rather than deflated.
+ *
+ * @author DaPorkchop_
+ */
+final class ZipArchiveWriter implements ArchiveWriter {
+    protected final ZipOutputStream out;
+    protected final CRC32           crc = new CRC32();
+
+    public ZipArchiveWriter(@NonNull OutputStream out) {
+        this.out = new ZipOutputStream(out);
+        this.out.setMethod(ZipOutputStream.STORED);
+    }
+
+    @Override
+    public void write(@NonNull String name, long time, @NonNull ByteBuf data) throws IOException {
+        int size = data.readableBytes();
+
+        //stored entries need the size and checksum up front
+        this.crc.reset();
+        for (ByteBuffer buffer : data.nioBuffers(data.readerIndex(), size)) {
+            this.crc.update(buffer);
+        }
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(this.crc.getValue());
+        if (time > 0L) {
+            entry.setTime(time);
+        }
+
+        this.out.putNextEntry(entry);
+        data.getBytes(data.readerIndex(), this.out, size);
+        this.out.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+}
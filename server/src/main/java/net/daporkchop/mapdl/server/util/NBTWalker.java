@@ -0,0 +1,151 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.lib.minecraft.world.format.anvil.region.RegionConstants;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Helpers for pulling individual values out of compressed chunk NBT without building a tag tree.
+ * <p>
+ * Callers iterate over the entries of a compound by reading a tag type (stopping at {@link #TAG_END}), the tag's name, and then either reading the
+ * payload themselves or passing it to {@link #skip(DataInputStream, int)}.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class NBTWalker {
+    public final int TAG_END        = 0;
+    public final int TAG_BYTE       = 1;
+    public final int TAG_SHORT      = 2;
+    public final int TAG_INT        = 3;
+    public final int TAG_LONG       = 4;
+    public final int TAG_FLOAT      = 5;
+    public final int TAG_DOUBLE     = 6;
+    public final int TAG_BYTE_ARRAY = 7;
+    public final int TAG_STRING     = 8;
+    public final int TAG_LIST       = 9;
+    public final int TAG_COMPOUND   = 10;
+    public final int TAG_INT_ARRAY  = 11;
+    public final int TAG_LONG_ARRAY = 12;
+
+    /**
+     * Opens a chunk for reading, and advances to the start of the {@code Level} compound's entries.
+     *
+     * @param buf the chunk data, in region format (length prefix, compression version, compressed NBT). Will not be released
+     * @return a stream positioned at the first entry of the {@code Level} tag. The caller must close it when done
+     * @throws IOException if the chunk could not be decompressed or has no {@code Level} tag
+     */
+    public DataInputStream openLevel(@NonNull ByteBuf buf) throws IOException {
+        int version = buf.getByte(buf.readerIndex() + 4) & 0xFF;
+        InputStream in = new ByteBufInputStream(buf.slice(buf.readerIndex() + 5, buf.readableBytes() - 5));
+        if (version == RegionConstants.ID_ZLIB) {
+            in = new InflaterInputStream(in);
+        } else if (version == RegionConstants.ID_GZIP) {
+            in = new GZIPInputStream(in);
+        } else {
+            throw new IOException("Unknown compression version: " + version);
+        }
+
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (data.readUnsignedByte() != TAG_COMPOUND) {
+                throw new IOException("Root tag is not a compound!");
+            }
+            skipString(data);
+            for (int type; (type = data.readUnsignedByte()) != TAG_END; ) {
+                if (type == TAG_COMPOUND && "Level".equals(data.readUTF())) {
+                    return data;
+                }
+                skip(data, type);
+            }
+            throw new IOException("Chunk has no Level tag!");
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            throw e;
+        }
+    }
+
+    public void skipString(@NonNull DataInputStream in) throws IOException {
+        in.skipBytes(in.readUnsignedShort());
+    }
+
+    /**
+     * Skips the payload of a tag.
+     *
+     * @param in   the stream to read from
+     * @param type the type of tag
+     */
+    public void skip(@NonNull DataInputStream in, int type) throws IOException {
+        switch (type) {
+            case TAG_BYTE:
+                in.skipBytes(1);
+                break;
+            case TAG_SHORT:
+                in.skipBytes(2);
+                break;
+            case TAG_INT:
+            case TAG_FLOAT:
+                in.skipBytes(4);
+                break;
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                in.skipBytes(8);
+                break;
+            case TAG_BYTE_ARRAY:
+                in.skipBytes(in.readInt());
+                break;
+            case TAG_STRING:
+                skipString(in);
+                break;
+            case TAG_LIST: {
+                int elementType = in.readUnsignedByte();
+                for (int i = in.readInt() - 1; i >= 0; i--) {
+                    skip(in, elementType);
+                }
+                break;
+            }
+            case TAG_COMPOUND:
+                for (int childType; (childType = in.readUnsignedByte()) != TAG_END; ) {
+                    skipString(in);
+                    skip(in, childType);
+                }
+                break;
+            case TAG_INT_ARRAY:
+                in.skipBytes(in.readInt() << 2);
+                break;
+            case TAG_LONG_ARRAY:
+                in.skipBytes(in.readInt() << 3);
+                break;
+            default:
+                throw new IOException("Unknown tag type: " + type);
+        }
+    }
+}
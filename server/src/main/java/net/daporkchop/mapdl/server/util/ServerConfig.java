@@ -0,0 +1,276 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.util;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import net.daporkchop.mapdl.server.world.storage.StorageType;
+
+/**
+ * The server configuration, loaded from {@code config.json}.
+ * <p>
+ * Any options that are missing from the file will be set to their default values.
+ *
+ * @author DaPorkchop_
+ */
+@Getter
+@Accessors(fluent = true)
+public final class ServerConfig {
+    protected int port = 8080;
+
+    //how chunks should be stored. changing this requires migrating the existing data using ChunkStorageMigrator
+    protected StorageType storage = StorageType.ANVIL;
+
+    protected LevelDB leveldb = new LevelDB();
+
+    protected Compaction compaction = new Compaction();
+
+    protected WriteCache writeCache = new WriteCache();
+
+    protected ReadCache readCache = new ReadCache();
+
+    protected ChangeLog changeLog = new ChangeLog();
+
+    protected Render render = new Render();
+
+    protected TileEntityIndex tileEntityIndex = new TileEntityIndex();
+
+    protected History history = new History();
+
+    protected Snapshot snapshot = new Snapshot();
+
+    protected Sharding sharding = new Sharding();
+
+    protected Replication replication = new Replication();
+
+    protected Channel channel = new Channel();
+
+    /**
+     * Options for {@link net.daporkchop.mapdl.server.world.storage.LevelDBChunkStorage}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class LevelDB {
+        //the size of LevelDB's block cache
+        protected long cacheSize = 64L << 20L;
+
+        //the amount of data that will be buffered in memory before being written to a new table file
+        protected int writeBufferSize = 16 << 20;
+    }
+
+    /**
+     * Options for {@link net.daporkchop.mapdl.server.world.RegionCompactor}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class Compaction {
+        protected boolean enabled = true;
+
+        //the delay (in minutes) between compaction passes over a world
+        protected long interval = 60L;
+
+        //regions will only be compacted if at least this fraction of the file, and at least this many bytes, are wasted
+        protected double minFragmentation = 0.25d;
+        protected long   minWastedBytes   = 1L << 20L;
+
+        //the maximum number of bytes that will be copied per second, to avoid starving ingest of IO
+        protected long maxBytesPerSecond = 8L << 20L;
+    }
+
+    /**
+     * Options for the write-behind cache in {@link net.daporkchop.mapdl.server.world.World}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class WriteCache {
+        protected boolean enabled = true;
+
+        //the amount of time (in milliseconds) that a chunk will be kept in memory before being written to disk
+        protected long window = 5000L;
+
+        //the maximum amount of chunk data to keep in memory. if exceeded, the whole cache is flushed immediately
+        protected long maxBytes = 64L << 20L;
+    }
+
+    /**
+     * Options for the read cache in {@link net.daporkchop.mapdl.server.world.World}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class ReadCache {
+        protected boolean enabled = true;
+
+        //the maximum amount of compressed chunk data to keep in memory, per dimension
+        protected long maxBytes = 128L << 20L;
+
+        //the fraction of the cache reserved for chunks which have been requested more than once
+        protected double protectedRatio = 0.8d;
+    }
+
+    /**
+     * Options for {@link net.daporkchop.mapdl.server.render.TileRenderer}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class Render {
+        protected boolean enabled = true;
+
+        //the number of rendering threads per dimension
+        protected int threads = 1;
+
+        //the delay (in milliseconds) between checks for newly written chunks
+        protected long interval = 1000L;
+
+        //the maximum number of change log entries to render at once
+        protected int batchSize = 4096;
+    }
+
+    /**
+     * Options for {@link net.daporkchop.mapdl.server.world.ChangeLog}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class ChangeLog {
+        //once the log has more entries than this, the oldest ones are dropped until half of this many are left. 0 to keep everything
+        protected long maxEntries = 1L << 26L;
+
+        //the delay (in minutes) between checks for entries to drop
+        protected long retentionInterval = 60L;
+    }
+
+    /**
+     * Options for {@link net.daporkchop.mapdl.server.search.TileEntityIndex}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class TileEntityIndex {
+        protected boolean enabled = true;
+
+        //the delay (in milliseconds) between checks for newly written chunks
+        protected long interval = 1000L;
+
+        //the maximum number of change log entries to index at once
+        protected int batchSize = 4096;
+
+        //the minimum delay (in seconds) between saving the index to disk
+        protected long saveInterval = 300L;
+    }
+
+    /**
+     * Options for {@link net.daporkchop.mapdl.server.world.history.ChunkHistory}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class History {
+        //disabled by default, since every overwrite has to read the old version and compute a delta
+        protected boolean enabled = false;
+
+        //the maximum number of old versions to keep per chunk
+        protected int maxVersions = 32;
+
+        //old versions which were replaced more than this many days ago are dropped. 0 to keep them forever
+        protected long maxAge = 0L;
+
+        //the maximum size of a chunk's history, relative to the size of the chunk itself. 0 for no limit
+        protected double maxAmplification = 4.0d;
+
+        //the delay (in minutes) between applying the above limits
+        protected long compactionInterval = 60L;
+    }
+
+    /**
+     * Options for {@link net.daporkchop.mapdl.server.snapshot.SnapshotManager}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class Snapshot {
+        //the maximum number of bytes that will be read per second by each export, to avoid starving ingest of IO
+        protected long maxBytesPerSecond = 16L << 20L;
+
+        //snapshots which haven't been accessed for this many minutes are released automatically
+        protected long expiry = 60L;
+    }
+
+    /**
+     * Options for running as a {@link net.daporkchop.mapdl.server.web.ShardRouter}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class Sharding {
+        //the base URLs of the storage nodes. if empty, this server stores chunks itself, otherwise it only forwards requests to the nodes.
+        //  this list must never be reordered or resized once chunks have been stored!
+        protected String[] nodes = {};
+
+        //the account used to authenticate with the storage nodes. it must exist on every node
+        protected String username = "";
+        protected String password = "";
+
+        //the number of threads used for sending requests to the nodes, and the number of requests which may be waiting for one. once both are
+        //  exhausted, requests are sent from the thread handling the incoming request
+        protected int fanoutThreads   = 32;
+        protected int fanoutQueueSize = 256;
+
+        //timeouts (in milliseconds) for requests to the storage nodes
+        protected int connectTimeout = 5000;
+        protected int readTimeout    = 30000;
+    }
+
+    /**
+     * Options for {@link net.daporkchop.mapdl.server.replication.ReplicationFollower}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class Replication {
+        //the base URL of the primary server to replicate from. if empty, this server isn't a follower
+        protected String primary = "";
+
+        //the account used to authenticate with the primary
+        protected String username = "";
+        protected String password = "";
+
+        //the accounts which followers use to authenticate with this server. /api/replicate refuses every other account
+        protected String[] followers = {};
+
+        //the delay (in milliseconds) between checks for new changes on the primary
+        protected long interval = 1000L;
+
+        //the maximum number of change log entries to request at once
+        protected int batchSize = 1024;
+
+        //timeouts (in milliseconds) for requests to the primary
+        protected int connectTimeout = 5000;
+        protected int readTimeout    = 60000;
+    }
+
+    /**
+     * Options for {@link net.daporkchop.mapdl.server.channel.UploadChannelServer}.
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class Channel {
+        //ignored in router mode
+        protected boolean enabled = true;
+
+        protected int port = 8081;
+
+        //the maximum number of chunks that each client may have in flight at once
+        protected int credits = 512;
+    }
+}
@@ -31,7 +31,8 @@ public interface ExitCallback {
     /**
      * Called after a process launched by {@link ProcessLauncher} exits.
      * <p>
-     * Note: both of the buffers will be released as soon as this method returns, make sure to retain them if needed!
+     * Note: both of the buffers will be released as soon as this method returns, make sure to retain them if needed! They only contain the first
+     * {@link ProcessLauncher#maxBufferedBytes()} bytes of output, anything beyond that is only passed to the process' {@link OutputCallback}.
      * <p>
      * If the {@link ProcessLauncher} is closed before the process exits, the process will be terminated and this callback will be invoked with both
      * stdout and stderr parameters being {@code null}, and exitCode being {@link Integer#MIN_VALUE}.
@@ -0,0 +1,43 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.util.process;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Called whenever a process launched by {@link ProcessLauncher} writes some output.
+ *
+ * @author DaPorkchop_
+ */
+@FunctionalInterface
+public interface OutputCallback {
+    /**
+     * Called whenever a process launched by {@link ProcessLauncher} writes some output.
+     * <p>
+     * This is called directly from the thread reading the output, in the same order as the output was written. The process will be unable to write
+     * any more output to the same stream until this method returns, so it shouldn't block for long.
+     * <p>
+     * Note: the buffer is only valid until this method returns, make sure to copy it if needed!
+     *
+     * @param stderr whether the output was written to the process' standard error (stderr) rather than its standard output (stdout)
+     * @param data   the output
+     */
+    void onOutput(boolean stderr, ByteBuf data);
+}
@@ -22,15 +22,13 @@ package net.daporkchop.mapdl.server.util.process;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.GlobalEventExecutor;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
-import net.daporkchop.lib.common.function.io.IOPredicate;
-import net.daporkchop.lib.logging.Logging;
-import net.daporkchop.mapdl.server.util.ServerConstants;
+import net.daporkchop.lib.common.misc.threadfactory.ThreadFactoryBuilder;
 
 import java.io.File;
 import java.io.IOException;
@@ -39,96 +37,103 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static net.daporkchop.lib.logging.Logging.*;
 
 /**
- * A wrapper around {@link ProcessBuilder} which uses a worker thread to read command output into a buffer, allowing to efficiently do things with it
- * without having to block our web workers waiting on git command output.
+ * A wrapper around {@link ProcessBuilder} which reads command output in the background, allowing to efficiently do things with it without having
+ * to block our web workers waiting on git command output.
+ * <p>
+ * Every process gets a reader for each of its stdout and stderr, which blocks until output is available and passes it on immediately, so idle
+ * processes cost nothing and bursts of output aren't delayed. Process pipes can't be used with a selector, so the readers are tasks on a cached
+ * thread pool: hundreds of concurrent processes means hundreds of mostly sleeping threads, which are reused for later processes and exit after a
+ * minute of not being needed.
+ * <p>
+ * Only the first {@link #maxBufferedBytes()} bytes of each stream are kept for the {@link ExitCallback}, so a process with a lot of output can't
+ * use up all of our memory. Processes whose output is needed in full should be given an {@link OutputCallback} instead.
  *
  * @author DaPorkchop_
  */
-@RequiredArgsConstructor
 @Getter
 @Accessors(fluent = true)
-public class ProcessLauncher extends Thread {
-    protected final long             interval;
-    @NonNull
+public class ProcessLauncher {
+    //the amount of output kept for the exit callback by default, per stream
+    public static final int DEFAULT_MAX_BUFFERED_BYTES = 1 << 20;
+
+    protected static final int READ_BUFFER_SIZE = 8192;
+
+    protected final int              maxBufferedBytes;
     protected final ByteBufAllocator alloc;
-    @NonNull
     protected final EventExecutor    callbackExecutor;
+
+    protected final ExecutorService     readers   = Executors.newCachedThreadPool(new ThreadFactoryBuilder().name("2b2tMapDownloader process reader #%d").formatId().build());
     protected final AtomicBoolean       running   = new AtomicBoolean(true);
     protected final Set<RunningProcess> processes = Collections.newSetFromMap(new ConcurrentHashMap<>());
     protected final ReadWriteLock       lock      = new ReentrantReadWriteLock();
 
-    public ProcessLauncher(long interval) {
-        this(interval, PooledByteBufAllocator.DEFAULT, GlobalEventExecutor.INSTANCE);
-
-        super.start();
+    public ProcessLauncher() {
+        this(DEFAULT_MAX_BUFFERED_BYTES, PooledByteBufAllocator.DEFAULT, GlobalEventExecutor.INSTANCE);
     }
 
-    @Override
-    public synchronized void start() {
-        throw new UnsupportedOperationException();
+    public ProcessLauncher(int maxBufferedBytes, @NonNull ByteBufAllocator alloc, @NonNull EventExecutor callbackExecutor) {
+        if (maxBufferedBytes < 0) {
+            throw new IllegalArgumentException("maxBufferedBytes: " + maxBufferedBytes);
+        }
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.alloc = alloc;
+        this.callbackExecutor = callbackExecutor;
     }
 
+    /**
+     * Terminates all running processes and stops accepting new ones.
+     * <p>
+     * The exit callbacks of the terminated processes will be invoked with {@code null} output and an exit code of {@link Integer#MIN_VALUE}.
+     */
     public void shutdown() {
-        this.lock.readLock().lock();
+        this.lock.writeLock().lock();
         try {
-            if (this.running.get()) {
-                this.interrupt();
+            if (!this.running.compareAndSet(true, false)) {
+                return;
             }
+            this.processes.forEach(RunningProcess::destroy);
         } finally {
-            this.lock.readLock().unlock();
-        }
-    }
-
-    @Override
-    public void run() {
-        try {
-            while (this.running.get()) {
-                this.processes.removeIf((IOPredicate<RunningProcess>) RunningProcess::tick);
-                Thread.sleep(this.interval);
-            }
-        } catch (InterruptedException e) {
-            //exit safely in case of interrupt
-        } finally {
-            this.lock.writeLock().lock();
-            try {
-                if (this.running.compareAndSet(true, false)) {
-                    this.processes.forEach(RunningProcess::destroy);
-                    this.processes.clear();
-                } else {
-                    throw new IllegalStateException("Process launcher already stopped?");
-                }
-            } finally {
-                this.lock.writeLock().unlock();
-            }
+            this.lock.writeLock().unlock();
         }
+        this.readers.shutdown();
     }
 
     public void submit(@NonNull ExitCallback callback, @NonNull File runDirectory, @NonNull String... command) {
-        this.doSubmit(callback, new ProcessBuilder(command).directory(runDirectory));
+        this.doSubmit(null, callback, new ProcessBuilder(command).directory(runDirectory));
     }
 
     public void submit(@NonNull ExitCallback callback, @NonNull File runDirectory, @NonNull List<String> command) {
-        this.doSubmit(callback, new ProcessBuilder(command).directory(runDirectory));
+        this.doSubmit(null, callback, new ProcessBuilder(command).directory(runDirectory));
+    }
+
+    /**
+     * Launches a process, and passes its output to the given {@link OutputCallback} as soon as it's written.
+     *
+     * @param output   the {@link OutputCallback} to pass output to
+     * @param callback the {@link ExitCallback} to call once the process exits
+     */
+    public void submit(@NonNull OutputCallback output, @NonNull ExitCallback callback, @NonNull File runDirectory, @NonNull List<String> command) {
+        this.doSubmit(output, callback, new ProcessBuilder(command).directory(runDirectory));
     }
 
-    protected void doSubmit(@NonNull ExitCallback callback, @NonNull ProcessBuilder builder) {
+    protected void doSubmit(OutputCallback output, @NonNull ExitCallback callback, @NonNull ProcessBuilder builder) {
         this.lock.readLock().lock();
         try {
             if (this.running.get()) {
-                this.processes.add(new RunningProcess(
-                        builder.start(),
-                        callback,
-                        this.alloc.ioBuffer(),
-                        this.alloc.ioBuffer()
-                ));
+                RunningProcess process = new RunningProcess(builder.start(), output, callback);
+                this.processes.add(process);
+                this.readers.execute(() -> process.read(false));
+                this.readers.execute(() -> process.read(true));
             } else {
                 this.callbackExecutor.execute(() -> callback.onExit(null, null, Integer.MIN_VALUE));
             }
@@ -139,48 +144,89 @@ public class ProcessLauncher extends Thread {
         }
     }
 
-    @RequiredArgsConstructor
-    @Accessors(fluent = true)
+    /**
+     * @author DaPorkchop_
+     */
     protected class RunningProcess {
-        protected final Process      process;
-        @NonNull
-        protected final ExitCallback callback;
-        @NonNull
-        protected final ByteBuf      stdout;
-        @NonNull
-        protected final ByteBuf      stderr;
-        @Getter
-        protected final int hashCode = ThreadLocalRandom.current().nextInt();
-
-        public boolean tick() throws IOException {
-            InputStream in = this.process.getInputStream();
-            if (in.available() != 0)    {
-                logger.info("%d bytes readable!", in.available());
-            }
-            this.stdout.writeBytes(in, in.available());
-            in = this.process.getErrorStream();
-            this.stderr.writeBytes(in, in.available());
+        protected final Process        process;
+        protected final OutputCallback output;
+        protected final ExitCallback   callback;
+        protected final ByteBuf        stdout;
+        protected final ByteBuf        stderr;
+
+        //the number of streams which haven't reached EOF yet
+        protected final AtomicInteger open = new AtomicInteger(2);
+
+        protected volatile boolean destroyed;
+
+        public RunningProcess(@NonNull Process process, OutputCallback output, @NonNull ExitCallback callback) {
+            this.process = process;
+            this.output = output;
+            this.callback = callback;
+            this.stdout = ProcessLauncher.this.alloc.ioBuffer(0, ProcessLauncher.this.maxBufferedBytes);
+            this.stderr = ProcessLauncher.this.alloc.ioBuffer(0, ProcessLauncher.this.maxBufferedBytes);
+        }
 
-            if (this.process.isAlive()) {
-                return false;
-            } else {
-                ProcessLauncher.this.callbackExecutor.execute(() -> {
-                    try {
-                        this.callback.onExit(this.stdout, this.stderr, this.process.exitValue());
-                    } finally {
-                        this.stdout.release();
-                        this.stderr.release();
+        /**
+         * Reads one of the process' output streams until EOF, then finishes the process if the other one is done as well.
+         *
+         * @param stderr whether to read stderr rather than stdout
+         */
+        public void read(boolean stderr) {
+            ByteBuf dst = stderr ? this.stderr : this.stdout;
+            byte[] buf = new byte[READ_BUFFER_SIZE];
+            try (InputStream in = stderr ? this.process.getErrorStream() : this.process.getInputStream()) {
+                for (int n; (n = in.read(buf)) >= 0; ) {
+                    //always keep reading, even once the buffer is full, otherwise the process would block forever once the pipe fills up
+                    dst.writeBytes(buf, 0, Math.min(n, dst.maxWritableBytes()));
+
+                    if (this.output != null && n != 0) {
+                        try {
+                            this.output.onOutput(stderr, Unpooled.wrappedBuffer(buf, 0, n));
+                        } catch (Exception e) {
+                            logger.error("Exception in process output callback:", e);
+                        }
                     }
-                });
-                return true;
+                }
+            } catch (IOException e) {
+                //the stream was closed because the process was destroyed
             }
+
+            if (this.open.decrementAndGet() == 0) {
+                this.finish();
+            }
+        }
+
+        protected void finish() {
+            int exitCode;
+            try {
+                exitCode = this.process.waitFor();
+            } catch (InterruptedException e) {
+                this.process.destroyForcibly();
+                exitCode = Integer.MIN_VALUE;
+            }
+            ProcessLauncher.this.processes.remove(this);
+
+            boolean destroyed = this.destroyed || exitCode == Integer.MIN_VALUE;
+            int finalExitCode = exitCode;
+            ProcessLauncher.this.callbackExecutor.execute(() -> {
+                try {
+                    if (destroyed) {
+                        this.callback.onExit(null, null, Integer.MIN_VALUE);
+                    } else {
+                        this.callback.onExit(this.stdout, this.stderr, finalExitCode);
+                    }
+                } finally {
+                    this.stdout.release();
+                    this.stderr.release();
+                }
+            });
         }
 
         public void destroy() {
+            //the readers will see EOF once the process is dead, and finish it from there
+            this.destroyed = true;
             this.process.destroyForcibly();
-            this.stdout.release();
-            this.stderr.release();
-            this.callback.onExit(null, null, Integer.MIN_VALUE);
         }
     }
 }
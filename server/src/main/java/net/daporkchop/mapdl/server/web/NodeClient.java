@@ -0,0 +1,166 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.web;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import net.daporkchop.lib.encoding.Hexadecimal;
+import net.daporkchop.lib.hash.util.Digest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends requests to another mapdl server, e.g. a storage node on behalf of a {@link ShardRouter}.
+ * <p>
+ * Requests are authenticated using the given credentials, so the other server needs to have an account with that name and password.
+ *
+ * @author DaPorkchop_
+ */
+@Accessors(fluent = true)
+public final class NodeClient {
+    @Getter
+    protected final String baseUrl;
+    protected final String username;
+    protected final String hashedPassword;
+
+    protected final int connectTimeout;
+    protected final int readTimeout;
+
+    protected final LongAdder requests = new LongAdder();
+    protected final LongAdder failures = new LongAdder();
+
+    /**
+     * @param baseUrl        the base URL of the other server
+     * @param username       the username to authenticate with
+     * @param password       the password to authenticate with
+     * @param connectTimeout the connect timeout, in milliseconds
+     * @param readTimeout    the read timeout, in milliseconds
+     */
+    public NodeClient(@NonNull String baseUrl, @NonNull String username, @NonNull String password, int connectTimeout, int readTimeout) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + '/';
+        this.username = username;
+        this.hashedPassword = Hexadecimal.encode(Digest.SHA3_256.start()
+                .append(username.getBytes(StandardCharsets.UTF_8))
+                .append(':')
+                .append(password.getBytes(StandardCharsets.UTF_8))
+                .hashToByteArray());
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Sends a request to the other server and waits for the response.
+     *
+     * @param method the HTTP method
+     * @param path   the path and query string, without a leading slash
+     * @param body   the request body, or {@code null} if there is none
+     * @return the response
+     * @throws IOException if the other server couldn't be reached
+     */
+    public Response request(@NonNull String method, @NonNull String path, byte[] body) throws IOException {
+        this.requests.increment();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl + path).openConnection();
+            try {
+                connection.setRequestMethod(method);
+                connection.setConnectTimeout(this.connectTimeout);
+                connection.setReadTimeout(this.readTimeout);
+                connection.setRequestProperty("mapdl-username", this.username);
+                connection.setRequestProperty("mapdl-password", this.hashedPassword);
+                if (body != null) {
+                    connection.setDoOutput(true);
+                    connection.setFixedLengthStreamingMode(body.length);
+                    connection.setRequestProperty("Content-Type", "application/octet-stream");
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write(body);
+                    }
+                }
+
+                int status = connection.getResponseCode();
+                InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if (in != null) {
+                    try {
+                        byte[] buf = new byte[8192];
+                        for (int i; (i = in.read(buf)) > 0; ) {
+                            out.write(buf, 0, i);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+                return new Response(status, out.toByteArray());
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            this.failures.increment();
+            throw e;
+        }
+    }
+
+    public long requests() {
+        return this.requests.sum();
+    }
+
+    public long failures() {
+        return this.failures.sum();
+    }
+
+    /**
+     * A response from the other server.
+     *
+     * @author DaPorkchop_
+     */
+    @Getter
+    @Accessors(fluent = true)
+    public static final class Response {
+        protected final int    status;
+        protected final byte[] body;
+
+        public Response(int status, @NonNull byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        public String bodyAsString() {
+            return new String(this.body, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return this response, if the status code indicates success
+         * @throws IOException if it doesn't
+         */
+        public Response expectOk() throws IOException {
+            if (this.status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + this.status + ": " + this.bodyAsString());
+            }
+            return this;
+        }
+    }
+}
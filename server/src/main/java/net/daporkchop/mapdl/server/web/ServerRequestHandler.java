@@ -19,15 +19,17 @@
 
 package net.daporkchop.mapdl.server.web;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import lombok.NonNull;
 import net.daporkchop.lib.common.function.throwing.ETriConsumer;
 import net.daporkchop.lib.encoding.Hexadecimal;
 import net.daporkchop.lib.hash.util.Digest;
 import net.daporkchop.lib.http.HttpMethod;
-import net.daporkchop.lib.http.entity.HttpEntity;
-import net.daporkchop.lib.http.entity.ReusableByteBufHttpEntity;
 import net.daporkchop.lib.http.entity.content.type.StandardContentType;
 import net.daporkchop.lib.http.header.map.HeaderMap;
 import net.daporkchop.lib.http.message.Message;
@@ -36,19 +38,35 @@ import net.daporkchop.lib.http.server.ResponseBuilder;
 import net.daporkchop.lib.http.server.handle.ServerHandler;
 import net.daporkchop.lib.http.util.StatusCodes;
 import net.daporkchop.lib.http.util.exception.GenericHttpException;
+import net.daporkchop.lib.math.vector.i.Vec2i;
+import net.daporkchop.mapdl.common.ChunkBatchCodec;
+import net.daporkchop.mapdl.common.SubmitResponse;
+import net.daporkchop.mapdl.common.UploadProtocol;
 import net.daporkchop.mapdl.common.User;
 import net.daporkchop.mapdl.server.Server;
+import net.daporkchop.mapdl.server.render.TileRenderer;
+import net.daporkchop.mapdl.server.search.TileEntity;
+import net.daporkchop.mapdl.server.search.TileEntityIndex;
+import net.daporkchop.mapdl.server.snapshot.ArchiveFormat;
+import net.daporkchop.mapdl.server.snapshot.SnapshotManager;
+import net.daporkchop.mapdl.server.world.ChunkIndex;
+import net.daporkchop.mapdl.server.world.Snapshot;
 import net.daporkchop.mapdl.server.world.World;
 
 import java.io.File;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static net.daporkchop.lib.logging.Logging.*;
 import static net.daporkchop.mapdl.common.SharedConstants.MAX_REQUEST_SIZE;
+import static net.daporkchop.mapdl.server.util.ServerConstants.*;
 
 /**
  * Handles incoming HTTP requests.
@@ -56,7 +74,20 @@ import static net.daporkchop.mapdl.common.SharedConstants.MAX_REQUEST_SIZE;
  * @author DaPorkchop_
  */
 public final class ServerRequestHandler implements ServerHandler {
-    protected static final HttpEntity EMPTY_ENTITY = new ReusableByteBufHttpEntity(StandardContentType.TEXT_PLAIN_ASCII, Unpooled.EMPTY_BUFFER);
+    //dimension, time, x, z
+    protected static final int RECORD_HEADER_SIZE = 1 + 8 + 4 + 4;
+
+    //the default and maximum number of change log entries returned by a single request to /api/changes
+    protected static final int DEFAULT_CHANGES = 4096;
+    protected static final int MAX_CHANGES     = 65536;
+
+    //the default and maximum number of tile entities returned by a single search
+    protected static final int DEFAULT_SEARCH_RESULTS = 100;
+    protected static final int MAX_SEARCH_RESULTS     = 10000;
+
+    //the default and maximum number of change log entries replicated by a single request to /api/replicate
+    protected static final int DEFAULT_REPLICATE_CHANGES = 1024;
+    protected static final int MAX_REPLICATE_CHANGES     = 16384;
 
     protected final Map<String, ETriConsumer<Query, Message, ResponseBuilder>> handlers = new HashMap<>();
     protected final Server server;
@@ -68,32 +99,326 @@ public final class ServerRequestHandler implements ServerHandler {
             if (query.method() != HttpMethod.POST) {
                 throw StatusCodes.Method_Not_Allowed.exception();
             }
-            User user = this.getAuthenticatedUser(message.headers());
+            User user = getAuthenticatedUser(this.server, message.headers());
             ByteBuf buf = (ByteBuf) message.body();
 
-            try (FileChannel channel = FileChannel.open(new File("data").toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))  {
-                buf.getBytes(0, channel, 0L, buf.readableBytes());
+            SubmitResponse result = new SubmitResponse().batchVersion(ChunkBatchCodec.VERSION_COMPACT);
+            result.rejectedFrom(ChunkBatchCodec.decode(buf, (i, dimension, x, z, time, data) -> {
+                switch (this.server.submitChunk(user, dimension, x, z, time, data)) {
+                    case UploadProtocol.STATUS_ACCEPTED:
+                        result.accepted().add(i);
+                        break;
+                    case UploadProtocol.STATUS_STALE:
+                        result.stale().add(i);
+                        break;
+                    case UploadProtocol.STATUS_REJECTED:
+                        result.rejected().add(i);
+                        break;
+                    default:
+                        result.retry().add(i);
+                }
+            }, i -> result.retry().add(i))); //the client still has the original, so it can just send it again
+            this.server.syncSubmitted();
+
+            logger.trace("Request was %.2f KiB: %d accepted, %d stale, %d rejected, %d retry",
+                    buf.writerIndex() / 1024.0d, result.accepted().size(), result.stale().size(), result.rejected().size(), result.retry().size());
+
+            sendJson(response, GSON_VISIBLE.toJsonTree(result));
+        });
+
+        this.handlers.put("/api/want", (query, message, response) -> {
+            if (query.method() != HttpMethod.POST) {
+                throw StatusCodes.Method_Not_Allowed.exception();
             }
+            getAuthenticatedUser(this.server, message.headers());
+            ByteBuf buf = (ByteBuf) message.body();
 
-            do {
-                int dimension = buf.readByte();
-                World world = this.server.worlds().get(dimension);
-                if (world == null)  {
-                    throw new GenericHttpException(StatusCodes.Bad_Request, "Unknown dimension: " + dimension);
-                }
+            //body is a sequence of (dimension, time, x, z) tuples, response is a base64-encoded bitset with a bit set for every tuple that the
+            //  server would accept if it were submitted
+            int count = buf.readableBytes() / RECORD_HEADER_SIZE;
+            BitSet wanted = new BitSet(count);
+            for (int i = 0; i < count; i++) {
+                World world = this.server.worlds().get((int) buf.readByte());
                 long time = buf.readLong();
                 int x = buf.readInt();
                 int z = buf.readInt();
-                int size = buf.markReaderIndex().readInt() + 4;
-                world.putChunk(x, z, buf.resetReaderIndex().readRetainedSlice(size), time);
-                user.incrementSentChunks();
+                if (world != null && world.getTimestamp(x, z) < time) {
+                    wanted.set(i);
+                }
+            }
+
+            response.status(StatusCodes.OK)
+                    .body(StandardContentType.TEXT_PLAIN_ASCII, Unpooled.wrappedBuffer(Base64.getEncoder().encode(wanted.toByteArray())));
+        });
+
+        this.handlers.put("/api/chunk", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            World world = this.server.worlds().get(intParam(query, "dim"));
+            if (world == null) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Unknown dimension!");
+            }
+            //if a time is given, return the version that was current at that time
+            ByteBuf chunk = query.params().containsKey("time")
+                    ? world.getChunk(intParam(query, "x"), intParam(query, "z"), longParam(query, "time"))
+                    : world.getChunk(intParam(query, "x"), intParam(query, "z"));
+            if (chunk == null) {
+                throw StatusCodes.Not_Found.exception();
+            }
+
+            //same format as in a region file: length prefix, compression version, compressed data
+            response.status(StatusCodes.OK)
+                    .body(StandardContentType.APPLICATION_OCTET_STREAM, chunk);
+        });
+
+        this.handlers.put("/api/history", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            World world = this.server.worlds().get(intParam(query, "dim"));
+            if (world == null) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Unknown dimension!");
+            }
+            JsonArray versions = new JsonArray();
+            for (long time : world.getVersions(intParam(query, "x"), intParam(query, "z"))) {
+                versions.add(time);
+            }
+            JsonObject obj = new JsonObject();
+            obj.add("versions", versions);
+            sendJson(response, obj);
+        });
+
+        this.handlers.put("/api/changes", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            int dimension = intParam(query, "dim");
+            World world = this.server.worlds().get(dimension);
+            if (world == null) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Unknown dimension!");
+            }
+            long since = query.params().containsKey("since") ? longParam(query, "since") : 0L;
+            int limit = query.params().containsKey("limit") ? Math.min(Math.max(intParam(query, "limit"), 1), MAX_CHANGES) : DEFAULT_CHANGES;
+
+            //consumers page through the log by passing "next" back as "since", so they're never sent more than they asked for
+            JsonArray changes = new JsonArray();
+            long next = world.changes(since, limit, (x, z, time) -> {
+                JsonArray change = new JsonArray();
+                change.add(x);
+                change.add(z);
+                change.add(time);
+                changes.add(change);
+            });
+
+            JsonObject obj = new JsonObject();
+            obj.addProperty("dim", dimension);
+            //if this is greater than the requested cursor, the entries in between have been dropped
+            obj.addProperty("first", world.firstChange());
+            obj.addProperty("next", next);
+            obj.addProperty("more", next < world.changeCount());
+            obj.add("changes", changes);
+            sendJson(response, obj);
+        });
+
+        this.handlers.put("/api/replicate", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            User user = getAuthenticatedUser(this.server, message.headers());
+            if (!Arrays.asList(this.server.config().replication().followers()).contains(user.name())) {
+                //this exposes every chunk along with its exact timestamp, so only dedicated replication accounts may use it
+                throw StatusCodes.Forbidden.exception();
+            }
+
+            int dimension = intParam(query, "dim");
+            World world = this.server.worlds().get(dimension);
+            if (world == null) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Unknown dimension!");
+            }
+            long since = longParam(query, "since");
+            if (since < world.firstChange()) {
+                //the follower has missed changes which are no longer in the log, it has to be re-seeded from a snapshot
+                throw new GenericHttpException(StatusCodes.Gone, "Changes since " + since + " are no longer available!");
+            }
+            int limit = query.params().containsKey("limit") ? Math.min(Math.max(intParam(query, "limit"), 1), MAX_REPLICATE_CHANGES) : DEFAULT_REPLICATE_CHANGES;
+            long total = world.changeCount();
+            if (query.params().containsKey("ack")) {
+                this.server.replicationSource().ack(user.name(), dimension, longParam(query, "ack"), total);
+            }
+
+            //a chunk may have been written several times within the batch, only its current version needs to be sent
+            Set<Long> positions = new LinkedHashSet<>();
+            long next = world.changes(since, limit, (x, z, time) -> positions.add(ChunkIndex.key(x, z)));
+
+            //legacy batch format, prefixed with (dimension, next, total, count)
+            ByteBuf buf = PooledByteBufAllocator.DEFAULT.ioBuffer();
+            try {
+                buf.writeByte(dimension).writeLong(next).writeLong(total).writeInt(0);
+                int count = 0;
+                for (long key : positions) {
+                    int x = (int) (key >> 32L);
+                    int z = (int) key;
+                    //the data and timestamp have to match, otherwise the follower could store an old version with a newer timestamp and never update it
+                    if (world.getChunkVersion(x, z, (time, chunk) -> ChunkBatchCodec.writeRecord(buf, dimension, time, x, z, chunk))) {
+                        count++;
+                    }
+                }
+                buf.setInt(1 + 8 + 8, count);
+
+                response.status(StatusCodes.OK)
+                        .body(StandardContentType.APPLICATION_OCTET_STREAM, buf.retain());
+            } finally {
+                buf.release();
+            }
+        });
+
+        this.handlers.put("/api/tile", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            World world = this.server.worlds().get(intParam(query, "dim"));
+            if (world == null) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Unknown dimension!");
+            }
+            int zoom = intParam(query, "zoom");
+            if (zoom < 0 || zoom > TileRenderer.MAX_ZOOM) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Invalid zoom level!");
+            }
+
+            byte[] tile;
+            try {
+                tile = world.getTile(zoom, intParam(query, "x"), intParam(query, "z"));
+            } catch (IllegalStateException e) {
+                throw new GenericHttpException(StatusCodes.Not_Found, "Rendering is disabled!");
+            }
+            if (tile == null) {
+                throw StatusCodes.Not_Found.exception();
+            }
+            response.status(StatusCodes.OK)
+                    .body(StandardContentType.IMAGE_PNG, Unpooled.wrappedBuffer(tile));
+        });
+
+        this.handlers.put("/api/search/text", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            TileEntityIndex index = this.tileEntityIndex(query);
+            String text = query.params().get("q");
+            if (text == null) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Missing parameter: q");
+            }
+            sendTileEntities(response, index.search(text, searchLimit(query)));
+        });
 
-                logger.trace("User \"%s\" submitted chunk (%s,%s) @ %.2f KiB", user.name(), x, z, size / 1024.0d);
-            } while (buf.isReadable());
+        this.handlers.put("/api/search/area", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            TileEntityIndex index = this.tileEntityIndex(query);
+            int minX = intParam(query, "minX");
+            int minZ = intParam(query, "minZ");
+            int maxX = intParam(query, "maxX");
+            int maxZ = intParam(query, "maxZ");
+            if (minX > maxX || minZ > maxZ) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Invalid area!");
+            }
+            sendTileEntities(response, index.find(query.params().get("type"), minX, minZ, maxX, maxZ, searchLimit(query)));
+        });
+
+        this.handlers.put("/api/snapshot", (query, message, response) -> {
+            if (query.method() != HttpMethod.POST) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            SnapshotManager.Entry snapshot;
+            try {
+                snapshot = this.server.snapshots().create();
+            } catch (UnsupportedOperationException e) {
+                throw new GenericHttpException(StatusCodes.Not_Implemented, "Snapshots are not supported by the current storage type!");
+            }
+            sendJson(response, snapshot.toJson());
+        });
+
+        this.handlers.put("/api/snapshot/info", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            sendJson(response, this.snapshot(query).toJson());
+        });
+
+        this.handlers.put("/api/snapshot/region", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            Snapshot snapshot = this.snapshot(query).snapshots().get(intParam(query, "dim"));
+            if (snapshot == null) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Unknown dimension!");
+            }
+            ByteBuf region;
+            try {
+                region = snapshot.readRegion(new Vec2i(intParam(query, "x"), intParam(query, "z")));
+            } catch (IllegalStateException e) {
+                throw new GenericHttpException(StatusCodes.Gone, e.getMessage());
+            }
+            if (region == null) {
+                throw StatusCodes.Not_Found.exception();
+            }
+
+            //a complete region file, exactly as it would be on disk
+            response.status(StatusCodes.OK)
+                    .body(StandardContentType.APPLICATION_OCTET_STREAM, region);
+        });
 
-            logger.trace("Request was %.2f KiB", buf.writerIndex() / 1024.0d);
+        this.handlers.put("/api/snapshot/export", (query, message, response) -> {
+            if (query.method() != HttpMethod.POST) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            SnapshotManager.Entry snapshot = this.snapshot(query);
+            ArchiveFormat format;
+            try {
+                format = ArchiveFormat.valueOf(query.params().getOrDefault("format", "tar").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new GenericHttpException(StatusCodes.Bad_Request, "Invalid parameter: format");
+            }
+
+            //the archive is written in the background, progress can be followed using /api/snapshot/info
+            File file = this.server.snapshots().exportToFile(snapshot, format);
+            JsonObject obj = new JsonObject();
+            obj.addProperty("file", file.getName());
+            sendJson(response, obj);
+        });
+
+        this.handlers.put("/api/snapshot/release", (query, message, response) -> {
+            if (query.method() != HttpMethod.POST) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
 
-            response.status(StatusCodes.OK).body(EMPTY_ENTITY);
+            if (!this.server.snapshots().release(this.snapshot(query).id())) {
+                throw StatusCodes.Not_Found.exception();
+            }
+            response.status(StatusCodes.OK)
+                    .body(StandardContentType.TEXT_PLAIN, Unpooled.EMPTY_BUFFER);
         });
 
         this.handlers.put("/api/register", (query, message, response) -> {
@@ -102,7 +427,7 @@ public final class ServerRequestHandler implements ServerHandler {
             }
 
             //authenticate the person who's registering the new account
-            this.getAuthenticatedUser(message.headers());
+            getAuthenticatedUser(this.server, message.headers());
 
             String username = message.headers().getValue("mapdl-new-username");
             String password = message.headers().getValue("mapdl-new-password");
@@ -130,26 +455,107 @@ public final class ServerRequestHandler implements ServerHandler {
             response.status(StatusCodes.OK)
                     .body(StandardContentType.TEXT_PLAIN, Unpooled.EMPTY_BUFFER);
         });
+
+        this.handlers.put("/api/stats", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            JsonObject obj = new JsonObject();
+            obj.addProperty("users", this.server.users().size());
+            JsonObject worlds = new JsonObject();
+            this.server.worlds().forEach((dimension, world) -> worlds.add(String.valueOf(dimension), world.stats()));
+            obj.add("worlds", worlds);
+
+            JsonObject followers = new JsonObject();
+            this.server.replicationSource().stats(followers);
+            obj.add("followers", followers);
+            if (this.server.replicationFollower() != null) {
+                JsonObject replication = new JsonObject();
+                this.server.replicationFollower().stats(replication);
+                obj.add("replication", replication);
+            }
+            if (this.server.channel() != null) {
+                JsonObject channel = new JsonObject();
+                this.server.channel().stats(channel);
+                obj.add("channel", channel);
+            }
+            sendJson(response, obj);
+        });
+    }
+
+    protected static void sendJson(@NonNull ResponseBuilder response, @NonNull JsonElement json) {
+        response.status(StatusCodes.OK)
+                .body(StandardContentType.APPLICATION_JSON, Unpooled.wrappedBuffer(GSON_VISIBLE.toJson(json).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    protected TileEntityIndex tileEntityIndex(@NonNull Query query) {
+        World world = this.server.worlds().get(intParam(query, "dim"));
+        if (world == null) {
+            throw new GenericHttpException(StatusCodes.Bad_Request, "Unknown dimension!");
+        }
+        TileEntityIndex index = world.tileEntities();
+        if (index == null) {
+            throw new GenericHttpException(StatusCodes.Not_Found, "Tile entity index is disabled!");
+        }
+        return index;
+    }
+
+    protected SnapshotManager.Entry snapshot(@NonNull Query query) {
+        String id = query.params().get("id");
+        if (id == null) {
+            throw new GenericHttpException(StatusCodes.Bad_Request, "Missing parameter: id");
+        }
+        SnapshotManager.Entry snapshot = this.server.snapshots().get(id);
+        if (snapshot == null) {
+            throw new GenericHttpException(StatusCodes.Not_Found, "Unknown snapshot!");
+        }
+        return snapshot;
+    }
+
+    protected static int searchLimit(@NonNull Query query) {
+        return query.params().containsKey("limit") ? Math.min(Math.max(intParam(query, "limit"), 1), MAX_SEARCH_RESULTS) : DEFAULT_SEARCH_RESULTS;
+    }
+
+    protected static void sendTileEntities(@NonNull ResponseBuilder response, @NonNull List<TileEntity> tileEntities) {
+        JsonArray results = new JsonArray();
+        tileEntities.forEach(tileEntity -> results.add(tileEntity.toJson()));
+        JsonObject obj = new JsonObject();
+        obj.add("results", results);
+        sendJson(response, obj);
     }
 
-    protected User getAuthenticatedUser(@NonNull HeaderMap headers) throws Exception {
+    protected static int intParam(@NonNull Query query, @NonNull String name) {
+        long value = longParam(query, name);
+        if ((int) value != value) {
+            throw new GenericHttpException(StatusCodes.Bad_Request, "Invalid parameter: " + name);
+        }
+        return (int) value;
+    }
+
+    protected static long longParam(@NonNull Query query, @NonNull String name) {
+        String value = query.params().get(name);
+        if (value == null) {
+            throw new GenericHttpException(StatusCodes.Bad_Request, "Missing parameter: " + name);
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new GenericHttpException(StatusCodes.Bad_Request, "Invalid parameter: " + name);
+        }
+    }
+
+    protected static User getAuthenticatedUser(@NonNull Server server, @NonNull HeaderMap headers) throws Exception {
         String username = headers.getValue("mapdl-username");
         String password = headers.getValue("mapdl-password");
         if (username == null || password == null) {
             throw StatusCodes.Unauthorized.exception();
         }
-        User user = this.server.users().get(username);
+        User user = server.authenticate(username, password);
         if (user == null) {
             throw StatusCodes.Forbidden.exception();
         }
-        String saltedHash = Hexadecimal.encode(Digest.SHA3_256.start()
-                .append(username.getBytes(StandardCharsets.UTF_8))
-                .append(':')
-                .append(password.getBytes(StandardCharsets.UTF_8))
-                .hashToByteArray());
-        if (!saltedHash.equals(user.password())) {
-            throw StatusCodes.Forbidden.exception();
-        }
         return user;
     }
 
@@ -0,0 +1,413 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.web;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import lombok.NonNull;
+import net.daporkchop.lib.common.function.throwing.ETriConsumer;
+import net.daporkchop.lib.http.HttpMethod;
+import net.daporkchop.lib.http.entity.content.type.StandardContentType;
+import net.daporkchop.lib.http.message.Message;
+import net.daporkchop.lib.http.request.query.Query;
+import net.daporkchop.lib.http.server.ResponseBuilder;
+import net.daporkchop.lib.http.server.handle.ServerHandler;
+import net.daporkchop.lib.http.util.StatusCodes;
+import net.daporkchop.lib.http.util.exception.GenericHttpException;
+import net.daporkchop.mapdl.common.ChunkBatchCodec;
+import net.daporkchop.mapdl.common.SubmitResponse;
+import net.daporkchop.mapdl.common.User;
+import net.daporkchop.mapdl.server.Server;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.ChunkIndex;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.daporkchop.lib.logging.Logging.*;
+import static net.daporkchop.mapdl.common.SharedConstants.MAX_REQUEST_SIZE;
+import static net.daporkchop.mapdl.server.util.ServerConstants.*;
+import static net.daporkchop.mapdl.server.web.ServerRequestHandler.*;
+
+/**
+ * Handles incoming HTTP requests when the server is running as a router in front of several storage nodes.
+ * <p>
+ * Every region is owned by exactly one node, determined by {@link #shard(int, int, int, int)}. Submitted batches are split up by owner and the
+ * sub-batches are forwarded to all nodes in parallel, after which the nodes' responses are merged back together so that clients can't tell the
+ * difference. {@code /api/want}, {@code /api/chunk} and {@code /api/history} are routed in the same way, and {@code /api/stats} is collected from
+ * every node. Requests to the nodes block, so they're sent from a dedicated bounded thread pool rather than the shared executor. Users are
+ * authenticated by the router, everything else is handled locally by a {@link ServerRequestHandler} (so endpoints which
+ * need the worlds, like tiles and search, have to be queried on the nodes directly).
+ * <p>
+ * The list of nodes must never be reordered or resized once chunks have been stored, since that would change which node owns each region.
+ *
+ * @author DaPorkchop_
+ */
+public final class ShardRouter implements ServerHandler {
+    /**
+     * Gets the index of the shard which owns the region containing the given chunk.
+     *
+     * @param dimension the dimension ID
+     * @param x         the X coordinate of the chunk
+     * @param z         the Z coordinate of the chunk
+     * @param shards    the total number of shards
+     * @return the index of the shard
+     */
+    public static int shard(int dimension, int x, int z, int shards) {
+        //mix the bits, so that neighbouring regions are spread evenly across shards rather than all ending up on the same one
+        long h = ChunkIndex.key(x >> 5, z >> 5) + dimension * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) Math.floorMod(h, (long) shards);
+    }
+
+    protected final Map<String, ETriConsumer<Query, Message, ResponseBuilder>> handlers = new HashMap<>();
+    protected final Server               server;
+    protected final ServerRequestHandler fallback;
+    protected final NodeClient[]         shards;
+    protected final ThreadPoolExecutor   executor;
+
+    public ShardRouter(@NonNull Server server) {
+        this.server = server;
+        this.fallback = new ServerRequestHandler(server);
+
+        ServerConfig.Sharding config = server.config().sharding();
+        this.shards = new NodeClient[config.nodes().length];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new NodeClient(config.nodes()[i], config.username(), config.password(), config.connectTimeout(), config.readTimeout());
+        }
+
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(config.fanoutThreads(), config.fanoutThreads(), 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(config.fanoutQueueSize()), task -> {
+            Thread thread = new Thread(task, String.format("2b2tMapDownloader router #%d", threadId.getAndIncrement()));
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        this.handlers.put("/api/submit", (query, message, response) -> {
+            if (query.method() != HttpMethod.POST) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            User user = getAuthenticatedUser(this.server, message.headers());
+            ByteBuf buf = (ByteBuf) message.body();
+
+            SubmitResponse result = new SubmitResponse().batchVersion(ChunkBatchCodec.VERSION_COMPACT);
+            ByteBuf[] batches = new ByteBuf[this.shards.length];
+            List<List<Integer>> indices = this.newIndexLists();
+            try {
+                //the nodes are always sent legacy batches, the records' checksums have already been verified here
+                result.rejectedFrom(ChunkBatchCodec.decode(buf, (i, dimension, x, z, time, data) -> {
+                    try {
+                        int shard = shard(dimension, x, z, this.shards.length);
+                        if (batches[shard] == null) {
+                            batches[shard] = Unpooled.buffer();
+                        }
+                        ChunkBatchCodec.writeRecord(batches[shard], dimension, time, x, z, data);
+                        indices.get(shard).add(i);
+                    } finally {
+                        data.release();
+                    }
+                }, i -> result.retry().add(i))); //the client still has the original, so it can just send it again
+
+                SubmitResponse[] responses = new SubmitResponse[this.shards.length];
+                this.forEachShard(batches, (shard, batch) -> responses[shard] = GSON_ALL.fromJson(
+                        this.shards[shard].request("POST", "api/submit", ByteBufUtil.getBytes(batch)).expectOk().bodyAsString(), SubmitResponse.class));
+
+                for (int shard = 0; shard < this.shards.length; shard++) {
+                    List<Integer> shardIndices = indices.get(shard);
+                    SubmitResponse shardResponse = responses[shard];
+                    if (shardResponse == null) {
+                        //the node couldn't be reached, the client should try again later
+                        result.retry().addAll(shardIndices);
+                        continue;
+                    }
+                    shardResponse.accepted().forEach(i -> result.accepted().add(shardIndices.get(i)));
+                    shardResponse.stale().forEach(i -> result.stale().add(shardIndices.get(i)));
+                    shardResponse.rejected().forEach(i -> result.rejected().add(shardIndices.get(i)));
+                    shardResponse.retry().forEach(i -> result.retry().add(shardIndices.get(i)));
+                    if (shardResponse.rejectedFrom() >= 0) {
+                        for (int i = shardResponse.rejectedFrom(); i < shardIndices.size(); i++) {
+                            result.rejected().add(shardIndices.get(i));
+                        }
+                    }
+                    for (int i = 0, accepted = shardResponse.accepted().size(); i < accepted; i++) {
+                        user.incrementSentChunks();
+                    }
+                }
+            } finally {
+                for (ByteBuf batch : batches) {
+                    if (batch != null) {
+                        batch.release();
+                    }
+                }
+            }
+
+            //the client relies on the order of the indices within each list
+            result.accepted().sort(null);
+            result.stale().sort(null);
+            result.rejected().sort(null);
+            result.retry().sort(null);
+            sendJson(response, GSON_VISIBLE.toJsonTree(result));
+        });
+
+        this.handlers.put("/api/want", (query, message, response) -> {
+            if (query.method() != HttpMethod.POST) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+            ByteBuf buf = (ByteBuf) message.body();
+
+            int count = buf.readableBytes() / RECORD_HEADER_SIZE;
+            ByteBuf[] batches = new ByteBuf[this.shards.length];
+            List<List<Integer>> indices = this.newIndexLists();
+            BitSet wanted = new BitSet(count);
+            for (int i = 0; i < count; i++) {
+                int dimension = buf.getByte(buf.readerIndex());
+                int x = buf.getInt(buf.readerIndex() + 1 + 8);
+                int z = buf.getInt(buf.readerIndex() + 1 + 8 + 4);
+                int shard = shard(dimension, x, z, this.shards.length);
+                if (batches[shard] == null) {
+                    batches[shard] = Unpooled.buffer();
+                }
+                buf.readBytes(batches[shard], RECORD_HEADER_SIZE);
+                indices.get(shard).add(i);
+            }
+
+            try {
+                BitSet[] responses = new BitSet[this.shards.length];
+                this.forEachShard(batches, (shard, batch) -> responses[shard] = BitSet.valueOf(Base64.getDecoder().decode(
+                        this.shards[shard].request("POST", "api/want", ByteBufUtil.getBytes(batch)).expectOk().bodyAsString().trim())));
+
+                for (int shard = 0; shard < this.shards.length; shard++) {
+                    List<Integer> shardIndices = indices.get(shard);
+                    for (int i = 0; i < shardIndices.size(); i++) {
+                        //if the node couldn't be reached, it's better to have the chunk sent and retried than to never get it at all
+                        if (responses[shard] == null || responses[shard].get(i)) {
+                            wanted.set(shardIndices.get(i));
+                        }
+                    }
+                }
+            } finally {
+                for (ByteBuf batch : batches) {
+                    if (batch != null) {
+                        batch.release();
+                    }
+                }
+            }
+
+            response.status(StatusCodes.OK)
+                    .body(StandardContentType.TEXT_PLAIN_ASCII, Unpooled.wrappedBuffer(Base64.getEncoder().encode(wanted.toByteArray())));
+        });
+
+        this.handlers.put("/api/chunk", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            //the node only sees the router's account, so the user has to be checked here
+            getAuthenticatedUser(this.server, message.headers());
+            response.status(StatusCodes.OK)
+                    .body(StandardContentType.APPLICATION_OCTET_STREAM, Unpooled.wrappedBuffer(this.forward(query, "api/chunk")));
+        });
+
+        this.handlers.put("/api/history", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+            response.status(StatusCodes.OK)
+                    .body(StandardContentType.APPLICATION_JSON, Unpooled.wrappedBuffer(this.forward(query, "api/history")));
+        });
+
+        this.handlers.put("/api/stats", (query, message, response) -> {
+            if (query.method() != HttpMethod.GET) {
+                throw StatusCodes.Method_Not_Allowed.exception();
+            }
+            getAuthenticatedUser(this.server, message.headers());
+
+            JsonObject[] stats = new JsonObject[this.shards.length];
+            String[] errors = new String[this.shards.length];
+            Future<?>[] futures = new Future<?>[this.shards.length];
+            for (int i = 0; i < this.shards.length; i++) {
+                int shard = i;
+                futures[i] = this.executor.submit(() -> {
+                    try {
+                        stats[shard] = new JsonParser().parse(this.shards[shard].request("GET", "api/stats", null).expectOk().bodyAsString()).getAsJsonObject();
+                    } catch (Exception e) {
+                        errors[shard] = e.toString();
+                    }
+                });
+            }
+
+            JsonArray shards = new JsonArray();
+            for (int i = 0; i < this.shards.length; i++) {
+                await(futures[i]);
+                JsonObject shard = new JsonObject();
+                shard.addProperty("node", this.shards[i].baseUrl());
+                shard.addProperty("requests", this.shards[i].requests());
+                shard.addProperty("failures", this.shards[i].failures());
+                if (stats[i] != null) {
+                    shard.add("stats", stats[i]);
+                } else {
+                    shard.addProperty("error", errors[i]);
+                }
+                shards.add(shard);
+            }
+
+            JsonObject obj = new JsonObject();
+            obj.addProperty("users", this.server.users().size());
+            obj.add("shards", shards);
+            sendJson(response, obj);
+        });
+    }
+
+    protected List<List<Integer>> newIndexLists() {
+        List<List<Integer>> lists = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            lists.add(new ArrayList<>());
+        }
+        return lists;
+    }
+
+    /**
+     * Runs the given action for every shard with a non-{@code null} batch, in parallel, and waits for all of them to complete.
+     * <p>
+     * Failures are logged, the caller can detect them by checking which results were never set.
+     */
+    protected void forEachShard(@NonNull ByteBuf[] batches, @NonNull ShardAction action) {
+        Future<?>[] futures = new Future<?>[batches.length];
+        for (int i = 0; i < batches.length; i++) {
+            if (batches[i] != null) {
+                int shard = i;
+                futures[i] = this.executor.submit(() -> {
+                    try {
+                        action.run(shard, batches[shard]);
+                    } catch (Exception e) {
+                        logger.error("Request to shard %d (%s) failed:", e, shard, this.shards[shard].baseUrl());
+                    }
+                });
+            }
+        }
+        for (Future<?> future : futures) {
+            if (future != null) {
+                await(future);
+            }
+        }
+    }
+
+    //the tasks catch everything themselves, and requests to the nodes have timeouts, so this can't wait forever
+    protected static void await(@NonNull Future<?> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forwards a GET request for a single chunk to the node which owns it.
+     *
+     * @return the body of the node's response
+     */
+    protected byte[] forward(@NonNull Query query, @NonNull String path) throws IOException {
+        int shard = shard(intParam(query, "dim"), intParam(query, "x"), intParam(query, "z"), this.shards.length);
+
+        StringBuilder builder = new StringBuilder(path);
+        char separator = '?';
+        for (Map.Entry<String, String> param : query.params().entrySet()) {
+            builder.append(separator).append(encode(param.getKey())).append('=').append(encode(param.getValue()));
+            separator = '&';
+        }
+
+        NodeClient.Response response;
+        try {
+            response = this.shards[shard].request("GET", builder.toString(), null);
+        } catch (IOException e) {
+            logger.error("Request to shard %d (%s) failed:", e, shard, this.shards[shard].baseUrl());
+            throw new GenericHttpException(StatusCodes.Bad_Gateway, "Unable to reach storage node!");
+        }
+        switch (response.status()) {
+            case HttpURLConnection.HTTP_OK:
+                return response.body();
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                throw StatusCodes.Not_Found.exception();
+            case HttpURLConnection.HTTP_BAD_REQUEST:
+                throw new GenericHttpException(StatusCodes.Bad_Request, response.bodyAsString());
+            default:
+                throw new GenericHttpException(StatusCodes.Bad_Gateway, "Storage node responded with HTTP " + response.status());
+        }
+    }
+
+    protected static String encode(@NonNull String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); //impossible
+        }
+    }
+
+    @Override
+    public int maxBodySize() {
+        return MAX_REQUEST_SIZE;
+    }
+
+    @Override
+    public void handle(@NonNull Query query, @NonNull Message message, @NonNull ResponseBuilder response) throws Exception {
+        ETriConsumer<Query, Message, ResponseBuilder> handler = this.handlers.get(query.path());
+        if (handler != null) {
+            handler.acceptThrowing(query, message, response);
+        } else {
+            this.fallback.handle(query, message, response);
+        }
+    }
+
+    @FunctionalInterface
+    protected interface ShardAction {
+        void run(int shard, @NonNull ByteBuf batch) throws Exception;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world;
+
+import lombok.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * An append-only log of every chunk write in a {@link World}, so that consumers such as renderers and backups can find out what changed without
+ * scanning the whole world.
+ * <p>
+ * Entries are 16 bytes each: the chunk's X and Z coordinates and the timestamp of the version that was written. Entries are identified by their
+ * index in the log, which is used as the cursor when reading.
+ * <p>
+ * Appended entries are written to the file right away, and {@link #sync(long)} waits until they're on disk. Concurrent syncs are grouped, so that
+ * a single {@link FileChannel#force(boolean)} covers every entry that was appended before it started. Only entries which are on disk are visible to
+ * readers, so a consumer can never see an entry which might be lost in a crash.
+ * <p>
+ * Old entries can be dropped with {@link #trim(long)}, which doesn't change the index of any other entry. The file starts with a header containing
+ * the index of the first entry in it. Files written before the header existed are still read, and get a header the first time they're trimmed.
+ *
+ * @author DaPorkchop_
+ */
+public final class ChangeLog implements AutoCloseable {
+    public static final int ENTRY_SIZE = 4 + 4 + 8;
+
+    //"MDCL", no valid chunk X coordinate is ever this big so it can't be mistaken for the first entry of a file without a header
+    protected static final int MAGIC   = ('M' << 24) | ('D' << 16) | ('C' << 8) | 'L';
+    protected static final int VERSION = 1;
+
+    //magic, version, index of the first entry. the same size as an entry, so that entries stay aligned
+    protected static final int HEADER_SIZE = 4 + 4 + 8;
+
+    protected final File file;
+
+    //held for reading while accessing the channel, and for writing while trim() replaces it
+    protected final ReadWriteLock lock     = new ReentrantReadWriteLock();
+    protected final Object        syncLock = new Object();
+
+    protected FileChannel channel;
+    protected int         headerSize;
+    protected long        first;
+
+    //the number of entries which have been written to the file, only modified while holding this instance's monitor
+    protected volatile long written;
+    //the number of entries which are known to be on disk
+    protected volatile long synced;
+
+    public ChangeLog(@NonNull File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+        long size = this.channel.size();
+        if (size == 0L) {
+            this.writeHeader(this.channel, 0L);
+            size = HEADER_SIZE;
+        }
+        if (size >= HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                this.channel.read(header, header.position());
+            }
+            header.flip();
+            if (header.getInt() == MAGIC) {
+                int version = header.getInt();
+                if (version != VERSION) {
+                    this.channel.close();
+                    throw new IOException(String.format("Unsupported change log version %d in %s", version, file));
+                }
+                this.headerSize = HEADER_SIZE;
+                this.first = header.getLong();
+            }
+        }
+
+        long entriesSize = size - this.headerSize;
+        if (entriesSize % ENTRY_SIZE != 0L) {
+            //the server crashed while writing the last entry
+            logger.warn("Discarding %d bytes of incomplete change log entry in %s", entriesSize % ENTRY_SIZE, file);
+            this.channel.truncate(size -= entriesSize % ENTRY_SIZE);
+        }
+        this.written = this.synced = this.first + (size - this.headerSize) / ENTRY_SIZE;
+    }
+
+    /**
+     * Appends an entry to the log.
+     * <p>
+     * The entry is written to the file, but isn't visible to readers until it has been synced.
+     *
+     * @param x    the X coordinate of the chunk
+     * @param z    the Z coordinate of the chunk
+     * @param time the timestamp of the chunk
+     * @return the number of entries that must be synced for this entry to be on disk, to be passed to {@link #sync(long)}
+     */
+    public long append(int x, int z, long time) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(ENTRY_SIZE);
+        buf.putInt(x).putInt(z).putLong(time).flip();
+
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            synchronized (this) {
+                long position = this.position(this.written);
+                while (buf.hasRemaining()) {
+                    position += this.channel.write(buf, position);
+                }
+                return ++this.written;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until at least the given number of entries are on disk.
+     *
+     * @param count the number of entries, as returned by {@link #append(int, int, long)}
+     */
+    public void sync(long count) throws IOException {
+        if (this.synced >= count) {
+            return;
+        }
+        synchronized (this.syncLock) {
+            //another thread may have synced our entry while we were waiting
+            if (this.synced >= count) {
+                return;
+            }
+
+            long written = this.written;
+            Lock lock = this.lock.readLock();
+            lock.lock();
+            try {
+                this.channel.force(false);
+            } finally {
+                lock.unlock();
+            }
+            this.synced = written;
+        }
+    }
+
+    /**
+     * Makes every entry which has been appended so far visible to readers.
+     */
+    public void flush() throws IOException {
+        this.sync(this.written);
+    }
+
+    /**
+     * Reads entries from the log.
+     * <p>
+     * If the cursor points to an entry which was already dropped by {@link #trim(long)}, reading starts at the first entry that's still there, which
+     * the caller can detect by comparing the cursor against {@link #first()}.
+     *
+     * @param cursor   the index of the first entry to read
+     * @param limit    the maximum number of entries to read
+     * @param consumer the consumer to pass the entries to
+     * @return the index of the entry after the last one that was read, which should be used as the cursor for the next call
+     */
+    public long read(long cursor, int limit, @NonNull ChangeConsumer consumer) throws IOException {
+        ByteBuffer buf;
+        long end;
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            long synced = this.synced;
+            cursor = Math.max(cursor, this.first);
+            end = Math.min(synced, cursor + limit);
+            if (cursor >= end) {
+                return Math.min(cursor, synced);
+            }
+
+            buf = ByteBuffer.allocate((int) (end - cursor) * ENTRY_SIZE);
+            long position = this.position(cursor);
+            while (buf.hasRemaining()) {
+                int read = this.channel.read(buf, position + buf.position());
+                if (read < 0) {
+                    throw new IOException("Unexpected end of change log");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        buf.flip();
+        while (buf.hasRemaining()) {
+            consumer.accept(buf.getInt(), buf.getInt(), buf.getLong());
+        }
+        return end;
+    }
+
+    /**
+     * Drops every entry before the given index.
+     * <p>
+     * This rewrites the remaining entries into a new file, blocking appends and reads while doing so.
+     *
+     * @param before the index of the first entry to keep
+     * @return the number of entries which were dropped
+     */
+    public long trim(long before) throws IOException {
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            before = Math.min(before, this.synced);
+            if (before <= this.first) {
+                return 0L;
+            }
+            long dropped = before - this.first;
+
+            File tempFile = new File(this.file.getParentFile(), this.file.getName() + ".tmp");
+            try (FileChannel dst = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                this.writeHeader(dst, before);
+                long position = this.position(before);
+                long end = this.position(this.written);
+                while (position < end) {
+                    position += this.channel.transferTo(position, end - position, dst);
+                }
+                dst.force(true);
+            }
+            Files.move(tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            this.channel.close();
+            this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.headerSize = HEADER_SIZE;
+            this.first = before;
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void writeHeader(@NonNull FileChannel channel, long first) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(first).flip();
+        long position = 0L;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    //the caller must be holding the lock
+    protected long position(long index) {
+        return this.headerSize + (index - this.first) * ENTRY_SIZE;
+    }
+
+    /**
+     * @return the index of the first entry which is still in the log
+     */
+    public long first() {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            return this.first;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries in the log which are visible to readers, including ones which were dropped
+     */
+    public long size() {
+        return this.synced;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            Lock lock = this.lock.writeLock();
+            lock.lock();
+            try {
+                this.channel.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Receives a single entry from the change log.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    public interface ChangeConsumer {
+        void accept(int x, int z, long time);
+    }
+}
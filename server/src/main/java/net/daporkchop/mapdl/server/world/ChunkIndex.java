@@ -0,0 +1,405 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import net.daporkchop.lib.unsafe.util.exception.AlreadyReleasedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A persistent index of the timestamp, size and content hash of every chunk in a world, so that existence and freshness checks never have to
+ * touch the chunk storage.
+ * <p>
+ * Implemented as an open-addressing hash table with linear probing, stored in a memory-mapped file next to the world's chunks. Each slot is 32
+ * bytes: the packed chunk position, the timestamp, the hash, the size and a flag marking the slot as used.
+ * <p>
+ * The file header contains a flag which is only set while the index is cleanly closed. If the server crashes (or the file is missing, or belongs
+ * to a different storage type), the index is thrown away and rebuilt from the chunk storage on the next startup.
+ * <p>
+ * Once closed, every method throws {@link AlreadyReleasedException}, the same as the {@link World} it belongs to.
+ *
+ * @author DaPorkchop_
+ */
+public final class ChunkIndex implements AutoCloseable {
+    protected static final int MAGIC   = 0x6D636878; //"mchx"
+    protected static final int VERSION = 1;
+
+    //magic, version, storage type, clean flag, capacity, size (padded to one slot)
+    protected static final int HEADER_SIZE = 32;
+    protected static final int SLOT_SIZE   = 32;
+
+    protected static final int OFFSET_KEY  = 0;
+    protected static final int OFFSET_TIME = 8;
+    protected static final int OFFSET_HASH = 16;
+    protected static final int OFFSET_SIZE = 24;
+    protected static final int OFFSET_USED = 28;
+
+    protected static final int INITIAL_CAPACITY = 1 << 16;
+
+    //a single MappedByteBuffer can't be larger than 2GiB
+    protected static final int MAX_CAPACITY = Integer.highestOneBit((Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE);
+
+    public static long key(int x, int z) {
+        return ((long) x << 32L) | (z & 0xFFFFFFFFL);
+    }
+
+    protected static int slot(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32L));
+    }
+
+    /**
+     * Computes a 64-bit hash of the readable bytes of the given buffer.
+     *
+     * @param buf the buffer
+     * @return the hash
+     */
+    public static long hash(@NonNull ByteBuf buf) {
+        long h = 0xCBF29CE484222325L ^ buf.readableBytes();
+        int i = buf.readerIndex();
+        for (int end = i + (buf.readableBytes() & ~7); i < end; i += 8) {
+            h = mix(h ^ buf.getLong(i));
+        }
+        for (int end = buf.writerIndex(); i < end; i++) {
+            h = mix(h ^ buf.getByte(i));
+        }
+        return h;
+    }
+
+    protected static long mix(long h) {
+        //murmur3 finalizer
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33L;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33L);
+    }
+
+    protected final File file;
+    protected final File tempFile;
+    protected final int  storageType;
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected MappedByteBuffer buffer;
+    protected int              capacity;
+    protected int              size;
+
+    protected final boolean needsRebuild;
+
+    /**
+     * @param file        the file to store the index in
+     * @param storageType an ID identifying the type of storage that is being indexed
+     */
+    public ChunkIndex(@NonNull File file, int storageType) throws IOException {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.storageType = storageType;
+
+        boolean valid = false;
+        if (file.exists()) {
+            this.buffer = map(file);
+            this.capacity = this.buffer.getInt(16);
+            this.size = this.buffer.getInt(20);
+            valid = this.buffer.capacity() >= HEADER_SIZE
+                    && this.buffer.getInt(0) == MAGIC && this.buffer.getInt(4) == VERSION
+                    && this.buffer.getInt(8) == storageType && this.buffer.getInt(12) != 0
+                    && Integer.bitCount(this.capacity) == 1 && this.buffer.capacity() == HEADER_SIZE + (long) this.capacity * SLOT_SIZE;
+            if (!valid) {
+                this.buffer = null;
+            }
+        }
+        if (!valid) {
+            this.create(file, INITIAL_CAPACITY);
+            this.buffer = map(file);
+            this.capacity = INITIAL_CAPACITY;
+            this.size = 0;
+        }
+        this.needsRebuild = !valid;
+
+        //mark the index as dirty until it's closed again
+        this.buffer.putInt(12, 0);
+        this.buffer.force();
+    }
+
+    /**
+     * @return whether or not the index was missing or invalid when it was opened, and must therefore be rebuilt from the chunk storage
+     */
+    public boolean needsRebuild() {
+        return this.needsRebuild;
+    }
+
+    /**
+     * Gets the timestamp of the given chunk.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return the chunk's timestamp, or {@code -1L} if the chunk doesn't exist
+     */
+    public long time(int x, int z) {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+            int offset = this.find(key(x, z));
+            return offset < 0 ? -1L : this.buffer.getLong(offset + OFFSET_TIME);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the size of the given chunk's compressed data.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return the chunk's size, or {@code -1} if the chunk doesn't exist
+     */
+    public int size(int x, int z) {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+            int offset = this.find(key(x, z));
+            return offset < 0 ? -1 : this.buffer.getInt(offset + OFFSET_SIZE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the hash of the given chunk's compressed data.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return the chunk's hash, or {@code 0L} if the chunk doesn't exist
+     * @see #hash(ByteBuf)
+     */
+    public long hash(int x, int z) {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+            int offset = this.find(key(x, z));
+            return offset < 0 ? 0L : this.buffer.getLong(offset + OFFSET_HASH);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Updates the given chunk.
+     * <p>
+     * If the chunk already has a newer timestamp, it will not be changed.
+     *
+     * @param x    the X coordinate of the chunk
+     * @param z    the Z coordinate of the chunk
+     * @param time the new timestamp
+     * @param size the size of the chunk's compressed data
+     * @param hash the hash of the chunk's compressed data
+     */
+    public void update(int x, int z, long time, int size, long hash) {
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+            if (this.insert(key(x, z), time, size, hash)) {
+                this.buffer.putInt(20, ++this.size);
+                if (this.size > (this.capacity >> 1)) {
+                    this.grow();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes every chunk which was modified after the given time to the given consumer.
+     * <p>
+     * This has to scan the entire index, but since the index is tiny compared to the chunks themselves that's still very fast. The index is locked
+     * for reading while this runs, so the consumer should be quick.
+     *
+     * @param since    the time to compare against
+     * @param consumer the consumer
+     * @return the number of chunks that were found
+     */
+    public int forEachModifiedSince(long since, @NonNull ModifiedConsumer consumer) {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+            int count = 0;
+            for (int i = 0; i < this.capacity; i++) {
+                int offset = HEADER_SIZE + i * SLOT_SIZE;
+                long time;
+                if (this.buffer.getInt(offset + OFFSET_USED) != 0 && (time = this.buffer.getLong(offset + OFFSET_TIME)) > since) {
+                    long key = this.buffer.getLong(offset + OFFSET_KEY);
+                    consumer.accept((int) (key >> 32L), (int) key, time);
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of chunks in this index
+     */
+    public int size() {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+            return this.size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void assertOpen() {
+        if (this.buffer == null) {
+            throw new AlreadyReleasedException();
+        }
+    }
+
+    //returns the offset of the slot containing the given key, or -1 if it isn't present
+    protected int find(long key) {
+        int mask = this.capacity - 1;
+        for (int i = slot(key) & mask; ; i = (i + 1) & mask) {
+            int offset = HEADER_SIZE + i * SLOT_SIZE;
+            if (this.buffer.getInt(offset + OFFSET_USED) == 0) {
+                return -1;
+            } else if (this.buffer.getLong(offset + OFFSET_KEY) == key) {
+                return offset;
+            }
+        }
+    }
+
+    //returns true if a new slot was used
+    protected boolean insert(long key, long time, int size, long hash) {
+        int mask = this.capacity - 1;
+        for (int i = slot(key) & mask; ; i = (i + 1) & mask) {
+            int offset = HEADER_SIZE + i * SLOT_SIZE;
+            if (this.buffer.getInt(offset + OFFSET_USED) == 0) {
+                this.buffer.putLong(offset + OFFSET_KEY, key)
+                        .putLong(offset + OFFSET_TIME, time)
+                        .putLong(offset + OFFSET_HASH, hash)
+                        .putInt(offset + OFFSET_SIZE, size)
+                        .putInt(offset + OFFSET_USED, 1);
+                return true;
+            } else if (this.buffer.getLong(offset + OFFSET_KEY) == key) {
+                if (this.buffer.getLong(offset + OFFSET_TIME) < time) {
+                    this.buffer.putLong(offset + OFFSET_TIME, time)
+                            .putLong(offset + OFFSET_HASH, hash)
+                            .putInt(offset + OFFSET_SIZE, size);
+                }
+                return false;
+            }
+        }
+    }
+
+    protected void grow() {
+        if (this.capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("Chunk index is full!");
+        }
+
+        int oldCapacity = this.capacity;
+        MappedByteBuffer oldBuffer = this.buffer;
+        try {
+            //build the new table in a temporary file, then swap it in
+            this.create(this.tempFile, oldCapacity << 1);
+            this.buffer = map(this.tempFile);
+            this.capacity = oldCapacity << 1;
+            for (int i = 0; i < oldCapacity; i++) {
+                int offset = HEADER_SIZE + i * SLOT_SIZE;
+                if (oldBuffer.getInt(offset + OFFSET_USED) != 0) {
+                    this.insert(oldBuffer.getLong(offset + OFFSET_KEY), oldBuffer.getLong(offset + OFFSET_TIME),
+                            oldBuffer.getInt(offset + OFFSET_SIZE), oldBuffer.getLong(offset + OFFSET_HASH));
+                }
+            }
+            this.buffer.putInt(20, this.size);
+            //the old mapping is released once it's garbage collected
+            Files.move(this.tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to grow chunk index", e);
+        }
+    }
+
+    protected void create(@NonNull File file, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, this.storageType).putInt(12, 0).putInt(16, capacity).putInt(20, 0);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+
+            //extend the file to its full size by writing the last byte, everything in between reads as zero
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.write(last, HEADER_SIZE + (long) capacity * SLOT_SIZE - 1L);
+        }
+    }
+
+    protected static MappedByteBuffer map(@NonNull File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0L, channel.size());
+        }
+    }
+
+    @Override
+    public void close() {
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+            //make sure everything is on disk before marking the index as clean
+            this.buffer.force();
+            this.buffer.putInt(12, 1);
+            this.buffer.force();
+            //there's no supported way of unmapping a buffer, it's released once it's garbage collected
+            this.buffer = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Receives the position and timestamp of a modified chunk.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    public interface ModifiedConsumer {
+        void accept(int x, int z, long time);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded cache of compressed chunk data read from disk by a {@link World}, stored off-heap.
+ * <p>
+ * Eviction is segmented LRU: newly cached chunks go into a probationary segment, and are only promoted to the protected segment once they're
+ * requested a second time. This way, a scan over lots of chunks which are only requested once (e.g. someone downloading a large area) can't
+ * push the popular chunks out of the cache.
+ * <p>
+ * Every entry is tagged with the chunk's timestamp from the world's {@link ChunkIndex} at the time it was read, and is only returned if the
+ * timestamp is still the same. This means that writes never have to wait for the cache, and a read racing with a write can never cause an old
+ * version of a chunk to be served.
+ *
+ * @author DaPorkchop_
+ */
+@Accessors(fluent = true)
+final class ReadCache {
+    protected final ServerConfig.ReadCache config;
+    protected final long                   protectedMaxBytes;
+
+    //both maps are in access order, so the first entry is always the least recently used one
+    protected final Map<Long, Entry> probation = new LinkedHashMap<>(256, 0.75f, true);
+    protected final Map<Long, Entry> protect   = new LinkedHashMap<>(256, 0.75f, true);
+    protected long probationBytes;
+    protected long protectedBytes;
+
+    protected final LongAdder hits      = new LongAdder();
+    protected final LongAdder misses    = new LongAdder();
+    protected final LongAdder evictions = new LongAdder();
+
+    public ReadCache(@NonNull ServerConfig.ReadCache config) {
+        this.config = config;
+        this.protectedMaxBytes = (long) (config.maxBytes() * config.protectedRatio());
+    }
+
+    /**
+     * Gets a cached chunk.
+     *
+     * @param x    the X coordinate of the chunk
+     * @param z    the Z coordinate of the chunk
+     * @param time the chunk's current timestamp
+     * @return a {@link ByteBuf} containing the chunk data, or {@code null} if the chunk isn't cached (or the cached version is outdated)
+     */
+    public ByteBuf get(int x, int z, long time) {
+        long key = ChunkIndex.key(x, z);
+        Entry outdated = null;
+        ByteBuf result = null;
+        synchronized (this) {
+            Entry entry = this.protect.get(key);
+            if (entry == null && (entry = this.probation.remove(key)) != null) {
+                this.probationBytes -= entry.size();
+                if (entry.time == time) {
+                    //second hit, promote it
+                    this.protect.put(key, entry);
+                    this.protectedBytes += entry.size();
+                    this.demote();
+                } else {
+                    outdated = entry;
+                    entry = null;
+                }
+            } else if (entry != null && entry.time != time) {
+                this.protect.remove(key);
+                this.protectedBytes -= entry.size();
+                outdated = entry;
+                entry = null;
+            }
+            if (entry != null) {
+                result = entry.data.retainedDuplicate();
+            }
+        }
+
+        if (outdated != null) {
+            outdated.data.release();
+        }
+        if (result != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Adds a chunk which was just read from disk to the cache.
+     * <p>
+     * The given {@link ByteBuf} is not released.
+     *
+     * @param x    the X coordinate of the chunk
+     * @param z    the Z coordinate of the chunk
+     * @param buf  a {@link ByteBuf} containing the chunk data
+     * @param time the chunk's timestamp, as of before it was read
+     */
+    public void put(int x, int z, @NonNull ByteBuf buf, long time) {
+        if (buf.readableBytes() > this.config.maxBytes() - this.protectedMaxBytes) {
+            //would never fit in the probationary segment
+            return;
+        }
+
+        long key = ChunkIndex.key(x, z);
+        Entry entry = new Entry(time, PooledByteBufAllocator.DEFAULT.directBuffer(buf.readableBytes(), buf.readableBytes())
+                .writeBytes(buf, buf.readerIndex(), buf.readableBytes()));
+        synchronized (this) {
+            if (this.protect.containsKey(key) || this.probation.containsKey(key)) {
+                //someone else read it at the same time
+                entry.data.release();
+                return;
+            }
+            this.probation.put(key, entry);
+            this.probationBytes += entry.size();
+            this.evict();
+        }
+    }
+
+    /**
+     * Removes a chunk from the cache.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     */
+    public void invalidate(int x, int z) {
+        long key = ChunkIndex.key(x, z);
+        Entry entry;
+        synchronized (this) {
+            if ((entry = this.protect.remove(key)) != null) {
+                this.protectedBytes -= entry.size();
+            } else if ((entry = this.probation.remove(key)) != null) {
+                this.probationBytes -= entry.size();
+            }
+        }
+        if (entry != null) {
+            entry.data.release();
+        }
+    }
+
+    /**
+     * Removes everything from the cache.
+     */
+    public synchronized void clear() {
+        this.protect.values().forEach(entry -> entry.data.release());
+        this.probation.values().forEach(entry -> entry.data.release());
+        this.protect.clear();
+        this.probation.clear();
+        this.protectedBytes = this.probationBytes = 0L;
+    }
+
+    //moves the least recently used protected entries back to the probationary segment until the protected segment fits in its budget
+    protected void demote() {
+        for (Iterator<Map.Entry<Long, Entry>> itr = this.protect.entrySet().iterator(); this.protectedBytes > this.protectedMaxBytes && itr.hasNext(); ) {
+            Map.Entry<Long, Entry> mapEntry = itr.next();
+            itr.remove();
+            this.protectedBytes -= mapEntry.getValue().size();
+            this.probation.put(mapEntry.getKey(), mapEntry.getValue());
+            this.probationBytes += mapEntry.getValue().size();
+        }
+        this.evict();
+    }
+
+    //evicts the least recently used probationary entries until the whole cache fits in its budget
+    protected void evict() {
+        for (Iterator<Entry> itr = this.probation.values().iterator(); this.probationBytes + this.protectedBytes > this.config.maxBytes() && itr.hasNext(); ) {
+            Entry entry = itr.next();
+            itr.remove();
+            this.probationBytes -= entry.size();
+            entry.data.release();
+            this.evictions.increment();
+        }
+    }
+
+    /**
+     * @return the number of bytes of chunk data currently in the cache
+     */
+    public synchronized long bytes() {
+        return this.probationBytes + this.protectedBytes;
+    }
+
+    /**
+     * @return the number of chunks currently in the cache
+     */
+    public synchronized int size() {
+        return this.probation.size() + this.protect.size();
+    }
+
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    public long evictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return the fraction of requests which were served from the cache
+     */
+    public double hitRate() {
+        long hits = this.hits.sum();
+        long total = hits + this.misses.sum();
+        return total == 0L ? 0.0d : hits / (double) total;
+    }
+
+    @RequiredArgsConstructor
+    protected static final class Entry {
+        protected final long    time;
+        @NonNull
+        protected final ByteBuf data;
+
+        public int size() {
+            return this.data.readableBytes();
+        }
+    }
+}
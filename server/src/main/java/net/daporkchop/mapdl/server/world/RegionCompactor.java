@@ -0,0 +1,329 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import net.daporkchop.lib.math.vector.i.Vec2i;
+import net.daporkchop.lib.minecraft.world.format.anvil.region.RegionFile;
+import net.daporkchop.lib.unsafe.util.exception.AlreadyReleasedException;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.storage.AnvilChunkStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * Periodically rewrites fragmented region files belonging to a {@link World} which uses {@link AnvilChunkStorage}.
+ * <p>
+ * Every chunk in the region is copied into a new file while the world keeps running normally. Any chunks that are written to the region during
+ * the copy are tracked and copied again, and finally the new file is swapped in while holding the world's write lock. The time spent holding
+ * the lock is only as long as it takes to copy the chunks written since the last catch-up pass, and to close and reopen the region.
+ * <p>
+ * A pass is throttled and can take a long time, so it's run on its own low-priority thread rather than tying up one of the shared executor's.
+ *
+ * @author DaPorkchop_
+ */
+@Accessors(fluent = true)
+public final class RegionCompactor implements Runnable {
+    protected static final int CATCH_UP_PASSES = 3;
+
+    protected final World                   world;
+    protected final AnvilChunkStorage       storage;
+    protected final ServerConfig.Compaction config;
+
+    protected volatile Thread  thread;
+    protected volatile boolean closed;
+
+    //the position of the region currently being compacted, and the header indices of all chunks in it which were written since being copied
+    protected volatile Vec2i        current;
+    protected final    Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+
+    protected final LongAdder compactedRegions = new LongAdder();
+    protected final LongAdder reclaimedBytes   = new LongAdder();
+    protected volatile double lastFragmentation;
+
+    public RegionCompactor(@NonNull World world, @NonNull AnvilChunkStorage storage, @NonNull ServerConfig.Compaction config) {
+        this.world = world;
+        this.storage = storage;
+        this.config = config;
+    }
+
+    /**
+     * Notifies this compactor that a chunk was written.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     */
+    public void markDirty(int x, int z) {
+        Vec2i current = this.current;
+        if (current != null && current.getX() == x >> 5 && current.getY() == z >> 5) {
+            this.dirty.add(RegionHeader.index(x, z));
+        }
+    }
+
+    /**
+     * @return the total number of regions that have been compacted
+     */
+    public long compactedRegions() {
+        return this.compactedRegions.sum();
+    }
+
+    /**
+     * @return the total number of bytes that have been reclaimed by compaction
+     */
+    public long reclaimedBytes() {
+        return this.reclaimedBytes.sum();
+    }
+
+    /**
+     * @return the fragmentation ratio of the whole world, as of the start of the last compaction pass
+     */
+    public double lastFragmentation() {
+        return this.lastFragmentation;
+    }
+
+    /**
+     * Starts a compaction pass on a new thread, unless one is already running.
+     */
+    @Override
+    public synchronized void run() {
+        if (this.closed || this.thread != null) {
+            return;
+        }
+
+        Thread thread = this.thread = new Thread(this::compactAll, "2b2tMapDownloader region compactor #" + this.world.dimension);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops compacting, waiting for the region currently being compacted (if any) to be abandoned or finished.
+     * <p>
+     * This must be called before taking the world's write lock, as swapping in a compacted region needs it.
+     */
+    public void close() {
+        this.closed = true;
+
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected void compactAll() {
+        try {
+            List<Vec2i> positions;
+            synchronized (this.storage.regions()) {
+                positions = new ArrayList<>(this.storage.regions().keySet());
+            }
+
+            long totalSize = 0L;
+            long totalWasted = 0L;
+            for (Vec2i pos : positions) {
+                if (this.closed) {
+                    return;
+                }
+                this.world.assertOpen();
+
+                File file = this.storage.regionFile(pos);
+                RegionHeader header = RegionHeader.read(file);
+                totalSize += header.fileSize();
+                totalWasted += header.wastedBytes();
+
+                if (header.fragmentation() >= this.config.minFragmentation() && header.wastedBytes() >= this.config.minWastedBytes()) {
+                    this.compact(pos, file);
+                }
+            }
+            this.lastFragmentation = totalSize == 0L ? 0.0d : totalWasted / (double) totalSize;
+        } catch (AlreadyReleasedException e) {
+            //the world was closed, stop silently
+        } catch (Exception e) {
+            logger.error("Exception while compacting regions in dimension %d:", e, this.world.dimension);
+        } finally {
+            synchronized (this) {
+                this.thread = null;
+            }
+        }
+    }
+
+    protected void compact(@NonNull Vec2i pos, @NonNull File file) throws IOException, InterruptedException {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".compact");
+        Files.deleteIfExists(tempFile.toPath());
+
+        //start tracking writes before reading the header, otherwise a chunk written in between would be neither copied nor marked dirty
+        this.dirty.clear();
+        this.current = pos;
+
+        RegionFile dst = null;
+        FileChannel src = null;
+        RegionHeader header = null;
+        boolean swapped = false;
+        try {
+            dst = RegionFile.open(tempFile, AnvilChunkStorage.CREATE_OPEN_OPTIONS);
+            src = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            header = RegionHeader.read(src);
+
+            long startTime = System.nanoTime();
+            long copied = 0L;
+            for (int i = 0; i < 1024; i++) {
+                if (header.has(i)) {
+                    copied += this.copy(pos, i, src, dst, false);
+                    this.throttle(startTime, copied);
+                }
+            }
+
+            //catch up with writes that happened during the copy, so that as little as possible has to be done while holding the lock
+            for (int pass = 0; pass < CATCH_UP_PASSES && !this.dirty.isEmpty(); pass++) {
+                this.copyDirty(pos, src, dst, false);
+            }
+
+            Lock lock = this.world.lock.writeLock();
+            lock.lock();
+            try {
+                this.world.assertOpen();
+                this.copyDirty(pos, src, dst, true);
+
+                dst.close();
+                dst = null;
+                src.close();
+                src = null;
+
+                RegionFile old = this.storage.regions().remove(pos);
+                if (old != null) {
+                    old.close();
+                }
+                try {
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    swapped = true;
+                } finally {
+                    //reopen the region even if the move failed, so that the world stays usable
+                    this.storage.regions().put(pos, RegionFile.open(file, AnvilChunkStorage.OPEN_OPTIONS));
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            this.current = null;
+            this.dirty.clear();
+
+            if (dst != null) {
+                dst.close();
+            }
+            if (src != null) {
+                src.close();
+            }
+            if (!swapped) {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+
+        long reclaimed = header.fileSize() - file.length();
+        this.compactedRegions.increment();
+        this.reclaimedBytes.add(reclaimed);
+        logger.info("Compacted region (%d,%d) in dimension %d: %.2f MiB -> %.2f MiB (%.1f%% fragmented, %.2f MiB reclaimed)",
+                pos.getX(), pos.getY(), this.world.dimension,
+                header.fileSize() / (1024.0d * 1024.0d), file.length() / (1024.0d * 1024.0d),
+                header.fragmentation() * 100.0d, reclaimed / (1024.0d * 1024.0d));
+    }
+
+    protected void copyDirty(@NonNull Vec2i pos, @NonNull FileChannel src, @NonNull RegionFile dst, boolean locked) throws IOException {
+        for (Iterator<Integer> itr = this.dirty.iterator(); itr.hasNext(); ) {
+            int index = itr.next();
+            itr.remove();
+            this.copy(pos, index, src, dst, locked);
+        }
+    }
+
+    /**
+     * Copies a single chunk, together with its timestamp.
+     *
+     * @param src    the original region file, used to read the timestamp
+     * @param locked whether or not the caller is holding the world's write lock
+     */
+    protected int copy(@NonNull Vec2i pos, int index, @NonNull FileChannel src, @NonNull RegionFile dst, boolean locked) throws IOException {
+        int x = index & 0x1F;
+        int z = index >> 5;
+        ByteBuf buf;
+        long time;
+        if (locked) {
+            buf = this.storage.regions().get(pos).readDirect(x, z);
+            time = RegionHeader.readTimestamp(src, index);
+        } else {
+            //the data and timestamp have to come from the same version of the chunk, so writers to it are excluded while reading both
+            Lock lock = this.world.lock.readLock();
+            lock.lock();
+            try {
+                this.world.assertOpen();
+                Lock storageLock = this.world.storageLock((pos.getX() << 5) | x, (pos.getY() << 5) | z);
+                storageLock.lock();
+                try {
+                    buf = this.world.readStored((pos.getX() << 5) | x, (pos.getY() << 5) | z);
+                    time = RegionHeader.readTimestamp(src, index);
+                } finally {
+                    storageLock.unlock();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (buf == null) {
+            return 0;
+        }
+        int size = buf.readableBytes();
+        dst.writeDirect(x, z, buf, time, true);
+        return size;
+    }
+
+    protected void throttle(long startTime, long copied) throws InterruptedException {
+        if (this.closed) {
+            //give up on the region, the temporary file will be deleted
+            throw new AlreadyReleasedException();
+        }
+        long targetTime = startTime + (long) (copied * (double) TimeUnit.SECONDS.toNanos(1L) / this.config.maxBytesPerSecond());
+        long now = System.nanoTime();
+        if (targetTime > now) {
+            TimeUnit.NANOSECONDS.sleep(targetTime - now);
+        }
+    }
+}
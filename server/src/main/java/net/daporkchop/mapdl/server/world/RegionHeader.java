@@ -0,0 +1,161 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only copy of the 8 KiB header of an Anvil region file (the chunk location table and the timestamp table).
+ * <p>
+ * This is read straight from disk rather than going through {@link net.daporkchop.lib.minecraft.world.format.anvil.region.RegionFile}, which
+ * allows inspecting regions without opening them and without taking any locks. If the region is being written to concurrently, the header may
+ * already be outdated by the time it is used.
+ *
+ * @author DaPorkchop_
+ */
+@Accessors(fluent = true)
+public final class RegionHeader {
+    public static final int SECTOR_BYTES   = 4096;
+    public static final int HEADER_BYTES   = SECTOR_BYTES * 2;
+    public static final int HEADER_SECTORS = 2;
+
+    /**
+     * Gets the index of the given chunk in a region's header.
+     *
+     * @param x the X coordinate of the chunk, relative to the region
+     * @param z the Z coordinate of the chunk, relative to the region
+     * @return the chunk's header index
+     */
+    public static int index(int x, int z) {
+        return (x & 0x1F) | ((z & 0x1F) << 5);
+    }
+
+    public static RegionHeader read(@NonNull File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    public static RegionHeader read(@NonNull FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) ;
+        if (buffer.hasRemaining()) {
+            throw new IOException("Region file is too small to contain a header!");
+        }
+        buffer.flip();
+
+        int[] locations = new int[1024];
+        int[] timestamps = new int[1024];
+        buffer.asIntBuffer().get(locations).get(timestamps);
+        return new RegionHeader(locations, timestamps, channel.size());
+    }
+
+    /**
+     * Reads a single chunk's timestamp straight from a region file, without reading the rest of the header.
+     *
+     * @param channel the region file
+     * @param index   the chunk's index in the header
+     * @return the chunk's timestamp
+     */
+    public static long readTimestamp(@NonNull FileChannel channel, int index) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        while (buffer.hasRemaining() && channel.read(buffer, SECTOR_BYTES + index * 4L + buffer.position()) >= 0) ;
+        if (buffer.hasRemaining()) {
+            throw new IOException("Region file is too small to contain a header!");
+        }
+        return (buffer.getInt(0) & 0xFFFFFFFFL) * 1000L;
+    }
+
+    protected final int[] locations;
+    protected final int[] timestamps;
+    @Getter
+    protected final long  fileSize;
+    @Getter
+    protected final int   chunkCount;
+    @Getter
+    protected final long  usedSectors;
+
+    protected RegionHeader(@NonNull int[] locations, @NonNull int[] timestamps, long fileSize) {
+        this.locations = locations;
+        this.timestamps = timestamps;
+        this.fileSize = fileSize;
+
+        int chunkCount = 0;
+        long usedSectors = HEADER_SECTORS;
+        for (int location : locations) {
+            if (location != 0) {
+                chunkCount++;
+                usedSectors += location & 0xFF;
+            }
+        }
+        this.chunkCount = chunkCount;
+        this.usedSectors = usedSectors;
+    }
+
+    /**
+     * @return whether or not the chunk with the given header index is present
+     */
+    public boolean has(int index) {
+        return this.locations[index] != 0;
+    }
+
+    /**
+     * @return the offset (in sectors) of the chunk with the given header index
+     */
+    public int sectorOffset(int index) {
+        return this.locations[index] >>> 8;
+    }
+
+    /**
+     * @return the length (in sectors) of the chunk with the given header index
+     */
+    public int sectorCount(int index) {
+        return this.locations[index] & 0xFF;
+    }
+
+    /**
+     * @return the time at which the chunk with the given header index was last written, in milliseconds since the epoch
+     */
+    public long timestamp(int index) {
+        return (this.timestamps[index] & 0xFFFFFFFFL) * 1000L;
+    }
+
+    /**
+     * @return the number of bytes in the file which are not used by the header or by any chunk
+     */
+    public long wastedBytes() {
+        return Math.max(this.fileSize - this.usedSectors * SECTOR_BYTES, 0L);
+    }
+
+    /**
+     * @return the fraction of the file which is not used by the header or by any chunk, in range {@code [0, 1)}
+     */
+    public double fragmentation() {
+        return this.fileSize == 0L ? 0.0d : this.wastedBytes() / (double) this.fileSize;
+    }
+}
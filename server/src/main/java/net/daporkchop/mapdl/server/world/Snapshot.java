@@ -0,0 +1,209 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.math.vector.i.Vec2i;
+import net.daporkchop.mapdl.server.world.storage.AnvilChunkStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * A consistent, read-only view of the region files of a {@link World} as they were at a single point in time.
+ * <p>
+ * Region files are modified in place, so hard links wouldn't stay consistent. Instead, copy-on-write is done per region: the first time a region
+ * in the snapshot is about to be written to, the world asks the snapshot to {@link #preserve(int, int)} it, which copies the region file into the
+ * snapshot's staging directory. Regions which are never written to are read straight from the live file. Only the regions which change while the
+ * snapshot exists are ever copied, and the copies are deleted when the snapshot is closed.
+ * <p>
+ * Creating a snapshot takes the world's write lock just long enough to flush the write cache and list the regions.
+ *
+ * @author DaPorkchop_
+ */
+@Accessors(fluent = true)
+public final class Snapshot implements AutoCloseable {
+    protected static final int LOCK_COUNT = 64;
+
+    protected final World world;
+    @Getter
+    protected final int   dimension;
+    @Getter
+    protected final long  time;
+
+    protected final AnvilChunkStorage storage;
+    protected final File              stagingDir;
+
+    @Getter
+    protected final List<Vec2i> regions;
+    protected final Set<Vec2i>  regionSet;
+
+    //regions in this set have been copied to the staging directory
+    protected final Set<Vec2i> preserved = ConcurrentHashMap.newKeySet();
+    protected final Object[]   locks     = new Object[LOCK_COUNT];
+
+    protected volatile boolean broken = false;
+    protected volatile boolean closed = false;
+
+    Snapshot(@NonNull World world, int dimension, @NonNull AnvilChunkStorage storage, @NonNull Collection<Vec2i> regions, @NonNull File stagingDir) {
+        this.world = world;
+        this.dimension = dimension;
+        this.time = System.currentTimeMillis();
+        this.storage = storage;
+        this.stagingDir = PFiles.ensureDirectoryExists(stagingDir);
+
+        List<Vec2i> list = new ArrayList<>(regions);
+        list.sort(Comparator.comparingInt(Vec2i::getX).thenComparingInt(Vec2i::getY));
+        this.regions = Collections.unmodifiableList(list);
+        this.regionSet = new HashSet<>(list);
+
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    protected Object lock(@NonNull Vec2i pos) {
+        return this.locks[(pos.hashCode() & 0x7FFFFFFF) % LOCK_COUNT];
+    }
+
+    protected File stagingFile(@NonNull Vec2i pos) {
+        return new File(this.stagingDir, this.storage.regionFile(pos).getName());
+    }
+
+    /**
+     * Called before a region is written to, to make sure that the snapshot keeps a copy of its original contents.
+     *
+     * @param regionX the X coordinate of the region
+     * @param regionZ the Z coordinate of the region
+     */
+    void preserve(int regionX, int regionZ) {
+        Vec2i pos = new Vec2i(regionX, regionZ);
+        if (this.closed || this.broken || !this.regionSet.contains(pos) || this.preserved.contains(pos)) {
+            return;
+        }
+
+        synchronized (this.lock(pos)) {
+            if (this.closed || this.preserved.contains(pos)) {
+                return;
+            }
+            try {
+                Files.copy(this.storage.regionFile(pos).toPath(), this.stagingFile(pos).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (NoSuchFileException e) {
+                //the region didn't exist when the snapshot was taken, so there's nothing to preserve
+            } catch (IOException e) {
+                //rather than failing the write, give up on the snapshot
+                logger.error("Unable to preserve region (%d,%d) in dimension %d for snapshot, it will be unusable:", e, regionX, regionZ, this.dimension);
+                this.broken = true;
+                return;
+            }
+            this.preserved.add(pos);
+        }
+    }
+
+    /**
+     * Reads a complete region file as it was when this snapshot was taken.
+     *
+     * @param pos the position of the region
+     * @return a {@link ByteBuf} containing the region file, or {@code null} if the region isn't part of this snapshot
+     * @throws IllegalStateException if the snapshot is closed or could not be kept consistent
+     */
+    public ByteBuf readRegion(@NonNull Vec2i pos) throws IOException {
+        if (!this.regionSet.contains(pos)) {
+            return null;
+        }
+
+        //hold the lock so that the region can't be written to while we're reading it from the live directory
+        synchronized (this.lock(pos)) {
+            this.assertUsable();
+            File file = this.preserved.contains(pos) ? this.stagingFile(pos) : this.storage.regionFile(pos);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Region file is too large: " + file);
+                }
+                ByteBuf buf = PooledByteBufAllocator.DEFAULT.ioBuffer((int) size);
+                try {
+                    while (buf.writerIndex() < size && buf.writeBytes(channel, buf.writerIndex(), (int) size - buf.writerIndex()) >= 0) ;
+                    return buf.retain();
+                } finally {
+                    buf.release();
+                }
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+    }
+
+    protected void assertUsable() {
+        if (this.closed) {
+            throw new IllegalStateException("Snapshot is closed!");
+        } else if (this.broken) {
+            throw new IllegalStateException("Snapshot could not be kept consistent!");
+        }
+    }
+
+    /**
+     * @return the number of regions which have been copied because they were written to
+     */
+    public int preservedCount() {
+        return this.preserved.size();
+    }
+
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.world.removeSnapshot(this);
+        this.closed = true;
+
+        File[] files = this.stagingDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    logger.warn("Unable to delete %s", file);
+                }
+            }
+        }
+        if (!this.stagingDir.delete()) {
+            logger.warn("Unable to delete %s", this.stagingDir);
+        }
+    }
+}
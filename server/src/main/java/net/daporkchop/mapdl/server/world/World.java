@@ -19,89 +19,177 @@
 
 package net.daporkchop.mapdl.server.world;
 
+import com.google.gson.JsonObject;
 import io.netty.buffer.ByteBuf;
 import lombok.NonNull;
 import lombok.experimental.Accessors;
-import net.daporkchop.lib.common.cache.Cache;
-import net.daporkchop.lib.common.cache.ThreadCache;
-import net.daporkchop.lib.common.function.io.IOBiConsumer;
 import net.daporkchop.lib.common.function.io.IOConsumer;
-import net.daporkchop.lib.common.function.io.IOFunction;
 import net.daporkchop.lib.common.misc.file.PFiles;
 import net.daporkchop.lib.math.vector.i.Vec2i;
 import net.daporkchop.lib.minecraft.world.format.anvil.region.RegionConstants;
-import net.daporkchop.lib.minecraft.world.format.anvil.region.RegionFile;
-import net.daporkchop.lib.minecraft.world.format.anvil.region.RegionOpenOptions;
 import net.daporkchop.lib.unsafe.PUnsafe;
 import net.daporkchop.lib.unsafe.util.exception.AlreadyReleasedException;
 import net.daporkchop.mapdl.server.Server;
+import net.daporkchop.mapdl.server.render.TileRenderer;
+import net.daporkchop.mapdl.server.search.TileEntityIndex;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.history.ChunkHistory;
+import net.daporkchop.mapdl.server.world.storage.AnvilChunkStorage;
+import net.daporkchop.mapdl.server.world.storage.ChunkStorage;
+import net.daporkchop.mapdl.server.world.storage.StorageType;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static net.daporkchop.lib.logging.Logging.*;
+import static net.daporkchop.mapdl.server.util.ServerConstants.*;
 
 /**
- * Needs a new name, this class actually represents the regions of a single dimension.
+ * Needs a new name, this class actually represents the chunks of a single dimension.
+ * <p>
+ * The chunks themselves are kept in a {@link ChunkStorage}, the type of which is determined by the {@link ServerConfig}.
  *
  * @author DaPorkchop_
  */
 @Accessors(fluent = true)
 public final class World implements AutoCloseable {
-    protected static final Pattern        REGION_PATTERN               = Pattern.compile("^r\\.(-?[0-9]+)\\.(-?[0-9]+)\\.mca$");
-    protected static final Cache<Matcher> REGION_PATTERN_MATCHER_CACHE = ThreadCache.soft(() -> REGION_PATTERN.matcher(""));
+    protected final File         root;
+    protected final ServerConfig config;
 
-    protected static final RegionOpenOptions OPEN_OPTIONS        = new RegionOpenOptions().access(RegionFile.Access.WRITE_REQUIRED);
-    protected static final RegionOpenOptions CREATE_OPEN_OPTIONS = new RegionOpenOptions().access(RegionFile.Access.WRITE_REQUIRED).createNewFiles(true);
-
-    protected final Server server;
-    protected final File   root;
-
-    protected final Map<Vec2i, RegionFile> regions = Collections.synchronizedMap(new HashMap<>());
-    protected final IOFunction<Vec2i, RegionFile> regionCreator;
+    protected final ChunkStorage storage;
 
     protected final ReadWriteLock lock = new ReentrantReadWriteLock();
 
+    //held while a chunk is being written to the storage, so that readers which need the stored data and timestamp to match can exclude writers
+    protected final Lock[] storageLocks = new Lock[64];
+
     protected final int dimension;
 
+    protected final ChunkIndex index;
+
+    protected final ChangeLog          changeLog;
+    protected final ScheduledFuture<?> changeLogFuture;
+
+    //null if disabled
+    protected final ChunkHistory       history;
+    protected final ScheduledFuture<?> historyFuture;
+
+    //null if disabled
+    protected final RegionCompactor    compactor;
+    protected final ScheduledFuture<?> compactionFuture;
+    protected final WriteCache         writeCache;
+    protected final ScheduledFuture<?> writeCacheFuture;
+    protected final ReadCache          readCache;
+    protected final TileRenderer       renderer;
+    protected final ScheduledFuture<?> rendererFuture;
+    protected final TileEntityIndex    tileEntities;
+    protected final ScheduledFuture<?> tileEntitiesFuture;
+
+    protected final List<Snapshot> snapshots = new CopyOnWriteArrayList<>();
+
     protected volatile boolean closed = false;
 
     public World(@NonNull Server server, int dimension) {
+        this(server.root(), dimension, server.config());
+    }
+
+    /**
+     * Opens a world without a {@link Server} instance, for use by offline tools and benchmarks.
+     *
+     * @param baseDir   the directory containing the {@code world/} folder
+     * @param dimension the dimension ID
+     * @param config    the {@link ServerConfig} to use
+     */
+    public World(@NonNull File baseDir, int dimension, @NonNull ServerConfig config) {
+        for (int i = 0; i < this.storageLocks.length; i++) {
+            this.storageLocks[i] = new ReentrantLock();
+        }
+
+        ChunkStorage storage = null;
+        ChunkIndex index = null;
+        ChangeLog changeLog = null;
+        ChunkHistory history = null;
         try {
-            this.server = server;
             this.dimension = dimension;
+            this.config = config;
 
-            this.root = PFiles.ensureDirectoryExists(new File(this.server.root(), dimension == 0 ? "world/region/" : String.format("world/DIM%d/region/", dimension)));
+            this.root = PFiles.ensureDirectoryExists(dimensionDir(baseDir, dimension));
+            this.storage = storage = config.storage().open(this.root, config);
+            this.index = index = new ChunkIndex(new File(this.root, "index.bin"), config.storage().ordinal());
+            if (index.needsRebuild()) {
+                this.rebuildIndex();
+            }
 
-            this.regionCreator = pos -> {
-                File file = new File(this.root, String.format("r.%d.%d.mca", pos.getX(), pos.getY()));
-                if (PFiles.checkFileExists(file)) {
-                    throw new IllegalStateException("Region file already exists: " + file.getAbsolutePath());
-                }
-                return RegionFile.open(file, CREATE_OPEN_OPTIONS);
-            };
+            this.changeLog = changeLog = new ChangeLog(new File(this.root, "changes.log"));
+            this.changeLogFuture = config.changeLog().maxEntries() > 0L
+                    ? EXECUTOR.scheduleWithFixedDelay(this::trimChangeLog, config.changeLog().retentionInterval(), config.changeLog().retentionInterval(), TimeUnit.MINUTES)
+                    : null;
 
-            Arrays.stream(this.root.listFiles())
-                    .parallel()
-                    .forEach((IOConsumer<File>) file -> {
-                        Matcher matcher = REGION_PATTERN_MATCHER_CACHE.get().reset(file.getName());
-                        if (matcher.find()) {
-                            this.regions.put(new Vec2i(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))), RegionFile.open(file, OPEN_OPTIONS));
-                        }
-                    });
+            if (config.history().enabled()) {
+                this.history = history = new ChunkHistory(new File(this.root, "history"), config.history(), index);
+                this.historyFuture = EXECUTOR.scheduleWithFixedDelay(history::compact, config.history().compactionInterval(), config.history().compactionInterval(), TimeUnit.MINUTES);
+            } else {
+                this.history = null;
+                this.historyFuture = null;
+            }
+
+            //compaction only makes sense for region files, everything else is expected to take care of itself
+            if (this.storage instanceof AnvilChunkStorage && config.compaction().enabled()) {
+                this.compactor = new RegionCompactor(this, (AnvilChunkStorage) this.storage, config.compaction());
+                this.compactionFuture = EXECUTOR.scheduleWithFixedDelay(this.compactor, config.compaction().interval(), config.compaction().interval(), TimeUnit.MINUTES);
+            } else {
+                this.compactor = null;
+                this.compactionFuture = null;
+            }
+
+            if (config.writeCache().enabled()) {
+                this.writeCache = new WriteCache(this, config.writeCache());
+                long period = Math.max(config.writeCache().window() >> 1L, 1L);
+                this.writeCacheFuture = EXECUTOR.scheduleWithFixedDelay(this.writeCache::flushExpired, period, period, TimeUnit.MILLISECONDS);
+            } else {
+                this.writeCache = null;
+                this.writeCacheFuture = null;
+            }
+            this.readCache = config.readCache().enabled() ? new ReadCache(config.readCache()) : null;
+
+            if (config.render().enabled()) {
+                this.renderer = new TileRenderer(this, dimension, new File(this.root, "tiles"), config.render());
+                this.rendererFuture = EXECUTOR.scheduleWithFixedDelay(this.renderer::poll, config.render().interval(), config.render().interval(), TimeUnit.MILLISECONDS);
+            } else {
+                this.renderer = null;
+                this.rendererFuture = null;
+            }
+
+            if (config.tileEntityIndex().enabled()) {
+                this.tileEntities = new TileEntityIndex(this, dimension, new File(this.root, "tileentities.bin"), config.tileEntityIndex());
+                this.tileEntitiesFuture = EXECUTOR.scheduleWithFixedDelay(this.tileEntities::poll, config.tileEntityIndex().interval(), config.tileEntityIndex().interval(), TimeUnit.MILLISECONDS);
+            } else {
+                this.tileEntities = null;
+                this.tileEntitiesFuture = null;
+            }
         } catch (Exception e) {
             try {
-                this.regions.forEach((IOBiConsumer<Vec2i, RegionFile>) (pos, region) -> region.close());
+                if (storage != null) {
+                    storage.close();
+                }
+                if (index != null) {
+                    index.close();
+                }
+                if (changeLog != null) {
+                    changeLog.close();
+                }
+                if (history != null) {
+                    history.close();
+                }
             } catch (Exception e1) {
                 logger.alert("Exception while aborting world load:", e1);
             } finally {
@@ -113,25 +201,68 @@ public final class World implements AutoCloseable {
 
     @Override
     public void close() throws IOException {
+        if (this.renderer != null) {
+            //the renderer and tile entity index read chunks while holding the read lock, so they have to be stopped before the write lock can be taken
+            this.rendererFuture.cancel(false);
+            this.renderer.close();
+        }
+        if (this.tileEntities != null) {
+            this.tileEntitiesFuture.cancel(false);
+            try {
+                this.tileEntities.close();
+            } catch (IOException e) {
+                logger.error("Unable to save tile entity index for dimension %d:", e, this.dimension);
+            }
+        }
+
+        if (this.compactor != null) {
+            //same as above, a compaction pass needs the write lock to swap in the compacted region
+            this.compactionFuture.cancel(false);
+            this.compactor.close();
+        }
+
         Lock lock = this.lock.writeLock();
         lock.lock();
         try {
             this.assertOpen();
+
+            if (this.writeCache != null) {
+                this.writeCacheFuture.cancel(false);
+
+                //the write lock is held, so nothing else can be added to the cache while this is running
+                this.writeCache.flushAll();
+            }
+
             this.closed = true;
 
-            //only handle first exception, but make an attempt to close every region
-            AtomicReference<IOException> ref = new AtomicReference<>();
-            this.regions.forEach((pos, region) -> {
+            for (Snapshot snapshot : this.snapshots) {
+                snapshot.close();
+            }
+
+            if (this.readCache != null) {
+                this.readCache.clear();
+            }
+
+            if (this.changeLogFuture != null) {
+                this.changeLogFuture.cancel(false);
+            }
+            if (this.historyFuture != null) {
+                this.historyFuture.cancel(false);
+            }
+            try {
+                this.storage.close();
+            } finally {
                 try {
-                    region.close();
-                } catch (IOException e) {
-                    ref.compareAndSet(null, e);
+                    this.index.close();
+                } finally {
+                    try {
+                        this.changeLog.close();
+                    } finally {
+                        if (this.history != null) {
+                            this.history.close();
+                        }
+                    }
                 }
-            });
-            this.regions.clear();
-
-            if (ref.get() != null) {
-                throw ref.get();
             }
         } finally {
             lock.unlock();
@@ -141,7 +272,7 @@ public final class World implements AutoCloseable {
     /**
      * Gets the chunk at the given chunk coordinates.
      * <p>
-     * Will return {@code null} if the chunk does not exist in the corresponding region, or if the region does not exist.
+     * Will return {@code null} if the chunk does not exist.
      *
      * @param x the X coordinate of the chunk
      * @param z the Z coordinate of the chunk
@@ -154,17 +285,163 @@ public final class World implements AutoCloseable {
         try {
             this.assertOpen();
 
-            RegionFile region = this.regions.get(new Vec2i(x >> 5, z >> 5));
-            return region == null ? null : region.readDirect(x & 0x1F, z & 0x1F);
+            //this has to be checked before anything else, see ReadCache
+            long time = this.index.time(x, z);
+
+            if (this.writeCache != null) {
+                ByteBuf cached = this.writeCache.get(x, z);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            if (this.readCache == null || time < 0L) {
+                return this.readStored(x, z);
+            }
+
+            ByteBuf buf = this.readCache.get(x, z, time);
+            if (buf == null && (buf = this.readStored(x, z)) != null) {
+                this.readCache.put(x, z, buf, time);
+            }
+            return buf;
         } finally {
             lock.unlock();
         }
     }
 
     /**
-     * Sets the chunk at the given chunk coordinates.
+     * Gets the chunk at the given chunk coordinates along with the time at which that exact version was saved.
      * <p>
-     * This will result in creation of a new region file if one doesn't exist already.
+     * Unlike calling {@link #getChunk(int, int)} and {@link #getTimestamp(int, int)} separately, the chunk can't be replaced in between. The
+     * consumer is called while holding locks which block writes to the chunk, so it should return quickly. The buffer given to it will be
+     * released once it returns.
+     *
+     * @param x        the X coordinate of the chunk
+     * @param z        the Z coordinate of the chunk
+     * @param consumer the consumer to pass the chunk to
+     * @return whether or not the chunk exists
+     * @throws IOException if an IO exception occurs you dummy
+     */
+    public boolean getChunkVersion(int x, int z, @NonNull VersionConsumer consumer) throws IOException {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+
+            //holding the storage lock prevents the chunk from being flushed out of the write cache or written to the storage
+            Lock storageLock = this.storageLock(x, z);
+            storageLock.lock();
+            try {
+                if (this.writeCache != null && this.writeCache.get(x, z, consumer)) {
+                    return true;
+                }
+
+                ByteBuf buf = this.readStored(x, z);
+                if (buf == null) {
+                    return false;
+                }
+                try {
+                    long time = this.index.time(x, z);
+                    //if the chunk was cached while reading it, the index time belongs to the cached version rather than the stored one
+                    if (this.writeCache != null && this.writeCache.get(x, z, consumer)) {
+                        return true;
+                    }
+                    consumer.accept(time, buf);
+                    return true;
+                } finally {
+                    buf.release();
+                }
+            } finally {
+                storageLock.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the version of the chunk at the given chunk coordinates which was current at the given point in time.
+     * <p>
+     * Versions older than the current one can only be returned if {@link ChunkHistory} is enabled and the version is still retained.
+     *
+     * @param x    the X coordinate of the chunk
+     * @param z    the Z coordinate of the chunk
+     * @param time the point in time
+     * @return a {@link ByteBuf} containing the chunk data, or {@code null} if the chunk didn't exist at the given time or is no longer known
+     * @throws IOException if an IO exception occurs you dummy
+     */
+    public ByteBuf getChunk(int x, int z, long time) throws IOException {
+        if (time >= this.index.time(x, z)) {
+            return this.getChunk(x, z);
+        } else if (this.history == null) {
+            return null;
+        }
+
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+
+            Lock historyLock = this.history.lock(x, z);
+            historyLock.lock();
+            try {
+                //the version in the write cache is newer than the requested time, so start from the stored one. its timestamp is only known if
+                //  nothing is cached, since the index is updated as soon as a chunk enters the cache. the index has to be checked first, see WriteCache
+                long currentTime = this.index.time(x, z);
+                if (this.writeCache != null && this.writeCache.contains(x, z)) {
+                    currentTime = -1L;
+                }
+                ByteBuf current = this.readStored(x, z);
+                try {
+                    return this.history.read(x, z, time, current, currentTime);
+                } finally {
+                    if (current != null) {
+                        current.release();
+                    }
+                }
+            } finally {
+                historyLock.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the timestamps of all known versions of the chunk at the given chunk coordinates.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return the timestamps, newest first
+     * @see ChunkHistory#versions(int, int)
+     */
+    public long[] getVersions(int x, int z) throws IOException {
+        long time = this.index.time(x, z);
+        if (time < 0L) {
+            return new long[0];
+        }
+        long[] stored = this.history == null ? new long[0] : this.history.versions(x, z);
+        if (stored.length > 0 && stored[0] == time) {
+            return stored;
+        }
+
+        //the newest version is either in the write cache or was written before history was enabled
+        long[] versions = new long[stored.length + 1];
+        versions[0] = time;
+        System.arraycopy(stored, 0, versions, 1, stored.length);
+        return versions;
+    }
+
+    /**
+     * Reads a chunk directly from its region, ignoring the write cache.
+     * <p>
+     * The caller must be holding either the read or write lock.
+     */
+    protected ByteBuf readStored(int x, int z) throws IOException {
+        return this.storage.read(x, z);
+    }
+
+    /**
+     * Sets the chunk at the given chunk coordinates.
      * <p>
      * The given {@link ByteBuf} will be released.
      *
@@ -176,27 +453,469 @@ public final class World implements AutoCloseable {
      * @throws IOException if an IO exception occurs you dummy
      */
     public boolean putChunk(int x, int z, @NonNull ByteBuf buf, long time) throws IOException {
+        return this.putChunk(x, z, buf, time, true);
+    }
+
+    /**
+     * Sets the chunk at the given chunk coordinates.
+     * <p>
+     * The given {@link ByteBuf} will be released.
+     *
+     * @param x    the X coordinate of the chunk
+     * @param z    the Z coordinate of the chunk
+     * @param buf  a {@link ByteBuf} containing the chunk data
+     * @param time the time at which the chunk was saved
+     * @param sync whether or not to wait until the chunk's change log entry is on disk. If not, the caller must call {@link #syncChangeLog()}
+     *             before treating the write as done, which allows a whole batch of chunks to be synced at once
+     * @return whether or not the chunk was actually written
+     */
+    public boolean putChunk(int x, int z, @NonNull ByteBuf buf, long time, boolean sync) throws IOException {
         if (buf.getInt(0) != buf.readableBytes() - 4) {
+            buf.release();
             throw new IllegalArgumentException("Invalid length prefix!");
         } else if (buf.getByte(4) != RegionConstants.ID_GZIP && buf.getByte(4) != RegionConstants.ID_ZLIB) {
-            throw new IllegalArgumentException("Invalid compression version: " + (buf.getByte(4) & 0xFF));
+            int version = buf.getByte(4) & 0xFF;
+            buf.release();
+            throw new IllegalArgumentException("Invalid compression version: " + version);
+        }
+
+        if (this.index.time(x, z) >= time) {
+            //we already have a newer version, no need to touch the storage at all
+            buf.release();
+            return false;
         }
+        int size = buf.readableBytes();
+        long hash = ChunkIndex.hash(buf);
+
+        if (this.writeCache != null) {
+            Lock lock = this.lock.readLock();
+            lock.lock();
+            try {
+                this.assertOpen(buf);
 
+                boolean cached = this.writeCache.put(x, z, buf, time);
+                if (cached) {
+                    //update the index right away, so that older versions are rejected without having to wait for the chunk to be flushed
+                    this.index.update(x, z, time, size, hash);
+                    if (this.readCache != null) {
+                        this.readCache.invalidate(x, z);
+                    }
+                }
+                return cached;
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            return this.writeStored(x, z, buf, time, sync);
+        }
+    }
+
+    /**
+     * Writes a chunk directly to the storage, bypassing the write cache.
+     * <p>
+     * The given {@link ByteBuf} will be released.
+     *
+     * @param sync whether or not to wait until the chunk's change log entry is on disk. If not, the caller must call {@link #syncChangeLog()}
+     *             before treating the write as done
+     */
+    protected boolean writeStored(int x, int z, @NonNull ByteBuf buf, long time, boolean sync) throws IOException {
         Lock lock = this.lock.readLock();
         lock.lock();
+        try {
+            this.assertOpen(buf);
+
+            int size = buf.readableBytes();
+            long hash = ChunkIndex.hash(buf);
+            for (Snapshot snapshot : this.snapshots) {
+                snapshot.preserve(x >> 5, z >> 5);
+            }
+
+            boolean written;
+            Lock storageLock = this.storageLock(x, z);
+            storageLock.lock();
+            try {
+                written = this.history != null ? this.writeStoredWithHistory(x, z, buf, time) : this.storage.write(x, z, buf, time);
+                if (written) {
+                    //updated while still holding the storage lock, so that getChunkVersion never sees the new data with the old time
+                    this.index.update(x, z, time, size, hash);
+                }
+            } finally {
+                storageLock.unlock();
+            }
+            if (written) {
+                long entry = this.changeLog.append(x, z, time);
+                if (sync) {
+                    this.changeLog.sync(entry);
+                }
+                if (this.compactor != null) {
+                    this.compactor.markDirty(x, z);
+                }
+                if (this.readCache != null) {
+                    this.readCache.invalidate(x, z);
+                }
+            }
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the lock which is held while the chunk at the given chunk coordinates is being written to the storage.
+     * <p>
+     * The caller must be holding either the read or write lock.
+     */
+    protected Lock storageLock(int x, int z) {
+        return this.storageLocks[(x * 31 + z) & (this.storageLocks.length - 1)];
+    }
+
+    //the caller must be holding the read lock
+    protected boolean writeStoredWithHistory(int x, int z, @NonNull ByteBuf buf, long time) throws IOException {
+        Lock historyLock = this.history.lock(x, z);
+        historyLock.lock();
+        try {
+            ByteBuf old = this.storage.read(x, z);
+            buf.retain(); //the storage will release one reference, the other is needed for computing the delta
+            try {
+                boolean written = this.storage.write(x, z, buf, time);
+                if (written) {
+                    try {
+                        this.history.record(x, z, old, buf, time);
+                    } catch (IOException e) {
+                        //the chunk itself was written successfully, so don't report an error to the caller
+                        logger.error("Unable to record history of chunk (%d,%d) in dimension %d:", e, x, z, this.dimension);
+                    }
+                }
+                return written;
+            } finally {
+                buf.release();
+                if (old != null) {
+                    old.release();
+                }
+            }
+        } finally {
+            historyLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the timestamp of the chunk at the given chunk coordinates, without touching the storage.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return the time at which the chunk was saved, or {@code -1L} if the chunk doesn't exist
+     */
+    public long getTimestamp(int x, int z) {
+        return this.index.time(x, z);
+    }
+
+    /**
+     * Finds every chunk which was modified after the given time, without touching the storage.
+     *
+     * @param since    the time to compare against
+     * @param consumer a consumer which will be given the position and timestamp of every chunk that was found
+     * @return the number of chunks that were found
+     */
+    public int modifiedSince(long since, @NonNull ChunkIndex.ModifiedConsumer consumer) {
+        return this.index.forEachModifiedSince(since, consumer);
+    }
+
+    /**
+     * Reads entries from this world's change log.
+     * <p>
+     * An entry is added every time a chunk is written to the storage.
+     *
+     * @param cursor   the index of the first entry to read
+     * @param limit    the maximum number of entries to read
+     * @param consumer the consumer to pass the entries to
+     * @return the cursor to use for reading the next entries
+     * @see ChangeLog#read(long, int, ChangeLog.ChangeConsumer)
+     */
+    public long changes(long cursor, int limit, @NonNull ChangeLog.ChangeConsumer consumer) throws IOException {
+        return this.changeLog.read(cursor, limit, consumer);
+    }
+
+    /**
+     * @return the index of the oldest entry in this world's change log which hasn't been dropped yet
+     */
+    public long firstChange() {
+        return this.changeLog.first();
+    }
+
+    /**
+     * @return the number of entries in this world's change log which can currently be read
+     */
+    public long changeCount() {
+        return this.changeLog.size();
+    }
+
+    /**
+     * Gets a map tile of this world.
+     *
+     * @param zoom the zoom level
+     * @param x    the X coordinate of the tile
+     * @param z    the Z coordinate of the tile
+     * @return the tile as an encoded PNG image, or {@code null} if there is nothing in the tile
+     * @throws IllegalStateException if rendering is disabled
+     * @see TileRenderer#tile(int, int, int)
+     */
+    public byte[] getTile(int zoom, int x, int z) throws IOException {
+        if (this.renderer == null) {
+            throw new IllegalStateException("Rendering is disabled!");
+        }
+        this.assertOpen();
+        return this.renderer.tile(zoom, x, z);
+    }
+
+    /**
+     * @return this world's {@link TileEntityIndex}, or {@code null} if it's disabled
+     */
+    public TileEntityIndex tileEntities() {
+        return this.tileEntities;
+    }
+
+    /**
+     * Writes everything in the write cache to the storage.
+     * <p>
+     * This briefly blocks all writes, so it should only be used at checkpoints where the caller needs to know that everything it has put so far has
+     * reached the storage.
+     */
+    public void flush() throws IOException {
+        if (this.writeCache == null) {
+            return;
+        }
+
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            this.assertOpen();
+            this.writeCache.flushAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a {@link Snapshot} of this world's region files.
+     * <p>
+     * This briefly blocks all writes while the write cache is flushed. The snapshot must be closed once it's no longer needed, otherwise every
+     * region that gets written to will be copied into the staging directory.
+     *
+     * @param stagingDir the directory in which the snapshot will keep copies of regions that are written to while it exists
+     * @return the new snapshot
+     * @throws UnsupportedOperationException if the world isn't stored as region files
+     */
+    public Snapshot snapshot(@NonNull File stagingDir) throws IOException {
+        if (!(this.storage instanceof AnvilChunkStorage)) {
+            throw new UnsupportedOperationException("Snapshots require " + StorageType.ANVIL + " storage!");
+        }
+        AnvilChunkStorage storage = (AnvilChunkStorage) this.storage;
+
+        Lock lock = this.lock.writeLock();
+        lock.lock();
         try {
             this.assertOpen();
 
-            RegionFile region = this.regions.computeIfAbsent(new Vec2i(x >> 5, z >> 5), this.regionCreator);
-            return region.writeDirect(x & 0x1F, z & 0x1F, buf, time, false);
+            //make sure that everything which was accepted before the snapshot is in it
+            if (this.writeCache != null) {
+                this.writeCache.flushAll();
+            }
+
+            List<Vec2i> positions;
+            synchronized (storage.regions()) {
+                positions = new ArrayList<>(storage.regions().keySet());
+            }
+            Snapshot snapshot = new Snapshot(this, this.dimension, storage, positions, stagingDir);
+            this.snapshots.add(snapshot);
+            return snapshot;
         } finally {
             lock.unlock();
         }
     }
 
+    protected void removeSnapshot(@NonNull Snapshot snapshot) {
+        this.snapshots.remove(snapshot);
+    }
+
+    /**
+     * Makes sure that the change log entries of every chunk written so far are on disk.
+     */
+    public void syncChangeLog() throws IOException {
+        this.changeLog.flush();
+    }
+
+    /**
+     * Drops old change log entries once there are too many of them.
+     * <p>
+     * Entries which the renderer or the tile entity index haven't processed yet are never dropped. Other consumers (such as followers) which fall
+     * too far behind can tell by comparing their cursor with {@link #firstChange()}.
+     */
+    protected void trimChangeLog() {
+        try {
+            long maxEntries = this.config.changeLog().maxEntries();
+            long size = this.changeLog.size();
+            if (size - this.changeLog.first() <= maxEntries) {
+                return;
+            }
+
+            long before = size - (maxEntries >> 1L);
+            if (this.renderer != null) {
+                before = Math.min(before, this.renderer.cursor());
+            }
+            if (this.tileEntities != null) {
+                before = Math.min(before, this.tileEntities.cursor());
+            }
+            long dropped = this.changeLog.trim(before);
+            if (dropped > 0L) {
+                logger.info("Dropped %d old change log entries in dimension %d", dropped, this.dimension);
+            }
+        } catch (Exception e) {
+            logger.error("Unable to trim change log for dimension %d:", e, this.dimension);
+        }
+    }
+
+    /**
+     * @return a {@link JsonObject} containing statistics about this world
+     */
+    public JsonObject stats() {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("chunks", this.index.size());
+        obj.addProperty("changes", this.changeLog.size());
+        obj.addProperty("firstChange", this.changeLog.first());
+
+        JsonObject storage = new JsonObject();
+        storage.addProperty("type", this.config.storage().name());
+        this.storage.stats(storage);
+        obj.add("storage", storage);
+
+        if (this.compactor != null) {
+            JsonObject compaction = new JsonObject();
+            compaction.addProperty("compactedRegions", this.compactor.compactedRegions());
+            compaction.addProperty("reclaimedBytes", this.compactor.reclaimedBytes());
+            compaction.addProperty("fragmentation", this.compactor.lastFragmentation());
+            obj.add("compaction", compaction);
+        }
+
+        if (this.writeCache != null) {
+            JsonObject writeCache = new JsonObject();
+            writeCache.addProperty("chunks", this.writeCache.size());
+            writeCache.addProperty("bytes", this.writeCache.bytes());
+            writeCache.addProperty("coalesced", this.writeCache.coalesced());
+            writeCache.addProperty("flushed", this.writeCache.flushed());
+            obj.add("writeCache", writeCache);
+        }
+
+        if (this.readCache != null) {
+            JsonObject readCache = new JsonObject();
+            readCache.addProperty("chunks", this.readCache.size());
+            readCache.addProperty("bytes", this.readCache.bytes());
+            readCache.addProperty("hits", this.readCache.hits());
+            readCache.addProperty("misses", this.readCache.misses());
+            readCache.addProperty("hitRate", this.readCache.hitRate());
+            readCache.addProperty("evictions", this.readCache.evictions());
+            obj.add("readCache", readCache);
+        }
+
+        if (this.history != null) {
+            JsonObject history = new JsonObject();
+            this.history.stats(history);
+            obj.add("history", history);
+        }
+
+        if (this.renderer != null) {
+            JsonObject render = new JsonObject();
+            render.addProperty("cursor", this.renderer.cursor());
+            render.addProperty("lag", this.renderer.lag());
+            render.addProperty("renderedChunks", this.renderer.renderedChunks());
+            render.addProperty("renderedTiles", this.renderer.renderedTiles());
+            render.addProperty("composedTiles", this.renderer.composedTiles());
+            render.addProperty("failedChunks", this.renderer.failedChunks());
+            obj.add("render", render);
+        }
+
+        if (this.tileEntities != null) {
+            JsonObject tileEntities = new JsonObject();
+            tileEntities.addProperty("total", this.tileEntities.size());
+            tileEntities.addProperty("lag", this.tileEntities.lag());
+            JsonObject types = new JsonObject();
+            this.tileEntities.counts().forEach(types::addProperty);
+            tileEntities.add("types", types);
+            obj.add("tileEntities", tileEntities);
+        }
+
+        if (!this.snapshots.isEmpty()) {
+            JsonObject snapshots = new JsonObject();
+            snapshots.addProperty("active", this.snapshots.size());
+            snapshots.addProperty("preservedRegions", this.snapshots.stream().mapToInt(Snapshot::preservedCount).sum());
+            obj.add("snapshots", snapshots);
+        }
+        return obj;
+    }
+
+    protected void rebuildIndex() throws IOException {
+        logger.info("Rebuilding chunk index for dimension %d...", this.dimension);
+        long startTime = System.nanoTime();
+
+        List<long[]> chunks = new ArrayList<>();
+        this.storage.forEach((x, z, time) -> {
+            synchronized (chunks) {
+                chunks.add(new long[]{ x, z, time });
+            }
+        });
+
+        //every chunk has to be read in order to compute its hash, so do it in parallel
+        chunks.parallelStream().forEach((IOConsumer<long[]>) chunk -> {
+            int x = (int) chunk[0];
+            int z = (int) chunk[1];
+            ByteBuf buf = this.storage.read(x, z);
+            if (buf != null) {
+                try {
+                    this.index.update(x, z, chunk[2], buf.readableBytes(), ChunkIndex.hash(buf));
+                } finally {
+                    buf.release();
+                }
+            }
+        });
+
+        logger.success("Indexed %d chunks in dimension %d in %.1fs", chunks.size(), this.dimension, (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1L));
+    }
+
+    /**
+     * Gets the root directory of the given dimension.
+     *
+     * @param baseDir   the directory containing the {@code world/} folder
+     * @param dimension the dimension ID
+     * @return the dimension's root directory
+     */
+    public static File dimensionDir(@NonNull File baseDir, int dimension) {
+        return new File(baseDir, dimension == 0 ? "world/" : String.format("world/DIM%d/", dimension));
+    }
+
+    /**
+     * Receives a version of a chunk along with the time at which it was saved.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    public interface VersionConsumer {
+        /**
+         * @param time the time at which the chunk was saved
+         * @param data a {@link ByteBuf} containing the chunk data. It will be released by the caller
+         */
+        void accept(long time, @NonNull ByteBuf data);
+    }
+
     protected void assertOpen() {
         if (this.closed) {
             throw new AlreadyReleasedException();
         }
     }
+
+    //releases the given buffer before throwing, for methods which are responsible for releasing their argument
+    protected void assertOpen(@NonNull ByteBuf buf) {
+        if (this.closed) {
+            buf.release();
+            throw new AlreadyReleasedException();
+        }
+    }
 }
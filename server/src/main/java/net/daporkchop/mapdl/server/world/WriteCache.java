@@ -0,0 +1,302 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import net.daporkchop.lib.unsafe.util.exception.AlreadyReleasedException;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * Buffers chunk writes for a {@link World} in off-heap memory for a short while before writing them to disk.
+ * <p>
+ * Chunks around spawn and along the highways are sent by lots of people within seconds of each other. By keeping only the newest version of each
+ * chunk for a few seconds, only one of those versions actually has to be written to the region file. Flushes are done in region order, so that
+ * all the chunks belonging to a single region are written together.
+ * <p>
+ * A chunk stays in the cache until it has been written, so that reads never see an older version in between.
+ *
+ * @author DaPorkchop_
+ */
+@Accessors(fluent = true)
+final class WriteCache {
+    protected static final Comparator<Entry> REGION_ORDER = Comparator
+            .comparingInt((Entry entry) -> entry.x >> 5)
+            .thenComparingInt(entry -> entry.z >> 5)
+            .thenComparingInt(entry -> RegionHeader.index(entry.x, entry.z));
+
+    protected final World                   world;
+    protected final ServerConfig.WriteCache config;
+
+    protected final Map<Long, Entry> entries = new HashMap<>();
+    protected long bytes;
+
+    protected final AtomicBoolean flushing = new AtomicBoolean();
+
+    protected final LongAdder coalesced = new LongAdder();
+    protected final LongAdder flushed   = new LongAdder();
+
+    public WriteCache(@NonNull World world, @NonNull ServerConfig.WriteCache config) {
+        this.world = world;
+        this.config = config;
+    }
+
+    /**
+     * Adds a chunk to the cache, replacing any older version of it.
+     * <p>
+     * The given {@link ByteBuf} will be released.
+     *
+     * @param x    the X coordinate of the chunk
+     * @param z    the Z coordinate of the chunk
+     * @param buf  a {@link ByteBuf} containing the chunk data
+     * @param time the time at which the chunk was saved
+     * @return whether or not the chunk was newer than the cached version (if any)
+     */
+    public boolean put(int x, int z, @NonNull ByteBuf buf, long time) throws IOException {
+        ByteBuf copy;
+        try {
+            //copy the data, so that the cache doesn't keep an entire request body alive
+            copy = PooledByteBufAllocator.DEFAULT.directBuffer(buf.readableBytes(), buf.readableBytes()).writeBytes(buf, buf.readerIndex(), buf.readableBytes());
+        } finally {
+            buf.release();
+        }
+
+        Entry old;
+        boolean full;
+        synchronized (this) {
+            long key = ChunkIndex.key(x, z);
+            old = this.entries.get(key);
+            if (old != null && old.time >= time) {
+                copy.release();
+                return false;
+            }
+
+            //keep the time at which the position was first cached, otherwise a constantly updated chunk would never be flushed
+            this.entries.put(key, new Entry(x, z, time, old == null ? System.currentTimeMillis() : old.cachedAt, copy));
+            this.bytes += copy.readableBytes() - (old == null ? 0 : old.data.readableBytes());
+            full = this.bytes > this.config.maxBytes();
+        }
+
+        if (old != null) {
+            old.data.release();
+            this.coalesced.increment();
+        }
+        if (full) {
+            //over budget, write everything out now rather than letting memory usage grow without bound
+            this.flush(Long.MAX_VALUE);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the cached version of a chunk.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return a {@link ByteBuf} containing the chunk data, or {@code null} if the chunk isn't cached
+     */
+    public synchronized ByteBuf get(int x, int z) {
+        Entry entry = this.entries.get(ChunkIndex.key(x, z));
+        return entry == null ? null : entry.data.retainedDuplicate();
+    }
+
+    /**
+     * Passes the cached version of a chunk and its timestamp to the given consumer.
+     *
+     * @param x        the X coordinate of the chunk
+     * @param z        the Z coordinate of the chunk
+     * @param consumer the consumer to pass the cached version to
+     * @return whether or not the chunk is cached
+     */
+    public synchronized boolean get(int x, int z, @NonNull World.VersionConsumer consumer) {
+        Entry entry = this.entries.get(ChunkIndex.key(x, z));
+        if (entry == null) {
+            return false;
+        }
+        ByteBuf data = entry.data.retainedDuplicate();
+        try {
+            consumer.accept(entry.time, data);
+        } finally {
+            data.release();
+        }
+        return true;
+    }
+
+    /**
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return whether or not a version of the chunk is cached
+     */
+    public synchronized boolean contains(int x, int z) {
+        return this.entries.containsKey(ChunkIndex.key(x, z));
+    }
+
+    /**
+     * Writes all chunks which have been cached for longer than the configured window.
+     */
+    public void flushExpired() {
+        try {
+            this.flush(System.currentTimeMillis() - this.config.window());
+        } catch (IOException e) {
+            logger.error("Unable to flush write cache for dimension %d:", e, this.world.dimension);
+        }
+    }
+
+    /**
+     * Writes all chunks which were cached at or before the given time.
+     *
+     * @param cachedBefore the time before which chunks must have been cached in order to be written. Use {@link Long#MAX_VALUE} to write everything
+     */
+    public void flush(long cachedBefore) throws IOException {
+        if (!this.flushing.compareAndSet(false, true)) {
+            //someone else is already flushing
+            return;
+        }
+        try {
+            this.doFlush(cachedBefore);
+        } finally {
+            this.flushing.set(false);
+        }
+    }
+
+    /**
+     * Writes every chunk in the cache, regardless of whether or not another flush is in progress.
+     * <p>
+     * Only for use by {@link World} while holding the world's write lock: any other flush is blocked waiting for the lock, so it can't be in the
+     * middle of writing anything, and will give up as soon as it notices that the world has been closed.
+     */
+    public void flushAll() throws IOException {
+        this.doFlush(Long.MAX_VALUE);
+    }
+
+    protected void doFlush(long cachedBefore) throws IOException {
+        List<Entry> toFlush = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : this.entries.values()) {
+                if (entry.cachedAt <= cachedBefore) {
+                    entry.data.retain();
+                    toFlush.add(entry);
+                }
+            }
+        }
+        toFlush.sort(REGION_ORDER);
+
+        //the entries stay in the map until their change log entries are on disk, which keeps their data alive
+        List<Entry> written = new ArrayList<>();
+        IOException ex = null;
+        boolean closed = false;
+        for (Entry entry : toFlush) {
+            if (ex != null || closed) {
+                entry.data.release();
+                continue;
+            }
+            try {
+                this.world.writeStored(entry.x, entry.z, entry.data.retainedDuplicate(), entry.time, false);
+                this.flushed.increment();
+            } catch (IOException e) {
+                //leave the chunk in the cache, it'll be tried again next time
+                ex = e;
+                continue;
+            } catch (AlreadyReleasedException e) {
+                //the world was closed (and the cache flushed) while we were waiting for the lock
+                closed = true;
+                continue;
+            } finally {
+                entry.data.release();
+            }
+
+            written.add(entry);
+        }
+
+        if (written.isEmpty()) {
+            if (ex != null) {
+                throw ex;
+            }
+            return;
+        }
+
+        //the change log entries are synced once for the whole batch rather than once per chunk. if this fails, everything stays cached
+        this.world.syncChangeLog();
+        synchronized (this) {
+            for (Entry entry : written) {
+                //the chunk may have been replaced while it was being written, in which case the new version stays cached
+                if (this.entries.remove(ChunkIndex.key(entry.x, entry.z), entry)) {
+                    this.bytes -= entry.data.readableBytes();
+                    entry.data.release();
+                }
+            }
+        }
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the number of chunks currently in the cache
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the number of bytes of chunk data currently in the cache
+     */
+    public synchronized long bytes() {
+        return this.bytes;
+    }
+
+    /**
+     * @return the total number of cached chunks which were replaced by a newer version before being written
+     */
+    public long coalesced() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * @return the total number of chunks which were written to disk
+     */
+    public long flushed() {
+        return this.flushed.sum();
+    }
+
+    @RequiredArgsConstructor
+    protected static final class Entry {
+        protected final int     x;
+        protected final int     z;
+        protected final long    time;
+        protected final long    cachedAt;
+        @NonNull
+        protected final ByteBuf data;
+    }
+}
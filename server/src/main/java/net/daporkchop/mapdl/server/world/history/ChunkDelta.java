@@ -0,0 +1,283 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world.history;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.lib.minecraft.world.format.anvil.region.RegionConstants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Computes and applies binary deltas between two versions of a chunk's uncompressed NBT.
+ * <p>
+ * A delta is a sequence of "copy this range from the base" and "insert these bytes" instructions, found by hashing the base in fixed-size blocks
+ * and looking up every position of the target in that table. Chunk NBT is laid out the same way every time it's encoded, so a chunk where only a
+ * few blocks changed turns into a handful of copies. The instructions are then deflated, which takes care of whatever literal data remains.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class ChunkDelta {
+    private final int BLOCK = 16;
+
+    private final int OP_INSERT = 0;
+    private final int OP_COPY   = 1;
+
+    /**
+     * Computes a delta which turns {@code base} into {@code target}.
+     *
+     * @param base   the version that the delta will be applied to
+     * @param target the version that applying the delta should produce
+     * @return the deflated delta
+     */
+    public byte[] diff(@NonNull byte[] base, @NonNull byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length >> 4);
+        writeVarInt(out, target.length);
+
+        int blocks = base.length / BLOCK;
+        int[] table = new int[Math.max(Integer.highestOneBit(Math.max(blocks, 1)) << 2, 16)];
+        int mask = table.length - 1;
+        Arrays.fill(table, -1);
+        for (int i = (blocks - 1) * BLOCK; i >= 0; i -= BLOCK) {
+            //iterating backwards means the earliest occurrence of a block wins
+            table[hash(base, i) & mask] = i;
+        }
+
+        int literalStart = 0;
+        int i = 0;
+        while (blocks > 0 && i + BLOCK <= target.length) {
+            int candidate = table[hash(target, i) & mask];
+            if (candidate < 0 || !equal(base, candidate, target, i)) {
+                i++;
+                continue;
+            }
+
+            //extend the match in both directions as far as possible
+            int start = i;
+            int baseStart = candidate;
+            while (start > literalStart && baseStart > 0 && base[baseStart - 1] == target[start - 1]) {
+                start--;
+                baseStart--;
+            }
+            int end = i + BLOCK;
+            int baseEnd = candidate + BLOCK;
+            while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                end++;
+                baseEnd++;
+            }
+
+            writeInsert(out, target, literalStart, start - literalStart);
+            writeVarInt(out, ((end - start) << 1) | OP_COPY);
+            writeVarInt(out, baseStart);
+            i = literalStart = end;
+        }
+        writeInsert(out, target, literalStart, target.length - literalStart);
+
+        return deflate(out.toByteArray());
+    }
+
+    /**
+     * Applies a delta.
+     *
+     * @param base  the version to apply the delta to
+     * @param delta the deflated delta, as returned by {@link #diff(byte[], byte[])}
+     * @return the resulting version
+     * @throws IOException if the delta is corrupt or doesn't belong to the given base
+     */
+    public byte[] patch(@NonNull byte[] base, @NonNull byte[] delta) throws IOException {
+        byte[] ops = inflate(delta);
+        int[] pos = new int[1];
+
+        byte[] target = new byte[readVarInt(ops, pos)];
+        int written = 0;
+        while (pos[0] < ops.length) {
+            int op = readVarInt(ops, pos);
+            int length = op >>> 1;
+            if (length > target.length - written) {
+                throw new IOException("Delta overflows target");
+            }
+            if ((op & 1) == OP_COPY) {
+                int offset = readVarInt(ops, pos);
+                if (offset < 0 || offset > base.length - length) {
+                    throw new IOException("Delta copies outside of base");
+                }
+                System.arraycopy(base, offset, target, written, length);
+            } else {
+                if (length > ops.length - pos[0]) {
+                    throw new IOException("Delta is truncated");
+                }
+                System.arraycopy(ops, pos[0], target, written, length);
+                pos[0] += length;
+            }
+            written += length;
+        }
+        if (written != target.length) {
+            throw new IOException("Delta is truncated");
+        }
+        return target;
+    }
+
+    /**
+     * Decompresses a chunk.
+     *
+     * @param chunk the chunk data, in region format (length prefix, compression version, compressed NBT). Will not be released
+     * @return the uncompressed NBT
+     */
+    public byte[] decompress(@NonNull ByteBuf chunk) throws IOException {
+        int version = chunk.getByte(chunk.readerIndex() + 4) & 0xFF;
+        InputStream in = new ByteBufInputStream(chunk.slice(chunk.readerIndex() + 5, chunk.readableBytes() - 5));
+        if (version == RegionConstants.ID_ZLIB) {
+            in = new InflaterInputStream(in);
+        } else if (version == RegionConstants.ID_GZIP) {
+            in = new GZIPInputStream(in);
+        } else {
+            throw new IOException("Unknown compression version: " + version);
+        }
+
+        try (InputStream src = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.readableBytes() << 2);
+            byte[] buf = new byte[8192];
+            for (int i; (i = src.read(buf)) > 0; ) {
+                out.write(buf, 0, i);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Compresses a chunk.
+     *
+     * @param nbt the uncompressed NBT
+     * @return the chunk data, in region format (length prefix, compression version, compressed NBT)
+     */
+    public ByteBuf compress(@NonNull byte[] nbt) throws IOException {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.ioBuffer(nbt.length >> 2);
+        try {
+            buf.writeInt(-1).writeByte(RegionConstants.ID_ZLIB);
+            try (OutputStream out = new DeflaterOutputStream(new ByteBufOutputStream(buf))) {
+                out.write(nbt);
+            }
+            return buf.setInt(0, buf.readableBytes() - 4);
+        } catch (Throwable t) {
+            buf.release();
+            throw t;
+        }
+    }
+
+    private byte[] deflate(@NonNull byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(data.length >> 2, 64));
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(@NonNull byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length << 2);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int i = inflater.inflate(buf);
+                if (i == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Delta is truncated");
+                }
+                out.write(buf, 0, i);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private int hash(@NonNull byte[] arr, int off) {
+        long h = 0L;
+        for (int i = 0; i < BLOCK; i++) {
+            h = h * 0x100000001B3L ^ arr[off + i];
+        }
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32L));
+    }
+
+    private boolean equal(@NonNull byte[] a, int aOff, @NonNull byte[] b, int bOff) {
+        for (int i = 0; i < BLOCK; i++) {
+            if (a[aOff + i] != b[bOff + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeInsert(@NonNull ByteArrayOutputStream out, @NonNull byte[] src, int off, int length) {
+        if (length > 0) {
+            writeVarInt(out, (length << 1) | OP_INSERT);
+            out.write(src, off, length);
+        }
+    }
+
+    private void writeVarInt(@NonNull ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private int readVarInt(@NonNull byte[] arr, @NonNull int[] pos) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos[0] >= arr.length) {
+                throw new IOException("Delta is truncated");
+            }
+            int b = arr[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt is too long");
+    }
+}
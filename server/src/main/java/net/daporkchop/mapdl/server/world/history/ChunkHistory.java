@@ -0,0 +1,323 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world.history;
+
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.ChunkIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * Keeps the old versions of every chunk in a world, so that it can be viewed as it was at any point in time.
+ * <p>
+ * Every time a chunk is overwritten, the old version is stored as a delta against the new one (see {@link ChunkDelta}). Reading an old version
+ * therefore starts at the currently stored version and applies deltas backwards in time until it reaches the requested one, which keeps the most
+ * recent versions the cheapest to read. Every record also stores the hashes of both versions, so a broken chain (e.g. because history was
+ * disabled for a while) is detected rather than producing garbage.
+ * <p>
+ * Old records are dropped periodically according to the retention policy in {@link ServerConfig.History}: a maximum number of versions per chunk, a
+ * maximum age, and a maximum amount of history per chunk relative to the size of the chunk itself, which bounds the storage amplification.
+ * <p>
+ * Only versions which actually reach the {@link net.daporkchop.mapdl.server.world.storage.ChunkStorage} are recorded, so if the write cache is
+ * enabled, versions which are replaced while still in the cache are never seen.
+ *
+ * @author DaPorkchop_
+ */
+public final class ChunkHistory implements AutoCloseable {
+    protected static final Pattern FILE_PATTERN = Pattern.compile("^r\\.(-?[0-9]+)\\.(-?[0-9]+)\\.hist$");
+
+    protected static final int LOCK_COUNT = 64;
+
+    protected final File                 root;
+    protected final ServerConfig.History config;
+    protected final ChunkIndex           index;
+
+    protected final Map<Long, RegionHistory> regions = new ConcurrentHashMap<>();
+    protected final Lock[]                   locks   = new Lock[LOCK_COUNT];
+
+    protected volatile long   droppedVersions;
+    protected volatile double amplification;
+
+    public ChunkHistory(@NonNull File root, @NonNull ServerConfig.History config, @NonNull ChunkIndex index) throws IOException {
+        this.root = PFiles.ensureDirectoryExists(root);
+        this.config = config;
+        this.index = index;
+
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+
+        File[] files = root.listFiles();
+        if (files != null) {
+            try {
+                for (File file : files) {
+                    Matcher matcher = FILE_PATTERN.matcher(file.getName());
+                    if (matcher.find()) {
+                        int x = Integer.parseInt(matcher.group(1));
+                        int z = Integer.parseInt(matcher.group(2));
+                        this.regions.put(ChunkIndex.key(x, z), new RegionHistory(file));
+                    }
+                }
+            } catch (IOException e) {
+                this.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gets the lock for the given chunk.
+     * <p>
+     * This must be held while writing the chunk to the storage and recording it, and while reading old versions of it, so that the stored version
+     * always matches the newest record.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return the chunk's lock
+     */
+    public Lock lock(int x, int z) {
+        return this.locks[(int) (ChunkIndex.key(x, z) * 0x9E3779B97F4A7C15L >>> 58L)];
+    }
+
+    protected RegionHistory region(int x, int z, boolean create) throws IOException {
+        long key = ChunkIndex.key(x >> 5, z >> 5);
+        RegionHistory region = this.regions.get(key);
+        if (region == null && create) {
+            synchronized (this.regions) {
+                if ((region = this.regions.get(key)) == null) {
+                    this.regions.put(key, region = new RegionHistory(new File(this.root, String.format("r.%d.%d.hist", x >> 5, z >> 5))));
+                }
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Records that a chunk was overwritten.
+     * <p>
+     * The caller must be holding the chunk's {@link #lock(int, int)}. Neither buffer will be released.
+     *
+     * @param x       the X coordinate of the chunk
+     * @param z       the Z coordinate of the chunk
+     * @param oldData the version which was replaced, or {@code null} if the chunk didn't exist
+     * @param newData the version which was written
+     * @param time    the timestamp of the version which was written
+     */
+    public void record(int x, int z, ByteBuf oldData, @NonNull ByteBuf newData, long time) throws IOException {
+        RegionHistory region = this.region(x, z, true);
+
+        //the old version's timestamp is only known if it was written while history was enabled
+        RegionHistory.Entry last = region.last(x, z);
+        long newHash = ChunkIndex.hash(newData);
+        if (oldData == null) {
+            region.append(x, z, -1L, 0L, time, newHash, 0, null);
+        } else {
+            long oldHash = ChunkIndex.hash(oldData);
+            long oldTime = last != null && last.baseHash == oldHash ? last.baseTime : -1L;
+            byte[] delta = ChunkDelta.diff(ChunkDelta.decompress(newData), ChunkDelta.decompress(oldData));
+            region.append(x, z, oldTime, oldHash, time, newHash, oldData.readableBytes(), delta);
+        }
+    }
+
+    /**
+     * Reconstructs the version of a chunk which was stored at the given time.
+     * <p>
+     * The caller must be holding the chunk's {@link #lock(int, int)}.
+     *
+     * @param x       the X coordinate of the chunk
+     * @param z       the Z coordinate of the chunk
+     * @param time    the point in time to get the chunk at
+     * @param current     the currently stored version of the chunk, or {@code null} if there is none. Will not be released
+     * @param currentTime the timestamp of the currently stored version, or {@code -1} if it isn't known
+     * @return the chunk data, or {@code null} if the chunk didn't exist at the given time or that version is no longer retained
+     */
+    public ByteBuf read(int x, int z, long time, ByteBuf current, long currentTime) throws IOException {
+        if (current == null) {
+            return null;
+        }
+        RegionHistory region = this.region(x, z, false);
+        if (region == null) {
+            return this.readEarliest(time, current, currentTime);
+        }
+
+        //compaction moves records around, so it has to be prevented while reading them
+        synchronized (region) {
+            List<RegionHistory.Entry> entries = region.entries(x, z);
+            if (entries.isEmpty()) {
+                return this.readEarliest(time, current, currentTime);
+            } else if (entries.get(entries.size() - 1).baseTime <= time) {
+                //the current version was already there at the given time
+                return current.retain();
+            }
+
+            byte[] nbt = null;
+            long expectedHash = ChunkIndex.hash(current);
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                RegionHistory.Entry entry = entries.get(i);
+                if (entry.baseHash != expectedHash) {
+                    logger.debug("History chain for chunk (%d,%d) in %s is broken", x, z, this.root);
+                    return null;
+                } else if (entry.length < 0) {
+                    return null; //the chunk didn't exist before this
+                }
+
+                nbt = ChunkDelta.patch(nbt == null ? ChunkDelta.decompress(current) : nbt, region.read(entry));
+                expectedHash = entry.hash;
+                if (entry.time < 0L || entry.time <= time) {
+                    return ChunkDelta.compress(nbt);
+                }
+            }
+            return null; //older than anything that's retained
+        }
+    }
+
+    //nothing is known about older versions, so the current version is the earliest one there is
+    protected ByteBuf readEarliest(long time, @NonNull ByteBuf current, long currentTime) {
+        return currentTime >= 0L && currentTime <= time ? current.retain() : null;
+    }
+
+    /**
+     * Gets the timestamps of all known versions of a chunk.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return the timestamps, newest first. The first element is the timestamp of the current version. {@code -1} means that the version is
+     * known to exist but its timestamp isn't
+     */
+    public long[] versions(int x, int z) throws IOException {
+        RegionHistory region = this.region(x, z, false);
+        List<RegionHistory.Entry> entries = region == null ? null : region.entries(x, z);
+        if (entries == null || entries.isEmpty()) {
+            return new long[0];
+        }
+
+        long[] versions = new long[entries.size() + 1];
+        int i = 0;
+        versions[i++] = entries.get(entries.size() - 1).baseTime;
+        for (int j = entries.size() - 1; j >= 0 && entries.get(j).length >= 0; j--) {
+            versions[i++] = entries.get(j).time;
+        }
+        return i == versions.length ? versions : Arrays.copyOf(versions, i);
+    }
+
+    /**
+     * Drops all records which are no longer retained according to the retention policy.
+     */
+    public void compact() {
+        long minBaseTime = this.config.maxAge() > 0L ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(this.config.maxAge()) : Long.MIN_VALUE;
+        long[] historyBytes = new long[1];
+        long[] liveBytes = new long[1];
+
+        long dropped = 0L;
+        for (Map.Entry<Long, RegionHistory> mapEntry : this.regions.entrySet()) {
+            try {
+                dropped += mapEntry.getValue().compact((key, entries) -> {
+                    int x = (int) (key >> 32L);
+                    int z = (int) (long) key;
+                    int liveSize = Math.max(this.index.size(x, z), 0);
+
+                    int drop = Math.max(entries.size() - this.config.maxVersions(), 0);
+                    while (drop < entries.size() && entries.get(drop).baseTime < minBaseTime) {
+                        drop++;
+                    }
+
+                    long bytes = 0L;
+                    for (int i = drop; i < entries.size(); i++) {
+                        bytes += RegionHistory.HEADER_SIZE + Math.max(entries.get(i).length, 0);
+                    }
+                    if (this.config.maxAmplification() > 0.0d) {
+                        long maxBytes = (long) (liveSize * this.config.maxAmplification());
+                        for (; drop < entries.size() && bytes > maxBytes; drop++) {
+                            bytes -= RegionHistory.HEADER_SIZE + Math.max(entries.get(drop).length, 0);
+                        }
+                    }
+
+                    historyBytes[0] += bytes;
+                    liveBytes[0] += liveSize;
+                    return drop;
+                });
+            } catch (IOException e) {
+                logger.error("Unable to compact history region %s:", e, mapEntry.getValue().file);
+            }
+        }
+
+        this.droppedVersions += dropped;
+        this.amplification = liveBytes[0] == 0L ? 0.0d : historyBytes[0] / (double) liveBytes[0];
+        if (dropped > 0L) {
+            logger.info("Dropped %d old chunk versions from %s", dropped, this.root);
+        }
+    }
+
+    /**
+     * Adds statistics about this history to the given {@link JsonObject}.
+     */
+    public void stats(@NonNull JsonObject obj) {
+        long versions = 0L;
+        long bytes = 0L;
+        long fullBytes = 0L;
+        for (RegionHistory region : this.regions.values()) {
+            versions += region.count();
+            bytes += region.size();
+            fullBytes += region.fullBytes();
+        }
+        obj.addProperty("versions", versions);
+        obj.addProperty("bytes", bytes);
+        //how much space the same versions would take if they were stored in full
+        obj.addProperty("fullBytes", fullBytes);
+        obj.addProperty("deltaRatio", fullBytes == 0L ? 0.0d : bytes / (double) fullBytes);
+        //history size relative to the size of the chunks it belongs to, as of the last compaction
+        obj.addProperty("amplification", this.amplification);
+        obj.addProperty("droppedVersions", this.droppedVersions);
+    }
+
+    @Override
+    public void close() throws IOException {
+        AtomicReference<IOException> ref = new AtomicReference<>();
+        this.regions.forEach((key, region) -> {
+            try {
+                region.close();
+            } catch (IOException e) {
+                ref.compareAndSet(null, e);
+            }
+        });
+        this.regions.clear();
+
+        if (ref.get() != null) {
+            throw ref.get();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world.history;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * The old versions of every chunk in a single region, stored in an append-only file.
+ * <p>
+ * Each record consists of a fixed-size header followed by the delta. Record headers are read into memory when the file is opened, the deltas
+ * themselves are only read when needed.
+ *
+ * @author DaPorkchop_
+ */
+final class RegionHistory implements AutoCloseable {
+    //x, z, time, hash, baseTime, baseHash, fullSize, length
+    protected static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8 + 4 + 4;
+
+    protected final File file;
+    protected final File tempFile;
+
+    protected FileChannel channel;
+    protected long        size;
+
+    //chunk key -> records, oldest first
+    protected final Map<Long, List<Entry>> entries = new HashMap<>();
+
+    protected long count;
+    protected long fullBytes;
+
+    public RegionHistory(@NonNull File file) throws IOException {
+        this.file = file;
+        this.tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        this.open();
+    }
+
+    protected void open() throws IOException {
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        this.entries.clear();
+        this.count = 0L;
+        this.fullBytes = 0L;
+
+        long fileSize = this.channel.size();
+        long position = 0L;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= fileSize) {
+            header.clear();
+            while (header.hasRemaining() && this.channel.read(header, position + header.position()) >= 0) ;
+            header.flip();
+
+            int x = header.getInt();
+            int z = header.getInt();
+            Entry entry = new Entry(header.getLong(), header.getLong(), header.getLong(), header.getLong(), header.getInt(), position + HEADER_SIZE, header.getInt());
+            if (entry.offset + Math.max(entry.length, 0) > fileSize) {
+                break;
+            }
+            this.add(x, z, entry);
+            position = entry.offset + Math.max(entry.length, 0);
+        }
+        if (position != fileSize) {
+            //the server crashed while writing the last record
+            logger.warn("Discarding %d bytes of incomplete history record in %s", fileSize - position, this.file);
+            this.channel.truncate(position);
+        }
+        this.size = position;
+    }
+
+    protected void add(int x, int z, @NonNull Entry entry) {
+        this.entries.computeIfAbsent(key(x, z), k -> new ArrayList<>()).add(entry);
+        this.count++;
+        this.fullBytes += Math.max(entry.fullSize, 0);
+    }
+
+    protected static long key(int x, int z) {
+        return ((long) x << 32L) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the records for the given chunk, oldest first
+     */
+    public synchronized List<Entry> entries(int x, int z) {
+        List<Entry> list = this.entries.get(key(x, z));
+        return list == null ? Collections.emptyList() : new ArrayList<>(list);
+    }
+
+    /**
+     * @return the newest record for the given chunk, or {@code null} if there is none
+     */
+    public synchronized Entry last(int x, int z) {
+        List<Entry> list = this.entries.get(key(x, z));
+        return list == null ? null : list.get(list.size() - 1);
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param delta the delta, or {@code null} if the chunk didn't exist before
+     */
+    public synchronized void append(int x, int z, long time, long hash, long baseTime, long baseHash, int fullSize, byte[] delta) throws IOException {
+        int length = delta == null ? -1 : delta.length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + Math.max(length, 0));
+        buffer.putInt(x).putInt(z).putLong(time).putLong(hash).putLong(baseTime).putLong(baseHash).putInt(fullSize).putInt(length);
+        if (delta != null) {
+            buffer.put(delta);
+        }
+        buffer.flip();
+
+        long position = this.size;
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, position + buffer.position());
+        }
+        this.size = position + buffer.limit();
+        this.add(x, z, new Entry(time, hash, baseTime, baseHash, fullSize, position + HEADER_SIZE, length));
+    }
+
+    /**
+     * Reads the delta of a record.
+     */
+    public synchronized byte[] read(@NonNull Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        while (buffer.hasRemaining() && this.channel.read(buffer, entry.offset + buffer.position()) >= 0) ;
+        if (buffer.hasRemaining()) {
+            throw new IOException("History record is truncated");
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Drops old records.
+     *
+     * @param retention a function which is given each chunk's key and records (oldest first), and returns the number of records to drop from the
+     *                  start of the list
+     * @return the number of records that were dropped
+     */
+    public synchronized long compact(@NonNull BiFunction<Long, List<Entry>, Integer> retention) throws IOException {
+        Map<Long, Integer> drop = new HashMap<>();
+        this.entries.forEach((key, list) -> {
+            int count = Math.min(retention.apply(key, Collections.unmodifiableList(list)), list.size());
+            if (count > 0) {
+                drop.put(key, count);
+            }
+        });
+        if (drop.isEmpty()) {
+            return 0L;
+        }
+
+        //copy everything that should be kept to a new file, in the same order as before
+        long dropped = 0L;
+        try (FileChannel dst = FileChannel.open(this.tempFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<long[]> kept = new ArrayList<>();
+            for (Map.Entry<Long, List<Entry>> mapEntry : this.entries.entrySet()) {
+                List<Entry> list = mapEntry.getValue();
+                int count = drop.getOrDefault(mapEntry.getKey(), 0);
+                dropped += count;
+                for (int i = count; i < list.size(); i++) {
+                    kept.add(new long[]{ list.get(i).offset - HEADER_SIZE, HEADER_SIZE + Math.max(list.get(i).length, 0) });
+                }
+            }
+            kept.sort((a, b) -> Long.compare(a[0], b[0]));
+
+            long position = 0L;
+            for (long[] record : kept) {
+                for (long transferred = 0L; transferred < record[1]; ) {
+                    transferred += this.channel.transferTo(record[0] + transferred, record[1] - transferred, dst.position(position + transferred));
+                }
+                position += record[1];
+            }
+            dst.force(true);
+        }
+
+        this.channel.close();
+        Files.move(this.tempFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.open();
+        return dropped;
+    }
+
+    public synchronized long size() {
+        return this.size;
+    }
+
+    public synchronized long count() {
+        return this.count;
+    }
+
+    public synchronized long fullBytes() {
+        return this.fullBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * The header of a single record, describing the version of a chunk which was replaced by a newer one.
+     *
+     * @author DaPorkchop_
+     */
+    @RequiredArgsConstructor
+    protected static final class Entry {
+        //the timestamp and hash of the old version. time is -1 if it isn't known
+        protected final long time;
+        protected final long hash;
+
+        //the timestamp and hash of the version which replaced it, which the delta is relative to
+        protected final long baseTime;
+        protected final long baseHash;
+
+        //the size of the old version when stored in full
+        protected final int fullSize;
+
+        //the position and length of the delta in the file. length is -1 if the chunk didn't exist before
+        protected final long offset;
+        protected final int  length;
+    }
+}
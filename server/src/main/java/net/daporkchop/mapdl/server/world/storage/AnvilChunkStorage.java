@@ -0,0 +1,173 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world.storage;
+
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import net.daporkchop.lib.common.cache.Cache;
+import net.daporkchop.lib.common.cache.ThreadCache;
+import net.daporkchop.lib.common.function.io.IOBiConsumer;
+import net.daporkchop.lib.common.function.io.IOConsumer;
+import net.daporkchop.lib.common.function.io.IOFunction;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.lib.math.vector.i.Vec2i;
+import net.daporkchop.lib.minecraft.world.format.anvil.region.RegionFile;
+import net.daporkchop.lib.minecraft.world.format.anvil.region.RegionOpenOptions;
+import net.daporkchop.lib.unsafe.PUnsafe;
+import net.daporkchop.mapdl.server.world.RegionHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static net.daporkchop.lib.logging.Logging.*;
+
+/**
+ * Stores chunks in vanilla Anvil region files.
+ *
+ * @author DaPorkchop_
+ */
+@Accessors(fluent = true)
+public final class AnvilChunkStorage implements ChunkStorage {
+    public static final Pattern REGION_PATTERN = Pattern.compile("^r\\.(-?[0-9]+)\\.(-?[0-9]+)\\.mca$");
+
+    protected static final Cache<Matcher> REGION_PATTERN_MATCHER_CACHE = ThreadCache.soft(() -> REGION_PATTERN.matcher(""));
+
+    public static final RegionOpenOptions OPEN_OPTIONS        = new RegionOpenOptions().access(RegionFile.Access.WRITE_REQUIRED);
+    public static final RegionOpenOptions CREATE_OPEN_OPTIONS = new RegionOpenOptions().access(RegionFile.Access.WRITE_REQUIRED).createNewFiles(true);
+
+    @Getter
+    protected final File root;
+
+    @Getter
+    protected final Map<Vec2i, RegionFile>        regions = Collections.synchronizedMap(new HashMap<>());
+    protected final IOFunction<Vec2i, RegionFile> regionCreator;
+
+    public AnvilChunkStorage(@NonNull File root) throws IOException {
+        this.root = PFiles.ensureDirectoryExists(root);
+
+        this.regionCreator = pos -> {
+            File file = this.regionFile(pos);
+            if (PFiles.checkFileExists(file)) {
+                throw new IllegalStateException("Region file already exists: " + file.getAbsolutePath());
+            }
+            return RegionFile.open(file, CREATE_OPEN_OPTIONS);
+        };
+
+        try {
+            Arrays.stream(this.root.listFiles())
+                    .parallel()
+                    .forEach((IOConsumer<File>) file -> {
+                        Matcher matcher = REGION_PATTERN_MATCHER_CACHE.get().reset(file.getName());
+                        if (matcher.find()) {
+                            Vec2i pos = new Vec2i(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+                            this.regions.put(pos, RegionFile.open(file, OPEN_OPTIONS));
+                        } else if (file.getName().endsWith(".mca.compact")) {
+                            //left over from a compaction that was interrupted before the new file could be swapped in
+                            Files.delete(file.toPath());
+                        }
+                    });
+        } catch (Exception e) {
+            try {
+                this.regions.forEach((IOBiConsumer<Vec2i, RegionFile>) (pos, region) -> region.close());
+            } catch (Exception e1) {
+                logger.alert("Exception while aborting region load:", e1);
+            } finally {
+                PUnsafe.throwException(e);
+            }
+            throw new RuntimeException(e); //unreachable
+        }
+    }
+
+    @Override
+    public ByteBuf read(int x, int z) throws IOException {
+        RegionFile region = this.regions.get(new Vec2i(x >> 5, z >> 5));
+        return region == null ? null : region.readDirect(x & 0x1F, z & 0x1F);
+    }
+
+    @Override
+    public boolean write(int x, int z, @NonNull ByteBuf buf, long time) throws IOException {
+        RegionFile region = this.regions.computeIfAbsent(new Vec2i(x >> 5, z >> 5), this.regionCreator);
+        return region.writeDirect(x & 0x1F, z & 0x1F, buf, time, false);
+    }
+
+    @Override
+    public void forEach(@NonNull TimestampConsumer consumer) throws IOException {
+        List<Vec2i> positions;
+        synchronized (this.regions) {
+            positions = new ArrayList<>(this.regions.keySet());
+        }
+
+        //only the headers are read, the chunks themselves are never touched
+        positions.parallelStream().forEach((IOConsumer<Vec2i>) pos -> {
+            RegionHeader header = RegionHeader.read(this.regionFile(pos));
+            for (int i = 0; i < 1024; i++) {
+                if (header.has(i)) {
+                    consumer.accept((pos.getX() << 5) | (i & 0x1F), (pos.getY() << 5) | (i >> 5), header.timestamp(i));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stats(@NonNull JsonObject obj) {
+        obj.addProperty("regions", this.regions.size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        //only handle first exception, but make an attempt to close every region
+        AtomicReference<IOException> ref = new AtomicReference<>();
+        this.regions.forEach((pos, region) -> {
+            try {
+                region.close();
+            } catch (IOException e) {
+                ref.compareAndSet(null, e);
+            }
+        });
+        this.regions.clear();
+
+        if (ref.get() != null) {
+            throw ref.get();
+        }
+    }
+
+    /**
+     * Gets the file that the region at the given position is stored in.
+     *
+     * @param pos the region's position
+     * @return the region's file
+     */
+    public File regionFile(@NonNull Vec2i pos) {
+        return new File(this.root, String.format("r.%d.%d.mca", pos.getX(), pos.getY()));
+    }
+}
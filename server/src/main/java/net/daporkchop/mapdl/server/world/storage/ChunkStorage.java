@@ -0,0 +1,90 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world.storage;
+
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Stores the compressed chunk data of a single dimension.
+ * <p>
+ * Chunk data is always in the same format as in an Anvil region file: a 4-byte length prefix, followed by a 1-byte compression version and the
+ * compressed NBT data. Each chunk is stored together with the time at which it was saved.
+ * <p>
+ * Implementations must be safe for concurrent reads and writes. All other synchronization (e.g. with closing) is handled by
+ * {@link net.daporkchop.mapdl.server.world.World}.
+ *
+ * @author DaPorkchop_
+ */
+public interface ChunkStorage extends AutoCloseable {
+    /**
+     * Reads a chunk.
+     *
+     * @param x the X coordinate of the chunk
+     * @param z the Z coordinate of the chunk
+     * @return a {@link ByteBuf} containing the chunk data, or {@code null} if the chunk doesn't exist
+     */
+    ByteBuf read(int x, int z) throws IOException;
+
+    /**
+     * Writes a chunk, unless a version with the same or a newer timestamp is already stored.
+     * <p>
+     * The given {@link ByteBuf} will be released.
+     *
+     * @param x    the X coordinate of the chunk
+     * @param z    the Z coordinate of the chunk
+     * @param buf  a {@link ByteBuf} containing the chunk data
+     * @param time the time at which the chunk was saved
+     * @return whether or not the chunk was actually written
+     */
+    boolean write(int x, int z, @NonNull ByteBuf buf, long time) throws IOException;
+
+    /**
+     * Passes the position and timestamp of every stored chunk to the given consumer, in no particular order.
+     * <p>
+     * The consumer may be called from multiple threads at once.
+     *
+     * @param consumer the consumer
+     */
+    void forEach(@NonNull TimestampConsumer consumer) throws IOException;
+
+    /**
+     * Adds implementation-specific statistics to the given {@link JsonObject}.
+     *
+     * @param obj the {@link JsonObject} to add statistics to
+     */
+    void stats(@NonNull JsonObject obj);
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Receives the position and timestamp of a chunk.
+     *
+     * @author DaPorkchop_
+     */
+    @FunctionalInterface
+    interface TimestampConsumer {
+        void accept(int x, int z, long time);
+    }
+}
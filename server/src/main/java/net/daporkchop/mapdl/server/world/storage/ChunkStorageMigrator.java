@@ -0,0 +1,124 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world.storage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import net.daporkchop.lib.binary.oio.reader.UTF8FileReader;
+import net.daporkchop.lib.common.function.io.IOConsumer;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import net.daporkchop.mapdl.server.world.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.daporkchop.lib.logging.Logging.*;
+import static net.daporkchop.mapdl.server.util.ServerConstants.*;
+
+/**
+ * Copies every chunk from one {@link ChunkStorage} type to another.
+ * <p>
+ * Usage: {@code ChunkStorageMigrator <server root> <from> <to>}, where {@code from} and {@code to} are names of {@link StorageType}s. The server
+ * must not be running at the same time. The source data is left untouched, so once the migration is done the {@code storage} option in
+ * {@code config.json} can be changed and the old files deleted by hand.
+ *
+ * @author DaPorkchop_
+ */
+@UtilityClass
+public class ChunkStorageMigrator {
+    public void main(String... args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: ChunkStorageMigrator <server root> <from> <to>");
+            System.exit(1);
+        }
+
+        File root = new File(args[0]);
+        StorageType from = StorageType.valueOf(args[1].toUpperCase());
+        StorageType to = StorageType.valueOf(args[2].toUpperCase());
+        if (from == to) {
+            System.err.println("Source and destination storage types are the same!");
+            System.exit(1);
+        }
+
+        ServerConfig config = new ServerConfig();
+        File configFile = new File(root, "config.json");
+        if (PFiles.checkFileExists(configFile)) {
+            try (Reader src = new UTF8FileReader(configFile)) {
+                config = GSON_ALL.fromJson(src, ServerConfig.class);
+            }
+        }
+
+        for (int dimension = -1; dimension <= 1; dimension++) {
+            File dimensionDir = World.dimensionDir(root, dimension);
+            if (dimensionDir.isDirectory()) {
+                migrate(dimension, dimensionDir, from, to, config);
+            }
+        }
+    }
+
+    /**
+     * Migrates a single dimension.
+     *
+     * @param dimension    the dimension ID
+     * @param dimensionDir the dimension's root directory
+     * @param from         the storage type to copy chunks from
+     * @param to           the storage type to copy chunks to
+     * @param config       the {@link ServerConfig} to use
+     */
+    public void migrate(int dimension, @NonNull File dimensionDir, @NonNull StorageType from, @NonNull StorageType to, @NonNull ServerConfig config) throws IOException {
+        try (ChunkStorage src = from.open(dimensionDir, config);
+             ChunkStorage dst = to.open(dimensionDir, config)) {
+            List<long[]> chunks = new ArrayList<>();
+            src.forEach((x, z, time) -> {
+                synchronized (chunks) {
+                    chunks.add(new long[]{ x, z, time });
+                }
+            });
+            logger.info("Migrating %d chunks in dimension %d from %s to %s...", chunks.size(), dimension, from, to);
+
+            long startTime = System.nanoTime();
+            AtomicLong done = new AtomicLong();
+            AtomicLong bytes = new AtomicLong();
+            chunks.parallelStream().forEach((IOConsumer<long[]>) chunk -> {
+                int x = (int) chunk[0];
+                int z = (int) chunk[1];
+                ByteBuf buf = src.read(x, z);
+                if (buf != null) {
+                    bytes.addAndGet(buf.readableBytes());
+                    dst.write(x, z, buf, chunk[2]);
+                }
+                long count = done.incrementAndGet();
+                if ((count & 0xFFFFL) == 0L) {
+                    logger.info("%d/%d chunks (%.1f%%)", count, chunks.size(), count * 100.0d / chunks.size());
+                }
+            });
+
+            double seconds = (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1L);
+            logger.success("Migrated %d chunks (%.2f MiB) in dimension %d in %.1fs", chunks.size(), bytes.get() / (1024.0d * 1024.0d), dimension, seconds);
+        }
+    }
+}
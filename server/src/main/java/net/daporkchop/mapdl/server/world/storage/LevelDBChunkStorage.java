@@ -0,0 +1,159 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world.storage;
+
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.NonNull;
+import net.daporkchop.lib.common.misc.file.PFiles;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.WriteBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.fusesource.leveldbjni.JniDBFactory.*;
+
+/**
+ * Stores chunks in a LevelDB database.
+ * <p>
+ * Every chunk is stored as two entries: one containing only the timestamp, and one containing the chunk data. This way the timestamps can be
+ * iterated over at startup without having to read every chunk. Keys are a one-byte prefix followed by the packed chunk coordinates.
+ * <p>
+ * Unlike region files, overwriting a chunk never leaves a hole behind: old versions are simply dropped the next time LevelDB compacts the table
+ * that they're in.
+ *
+ * @author DaPorkchop_
+ */
+public final class LevelDBChunkStorage implements ChunkStorage {
+    protected static final byte PREFIX_TIME = 't';
+    protected static final byte PREFIX_DATA = 'c';
+
+    //the number of locks used to make the timestamp check and the write atomic
+    protected static final int LOCK_STRIPES = 64;
+
+    protected static byte[] key(byte prefix, int x, int z) {
+        return new byte[]{
+                prefix,
+                (byte) (x >>> 24), (byte) (x >>> 16), (byte) (x >>> 8), (byte) x,
+                (byte) (z >>> 24), (byte) (z >>> 16), (byte) (z >>> 8), (byte) z
+        };
+    }
+
+    protected static long readLong(@NonNull byte[] arr) {
+        long l = 0L;
+        for (int i = 0; i < 8; i++) {
+            l = (l << 8L) | (arr[i] & 0xFFL);
+        }
+        return l;
+    }
+
+    protected static byte[] writeLong(long l) {
+        byte[] arr = new byte[8];
+        for (int i = 7; i >= 0; i--, l >>>= 8L) {
+            arr[i] = (byte) l;
+        }
+        return arr;
+    }
+
+    protected final File     root;
+    protected final DB       db;
+    protected final Object[] locks = new Object[LOCK_STRIPES];
+
+    public LevelDBChunkStorage(@NonNull File root, @NonNull ServerConfig.LevelDB config) throws IOException {
+        this.root = PFiles.ensureDirectoryExists(root);
+        this.db = factory.open(root, new Options()
+                .createIfMissing(true)
+                .compressionType(CompressionType.NONE) //chunks are already compressed
+                .cacheSize(config.cacheSize())
+                .writeBufferSize(config.writeBufferSize()));
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public ByteBuf read(int x, int z) throws IOException {
+        byte[] data = this.db.get(key(PREFIX_DATA, x, z));
+        return data == null ? null : Unpooled.wrappedBuffer(data);
+    }
+
+    @Override
+    public boolean write(int x, int z, @NonNull ByteBuf buf, long time) throws IOException {
+        byte[] data;
+        try {
+            data = new byte[buf.readableBytes()];
+            buf.getBytes(buf.readerIndex(), data);
+        } finally {
+            buf.release();
+        }
+
+        byte[] timeKey = key(PREFIX_TIME, x, z);
+        synchronized (this.locks[(x * 31 + z) & (LOCK_STRIPES - 1)]) {
+            byte[] oldTime = this.db.get(timeKey);
+            if (oldTime != null && readLong(oldTime) >= time) {
+                return false;
+            }
+
+            try (WriteBatch batch = this.db.createWriteBatch()) {
+                batch.put(timeKey, writeLong(time));
+                batch.put(key(PREFIX_DATA, x, z), data);
+                this.db.write(batch);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void forEach(@NonNull TimestampConsumer consumer) throws IOException {
+        try (DBIterator itr = this.db.iterator(new ReadOptions().fillCache(false))) {
+            for (itr.seek(new byte[]{ PREFIX_TIME }); itr.hasNext(); ) {
+                Map.Entry<byte[], byte[]> entry = itr.next();
+                byte[] key = entry.getKey();
+                if (key[0] != PREFIX_TIME) {
+                    break;
+                }
+                int x = ((key[1] & 0xFF) << 24) | ((key[2] & 0xFF) << 16) | ((key[3] & 0xFF) << 8) | (key[4] & 0xFF);
+                int z = ((key[5] & 0xFF) << 24) | ((key[6] & 0xFF) << 16) | ((key[7] & 0xFF) << 8) | (key[8] & 0xFF);
+                consumer.accept(x, z, readLong(entry.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public void stats(@NonNull JsonObject obj) {
+        File[] files = this.root.listFiles();
+        obj.addProperty("files", files == null ? 0 : files.length);
+        obj.addProperty("leveldb", this.db.getProperty("leveldb.stats"));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.db.close();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Adapted from The MIT License (MIT)
+ *
+ * Copyright (c) 2018-2020 DaPorkchop_
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * Any persons and/or organizations using this software must include the above copyright notice and this permission notice,
+ * provide sufficient credit to the original authors of the project (IE: DaPorkchop_), as well as provide a link to the original project.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.daporkchop.mapdl.server.world.storage;
+
+import lombok.NonNull;
+import net.daporkchop.mapdl.server.util.ServerConfig;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The available {@link ChunkStorage} implementations.
+ *
+ * @author DaPorkchop_
+ */
+public enum StorageType {
+    /**
+     * Vanilla Anvil region files, one per 32x32 chunk area. Can be opened directly by Minecraft and every other map tool.
+     */
+    ANVIL {
+        @Override
+        public ChunkStorage open(@NonNull File dimensionDir, @NonNull ServerConfig config) throws IOException {
+            return new AnvilChunkStorage(new File(dimensionDir, "region"));
+        }
+    },
+    /**
+     * A single LevelDB database per dimension. Much better suited for lots of small overwrites, and only uses a handful of file handles.
+     */
+    LEVELDB {
+        @Override
+        public ChunkStorage open(@NonNull File dimensionDir, @NonNull ServerConfig config) throws IOException {
+            return new LevelDBChunkStorage(new File(dimensionDir, "chunks"), config.leveldb());
+        }
+    };
+
+    /**
+     * Opens the storage for a single dimension.
+     *
+     * @param dimensionDir the dimension's root directory (e.g. {@code world/DIM-1/})
+     * @param config       the {@link ServerConfig} to use
+     * @return the opened {@link ChunkStorage}
+     */
+    public abstract ChunkStorage open(@NonNull File dimensionDir, @NonNull ServerConfig config) throws IOException;
+}